@@ -1,29 +1,25 @@
 package cn.banny.inspector;
 
-import jline.console.ConsoleReader;
-
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.net.SocketException;
+import java.nio.channels.SocketChannel;
 import java.util.concurrent.TimeUnit;
 
 public abstract class AbstractRemoteServer implements RemoteServer {
 
 	private final String model;
 	private final String processName;
-	private final ConsoleReader reader;
 
-	AbstractRemoteServer(String model, String processName, ConsoleReader reader) {
+	AbstractRemoteServer(String model, String processName) {
 		super();
 		
 		this.model = model;
 		this.processName = processName;
-		this.reader = reader;
 	}
 	
-	private Socket createSocket() throws SocketException {
-		Socket socket = new Socket();
+	private Socket createSocket() throws IOException {
+		Socket socket = SocketChannel.open().socket();
 		socket.setKeepAlive(true);
 		// socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(60));
 		return socket;
@@ -34,9 +30,6 @@ public abstract class AbstractRemoteServer implements RemoteServer {
 		try {
 			socket.connect(addr, (int) TimeUnit.SECONDS.toMillis(10));
 			System.err.println("Connection to device [" + this.model + "][" + this.processName + "] success" + tip);
-			if (reader != null) {
-				reader.setPrompt(this.processName + '@' + this.model + "> ");
-			}
 			return socket;
 		} catch (IOException e) {
 			socket.close();
@@ -1,7 +1,6 @@
 package cn.banny.inspector;
 
 import com.android.ddmlib.IDevice;
-import jline.console.ConsoleReader;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
@@ -17,8 +16,8 @@ public class AdbRemoteServer extends AbstractRemoteServer {
 	private final int port;
 	private final boolean hasLabel;
 
-	public AdbRemoteServer(IDevice device, String model, String processName, int port, ConsoleReader reader, boolean hasLabel) {
-		super(model, processName, reader);
+	public AdbRemoteServer(IDevice device, String model, String processName, int port, boolean hasLabel) {
+		super(model, processName);
 		
 		this.device = device;
 		this.port = port;
@@ -0,0 +1,332 @@
+package cn.banny.inspector;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+
+/**
+ * Table driven renderer for the {@link Inspector} hex dump. Output is assembled
+ * in a reusable char buffer and flushed to every sink in fixed-size chunks, so the
+ * whole dump never has to exist as one String. The md5 of the payload is only
+ * digested when it is asked for, in place. Not thread safe, keep one instance per thread.
+ *
+ * @author zhkl0228
+ *
+ */
+public class HexDumpRenderer {
+
+	static final String HEAD = "\n>-----------------------------------------------------------------------------<\n";
+	static final String TAIL = "^-----------------------------------------------------------------------------^";
+
+	static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("'['HH:mm:ss SSS']'").withZone(ZoneId.systemDefault());
+
+	private static final char[] DIGITS_UPPER = "0123456789ABCDEF".toCharArray();
+	private static final char[] DIGITS_LOWER = "0123456789abcdef".toCharArray();
+
+	static final char[] HEX_UPPER = new char[512];
+	private static final char[] HEX_LOWER = new char[512];
+	private static final char[] PRINTABLE = new char[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			HEX_UPPER[i << 1] = DIGITS_UPPER[i >> 4];
+			HEX_UPPER[(i << 1) + 1] = DIGITS_UPPER[i & 0xF];
+			HEX_LOWER[i << 1] = DIGITS_LOWER[i >> 4];
+			HEX_LOWER[(i << 1) + 1] = DIGITS_LOWER[i & 0xF];
+
+			byte b = (byte) i;
+			PRINTABLE[i] = b == ' ' ? ' ' : (b > 0x7E || b < 0x21) ? '.' : (char) b;
+		}
+	}
+
+	private static final int HEX_INLINE_LIMIT = 1024;
+
+	/**
+	 * Limits the rendered rows of large payloads to the first <code>head</code>
+	 * and the last <code>tail</code> bytes. With <code>digest</code> the header of
+	 * a truncated dump carries the md5 of the whole payload.
+	 */
+	public static class Truncation {
+		private final int head;
+		private final int tail;
+		private final boolean digest;
+
+		public Truncation(int head, int tail) {
+			this(head, tail, true);
+		}
+
+		public Truncation(int head, int tail, boolean digest) {
+			this.head = head;
+			this.tail = tail;
+			this.digest = digest;
+		}
+
+		public int getHead() {
+			return head;
+		}
+
+		public int getTail() {
+			return tail;
+		}
+
+		public boolean isDigest() {
+			return digest;
+		}
+
+		@Override
+		public String toString() {
+			return "head=" + head + ", tail=" + tail + ", digest=" + digest;
+		}
+	}
+
+	private final char[] buf;
+	private int pos;
+	private Appendable[] sinks;
+	private MessageDigest md5;
+
+	public HexDumpRenderer() {
+		this(0x2000);
+	}
+
+	public HexDumpRenderer(int bufferSize) {
+		super();
+
+		this.buf = new char[Math.max(bufferSize, 128)];
+	}
+
+	/**
+	 * Renders into a new String, presized for the dump. The header carries the md5, like
+	 * {@link Inspector#inspectString(Date, String, byte[], int)} always did.
+	 * @param mode bytes per row, must be positive
+	 */
+	public String render(Date date, String label, byte[] data, int mode) {
+		checkMode(mode);
+		StringBuilder builder = new StringBuilder(estimateLength(label, data == null ? -1 : data.length, mode));
+		try {
+			render(date, label, data, 0, data == null ? 0 : data.length, mode, true, null, builder);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Streams the dump of <code>data[offset, offset + length)</code> to all sinks.
+	 * @param data may be <code>null</code>
+	 * @param mode bytes per row, must be positive
+	 * @param digest put the md5 of the payload in the header
+	 * @param truncation <code>null</code> renders every row, a truncated dump also carries the md5 if the
+	 *                   truncation asks for it
+	 */
+	public void render(Date date, String label, byte[] data, int offset, int length, int mode, boolean digest,
+					   Truncation truncation, Appendable... sinks) throws IOException {
+		checkMode(mode);
+		this.sinks = sinks;
+		try {
+			int head = truncation == null ? length : truncation.head / mode * mode;
+			int tail = truncation == null ? 0 : truncation.tail;
+			boolean truncated = (long) head + tail < length;
+			renderHeader(date, label, data, offset, length, digest || (truncated && truncation.digest));
+			if (data != null) {
+				if (!truncated) {
+					renderRows(data, offset, length, 0, mode);
+				} else {
+					int tailStart = Math.max(head, (length - tail) / mode * mode);
+					renderRows(data, offset, head, 0, mode);
+					put("... ");
+					put(Integer.toString(tailStart - head));
+					put(" bytes skipped ...\n");
+					renderRows(data, offset + tailStart, length - tailStart, tailStart, mode);
+				}
+			}
+			put(TAIL);
+			flush();
+		} finally {
+			this.sinks = null;
+			this.pos = 0;
+		}
+	}
+
+	private static void checkMode(int mode) {
+		if (mode <= 0) {
+			throw new IllegalArgumentException("mode=" + mode);
+		}
+	}
+
+	private void renderHeader(Date date, String label, byte[] data, int offset, int length, boolean digest) throws IOException {
+		put(HEAD);
+		put(TIME_FORMATTER.format(date == null ? Instant.now() : date.toInstant()));
+
+		put(String.valueOf(label));
+		if (data != null) {
+			if (digest) {
+				put(", md5=");
+				putLowerHex(md5(data, offset, length), 0, 16);
+			}
+			if (length < HEX_INLINE_LIMIT) {
+				put(", hex=");
+				putLowerHex(data, offset, length);
+			}
+		}
+
+		put("\nsize: ");
+		put(data == null ? "null" : Integer.toString(length));
+		put('\n');
+	}
+
+	/**
+	 * Renders the rows of <code>data[offset, offset + length)</code>, row addresses start at <code>address</code>.
+	 */
+	private void renderRows(byte[] data, int offset, int length, int address, int mode) throws IOException {
+		int end = offset + length;
+		int row = offset;
+		for (; row + mode <= end; row += mode, address += mode) {
+			putAddress(address);
+			putRowHex(data, row, mode);
+			put(' ');
+			put(' ');
+			put(' ');
+			int rowEnd = row + mode;
+			putPrintable(data, Math.max(offset, rowEnd - 16), rowEnd);
+			put('\n');
+		}
+
+		int count = end - row;
+		if (count > 0) {
+			putAddress(address);
+			putRowHex(data, row, count);
+			for (int k = count; k < mode; k++) {
+				put(' ');
+				put(' ');
+				put(' ');
+			}
+			put(' ');
+			put(' ');
+			put(' ');
+			putPrintable(data, row, end);
+			put('\n');
+		}
+	}
+
+	private byte[] md5(byte[] data, int offset, int length) {
+		if (md5 == null) {
+			try {
+				md5 = MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		md5.update(data, offset, length);
+		return md5.digest();
+	}
+
+	private void putAddress(int address) throws IOException {
+		ensure(6);
+		int a = address & 0xFFFF;
+		buf[pos++] = DIGITS_UPPER[a >> 12];
+		buf[pos++] = DIGITS_UPPER[(a >> 8) & 0xF];
+		buf[pos++] = DIGITS_UPPER[(a >> 4) & 0xF];
+		buf[pos++] = DIGITS_UPPER[a & 0xF];
+		buf[pos++] = ':';
+		buf[pos++] = ' ';
+	}
+
+	private void putRowHex(byte[] data, int from, int count) throws IOException {
+		for (int i = from, end = from + count; i < end; i++) {
+			ensure(3);
+			int index = (data[i] & 0xFF) << 1;
+			buf[pos++] = HEX_UPPER[index];
+			buf[pos++] = HEX_UPPER[index + 1];
+			buf[pos++] = ' ';
+		}
+	}
+
+	private void putLowerHex(byte[] data, int from, int count) throws IOException {
+		for (int i = from, end = from + count; i < end; i++) {
+			ensure(2);
+			int index = (data[i] & 0xFF) << 1;
+			buf[pos++] = HEX_LOWER[index];
+			buf[pos++] = HEX_LOWER[index + 1];
+		}
+	}
+
+	private void putPrintable(byte[] data, int from, int to) throws IOException {
+		for (int i = from; i < to; i++) {
+			ensure(1);
+			buf[pos++] = PRINTABLE[data[i] & 0xFF];
+		}
+	}
+
+	private void put(char c) throws IOException {
+		ensure(1);
+		buf[pos++] = c;
+	}
+
+	private void put(String str) throws IOException {
+		int length = str.length();
+		if (length > buf.length) {
+			flush();
+			for (Appendable out : sinks) {
+				out.append(str);
+			}
+			return;
+		}
+		ensure(length);
+		str.getChars(0, length, buf, pos);
+		pos += length;
+	}
+
+	private void ensure(int n) throws IOException {
+		if (pos + n > buf.length) {
+			flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		if (pos == 0) {
+			return;
+		}
+
+		for (Appendable out : sinks) {
+			if (out instanceof StringBuilder) {
+				((StringBuilder) out).append(buf, 0, pos);
+			} else if (out instanceof Writer) {
+				((Writer) out).write(buf, 0, pos);
+			} else {
+				out.append(CharBuffer.wrap(buf, 0, pos));
+			}
+		}
+		pos = 0;
+	}
+
+	static int estimateLength(String label, int length, int mode) {
+		int estimate = HEAD.length() + TAIL.length() + 64 + (label == null ? 4 : label.length());
+		if (length > 0) {
+			int rows = (length + mode - 1) / Math.max(mode, 1);
+			estimate += rows * 26 + length * 4;
+			if (length < HEX_INLINE_LIMIT) {
+				estimate += length * 2;
+			}
+		}
+		return estimate;
+	}
+
+	static void appendHex(StringBuilder buffer, int b) {
+		int index = (b & 0xFF) << 1;
+		buffer.append(HEX_UPPER[index]).append(HEX_UPPER[index + 1]);
+	}
+
+	static void appendHex4(StringBuilder buffer, int s) {
+		buffer.append(DIGITS_UPPER[(s >> 12) & 0xF])
+				.append(DIGITS_UPPER[(s >> 8) & 0xF])
+				.append(DIGITS_UPPER[(s >> 4) & 0xF])
+				.append(DIGITS_UPPER[s & 0xF]);
+	}
+
+}
@@ -4,13 +4,10 @@
  */
 package cn.banny.inspector;
 
-import org.apache.commons.codec.binary.Hex;
-import org.apache.commons.codec.digest.DigestUtils;
-
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
 import java.util.Date;
 
 
@@ -29,7 +26,7 @@ public class Inspector {
 		StringBuilder buffer = new StringBuilder();
 		buffer.append("\n>-----------------------------------------------------------------------------<\n");
 
-		buffer.append(new SimpleDateFormat("[HH:mm:ss SSS]").format(new Date()));
+		buffer.append(HexDumpRenderer.TIME_FORMATTER.format(Instant.now()));
 		
 		buffer.append(label);
 		
@@ -39,11 +36,7 @@ public class Inspector {
 		for(; i < data.length; i++) {
 			int di = data[i] & 0xFF;
 			if(di != 0) {
-				String hex = Integer.toString(di, 16).toUpperCase();
-				if(hex.length() < 2) {
-					buffer.append('0');
-				}
-				buffer.append(hex);
+				HexDumpRenderer.appendHex(buffer, di);
 			} else {
 				buffer.append("  ");
 			}
@@ -114,10 +107,10 @@ public class Inspector {
 	}
 	
 	public static void inspectMapData(String label, short[][] data, int filter) {
-		StringBuffer buffer = new StringBuffer();
+		StringBuilder buffer = new StringBuilder();
 		buffer.append("\n>-----------------------------------------------------------------------------<\n");
 
-		buffer.append(new SimpleDateFormat("[HH:mm:ss SSS]").format(new Date()));
+		buffer.append(HexDumpRenderer.TIME_FORMATTER.format(Instant.now()));
 		
 		buffer.append(data.length);
 		if(data.length > 0) {
@@ -134,11 +127,7 @@ public class Inspector {
 					continue;
 				}
 
-				String hex = Integer.toString(di, 16).toUpperCase();
-				for (int n = 0; n < 4 - hex.length(); n++) {
-					buffer.append('0');
-				}
-				buffer.append(hex);
+				HexDumpRenderer.appendHex4(buffer, di);
 				buffer.append(' ');
 			}
 			buffer.append('\n');
@@ -163,7 +152,7 @@ public class Inspector {
 		if (date == null) {
 			date = new Date();
 		}
-		buffer.append(new SimpleDateFormat("[HH:mm:ss SSS]").format(date));
+		buffer.append(HexDumpRenderer.TIME_FORMATTER.format(date.toInstant()));
 		
 		buffer.append(label);
 		
@@ -180,11 +169,7 @@ public class Inspector {
 			for(; i < data.length; i++) {
 				int di = data[i] & 0xFFFF;
 				
-				String hex = Integer.toString(di, 16).toUpperCase();
-				for(int n = 0; n < 4 - hex.length(); n++) {
-					buffer.append('0');
-				}
-				buffer.append(hex);
+				HexDumpRenderer.appendHex4(buffer, di);
 				buffer.append(' ');
 				
 				if((i + 1) % mode == 0) {
@@ -210,81 +195,21 @@ public class Inspector {
 		System.out.println(inspectInternal(date, label, data, mode));
 	}
 
-	private static String inspectInternal(Date date, String label, byte[] data, int mode) {
-		StringBuilder buffer = new StringBuilder();
-		buffer.append("\n>-----------------------------------------------------------------------------<\n");
+	private static final ThreadLocal<HexDumpRenderer> RENDERER = ThreadLocal.withInitial(HexDumpRenderer::new);
 
-		if (date == null) {
-			date = new Date();
-		}
-		buffer.append(new SimpleDateFormat("[HH:mm:ss SSS]").format(date));
+	private static String inspectInternal(Date date, String label, byte[] data, int mode) {
+		return RENDERER.get().render(date, label, data, mode);
+	}
 
-		buffer.append(label);
-		if(data != null) {
-			buffer.append(", md5=").append(Hex.encodeHex(DigestUtils.md5(data)));
-			if (data.length < 1024) {
-				buffer.append(", hex=").append(Hex.encodeHex(data));
-			}
-		}
-		
-		buffer.append("\nsize: ");
-		if(data != null) {
-			buffer.append(data.length);
-		} else {
-			buffer.append("null");
-		}
-		buffer.append('\n');
-		
-		if(data != null) {
-			int i = 0;
-			for(; i < data.length; i++) {
-				if(i % mode == 0) {
-					String hex = Integer.toHexString(i % 0x10000).toUpperCase();
-					for(int k = 0, fill = 4 - hex.length(); k < fill; k++) {
-						buffer.append('0');
-					}
-					buffer.append(hex).append(": ");
-				}
-				
-				int di = data[i] & 0xFF;
-				String hex = Integer.toString(di, 16).toUpperCase();
-				if(hex.length() < 2) {
-					buffer.append('0');
-				}
-				buffer.append(hex);
-				buffer.append(' ');
-				
-				if((i + 1) % mode == 0) {
-					buffer.append("   ");
-					for(int k = i - 15; k < i+1; k++) {
-						buffer.append(toChar(data[k]));
-					}
-					buffer.append('\n');
-				}
-			}
-			
-			int redex = mode - i % mode;
-			for(byte k = 0; k < redex && redex < mode; k++) {
-				buffer.append("  ");
-				buffer.append(' ');
-			}
-			int count = i % mode;
-			int start = i - count;
-			if(start < i) {
-				buffer.append("   ");
-			}
-			for(int k = start; k < i; k++) {
-				buffer.append(toChar(data[k]));
-			}
-			
-			if(redex < mode) {
-				buffer.append('\n');
-			}
-		}
-		
-		buffer.append("^-----------------------------------------------------------------------------^");
-		
-		return buffer.toString();
+	/**
+	 * 分块输出到每个sink，不生成完整的字符串
+	 * @param data 可以为<code>null</code>
+	 * @param digest 头部是否输出md5
+	 * @param truncation 为<code>null</code>时输出全部数据
+	 */
+	public static void inspect(Date date, String label, byte[] data, int offset, int length, int mode, boolean digest,
+							   HexDumpRenderer.Truncation truncation, Appendable... sinks) throws IOException {
+		RENDERER.get().render(date, label, data, offset, length, mode, digest, truncation, sinks);
 	}
 	
 	public static void inspect(String label, byte[] data, int mode) {
@@ -414,7 +339,7 @@ public class Inspector {
 		StringBuilder buffer = new StringBuilder();
 		buffer.append("\n>-----------------------------------------------------------------------------<\n");
 
-		buffer.append(new SimpleDateFormat("[HH:mm:ss SSS]").format(new Date()));
+		buffer.append(HexDumpRenderer.TIME_FORMATTER.format(Instant.now()));
 		
 		if(data.length > 0) {
 			buffer.append(data[0].length).append('x');
@@ -431,11 +356,7 @@ public class Inspector {
 					continue;
 				}
 
-				String hex = Integer.toString(di, 16).toUpperCase();
-				if (hex.length() < 2) {
-					buffer.append('0');
-				}
-				buffer.append(hex);
+				HexDumpRenderer.appendHex(buffer, di);
 				buffer.append(' ');
 			}
 			buffer.append('\n');
@@ -5,7 +5,11 @@ import cn.banny.inspector.adb.BootCompleteListener;
 import cn.banny.inspector.completer.ClientCompleter;
 import cn.banny.inspector.completer.FileNameCompleter;
 import cn.banny.inspector.completer.ServerCommandCompleter;
-import cn.banny.inspector.dex.Smali;
+import cn.banny.inspector.dex.SmaliAssembler;
+import cn.banny.inspector.dex.SmaliCache;
+import cn.banny.inspector.io.FrameDecoder;
+import cn.banny.inspector.io.SessionLog;
+import cn.banny.inspector.io.SpooledPayload;
 import cn.banny.trace.StackTraces;
 import cn.banny.trace.TraceFile;
 import cn.banny.trace.TraceReader;
@@ -24,7 +28,6 @@ import jline.console.completer.CandidateListCompletionHandler;
 import jline.console.history.FileHistory;
 import jline.console.history.History.Entry;
 import jline.console.history.PersistentHistory;
-import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecutor;
 import org.apache.commons.exec.PumpStreamHandler;
@@ -40,8 +43,8 @@ import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
@@ -52,8 +55,8 @@ import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.NetworkInterface;
-import java.net.Socket;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.text.DateFormat;
@@ -61,6 +64,7 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashSet;
@@ -72,9 +76,11 @@ import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.zip.GZIPInputStream;
 
 /**
  * 使用方法：<br>
@@ -143,40 +149,117 @@ public class InspectorClient implements Runnable, BootCompleteListener {
 	}
 
 	private File outDir;
+	private SessionLog sessionLog;
 	private PrintWriter logWriter;
+
+	/**
+	 * Writes the console output of the sessions one piece at a time, so the output of concurrent sessions
+	 * doesn't interleave and no session waits for the console output of another one.
+	 */
+	private final ExecutorService consoleExecutor = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "Console writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	/**
+	 * Console sink of the streamed hex dumps, only used on the console writer thread.
+	 */
+	private final PrintWriter console = new PrintWriter(System.out, false);
+	private volatile HexDumpRenderer.Truncation dumpTruncation;
+	private volatile boolean dumpDigest = true;
+
+	/**
+	 * Plugins were written for a single connection, their callbacks are made one at a time.
+	 */
+	private final Object pluginLock = new Object();
+
+	/**
+	 * Locks of the dex files written by the smali bundles, sessions sending the same app share the output files.
+	 */
+	private final Map<String, Object> smaliOutputLocks = new ConcurrentHashMap<>();
 	
 	private void setOutDir(File outDir) {
 		this.outDir = outDir;
 		
 		File logFile = new File(outDir, "inspector.log");
 		try {
-			logWriter = new PrintWriter(new FileWriter(logFile, true), true);
+			sessionLog = new SessionLog(logFile);
+			logWriter = sessionLog.getPrintWriter();
 		} catch(IOException e) {
 			log.warn(e.getMessage(), e);
 		}
 	}
 
 	public void logWrite(LogCatMessage msg) {
-		if(logWriter != null) {
-			logWriter.println(msg);
+		if(sessionLog != null) {
+			sessionLog.println(String.valueOf(msg));
 		}
 	}
 	
-	void resetLog() {
-		if(outDir == null) {
-			return;
+	/**
+	 * Streams the hex dump to the console and inspector.log without building it as one String.
+	 * The console writer thread and the log writer thread each render it in chunks, in one piece,
+	 * and nothing of it is dropped. Returns once both are written, <code>data</code> is only valid
+	 * until then.
+	 * @param data may be <code>null</code>
+	 */
+	private void dump(Date date, String label, ByteBuffer data, int mode, boolean newLine) throws IOException {
+		byte[] array = data == null ? null : data.array();
+		int offset = data == null ? 0 : data.arrayOffset() + data.position();
+		int length = data == null ? 0 : data.remaining();
+		boolean digest = dumpDigest;
+		HexDumpRenderer.Truncation truncation = dumpTruncation;
+
+		Future<?> consoleDump = consoleExecutor.submit(() -> {
+			try {
+				Inspector.inspect(date, label, array, offset, length, mode, digest, truncation, console);
+				if (newLine) {
+					console.println();
+				}
+			} finally {
+				console.flush();
+			}
+			return null;
+		});
+		try {
+			if (sessionLog != null) {
+				sessionLog.write(out -> {
+					Inspector.inspect(date, label, array, offset, length, mode, digest, truncation, out);
+					if (newLine) {
+						out.write(System.lineSeparator());
+					}
+				}, true);
+			}
+		} finally {
+			await(consoleDump);
 		}
+	}
 
-		if (logWriter != null) {
-			logWriter.close();
+	private static void await(Future<?> future) throws IOException {
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			future.cancel(false);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
 		}
-		if(!new File(outDir, "inspector.log").delete()) {
-			setOutDir(outDir);
-			System.err.println("changeLogFile failed!");
+	}
+
+	void resetLog() {
+		if(sessionLog == null) {
 			return;
 		}
-		
-		setOutDir(outDir);
+
+		sessionLog.rotate();
 		System.out.println("changeLogFile successfully!");
 	}
 	
@@ -194,7 +277,7 @@ public class InspectorClient implements Runnable, BootCompleteListener {
 		return clientCompleter;
 	}
 
-	private static Inet4Address getInet4Address() throws SocketException {
+	static Inet4Address getInet4Address() throws SocketException {
 		Enumeration<NetworkInterface> enumeration = NetworkInterface.getNetworkInterfaces();
 		while (enumeration.hasMoreElements()) {
 			NetworkInterface networkInterface = enumeration.nextElement();
@@ -224,7 +307,7 @@ public class InspectorClient implements Runnable, BootCompleteListener {
 		reader.addCompleter(new FileNameCompleter(this, outDir, "lua", "pcap"));
 		reader.addCompleter(new FileNameCompleter(null, outDir, "apk"));
 
-		Thread thread = new Thread(this, "Socket client");
+		Thread thread = new Thread(this, "Discover client");
 		thread.setDaemon(true);
 		thread.start();
 		AndroidDebugBridgeManager manager = new AndroidDebugBridgeManager(this, this);
@@ -232,7 +315,6 @@ public class InspectorClient implements Runnable, BootCompleteListener {
 		AndroidDebugBridge.addDebugBridgeChangeListener(manager);
 		AndroidDebugBridge.addDeviceChangeListener(manager);
 		AndroidDebugBridge.createBridge(5, TimeUnit.SECONDS);
-		DateFormat dateFormat = new SimpleDateFormat("[yyyy-MM-dd HH:mm:ss]");
 		while((cmd = reader.readLine()) != null) {
 			cmd = cmd.trim();
 
@@ -287,6 +369,34 @@ public class InspectorClient implements Runnable, BootCompleteListener {
 				continue;
 			}
 
+			if(tokens.length > 0 &&
+					"dumpLimit".equalsIgnoreCase(tokens[0])) {
+				if(tokens.length > 2) {
+					try {
+						int head = Integer.parseInt(tokens[1]);
+						int tail = Integer.parseInt(tokens[2]);
+						boolean digest = tokens.length > 3 && "md5".equalsIgnoreCase(tokens[3]);
+						this.dumpTruncation = new HexDumpRenderer.Truncation(head << 10, tail << 10, digest);
+					} catch(NumberFormatException e) {
+						System.err.println("dumpLimit HEAD_KB TAIL_KB [md5]|off");
+						continue;
+					}
+				} else if(tokens.length > 1 && "off".equalsIgnoreCase(tokens[1])) {
+					this.dumpTruncation = null;
+				}
+				System.out.println("dumpLimit: " + (this.dumpTruncation == null ? "off" : this.dumpTruncation));
+				continue;
+			}
+
+			if(tokens.length > 0 &&
+					"dumpMd5".equalsIgnoreCase(tokens[0])) {
+				if(tokens.length > 1) {
+					this.dumpDigest = !"off".equalsIgnoreCase(tokens[1]);
+				}
+				System.out.println("dumpMd5: " + (this.dumpDigest ? "on" : "off"));
+				continue;
+			}
+
 			if("reboot".equalsIgnoreCase(cmd) && this.adb != null) {
 				for(IDevice device : this.adb.getDevices()) {
 					if(device.isOnline()) {
@@ -334,18 +444,44 @@ public class InspectorClient implements Runnable, BootCompleteListener {
 			if("reset".equalsIgnoreCase(cmd)) {
 				this.serverMap.clear();
 				manager.reset();
-				if(this.socket != null) {
-					this.socket.close();
-				}
+				closeSessions();
 				this.lastProcessName = null;
 				continue;
 			}
 
-			DataOutputStream writer = this.writer;
+			if("sessions".equalsIgnoreCase(cmd)) {
+				InspectorSession current = this.currentSession;
+				for(InspectorSession session : sessions.values()) {
+					System.out.println((session == current ? "* " : "  ") + session.getKey() + (session.isConnected() ? "" : " (connecting)"));
+				}
+				continue;
+			}
+
+			if(cmd.startsWith("session ")) {
+				String name = cmd.substring(8).trim();
+				InspectorSession session = findSession(name);
+				if(session != null && session.isConnected()) {
+					synchronized (sessionLock) {
+						switchSession(session);
+					}
+					continue;
+				}
+				RemoteServer server = createRemoteServer(this, name);
+				if(server != null) {
+					openSession(server, true);
+				} else {
+					System.err.println("No session: " + name);
+				}
+				continue;
+			}
+
+			InspectorSession session = this.currentSession;
+			DataOutputStream writer = session == null ? null : session.getWriter();
 			if(writer == null) {
 				if("help".equalsIgnoreCase(cmd)) {
 					System.out.println("quit|exit");
 					System.out.println("resetLog");
+					System.out.println("dumpLimit HEAD_KB TAIL_KB|off");
 					System.out.println("clear");
 					if(this.adb != null && this.adb.getDevices().length == 1) {
 						System.out.println("reboot");
@@ -355,6 +491,8 @@ public class InspectorClient implements Runnable, BootCompleteListener {
 					}
 					System.out.println("reset");
 					System.out.println("close");
+					System.out.println("sessions");
+					System.out.println("session KEY|PROCESS");
 					System.out.println("connect ...");
 					System.out.println("adb TCP_ADB");
 					continue;
@@ -390,7 +528,7 @@ public class InspectorClient implements Runnable, BootCompleteListener {
 
 				RemoteServer server = createRemoteServer(this, cmd);
 				if(server != null) {
-					this.currentServer = server;
+					openSession(server, true);
 					continue;
 				}
 				if(cmd.startsWith("connect ") &&
@@ -398,7 +536,7 @@ public class InspectorClient implements Runnable, BootCompleteListener {
 					String host = cmd.substring(8, index).trim();
 					int port = Integer.parseInt(cmd.substring(index + 1).trim());
 					InetSocketAddress socketAddress = new InetSocketAddress(host, port);
-					this.currentServer = new SocketRemoteServer(socketAddress, "custom", 1, "custom", reader);
+					openSession(new SocketRemoteServer(socketAddress, "custom", 1, "custom"), true);
 				}
 				continue;
 			}
@@ -406,9 +544,7 @@ public class InspectorClient implements Runnable, BootCompleteListener {
 			if("close".equalsIgnoreCase(cmd)) {
 				this.serverMap.clear();
 				manager.reset();
-				if(this.socket != null) {
-					this.socket.close();
-				}
+				session.close();
 				continue;
 			}
 
@@ -443,19 +579,20 @@ public class InspectorClient implements Runnable, BootCompleteListener {
 				lastCmd = cmd;
 			}
 
-			if(this.logWriter != null) {
-				this.logWriter.println(dateFormat.format(new Date()) + "[OUT]" + cmd);
+			if(this.sessionLog != null) {
+				this.sessionLog.printlnStamped("[OUT]" + cmd);
 			}
 		}
 
 		this.canStop = true;
+		closeSessions();
 		manager.stop();
 
 		history.flush();
 		reader.close();
 
-		if(this.logWriter != null) {
-			this.logWriter.close();
+		if(this.sessionLog != null) {
+			this.sessionLog.close();
 		}
 
 		AndroidDebugBridge.terminate();
@@ -556,7 +693,7 @@ public class InspectorClient implements Runnable, BootCompleteListener {
 		try {
 			String host = cmd.substring(0, index).trim();
 			int port = Integer.parseInt(cmd.substring(index + 1).trim());
-			return new SocketRemoteServer(new InetSocketAddress(host, port), "FakeModel", 0, "Inspector", inspector.reader);
+			return new SocketRemoteServer(new InetSocketAddress(host, port), "FakeModel", 0, "Inspector");
 		} catch(Throwable t) {
 			return null;
 		}
@@ -569,17 +706,35 @@ public class InspectorClient implements Runnable, BootCompleteListener {
 		executeClient();
 	}
 	
-	private DataOutputStream writer;
-	
 	public boolean isConnected() {
-		return writer != null;
+		InspectorSession session = this.currentSession;
+		return session != null && session.isConnected();
+	}
+
+	public Collection<ServerCommandCompleter> getServerCommands() {
+		InspectorSession session = this.currentSession;
+		return session == null ? Collections.emptySet() : session.getServerCommands();
 	}
 	
 	private final Map<String, RemoteServer> serverMap = new ConcurrentHashMap<>(new LinkedHashMap<>());
-	private RemoteServer currentServer;
-	private String lastProcessName;
+	private final Map<String, InspectorSession> sessions = new ConcurrentHashMap<>();
+	/**
+	 * Guards the switches of the current session, sessions are opened and closed on their own threads
+	 */
+	private final Object sessionLock = new Object();
+	private volatile InspectorSession currentSession;
+	/**
+	 * Key of the session the user asked for, it becomes the current session once it is connected
+	 */
+	private volatile String focusSessionKey;
+	private volatile String lastProcessName;
 	private final List<String> autoConnectProcessNameList = new ArrayList<>();
-	private Socket socket;
+
+	private final ExecutorService sessionExecutor = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "Session client");
+		thread.setDaemon(true);
+		return thread;
+	});
 
 	@SuppressWarnings("unused")
 	public void addAutoConnectProcessName(String processName) {
@@ -597,231 +752,15 @@ public class InspectorClient implements Runnable, BootCompleteListener {
 	private AndroidDebugBridgeManager manager;
 
 	private void executeClient() {
-		boolean connected = false;
 		long lastReconnectTime = 0;
 		while(!canStop) {
-			RemoteServer remoteServer = null;
-			
 			try {
-				if(connected) {
-					System.err.println("Connection to device lost.");
-					reader.setPrompt("");
-					writer = null;
-					connected = false;
-					serverMap.clear();
+				RemoteServer remoteServer = discoverServer();
+				if(remoteServer == null) {
 					TimeUnit.SECONDS.sleep(1);
-					if (manager != null) {
-						manager.reset();
-					}
+					continue;
 				}
-				
-				remoteServer = discoverServer();
-				if(remoteServer == null ||
-						this.currentServer != null) {
-					remoteServer = this.currentServer;
-					if(remoteServer == null) {
-						TimeUnit.SECONDS.sleep(1);
-						continue;
-					}
-					
-					this.lastProcessName = remoteServer.getProcessName();
-					this.currentServer = null;
-					socket = remoteServer.connect();
-					connected = true;
-					
-					closeDatagramSocket();
-					
-					InputStream inputStream = socket.getInputStream();
-					DataInputStream in = new DataInputStream(inputStream);
-					writer = new DataOutputStream(socket.getOutputStream());
-
-					Inet4Address address;
-					if (remoteServer.isAdb() && (address = getInet4Address()) != null) {
-						writer.writeShort(0x5);
-						writer.writeUTF(address.getHostAddress());
-					}
-					DateFormat dateFormat = new SimpleDateFormat("[yyyy-MM-dd HH:mm:ss]");
-					while(!canStop) {
-						int type = in.readUnsignedShort();
-						boolean zip = (type & 0x8000) != 0;
-						type &= 0x7FFF;
-						
-						DataInputStream reader;
-						if(zip) {
-							byte[] data = new byte[in.readInt()];
-							in.readFully(data);
-							GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(data));
-							reader = new DataInputStream(gzip);
-						} else {
-							reader = in;
-						}
-						
-						switch (type) {
-						case 0x1000: {
-							String msg = reader.readUTF();
-							System.out.print(msg);
-
-							if (logWriter != null) {
-								logWriter.print(dateFormat.format(new Date()) + msg);
-							}
-							break;
-						}
-						case 0x1002: {
-							String msg = reader.readUTF();
-							System.err.print(msg);
-
-							if (logWriter != null) {
-								logWriter.print(dateFormat.format(new Date()) + msg);
-							}
-							break;
-						}
-						case 0x1100: {
-							int length = reader.readInt();
-							byte[] data = new byte[length];
-							reader.readFully(data);
-							String msg = new String(data, StandardCharsets.UTF_8);
-
-							if (plugin != null) {
-								plugin.handleMsg(type, msg, logWriter);
-							} else {
-								System.out.print(msg);
-
-								if (logWriter != null) {
-									logWriter.print(dateFormat.format(new Date()) + msg);
-								}
-							}
-							break;
-						}
-						case 0x1102: {
-							int length = reader.readInt();
-							byte[] data = new byte[length];
-							reader.readFully(data);
-							String msg = new String(data, StandardCharsets.UTF_8);
-							System.err.print(msg);
-
-							if (logWriter != null) {
-								logWriter.print(dateFormat.format(new Date()) + msg);
-							}
-							break;
-						}
-						case 0x1001: {
-							String name = reader.readUTF();
-							byte[] data = new byte[reader.readInt()];
-							reader.readFully(data);
-							saveData(name, data);
-							break;
-						}
-						case 0x2000: {
-							byte[] data;
-							Date date = new Date(reader.readLong());
-							String label = reader.readUTF();
-							if (reader.readBoolean()) {
-								data = new byte[reader.readInt()];
-								reader.readFully(data);
-							} else {
-								data = null;
-							}
-							int mode = reader.readInt();
-							String msg = Inspector.inspectString(date, label, data, mode);
-							System.out.println(msg);
-
-							if (logWriter != null) {
-								logWriter.println(dateFormat.format(new Date()) + msg);
-							}
-							break;
-						}
-						case 0x2001: {
-							Date date = new Date(reader.readLong());
-							String label = reader.readUTF();
-							short[] shortData;
-							if (reader.readBoolean()) {
-								shortData = new short[reader.readInt()];
-								for (int i = 0; i < shortData.length; i++) {
-									shortData[i] = reader.readShort();
-								}
-							} else {
-								shortData = null;
-							}
-							int mode = reader.readInt();
-							String msg = Inspector.inspectString(date, label, shortData, mode);
-							println(msg);
-							break;
-						}
-						case 0x2002:
-							String prefix = reader.readUTF();
-							ServerCommandCompleter commandCompleter = clientCompleter.createCommandCompleter(prefix);
-							int count = reader.readUnsignedShort();
-							for(int m = 0; m < count; m++) {
-								String command = reader.readUTF();
-								int cs = reader.readUnsignedByte();
-								String[] help = new String[cs];
-								for(int n = 0; n < cs; n++) {
-									help[n] = reader.readUTF();
-								}
-								commandCompleter.addCommandHelp(command, help);
-							}
-							break;
-						case 0x3000: {
-							Date date = new Date(reader.readLong());
-							int length = reader.readInt();
-							byte[] labelData = new byte[length];
-							reader.readFully(labelData);
-							String label = new String(labelData);
-							byte[] data;
-							if (reader.readBoolean()) {
-								data = new byte[reader.readInt()];
-								reader.readFully(data);
-							} else {
-								data = null;
-							}
-							int mode = reader.readInt();
-							String msg = Inspector.inspectString(date, label, data, mode);
-
-							if (plugin != null) {
-								plugin.handleMsg(type, msg, logWriter);
-							} else {
-								System.out.print(msg);
-
-								if (logWriter != null) {
-									logWriter.print(dateFormat.format(new Date()) + msg);
-								}
-							}
-							break;
-						}
-						case 0x4000:
-							String keywords = reader.readUTF();
-							String title = reader.readUTF();
-							byte[] traceData = new byte[reader.readInt()];
-							reader.readFully(traceData);
-							processTraceFile(keywords, title, traceData);
-							break;
-						case 0x5000:
-							int apiLevel = reader.readInt();
-							String baseName = reader.readUTF();
-							byte[] data = new byte[reader.readInt()];
-							reader.readFully(data);
-							saveSmali(apiLevel, baseName, data);
-							break;
-						case 0x6000: {
-							String commandType = reader.readUTF();
-							String commandData = reader.readUTF();
-							if (plugin != null) {
-								plugin.handleCommand(commandType, commandData, logWriter);
-								break;
-							} else {
-								System.err.println("Not handler command: type=" + commandType + ", data=" + commandData);
-							}
-						}
-						default:
-							System.err.println("No handler for type: 0x" + Integer.toHexString(type).toUpperCase());
-							break;
-						}
 
-						System.out.flush();
-						System.err.flush();
-					}
-				}
-				
 				String key = remoteServer.getKey();
 				RemoteServer old;
 				if((old = serverMap.put(key, remoteServer)) == null || (!old.hasLabel() && remoteServer.hasLabel())) {
@@ -829,6 +768,10 @@ public class InspectorClient implements Runnable, BootCompleteListener {
 					out.println("Discover “" + remoteServer.getModel() + "” id=" + key);
 				}
 
+				if(sessions.containsKey(key)) {
+					continue;
+				}
+
 				long currentTimeMillis = System.currentTimeMillis();
 				boolean isProcessId = false;
 				try {
@@ -836,25 +779,237 @@ public class InspectorClient implements Runnable, BootCompleteListener {
 				} catch(NumberFormatException ignored) {}
 				if(currentTimeMillis - lastReconnectTime > TimeUnit.SECONDS.toMillis(5) &&
 						(isProcessId || canAutoConnect(remoteServer))) {
-					this.currentServer = remoteServer;
 					lastReconnectTime = currentTimeMillis;
 					System.out.println("Try auto connect “" + remoteServer.getModel() + "” id=" + key);
+					openSession(remoteServer, false);
 				}
 			} catch(Exception e) {
 				log.debug(e.getMessage(), e);
-				
-				if(socket != null) {
-					try { socket.close(); } catch(IOException ignored) {}
-					socket = null;
+			}
+		}
+	}
+
+	/**
+	 * Connects to the server on its own session thread, other sessions stay attached.
+	 * @param focus <code>true</code> when the user asked for this server, the session then becomes the current one
+	 *              once it is connected. Otherwise it only does if no session is selected.
+	 */
+	private void openSession(RemoteServer remoteServer, boolean focus) {
+		InspectorSession session = new InspectorSession(this, remoteServer);
+		if(sessions.putIfAbsent(session.getKey(), session) != null) {
+			return;
+		}
+
+		if(focus) {
+			this.focusSessionKey = session.getKey();
+			this.lastProcessName = remoteServer.getProcessName();
+		}
+		sessionExecutor.execute(session);
+	}
+
+	void onSessionOpened(InspectorSession session) {
+		if(!sessions.containsKey(session.getKey())) {
+			session.close();
+			return;
+		}
+
+		synchronized (sessionLock) {
+			InspectorSession current = this.currentSession;
+			if(session.getKey().equals(focusSessionKey)) {
+				focusSessionKey = null;
+			} else if(current != null && current.isConnected()) {
+				System.out.println("Session opened: " + session.getKey() + ", use “session " + session.getKey() + "” to switch");
+				return;
+			}
+			switchSession(session);
+		}
+	}
+
+	void onSessionClosed(InspectorSession session) {
+		sessions.remove(session.getKey(), session);
+		synchronized (sessionLock) {
+			if(this.currentSession != session) {
+				return;
+			}
+
+			System.err.println("Connection to device lost.");
+			serverMap.remove(session.getKey());
+			if (manager != null) {
+				manager.reset();
+			}
+
+			InspectorSession next = null;
+			for(InspectorSession check : sessions.values()) {
+				if(check.isConnected()) {
+					next = check;
+					break;
+				}
+			}
+			switchSession(next);
+		}
+	}
+
+	private void switchSession(InspectorSession session) {
+		this.currentSession = session;
+		if(session == null) {
+			reader.setPrompt("");
+			return;
+		}
+
+		this.lastProcessName = session.getServer().getProcessName();
+		reader.setPrompt(session.getPrompt());
+		System.out.println("Current session: " + session.getKey());
+	}
+
+	private InspectorSession findSession(String cmd) {
+		InspectorSession session = sessions.get(cmd);
+		if(session != null) {
+			return session;
+		}
+
+		for(InspectorSession check : sessions.values()) {
+			if(cmd.equals(check.getServer().getProcessName())) {
+				return check;
+			}
+		}
+		return null;
+	}
+
+	private void closeSessions() {
+		for(InspectorSession session : sessions.values()) {
+			session.close();
+		}
+	}
+
+	void handleFrame(InspectorSession session, FrameDecoder reader) throws IOException {
+		int type = reader.getType();
+		switch (type) {
+			case 0x1000: {
+				String msg = reader.readUTF();
+				print(System.out, msg);
+				break;
+			}
+			case 0x1002: {
+				String msg = reader.readUTF();
+				print(System.err, msg);
+				break;
+			}
+			case 0x1100: {
+				ByteBuffer data = reader.readBytes(reader.readInt());
+				String msg = new String(data.array(), data.arrayOffset() + data.position(), data.remaining(), StandardCharsets.UTF_8);
+
+				if (plugin != null) {
+					synchronized (pluginLock) {
+						plugin.handleMsg(type, msg, logWriter);
+					}
+				} else {
+					print(System.out, msg);
 				}
-				if(remoteServer != null) {
-					remoteServer.onDisconnect();
+				break;
+			}
+			case 0x1102: {
+				ByteBuffer data = reader.readBytes(reader.readInt());
+				String msg = new String(data.array(), data.arrayOffset() + data.position(), data.remaining(), StandardCharsets.UTF_8);
+				print(System.err, msg);
+				break;
+			}
+			case 0x1001: {
+				String name = reader.readUTF();
+				try (SpooledPayload payload = receivePayload(reader)) {
+					saveData(name, payload);
 				}
-				if(clientCompleter != null) {
-					clientCompleter.clearServerCommands();
+				break;
+			}
+			case 0x2000: {
+				Date date = new Date(reader.readLong());
+				String label = reader.readUTF();
+				ByteBuffer data = reader.readBoolean() ? reader.readBytes(reader.readInt()) : null;
+				int mode = reader.readInt();
+				dump(date, label, data, mode, true);
+				break;
+			}
+			case 0x2001: {
+				Date date = new Date(reader.readLong());
+				String label = reader.readUTF();
+				short[] shortData;
+				if (reader.readBoolean()) {
+					shortData = new short[reader.readInt()];
+					for (int i = 0; i < shortData.length; i++) {
+						shortData[i] = reader.readShort();
+					}
+				} else {
+					shortData = null;
 				}
+				int mode = reader.readInt();
+				String msg = Inspector.inspectString(date, label, shortData, mode);
+				println(msg);
+				break;
+			}
+			case 0x2002:
+				String prefix = reader.readUTF();
+				ServerCommandCompleter commandCompleter = getClientCompleter().createCommandCompleter(prefix);
+				session.getServerCommands().add(commandCompleter);
+				int count = reader.readUnsignedShort();
+				for(int m = 0; m < count; m++) {
+					String command = reader.readUTF();
+					int cs = reader.readUnsignedByte();
+					String[] help = new String[cs];
+					for(int n = 0; n < cs; n++) {
+						help[n] = reader.readUTF();
+					}
+					commandCompleter.addCommandHelp(command, help);
+				}
+				break;
+			case 0x3000: {
+				Date date = new Date(reader.readLong());
+				ByteBuffer labelData = reader.readBytes(reader.readInt());
+				String label = new String(labelData.array(), labelData.arrayOffset() + labelData.position(), labelData.remaining());
+				ByteBuffer data = reader.readBoolean() ? reader.readBytes(reader.readInt()) : null;
+				int mode = reader.readInt();
+
+				if (plugin != null) {
+					byte[] bytes = null;
+					if (data != null) {
+						bytes = new byte[data.remaining()];
+						data.get(bytes);
+					}
+					String msg = Inspector.inspectString(date, label, bytes, mode);
+					synchronized (pluginLock) {
+						plugin.handleMsg(type, msg, logWriter);
+					}
+				} else {
+					dump(date, label, data, mode, false);
+				}
+				break;
+			}
+			case 0x4000:
+				String keywords = reader.readUTF();
+				String title = reader.readUTF();
+				try (SpooledPayload traceData = receivePayload(reader)) {
+					processTraceFile(keywords, title, traceData);
+				}
+				break;
+			case 0x5000:
+				int apiLevel = reader.readInt();
+				String baseName = reader.readUTF();
+				saveSmali(apiLevel, baseName, reader, reader.readInt());
+				break;
+			case 0x6000: {
+				String commandType = reader.readUTF();
+				String commandData = reader.readUTF();
+				if (plugin != null) {
+					synchronized (pluginLock) {
+						plugin.handleCommand(commandType, commandData, logWriter);
+					}
+					break;
+				} else {
+					System.err.println("Not handler command: type=" + commandType + ", data=" + commandData);
+				}
+			}
+			default:
+				System.err.println("No handler for type: 0x" + Integer.toHexString(type).toUpperCase());
+				break;
 			}
-		}
 	}
 
 	private boolean canAutoConnect(RemoteServer remoteServer) {
@@ -866,16 +1021,31 @@ public class InspectorClient implements Runnable, BootCompleteListener {
 	}
 
 	private void println(String msg) {
-		System.out.println(msg);
+		consoleExecutor.execute(() -> System.out.println(msg));
 
-		if(logWriter != null) {
-			logWriter.println(new SimpleDateFormat("[yyyy-MM-dd HH:mm:ss]").format(new Date()) + msg);
+		if(sessionLog != null) {
+			sessionLog.printlnStamped(msg);
+		}
+	}
+
+	private void print(PrintStream out, String msg) {
+		consoleExecutor.execute(() -> out.print(msg));
+
+		if(sessionLog != null) {
+			sessionLog.printStamped(msg);
 		}
 	}
 
 	private TraceFile traceFile;
 
-	private void processTraceFile(String keywords, String title, byte[] traceData) {
+	/**
+	 * Receives an int length prefixed payload, big ones are spooled to a temp file under outDir.
+	 */
+	private SpooledPayload receivePayload(FrameDecoder reader) throws IOException {
+		return SpooledPayload.receive(reader, reader.readInt(), SpooledPayload.DEFAULT_THRESHOLD, outDir);
+	}
+
+	private void processTraceFile(String keywords, String title, SpooledPayload traceData) {
 		if (keywords == null || keywords.trim().isEmpty()) {
 			saveData(title, traceData);
 			return;
@@ -884,7 +1054,9 @@ public class InspectorClient implements Runnable, BootCompleteListener {
 		try {
 			println("starting process trace file for keywords: " + keywords);
 			long start = System.currentTimeMillis();
-			traceFile = TraceReader.parseTraceFile(new ByteArrayInputStream(traceData));
+			try (InputStream in = traceData.openStream()) {
+				traceFile = TraceReader.parseTraceFile(in);
+			}
 			long currentTimeMillis = System.currentTimeMillis();
 			println("read trace file successfully in " + (currentTimeMillis - start) + "ms");
 
@@ -912,57 +1084,92 @@ public class InspectorClient implements Runnable, BootCompleteListener {
 		println("process trace file successfully in " + (currentTimeMillis - start) + "ms");
 	}
 
-	private void closeDatagramSocket() {
-		if(datagramSocket != null) {
-			datagramSocket.close();
-			datagramSocket = null;
-		}
-	}
+	private static final String SMALI_ENTRY_PREFIX = "smali/";
+	private static final String SMALI_CACHE_DIR = "smali_cache/";
 
-	private void saveSmali(int apiLevel, String baseName, byte[] data) {
+	/**
+	 * Feeds the smali entries of the bundle to the assembler while they are received,
+	 * the bundle is always read to the end to keep the frame in sync. Only writing the
+	 * dex is serialized, with the other sessions that send the same app.
+	 */
+	private void saveSmali(int apiLevel, String baseName, FrameDecoder reader, int length) throws IOException {
 		if(outDir == null) {
+			reader.skipBytes(length);
 			System.err.println("save smali failed: baseName=" + baseName);
 			return;
 		}
 
-		File smaliDir = new File(outDir, baseName + "_smali");
-		try {
-			ByteArrayInputStream bais = new ByteArrayInputStream(data);
-			DataInputStream dis = new DataInputStream(bais);
-
-			while (dis.available() > 0) {
-				String name = dis.readUTF();
-				int length = dis.readInt();
-				File smaliFile = new File(smaliDir, name);
-				File parent = smaliFile.getParentFile();
-				if (!parent.exists() && !parent.mkdirs()) {
-					throw new IOException("create dirs failed: " + parent);
+		try (SmaliCache cache = new SmaliCache(new File(outDir, SMALI_CACHE_DIR + baseName), apiLevel);
+			 SmaliAssembler assembler = new SmaliAssembler(apiLevel, 0)) {
+			assembler.setCache(cache);
+			// a large app overflows the references of a single dex
+			assembler.setMultiDex(true);
+
+			int remaining = length;
+			while (remaining > 0) {
+				String name = reader.readUTF();
+				int size = reader.readInt();
+				remaining -= 6 + utfLength(name) + size;
+
+				if (!name.startsWith(SMALI_ENTRY_PREFIX) || !name.endsWith(".smali")) {
+					reader.skipBytes(size);
+					continue;
 				}
-				try (OutputStream outputStream = Files.newOutputStream(smaliFile.toPath())) {
-					IOUtils.copyLarge(dis, outputStream, 0, length);
+
+				byte[] data = new byte[size];
+				reader.readFully(data);
+				try {
+					assembler.submit(name.substring(SMALI_ENTRY_PREFIX.length()), data);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("saveSmali: " + baseName);
 				}
 			}
 
 			File out = new File(outDir, baseName + ".dex");
-			Smali.assembleSmaliFile(apiLevel, new File(smaliDir, "smali"), out);
-			System.out.println("file saved to: " + out + ", size=" + out.length());
-		} catch(Exception e) {
-			e.printStackTrace(System.err);
-		} finally {
-			FileUtils.deleteQuietly(smaliDir);
+			try {
+				List<File> files;
+				synchronized (smaliOutputLocks.computeIfAbsent(baseName, name -> new Object())) {
+					files = assembler.writeTo(out);
+				}
+				for (File file : files) {
+					System.out.println("file saved to: " + file + ", size=" + file.length());
+				}
+				System.out.println("classes=" + assembler.getSubmitted() + ", dex files=" + files.size());
+			} catch(Exception e) {
+				e.printStackTrace(System.err);
+			}
 		}
 	}
 
-	private void saveData(String name, byte[] data) {
-		if(outDir == null) {
-			Inspector.inspect(data, "md5=" + DigestUtils.md5Hex(data) + ", dump file: " + name);
-			return;
+	/**
+	 * Encoded length of <code>str</code> in modified UTF-8, without the length prefix.
+	 */
+	private static int utfLength(String str) {
+		int length = 0;
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (c >= 0x0001 && c <= 0x007F) {
+				length++;
+			} else if (c > 0x07FF) {
+				length += 3;
+			} else {
+				length += 2;
+			}
 		}
-		
+		return length;
+	}
+
+	private void saveData(String name, SpooledPayload data) {
 		try {
+			if(outDir == null) {
+				Inspector.inspect(data.toByteArray(), "md5=" + data.md5Hex() + ", dump file: " + name);
+				return;
+			}
+
 			File out = new File(outDir, name);
-			FileUtils.writeByteArrayToFile(out, data);
-			System.out.println("md5=" + DigestUtils.md5Hex(data) + ", file saved to: " + out + ", size=" + data.length);
+			data.saveTo(out);
+			System.out.println("md5=" + data.md5Hex() + ", file saved to: " + out + ", size=" + data.length());
 		} catch(IOException e) {
 			log.warn(e.getMessage(), e);
 		}
@@ -1017,7 +1224,7 @@ public class InspectorClient implements Runnable, BootCompleteListener {
 				dis.readInt(); // processId
 				processName = dis.readUTF();
 			}
-			return new SocketRemoteServer(new InetSocketAddress(datagramPacket.getAddress(), port), model, clientCount + 1, processName, reader);
+			return new SocketRemoteServer(new InetSocketAddress(datagramPacket.getAddress(), port), model, clientCount + 1, processName);
 		} catch (IOException e) {
 			// e.printStackTrace();
 		} finally {
@@ -0,0 +1,127 @@
+package cn.banny.inspector;
+
+import cn.banny.inspector.completer.ServerCommandCompleter;
+import cn.banny.inspector.io.BufferPool;
+import cn.banny.inspector.io.FrameDecoder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One connection to an inspected process. Every session owns its socket and
+ * receive thread, so many processes can stay attached at the same time while
+ * the console talks to the current one.
+ *
+ * @author zhkl0228
+ *
+ */
+class InspectorSession implements Runnable {
+
+	private static final Log log = LogFactory.getLog(InspectorSession.class);
+
+	private static final BufferPool BUFFER_POOL = new BufferPool();
+
+	private final InspectorClient client;
+	private final RemoteServer server;
+	private final Set<ServerCommandCompleter> serverCommands = ConcurrentHashMap.newKeySet();
+
+	private volatile Socket socket;
+	private FrameDecoder decoder;
+	private volatile DataOutputStream writer;
+	private volatile boolean closed;
+
+	InspectorSession(InspectorClient client, RemoteServer server) {
+		super();
+
+		this.client = client;
+		this.server = server;
+	}
+
+	RemoteServer getServer() {
+		return server;
+	}
+
+	String getKey() {
+		return server.getKey();
+	}
+
+	String getPrompt() {
+		return server.getProcessName() + '@' + server.getModel() + "> ";
+	}
+
+	DataOutputStream getWriter() {
+		return writer;
+	}
+
+	boolean isConnected() {
+		return writer != null && !closed;
+	}
+
+	Set<ServerCommandCompleter> getServerCommands() {
+		return serverCommands;
+	}
+
+	@Override
+	public void run() {
+		try {
+			socket = server.connect();
+			if (closed) {
+				return;
+			}
+
+			// read and write through the same path, the socket streams of a channel socket go through the channel too
+			SocketChannel channel = socket.getChannel();
+			DataOutputStream writer;
+			if (channel != null) {
+				decoder = new FrameDecoder(channel, BUFFER_POOL);
+				writer = new DataOutputStream(Channels.newOutputStream(channel));
+			} else {
+				decoder = new FrameDecoder(Channels.newChannel(socket.getInputStream()), BUFFER_POOL);
+				writer = new DataOutputStream(socket.getOutputStream());
+			}
+
+			Inet4Address address;
+			if (server.isAdb() && (address = InspectorClient.getInet4Address()) != null) {
+				writer.writeShort(0x5);
+				writer.writeUTF(address.getHostAddress());
+			}
+			this.writer = writer;
+			client.onSessionOpened(this);
+
+			while (!closed) {
+				decoder.nextFrame();
+				client.handleFrame(this, decoder);
+
+				System.out.flush();
+				System.err.flush();
+			}
+		} catch (Exception e) {
+			log.debug(e.getMessage(), e);
+		} finally {
+			close();
+			if (decoder != null) {
+				decoder.close();
+			}
+			server.onDisconnect();
+			client.onSessionClosed(this);
+		}
+	}
+
+	void close() {
+		closed = true;
+
+		Socket socket = this.socket;
+		if (socket != null) {
+			try { socket.close(); } catch(IOException ignored) {}
+		}
+	}
+
+}
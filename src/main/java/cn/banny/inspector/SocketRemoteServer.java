@@ -5,15 +5,14 @@ import java.net.InetSocketAddress;
 import java.net.Socket;
 
 import com.android.ddmlib.IDevice;
-import jline.console.ConsoleReader;
 
 class SocketRemoteServer extends AbstractRemoteServer implements RemoteServer {
 	
 	private final InetSocketAddress addr;
 	private final int clientCount;
 	SocketRemoteServer(InetSocketAddress addr, String model,
-					   int clientCount, String processName, ConsoleReader reader) {
-		super(model, processName, reader);
+					   int clientCount, String processName) {
+		super(model, processName);
 		this.addr = addr;
 		this.clientCount = clientCount;
 
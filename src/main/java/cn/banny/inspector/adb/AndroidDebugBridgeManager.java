@@ -178,7 +178,7 @@ public class AndroidDebugBridgeManager implements AndroidDebugBridge.IDebugBridg
                 sb.append(" (").append(label).append(')');
                 hasLabel = true;
             }
-            inspectorClient.addAdbRemoteServer(new AdbRemoteServer(device, sb.toString(), processName, port, inspectorClient.getConsoleReader(), hasLabel));
+            inspectorClient.addAdbRemoteServer(new AdbRemoteServer(device, sb.toString(), processName, port, hasLabel));
         }
     }
 
@@ -29,6 +29,8 @@ public class ClientCompleter implements Completer {
         	strings.add("quit");
         	strings.add("exit");
         	strings.add("resetLog");
+        	strings.add("dumpLimit");
+        	strings.add("dumpMd5");
         	strings.add("help");
         	strings.add("clear");
         	strings.add("history");
@@ -46,6 +48,8 @@ public class ClientCompleter implements Completer {
 			if(inspector.isConnected()) {
         		strings.add("reset");
         		strings.add("close");
+        		strings.add("sessions");
+        		strings.add("session");
         		addServerCommands(buffer);
         	} else {
         		strings.add("connect");
@@ -89,7 +93,7 @@ public class ClientCompleter implements Completer {
     }
 	
 	private String[] getHelp(String buf) {
-		for(ServerCommandCompleter completer : serverCommands) {
+		for(ServerCommandCompleter completer : inspector.getServerCommands()) {
 			String[] help = completer.getHelp(buf);
 			if(help != null) {
 				return help;
@@ -98,20 +102,12 @@ public class ClientCompleter implements Completer {
 		return null;
 	}
 
-	private final Set<ServerCommandCompleter> serverCommands = new HashSet<>();
-	
-	public void clearServerCommands() {
-		serverCommands.clear();
-	}
-	
 	public ServerCommandCompleter createCommandCompleter(String prefix) {
-		ServerCommandCompleter completer = new DefaultServerCommandCompleter(prefix);
-		serverCommands.add(completer);
-		return completer;
+		return new DefaultServerCommandCompleter(prefix);
 	}
 
 	private void addServerCommands(String buffer) {
-		for(ServerCommandCompleter completer : this.serverCommands) {
+		for(ServerCommandCompleter completer : inspector.getServerCommands()) {
 			if(completer.isGlobal()) {
 				completer.exposeCommands(strings);
 				continue;
@@ -13,8 +13,10 @@ class $WorkerListener implements WorkerListener {
     }
 
     @Override
-    public void notifyBegin(String msg) {
-        if (current++ < total) {
+    public synchronized void notifyBegin(String msg) {
+        if (total <= 0) {
+            System.out.println("[" + ++current + "]" + msg);
+        } else if (current++ < total) {
             int percent = (current * 100) / total;
             String p = (percent < 10) ? (" " + percent + '%') : (percent < 100) ? ("" + percent + '%') : ("" + percent);
             System.out.println("[" + p + "]" + msg);
@@ -25,4 +27,11 @@ class $WorkerListener implements WorkerListener {
     public void notifyException(Exception e) {
         e.printStackTrace();
     }
+
+    @Override
+    public void notifyComplete(int count, long bytes, long elapsedMillis, int parallelism) {
+        long millis = Math.max(elapsedMillis, 1);
+        System.out.printf("assembled %d files, %d KiB in %dms with %d threads: %d files/s, %.1f MiB/s%n",
+                count, bytes >> 10, elapsedMillis, parallelism, count * 1000L / millis, bytes * 1000.0 / millis / (1 << 20));
+    }
 }
@@ -31,28 +31,19 @@ package cn.banny.inspector.dex;
 import org.antlr.runtime.CommonTokenStream;
 import org.antlr.runtime.tree.CommonTree;
 import org.antlr.runtime.tree.CommonTreeNodeStream;
-import org.jf.dexlib2.Opcodes;
 import org.jf.dexlib2.writer.builder.DexBuilder;
-import org.jf.dexlib2.writer.io.DexDataStore;
-import org.jf.dexlib2.writer.io.FileDataStore;
 import org.jf.smali.smaliFlexLexer;
 import org.jf.smali.smaliParser;
 import org.jf.smali.smaliTreeWalker;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.Reader;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 
 /**
  * Main class for smali. It recognizes enough options to be able to dispatch
@@ -61,6 +52,15 @@ import java.util.concurrent.Future;
 public class Smali {
 
     public static void assembleSmaliFile(int apiLevel, File dir, File outDexFile) throws Exception {
+        assembleSmaliFile(apiLevel, dir, outDexFile, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Assembles the files largest first, so a single huge class doesn't end up as the tail.
+     * Classes that don't fit in <code>outDexFile</code> go to classes2.dex, classes3.dex ... next to it.
+     * @param parallelism number of assembly threads
+     */
+    public static void assembleSmaliFile(int apiLevel, File dir, File outDexFile, int parallelism) throws Exception {
         LinkedHashSet<File> filesToProcess = new LinkedHashSet<>();
 
         if (!dir.exists()) {
@@ -72,62 +72,18 @@ public class Smali {
 
         getSmaliFilesInDir(dir, filesToProcess);
 
-        final DexBuilder dexBuilder = new DexBuilder(Opcodes.forApi(apiLevel));
+        List<File> files = new ArrayList<>(filesToProcess);
+        files.sort(Comparator.comparingLong(File::length).reversed());
 
-        int total = filesToProcess.size();
+        int total = files.size();
         int dirLen = dir.getAbsolutePath().length();
         System.out.println("Prepare assembleSmaliFile total: " + total);
-        Thread thread = Thread.currentThread();
-        int jobs = Runtime.getRuntime().availableProcessors();
-        ExecutorService executor = Executors.newFixedThreadPool(Math.min(jobs, 4));
-        List<Future<Void>> tasks = new ArrayList<>(total);
-        WorkerListener workerListener = new $WorkerListener(total);
-        for (final File file: filesToProcess) {
-        	AssembleSmaliWorker worker = new AssembleSmaliWorker(thread, workerListener, file, dirLen, dexBuilder, apiLevel);
-            tasks.add(executor.submit(worker));
-        }
-
-        try {
-            for (Future<Void> task : tasks) {
-                task.get();
+        try (SmaliAssembler assembler = new SmaliAssembler(apiLevel, total, parallelism)) {
+            assembler.setMultiDex(true);
+            for (File file : files) {
+                assembler.submit(file.getAbsolutePath().substring(dirLen), file);
             }
-        } finally {
-            executor.shutdownNow();
-        }
-
-        DexDataStore dataStore = new FileDataStore(outDexFile);
-        dexBuilder.writeTo(dataStore);
-    }
-
-    private static class AssembleSmaliWorker implements Callable<Void> {
-        private final Thread thread;
-        private final WorkerListener workerListener;
-        private final File file;
-        private final int dirLen;
-        private final DexBuilder dexBuilder;
-        private final int apiLevel;
-        AssembleSmaliWorker(Thread thread, WorkerListener workerListener, File file, int dirLen, DexBuilder dexBuilder, int apiLevel) {
-            this.thread = thread;
-            this.workerListener = workerListener;
-            this.file = file;
-            this.dirLen = dirLen;
-            this.dexBuilder = dexBuilder;
-            this.apiLevel = apiLevel;
-        }
-        @Override
-        public Void call() throws Exception {
-            if(thread.isInterrupted()) {
-                throw new InterruptedException("assembleSmaliFile");
-            }
-
-            workerListener.notifyBegin("assembleSmaliFile: " + file.getAbsolutePath().substring(dirLen));
-
-            boolean errors = !assembleSmaliFile(file, dexBuilder, apiLevel);
-            if(errors) {
-                RuntimeException e = new RuntimeException("assembleSmaliFile failed: " + file.getAbsolutePath().substring(dirLen));
-                workerListener.notifyException(e);
-            }
-            return null;
+            assembler.writeTo(outDexFile);
         }
     }
 
@@ -144,16 +100,8 @@ public class Smali {
         }
     }
 
-    private static boolean assembleSmaliFile(File smaliFile, DexBuilder dexBuilder,
-                                             int apiLevel)
-            throws Exception {
-        try (FileInputStream fis =new FileInputStream(smaliFile.getAbsolutePath()) ; InputStreamReader reader = new InputStreamReader(fis, StandardCharsets.UTF_8)) {
-            return assembleSmaliFile(reader, smaliFile, dexBuilder, apiLevel);
-        }
-    }
-
-    private static boolean assembleSmaliFile(Reader reader, File smaliFile, DexBuilder dexBuilder,
-                                             int apiLevel)
+    static boolean assembleSmaliFile(Reader reader, File smaliFile, DexBuilder dexBuilder,
+                                     int apiLevel)
             throws Exception {
         CommonTokenStream tokens;
 
@@ -0,0 +1,274 @@
+package cn.banny.inspector.dex;
+
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.writer.builder.BuilderClassDef;
+import org.jf.dexlib2.writer.builder.DexBuilder;
+import org.jf.dexlib2.writer.io.FileDataStore;
+import org.jf.dexlib2.writer.pool.MultiDexPool;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Assembles smali sources into one dex as they are submitted, so parsing starts
+ * while the rest of the sources are still being read. The sources run on a
+ * work-stealing pool sized to the machine, in-memory sources are throttled by
+ * the bytes waiting to be assembled. The first source that fails stops the
+ * assembly, the sources still queued are skipped.
+ * <br>
+ * In staging mode every worker thread assembles into its own {@link DexBuilder},
+ * the staging builders are merged into the final one before it is written.
+ * With a {@link SmaliCache} only the sources that changed since the last assembly
+ * are parsed.
+ * <br>
+ * In multi-dex mode every source is assembled into a builder of its own, and its
+ * classes are interned into a {@link MultiDexPool} in the order the sources were
+ * submitted, as soon as the sources before it are done. The pool starts a new dex
+ * whenever a class would overflow the method, field or type references of the
+ * current one, the extra dex files are written as classes2.dex, classes3.dex ...
+ * next to the output file.
+ */
+public class SmaliAssembler implements Closeable {
+
+    private static final int MAX_PENDING_BYTES = 64 << 20;
+
+    private final int apiLevel;
+    private final Opcodes opcodes;
+    private final DexBuilder dexBuilder;
+    private final boolean staging;
+    private final List<DexBuilder> stagingBuilders = Collections.synchronizedList(new ArrayList<DexBuilder>());
+    private final ThreadLocal<DexBuilder> stagingBuilder;
+    private final ForkJoinPool pool;
+    private final WorkerListener workerListener;
+    private final Thread thread;
+    private final Semaphore pendingBytes = new Semaphore(MAX_PENDING_BYTES);
+    private final List<ForkJoinTask<Void>> tasks = new ArrayList<>();
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+    private final AtomicInteger assembled = new AtomicInteger();
+    private final AtomicLong assembledBytes = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+    private SmaliCache cache;
+    private MultiDexPool multiDexPool;
+    /* the classes of the sources that are done before the sources submitted earlier, by submission index */
+    private final Map<Integer, List<BuilderClassDef>> pendingClasses = new HashMap<>();
+    private int internedSources;
+
+    /**
+     * @param total number of sources for the progress output, <code>0</code> if unknown
+     */
+    public SmaliAssembler(int apiLevel, int total) {
+        this(apiLevel, total, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param parallelism number of assembly threads
+     */
+    public SmaliAssembler(int apiLevel, int total, int parallelism) {
+        this(apiLevel, total, parallelism, true);
+    }
+
+    /**
+     * @param staging assemble into a builder per worker thread and merge them at the end
+     */
+    public SmaliAssembler(int apiLevel, int total, int parallelism, boolean staging) {
+        final Opcodes opcodes = Opcodes.forApi(apiLevel);
+        this.apiLevel = apiLevel;
+        this.opcodes = opcodes;
+        this.dexBuilder = new DexBuilder(opcodes);
+        this.staging = staging;
+        this.stagingBuilder = ThreadLocal.withInitial(() -> {
+            DexBuilder builder = new DexBuilder(opcodes);
+            stagingBuilders.add(builder);
+            return builder;
+        });
+        this.pool = new ForkJoinPool(Math.max(parallelism, 1));
+        this.workerListener = new $WorkerListener(total);
+        this.thread = Thread.currentThread();
+    }
+
+    /**
+     * Queues an in-memory smali source, blocks while too many bytes are waiting.
+     * Ignored once the assembly failed.
+     * @param name path of the source, used in messages
+     */
+    public void submit(String name, byte[] data) throws InterruptedException {
+        if (isFailed()) {
+            return;
+        }
+
+        int permits = Math.min(data.length, MAX_PENDING_BYTES);
+        pendingBytes.acquire(permits);
+        tasks.add(pool.submit(new AssembleSmaliWorker(tasks.size(), name, null, data, permits)));
+    }
+
+    /**
+     * Queues a smali file, submit the biggest files first to keep the tail short.
+     */
+    public void submit(String name, File smaliFile) {
+        if (isFailed()) {
+            return;
+        }
+
+        tasks.add(pool.submit(new AssembleSmaliWorker(tasks.size(), name, smaliFile, null, 0)));
+    }
+
+    /**
+     * Set before the first source is submitted.
+     */
+    public void setCache(SmaliCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Split the output into several dex files when it overflows a single one.
+     * Set before the first source is submitted.
+     */
+    public void setMultiDex(boolean multiDex) {
+        this.multiDexPool = multiDex ? new MultiDexPool(opcodes) : null;
+    }
+
+    public boolean isFailed() {
+        return failure.get() != null;
+    }
+
+    public int getSubmitted() {
+        return tasks.size();
+    }
+
+    /**
+     * Waits for all submitted sources and writes the dex file.
+     * @return the dex files written, <code>outDexFile</code> first
+     * @throws Exception the first failure of the assembly
+     */
+    public List<File> writeTo(File outDexFile) throws Exception {
+        for (ForkJoinTask<Void> task : tasks) {
+            task.quietlyJoin();
+        }
+
+        Exception e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+
+        if (staging && multiDexPool == null) {
+            dexBuilder.merge(new ArrayList<>(stagingBuilders), pool);
+        }
+
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        workerListener.notifyComplete(assembled.get(), assembledBytes.get(), elapsed, pool.getParallelism());
+
+        List<File> files;
+        if (multiDexPool != null) {
+            files = multiDexPool.writeTo(outDexFile, pool);
+            if (files.size() > 1) {
+                System.out.println("assembleSmaliFile split into " + files.size() + " dex files");
+            }
+        } else {
+            dexBuilder.writeTo(new FileDataStore(outDexFile), pool);
+            files = Collections.singletonList(outDexFile);
+        }
+
+        if (cache != null) {
+            int pruned = cache.prune();
+            System.out.println("assembleSmaliFile cache: " + cache + ", pruned=" + pruned);
+        }
+        return files;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Interns the classes of the source at <code>index</code> into the multi-dex pool, once all
+     * sources submitted before it are interned, so the split doesn't depend on the thread timing.
+     */
+    private void internInOrder(int index, List<BuilderClassDef> classes) {
+        synchronized (pendingClasses) {
+            pendingClasses.put(index, classes);
+            List<BuilderClassDef> next;
+            while ((next = pendingClasses.remove(internedSources)) != null) {
+                for (BuilderClassDef classDef : next) {
+                    multiDexPool.internClass(classDef);
+                }
+                internedSources++;
+            }
+        }
+    }
+
+    private class AssembleSmaliWorker extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int index;
+        private final String name;
+        private final File file;
+        private final byte[] data;
+        private final int permits;
+        AssembleSmaliWorker(int index, String name, File file, byte[] data, int permits) {
+            this.index = index;
+            this.name = name;
+            this.file = file;
+            this.data = data;
+            this.permits = permits;
+        }
+        @Override
+        protected void compute() {
+            try {
+                if (isFailed()) {
+                    return;
+                }
+                if(thread.isInterrupted()) {
+                    throw new InterruptedException("assembleSmaliFile");
+                }
+
+                workerListener.notifyBegin("assembleSmaliFile: " + name);
+
+                boolean errors;
+                DexBuilder builder = multiDexPool != null ? new DexBuilder(opcodes) : staging ? stagingBuilder.get() : dexBuilder;
+                if (cache != null) {
+                    errors = !cache.assemble(name, data == null ? Files.readAllBytes(file.toPath()) : data, builder);
+                } else {
+                    try (Reader reader = new InputStreamReader(data == null ? new FileInputStream(file) : new ByteArrayInputStream(data), StandardCharsets.UTF_8)) {
+                        errors = !Smali.assembleSmaliFile(reader, file == null ? new File(name) : file, builder, apiLevel);
+                    }
+                }
+                if(errors) {
+                    throw new RuntimeException("assembleSmaliFile failed: " + name);
+                }
+                if (multiDexPool != null) {
+                    internInOrder(index, new ArrayList<>(builder.classSection.getSortedClasses()));
+                }
+
+                assembled.incrementAndGet();
+                assembledBytes.addAndGet(data == null ? file.length() : data.length);
+            } catch (Exception e) {
+                if (failure.compareAndSet(null, e)) {
+                    workerListener.notifyException(e);
+                }
+            } finally {
+                pendingBytes.release(permits);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,302 @@
+package cn.banny.inspector.dex;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.writer.builder.BuilderClassDef;
+import org.jf.dexlib2.writer.builder.DexBuilder;
+import org.jf.dexlib2.writer.io.MemoryDataStore;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Adler32;
+
+/**
+ * On-disk cache of assembled smali sources. Every source is assembled into a dex of
+ * its own, stored under the SHA-1 of the api level and the source text. An unchanged
+ * source is replayed from that dex into the builder without going through the lexer,
+ * parser and tree walker again.
+ * <br>
+ * Several sessions may share the directory. Every session holds a lock on a
+ * <code>session*.lock</code> file of its own while it is open, and refreshes the
+ * modification time of the entries it uses. {@link #prune()} keeps the entries
+ * touched since the oldest live session started.
+ */
+public class SmaliCache implements Closeable {
+
+    private static final int VERSION = 1;
+
+    private static final String SESSION_PREFIX = "session";
+    private static final String SESSION_SUFFIX = ".lock";
+    private static final String TMP_PREFIX = "smali";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final int HEADER_SIZE = 0x70;
+    private static final int CHECKSUM_OFFSET = 8;
+    private static final int FILE_SIZE_OFFSET = 32;
+
+    private final File dir;
+    private final int apiLevel;
+    private final Opcodes opcodes;
+    private final Set<String> used = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    private final long startMillis;
+    private File lockFile;
+    private FileChannel lockChannel;
+
+    public SmaliCache(File dir, int apiLevel) {
+        this.dir = dir;
+        this.apiLevel = apiLevel;
+        this.opcodes = Opcodes.forApi(apiLevel);
+        this.startMillis = openSession();
+    }
+
+    /**
+     * Best effort, without the session lock other sessions may prune the entries of this one.
+     * @return the start time of this session
+     */
+    private long openSession() {
+        long now = System.currentTimeMillis();
+        try {
+            if (!dir.exists() && !dir.mkdirs() && !dir.exists()) {
+                return now;
+            }
+
+            File file = File.createTempFile(SESSION_PREFIX, SESSION_SUFFIX, dir);
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+            try {
+                channel.lock();
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                file.delete();
+                throw e;
+            }
+            lockFile = file;
+            lockChannel = channel;
+            return Math.min(now, file.lastModified());
+        } catch (IOException ignored) {
+            return now;
+        }
+    }
+
+    /**
+     * Assembles the source into <code>dexBuilder</code>, from the cache if the source didn't change.
+     * @return <code>false</code> if the source has syntax errors
+     */
+    boolean assemble(String name, byte[] source, DexBuilder dexBuilder) throws Exception {
+        String key = key(source);
+        used.add(key);
+
+        File file = new File(dir, key + ".dex");
+        byte[] dex = load(file);
+        if (dex != null) {
+            file.setLastModified(System.currentTimeMillis());
+            for (ClassDef classDef : new DexBackedDexFile(opcodes, dex).getClasses()) {
+                dexBuilder.internClassDef(classDef);
+            }
+            hits.incrementAndGet();
+            return true;
+        }
+
+        DexBuilder sourceBuilder = new DexBuilder(opcodes);
+        try (Reader reader = new InputStreamReader(new ByteArrayInputStream(source), StandardCharsets.UTF_8)) {
+            if (!Smali.assembleSmaliFile(reader, new File(name), sourceBuilder, apiLevel)) {
+                return false;
+            }
+        }
+
+        // straight from the parsed classes, the dex is written for the cache only
+        for (BuilderClassDef classDef : sourceBuilder.classSection.getSortedClasses()) {
+            dexBuilder.internClassDef(classDef);
+        }
+
+        MemoryDataStore dataStore = new MemoryDataStore(Math.max(source.length, 0x1000));
+        sourceBuilder.writeTo(dataStore);
+        store(file, dataStore.getData(), readInt(dataStore.getData(), FILE_SIZE_OFFSET));
+        misses.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Deletes the entries of sources that weren't assembled through this cache and weren't
+     * used by another live session either, and the temporary files left behind by sessions
+     * that were killed while storing an entry. Call it only after a complete assembly.
+     * @return number of deleted entries
+     */
+    public int prune() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+
+        // whole seconds, file systems may keep the modification time in seconds only
+        long threshold = startMillis;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(SESSION_PREFIX) && name.endsWith(SESSION_SUFFIX) && !file.equals(lockFile)) {
+                threshold = Math.min(threshold, liveSince(file));
+            }
+        }
+        threshold = threshold / 1000 * 1000;
+
+        int count = 0;
+        for (File file : files) {
+            String name = file.getName();
+            if (file.lastModified() >= threshold) {
+                continue;
+            }
+            if (name.endsWith(".dex")) {
+                if (!used.contains(name.substring(0, name.length() - 4)) && file.delete()) {
+                    count++;
+                }
+            } else if (name.startsWith(TMP_PREFIX) && name.endsWith(TMP_SUFFIX)) {
+                file.delete();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Deletes the lock file of another session if that session is gone.
+     * @return when that session started, {@link Long#MAX_VALUE} if it is gone
+     */
+    private long liveSince(File sessionFile) {
+        long started = sessionFile.lastModified();
+        if (started >= startMillis) {
+            // may not be locked yet
+            return started;
+        }
+
+        try (FileChannel channel = FileChannel.open(sessionFile.toPath(), StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return started;
+            }
+            lock.release();
+        } catch (OverlappingFileLockException e) {
+            return started;
+        } catch (IOException e) {
+            return sessionFile.exists() ? started : Long.MAX_VALUE;
+        }
+        sessionFile.delete();
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Ends the session, its entries may be pruned by other sessions afterwards.
+     */
+    @Override
+    public void close() {
+        if (lockChannel == null) {
+            return;
+        }
+
+        try {
+            lockChannel.close();
+        } catch (IOException ignored) {
+        }
+        lockFile.delete();
+        lockChannel = null;
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + hits + ", misses=" + misses + ", dir=" + dir;
+    }
+
+    private String key(byte[] source) {
+        MessageDigest sha1 = DigestUtils.getSha1Digest();
+        sha1.update(ByteBuffer.allocate(8).putInt(VERSION).putInt(apiLevel).array());
+        sha1.update(source);
+        return Hex.encodeHexString(sha1.digest());
+    }
+
+    /**
+     * @return <code>null</code> if the entry is missing or damaged
+     */
+    private static byte[] load(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        try {
+            byte[] dex = Files.readAllBytes(file.toPath());
+            if (dex.length >= HEADER_SIZE && readInt(dex, FILE_SIZE_OFFSET) == dex.length) {
+                Adler32 adler32 = new Adler32();
+                adler32.update(dex, CHECKSUM_OFFSET + 4, dex.length - CHECKSUM_OFFSET - 4);
+                if ((int) adler32.getValue() == readInt(dex, CHECKSUM_OFFSET)) {
+                    return dex;
+                }
+            }
+        } catch (IOException ignored) {
+        }
+
+        file.delete();
+        return null;
+    }
+
+    /**
+     * Best effort, a failed store only costs a miss the next time.
+     */
+    private static void store(File file, byte[] data, int length) {
+        File tmp = null;
+        try {
+            File parent = file.getParentFile();
+            if (!parent.exists() && !parent.mkdirs() && !parent.exists()) {
+                return;
+            }
+
+            tmp = File.createTempFile(TMP_PREFIX, TMP_SUFFIX, parent);
+            try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ignored) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ByteBuffer.wrap(data, offset, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+    }
+
+}
@@ -9,4 +9,10 @@ interface WorkerListener {
     void notifyBegin(String msg);
 
     void notifyException(Exception e);
+
+    /**
+     * @param count assembled files
+     * @param bytes source bytes of the assembled files
+     */
+    void notifyComplete(int count, long bytes, long elapsedMillis, int parallelism);
 }
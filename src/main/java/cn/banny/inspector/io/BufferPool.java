@@ -0,0 +1,117 @@
+package cn.banny.inspector.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Heap buffer arena with power of two size classes, shared by the frame decoders
+ * of all sessions. Buffers larger than the biggest class are not retained, and
+ * the free buffers the pool keeps never add up to more than a fixed number of bytes.
+ *
+ * @author zhkl0228
+ *
+ */
+public class BufferPool {
+
+	private static final int MIN_SHIFT = 12;
+
+	private final int maxShift;
+	private final int maxRetained;
+	private final long maxRetainedBytes;
+	private final List<Queue<ByteBuffer>> classes;
+	private final AtomicInteger[] counts;
+	private final AtomicLong retainedBytes = new AtomicLong();
+
+	public BufferPool() {
+		this(1 << 24, 4, 1 << 23);
+	}
+
+	/**
+	 * @param maxPooledCapacity buffers above this capacity are allocated on demand and dropped on release
+	 * @param maxRetained how many free buffers each size class keeps
+	 * @param maxRetainedBytes how many bytes the free buffers of all the size classes may hold together
+	 */
+	public BufferPool(int maxPooledCapacity, int maxRetained, long maxRetainedBytes) {
+		super();
+
+		this.maxShift = Math.max(MIN_SHIFT, shiftFor(maxPooledCapacity));
+		this.maxRetained = maxRetained;
+		this.maxRetainedBytes = maxRetainedBytes;
+		int size = maxShift - MIN_SHIFT + 1;
+		this.classes = new ArrayList<>(size);
+		this.counts = new AtomicInteger[size];
+		for (int i = 0; i < size; i++) {
+			classes.add(new ConcurrentLinkedQueue<>());
+			counts[i] = new AtomicInteger();
+		}
+	}
+
+	private static int shiftFor(int capacity) {
+		if (capacity <= 1 << MIN_SHIFT) {
+			return MIN_SHIFT;
+		}
+		return 32 - Integer.numberOfLeadingZeros(capacity - 1);
+	}
+
+	/**
+	 * @return a cleared buffer with at least <code>capacity</code> bytes, position 0 and limit <code>capacity</code>
+	 */
+	public ByteBuffer acquire(int capacity) {
+		int shift = shiftFor(capacity);
+		if (shift > maxShift) {
+			return ByteBuffer.allocate(capacity);
+		}
+
+		int index = shift - MIN_SHIFT;
+		ByteBuffer buffer = classes.get(index).poll();
+		if (buffer == null) {
+			buffer = ByteBuffer.allocate(1 << shift);
+		} else {
+			counts[index].decrementAndGet();
+			retainedBytes.addAndGet(-buffer.capacity());
+			buffer.clear();
+		}
+		buffer.limit(capacity);
+		return buffer;
+	}
+
+	public void release(ByteBuffer buffer) {
+		if (buffer == null) {
+			return;
+		}
+
+		int capacity = buffer.capacity();
+		if (Integer.bitCount(capacity) != 1) {
+			return;
+		}
+		int shift = Integer.numberOfTrailingZeros(capacity);
+		if (shift < MIN_SHIFT || shift > maxShift) {
+			return;
+		}
+
+		int index = shift - MIN_SHIFT;
+		if (counts[index].incrementAndGet() > maxRetained) {
+			counts[index].decrementAndGet();
+			return;
+		}
+		if (retainedBytes.addAndGet(capacity) > maxRetainedBytes) {
+			retainedBytes.addAndGet(-capacity);
+			counts[index].decrementAndGet();
+			return;
+		}
+		classes.get(index).offer(buffer);
+	}
+
+	/**
+	 * @return the bytes held by the free buffers of the pool
+	 */
+	public long getRetainedBytes() {
+		return retainedBytes.get();
+	}
+
+}
@@ -0,0 +1,575 @@
+package cn.banny.inspector.io;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decodes the inspector wire protocol: an unsigned short frame type whose
+ * 0x8000 bit marks a gzip frame (int length followed by the gzip member),
+ * otherwise the payload follows inline.
+ * <br>
+ * The payload is read through this {@link DataInput} after {@link #nextFrame()}.
+ * Plain frames are read straight from the channel buffer, gzip frames are inflated
+ * with a reused {@link Inflater} into a pooled buffer. Buffers returned by
+ * {@link #readBytes(int)} stay valid until the next call of {@link #nextFrame()}.
+ *
+ * @author zhkl0228
+ *
+ */
+public class FrameDecoder implements DataInput, Closeable {
+
+	private static final int DEFAULT_BUFFER_SIZE = 0x10000;
+
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+
+	private final ReadableByteChannel channel;
+	private final BufferPool pool;
+	private final Inflater inflater = new Inflater(true);
+	private final CRC32 crc = new CRC32();
+	private final List<ByteBuffer> borrowed = new ArrayList<>();
+
+	private ByteBuffer stream;
+	private ByteBuffer inflated;
+	private ByteBuffer in;
+	private char[] chars = new char[256];
+
+	private int type = -1;
+	private boolean zip;
+
+	public FrameDecoder(ReadableByteChannel channel, BufferPool pool) {
+		this(channel, pool, DEFAULT_BUFFER_SIZE);
+	}
+
+	public FrameDecoder(ReadableByteChannel channel, BufferPool pool, int bufferSize) {
+		super();
+
+		this.channel = channel;
+		this.pool = pool;
+		this.stream = pool.acquire(bufferSize);
+		this.stream.limit(0);
+		this.in = stream;
+	}
+
+	/**
+	 * Releases the buffers of the previous frame and reads the next frame header.
+	 * @return frame type without the zip bit
+	 */
+	public int nextFrame() throws IOException {
+		releaseFrame();
+
+		fill(2);
+		int header = stream.getShort() & 0xFFFF;
+		zip = (header & 0x8000) != 0;
+		type = header & 0x7FFF;
+
+		if (zip) {
+			fill(4);
+			int length = stream.getInt();
+			if (length < 0) {
+				throw new ZipException("Invalid gzip frame length: " + length);
+			}
+			inflateFrame(length);
+			in = inflated;
+		}
+		return type;
+	}
+
+	public int getType() {
+		return type;
+	}
+
+	public boolean isZip() {
+		return zip;
+	}
+
+	/**
+	 * @return a heap buffer holding the next <code>length</code> bytes, valid until the next frame
+	 */
+	public ByteBuffer readBytes(int length) throws IOException {
+		if (length < 0) {
+			throw new IllegalArgumentException("length=" + length);
+		}
+
+		if (zip) {
+			ensure(length);
+			ByteBuffer slice = in.duplicate();
+			slice.limit(slice.position() + length);
+			in.position(in.position() + length);
+			return slice;
+		}
+
+		ByteBuffer buffer = borrow(length);
+		readFromStream(buffer);
+		return buffer;
+	}
+
+	/**
+	 * Streams the next <code>length</code> bytes to <code>target</code> through the
+	 * stream buffer, so a plain frame of any size is copied with bounded memory.
+	 * @param digest updated with the copied bytes, may be <code>null</code>
+	 */
+	public void transferTo(int length, WritableByteChannel target, MessageDigest digest) throws IOException {
+		if (length < 0) {
+			throw new IllegalArgumentException("length=" + length);
+		}
+
+		if (zip) {
+			write(readBytes(length), target, digest);
+			return;
+		}
+
+		int remaining = length;
+		while (remaining > 0) {
+			if (!stream.hasRemaining()) {
+				stream.clear();
+				stream.limit(Math.min(stream.capacity(), remaining));
+				int read = channel.read(stream);
+				stream.flip();
+				if (read < 0) {
+					throw new EOFException();
+				}
+			}
+
+			int n = Math.min(remaining, stream.remaining());
+			ByteBuffer chunk = stream.duplicate();
+			chunk.limit(chunk.position() + n);
+			stream.position(stream.position() + n);
+			write(chunk, target, digest);
+			remaining -= n;
+		}
+	}
+
+	private static void write(ByteBuffer chunk, WritableByteChannel target, MessageDigest digest) throws IOException {
+		if (digest != null) {
+			digest.update(chunk.duplicate());
+		}
+		while (chunk.hasRemaining()) {
+			target.write(chunk);
+		}
+	}
+
+	private void releaseFrame() {
+		for (ByteBuffer buffer : borrowed) {
+			pool.release(buffer);
+		}
+		borrowed.clear();
+
+		if (inflated != null) {
+			pool.release(inflated);
+			inflated = null;
+		}
+		in = stream;
+		zip = false;
+		type = -1;
+	}
+
+	private ByteBuffer borrow(int capacity) {
+		ByteBuffer buffer = pool.acquire(capacity);
+		borrowed.add(buffer);
+		return buffer;
+	}
+
+	/**
+	 * Makes at least <code>n</code> bytes available in the stream buffer.
+	 */
+	private void fill(int n) throws IOException {
+		if (stream.remaining() >= n) {
+			return;
+		}
+
+		if (stream.capacity() < n) {
+			ByteBuffer bigger = pool.acquire(n);
+			bigger.limit(bigger.capacity());
+			bigger.put(stream);
+			pool.release(stream);
+			stream = bigger;
+		} else {
+			stream.compact();
+		}
+
+		while (stream.position() < n) {
+			if (channel.read(stream) < 0) {
+				stream.flip();
+				throw new EOFException();
+			}
+		}
+		stream.flip();
+	}
+
+	private void ensure(int n) throws IOException {
+		if (in.remaining() >= n) {
+			return;
+		}
+		if (zip) {
+			throw new EOFException();
+		}
+
+		fill(n);
+		in = stream;
+	}
+
+	/**
+	 * Copies the buffered bytes into <code>dst</code> and reads the rest directly from the channel.
+	 */
+	private void readFromStream(ByteBuffer dst) throws IOException {
+		int n = Math.min(dst.remaining(), stream.remaining());
+		if (n > 0) {
+			int limit = stream.limit();
+			stream.limit(stream.position() + n);
+			dst.put(stream);
+			stream.limit(limit);
+		}
+		while (dst.hasRemaining()) {
+			if (channel.read(dst) < 0) {
+				throw new EOFException();
+			}
+		}
+		dst.flip();
+	}
+
+	private void inflateFrame(int length) throws IOException {
+		byte[] array;
+		int offset;
+		if (length <= stream.capacity()) {
+			fill(length);
+			array = stream.array();
+			offset = stream.arrayOffset() + stream.position();
+			stream.position(stream.position() + length);
+		} else {
+			ByteBuffer buffer = borrow(length);
+			readFromStream(buffer);
+			array = buffer.array();
+			offset = buffer.arrayOffset();
+		}
+
+		int end = offset + length;
+		int hint = length >= 18 ? readIntLE(array, end - 4) : 0;
+		inflated = pool.acquire(Math.max(hint, 64));
+		inflated.limit(inflated.capacity());
+
+		int pos = offset;
+		do {
+			pos = skipGzipHeader(array, pos, end);
+			pos = inflateMember(array, pos, end);
+		} while (end - pos >= 10 && (array[pos] & 0xFF) == 0x1F && (array[pos + 1] & 0xFF) == 0x8B);
+
+		inflated.flip();
+	}
+
+	private int inflateMember(byte[] array, int pos, int end) throws IOException {
+		inflater.reset();
+		inflater.setInput(array, pos, end - pos);
+		crc.reset();
+
+		int start = inflated.position();
+		try {
+			while (!inflater.finished()) {
+				if (!inflated.hasRemaining()) {
+					ByteBuffer bigger = pool.acquire(inflated.capacity() * 2);
+					bigger.limit(bigger.capacity());
+					inflated.flip();
+					bigger.put(inflated);
+					pool.release(inflated);
+					inflated = bigger;
+				}
+
+				int position = inflated.position();
+				int n = inflater.inflate(inflated.array(), inflated.arrayOffset() + position, inflated.remaining());
+				if (n == 0) {
+					if (inflater.needsDictionary()) {
+						throw new ZipException("Unexpected preset dictionary in gzip stream");
+					}
+					if (inflater.needsInput()) {
+						throw new EOFException("Unexpected end of ZLIB input stream");
+					}
+				}
+				crc.update(inflated.array(), inflated.arrayOffset() + position, n);
+				inflated.position(position + n);
+			}
+		} catch (DataFormatException e) {
+			String msg = e.getMessage();
+			throw new ZipException(msg != null ? msg : "Invalid ZLIB data format");
+		}
+
+		pos = end - inflater.getRemaining();
+		if (end - pos < 8) {
+			throw new EOFException("Unexpected end of gzip trailer");
+		}
+		if (readIntLE(array, pos) != (int) crc.getValue() ||
+				readIntLE(array, pos + 4) != inflated.position() - start) {
+			throw new ZipException("Corrupt GZIP trailer");
+		}
+		return pos + 8;
+	}
+
+	private static int skipGzipHeader(byte[] array, int pos, int end) throws IOException {
+		if (end - pos < 10) {
+			throw new EOFException("Unexpected end of gzip header");
+		}
+		if ((array[pos] & 0xFF) != 0x1F || (array[pos + 1] & 0xFF) != 0x8B) {
+			throw new ZipException("Not in GZIP format");
+		}
+		if (array[pos + 2] != 8) {
+			throw new ZipException("Unsupported compression method");
+		}
+
+		int flg = array[pos + 3] & 0xFF;
+		pos += 10;
+		if ((flg & FEXTRA) != 0) {
+			checkAvailable(pos + 2, end);
+			pos += 2 + ((array[pos] & 0xFF) | ((array[pos + 1] & 0xFF) << 8));
+		}
+		if ((flg & FNAME) != 0) {
+			pos = skipZeroTerminated(array, pos, end);
+		}
+		if ((flg & FCOMMENT) != 0) {
+			pos = skipZeroTerminated(array, pos, end);
+		}
+		if ((flg & FHCRC) != 0) {
+			pos += 2;
+		}
+		checkAvailable(pos, end);
+		return pos;
+	}
+
+	private static int skipZeroTerminated(byte[] array, int pos, int end) throws EOFException {
+		while (pos < end) {
+			if (array[pos++] == 0) {
+				return pos;
+			}
+		}
+		throw new EOFException("Unexpected end of gzip header");
+	}
+
+	private static void checkAvailable(int pos, int end) throws EOFException {
+		if (pos > end) {
+			throw new EOFException("Unexpected end of gzip header");
+		}
+	}
+
+	private static int readIntLE(byte[] array, int pos) {
+		return (array[pos] & 0xFF) | ((array[pos + 1] & 0xFF) << 8) | ((array[pos + 2] & 0xFF) << 16) | ((array[pos + 3] & 0xFF) << 24);
+	}
+
+	@Override
+	public void readFully(byte[] b) throws IOException {
+		readFully(b, 0, b.length);
+	}
+
+	@Override
+	public void readFully(byte[] b, int off, int len) throws IOException {
+		if (zip) {
+			ensure(len);
+			in.get(b, off, len);
+			return;
+		}
+
+		readFromStream(ByteBuffer.wrap(b, off, len));
+	}
+
+	@Override
+	public int skipBytes(int n) throws IOException {
+		int skipped = 0;
+		while (skipped < n) {
+			if (!hasNext()) {
+				break;
+			}
+			int count = Math.min(n - skipped, in.remaining());
+			in.position(in.position() + count);
+			skipped += count;
+		}
+		return skipped;
+	}
+
+	@Override
+	public boolean readBoolean() throws IOException {
+		ensure(1);
+		return in.get() != 0;
+	}
+
+	@Override
+	public byte readByte() throws IOException {
+		ensure(1);
+		return in.get();
+	}
+
+	@Override
+	public int readUnsignedByte() throws IOException {
+		ensure(1);
+		return in.get() & 0xFF;
+	}
+
+	@Override
+	public short readShort() throws IOException {
+		ensure(2);
+		return in.getShort();
+	}
+
+	@Override
+	public int readUnsignedShort() throws IOException {
+		ensure(2);
+		return in.getShort() & 0xFFFF;
+	}
+
+	@Override
+	public char readChar() throws IOException {
+		ensure(2);
+		return in.getChar();
+	}
+
+	@Override
+	public int readInt() throws IOException {
+		ensure(4);
+		return in.getInt();
+	}
+
+	@Override
+	public long readLong() throws IOException {
+		ensure(8);
+		return in.getLong();
+	}
+
+	@Override
+	public float readFloat() throws IOException {
+		ensure(4);
+		return in.getFloat();
+	}
+
+	@Override
+	public double readDouble() throws IOException {
+		ensure(8);
+		return in.getDouble();
+	}
+
+	/**
+	 * Reads a line of latin-1 characters like {@link java.io.DataInputStream#readLine()}, terminated by a line feed,
+	 * a carriage return or both.
+	 * @return the line without the terminator, <code>null</code> at the end of the stream
+	 */
+	@Override
+	public String readLine() throws IOException {
+		StringBuilder line = null;
+		while (true) {
+			if (!hasNext()) {
+				return line == null ? null : line.toString();
+			}
+			if (line == null) {
+				line = new StringBuilder();
+			}
+
+			int c = in.get() & 0xFF;
+			if (c == '\n') {
+				return line.toString();
+			}
+			if (c == '\r') {
+				if (hasNext() && in.get(in.position()) == '\n') {
+					in.position(in.position() + 1);
+				}
+				return line.toString();
+			}
+			line.append((char) c);
+		}
+	}
+
+	/**
+	 * @return <code>false</code> at the end of the frame or the stream
+	 */
+	private boolean hasNext() throws IOException {
+		if (in.hasRemaining()) {
+			return true;
+		}
+		try {
+			ensure(1);
+			return true;
+		} catch (EOFException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Decodes modified UTF-8 in place from the frame buffer.
+	 */
+	@Override
+	public String readUTF() throws IOException {
+		int utflen = readUnsignedShort();
+		ensure(utflen);
+
+		if (chars.length < utflen) {
+			chars = new char[Math.max(utflen, chars.length * 2)];
+		}
+
+		byte[] bytes = in.array();
+		int start = in.arrayOffset() + in.position();
+		int end = start + utflen;
+		int pos = start;
+		int count = 0;
+		while (pos < end) {
+			int c = bytes[pos] & 0xFF;
+			switch (c >> 4) {
+			case 0: case 1: case 2: case 3: case 4: case 5: case 6: case 7:
+				chars[count++] = (char) c;
+				pos++;
+				break;
+			case 12: case 13: {
+				if (pos + 2 > end) {
+					throw new UTFDataFormatException("malformed input: partial character at end");
+				}
+				int c2 = bytes[pos + 1];
+				if ((c2 & 0xC0) != 0x80) {
+					throw new UTFDataFormatException("malformed input around byte " + (pos - start));
+				}
+				chars[count++] = (char) (((c & 0x1F) << 6) | (c2 & 0x3F));
+				pos += 2;
+				break;
+			}
+			case 14: {
+				if (pos + 3 > end) {
+					throw new UTFDataFormatException("malformed input: partial character at end");
+				}
+				int c2 = bytes[pos + 1];
+				int c3 = bytes[pos + 2];
+				if ((c2 & 0xC0) != 0x80 || (c3 & 0xC0) != 0x80) {
+					throw new UTFDataFormatException("malformed input around byte " + (pos - start));
+				}
+				chars[count++] = (char) (((c & 0x0F) << 12) | ((c2 & 0x3F) << 6) | (c3 & 0x3F));
+				pos += 3;
+				break;
+			}
+			default:
+				throw new UTFDataFormatException("malformed input around byte " + (pos - start));
+			}
+		}
+
+		in.position(in.position() + utflen);
+		return new String(chars, 0, count);
+	}
+
+	/**
+	 * Returns the buffers to the pool, the channel is left open.
+	 */
+	@Override
+	public void close() {
+		releaseFrame();
+		pool.release(stream);
+		stream = null;
+		in = null;
+		inflater.end();
+	}
+
+}
@@ -0,0 +1,623 @@
+package cn.banny.inspector.io;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The inspector.log pipeline. Receive threads only append records to a bounded
+ * lock-free ring, a background writer formats the timestamps and writes the
+ * records in large batches through a {@link FileChannel}. Segments are rotated
+ * by size or age and gzipped in the background.
+ * <br>
+ * When the ring is full the caller waits for the writer to make room. Only if the
+ * writer can't keep up within the offer timeout, e.g. because the disk stalls, the
+ * record is dropped; the number of dropped records is written to the log once there
+ * is room again.
+ * <br>
+ * Output too large for a record, like a hex dump, is queued as {@link Content} that the
+ * writer renders straight into its batch, so it is written in one piece.
+ *
+ * @author zhkl0228
+ *
+ */
+public class SessionLog implements Closeable {
+
+	private static final Log log = LogFactory.getLog(SessionLog.class);
+
+	private static final int STAMP = 1;
+	private static final int NEW_LINE = 2;
+
+	private static final int BATCH_SIZE = 0x40000;
+
+	private static final long OFFER_RETRY_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+	private static final String LINE_SEPARATOR = System.lineSeparator();
+
+	private final File file;
+	private final long maxFileSize;
+	private final long maxAgeMillis;
+	private final long offerTimeoutNanos;
+	private final Ring ring;
+	private final Thread thread;
+	private final ExecutorService compressor;
+	private final PrintWriter printWriter;
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private volatile boolean waiting;
+	private volatile boolean rotateRequested;
+	private volatile boolean closed;
+
+	/* writer thread state */
+	private FileChannel channel;
+	private long fileSize;
+	private long segmentStart;
+	private final StringBuilder batch = new StringBuilder(BATCH_SIZE);
+	private final Writer batchWriter = new BatchWriter();
+	private final ByteBuffer bytes = ByteBuffer.allocateDirect(BATCH_SIZE);
+	private final CharsetEncoder encoder = Charset.defaultCharset().newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final DateFormat dateFormat = new SimpleDateFormat("[yyyy-MM-dd HH:mm:ss]");
+	private long stampSecond = Long.MIN_VALUE;
+	private String stamp;
+
+	public SessionLog(File file) throws IOException {
+		this(file, 64L << 20, TimeUnit.DAYS.toMillis(1), 0x10000, TimeUnit.SECONDS.toMillis(10));
+	}
+
+	/**
+	 * @param maxFileSize rotate when the segment grows beyond this size, <code>0</code> disables it
+	 * @param maxAgeMillis rotate when the segment is older than this, <code>0</code> disables it
+	 * @param capacity ring capacity in records, rounded up to a power of two
+	 * @param offerTimeoutMillis how long a caller waits for room in a full ring before its record is dropped
+	 */
+	public SessionLog(File file, long maxFileSize, long maxAgeMillis, int capacity, long offerTimeoutMillis) throws IOException {
+		super();
+
+		this.file = file;
+		this.maxFileSize = maxFileSize;
+		this.maxAgeMillis = maxAgeMillis;
+		this.offerTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(offerTimeoutMillis);
+		this.ring = new Ring(capacity);
+
+		openSegment();
+
+		this.compressor = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "SessionLog compressor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.thread = new Thread(this::runWriter, "SessionLog writer");
+		this.thread.setDaemon(true);
+		this.thread.start();
+
+		this.printWriter = new PrintWriter(new RecordWriter(), false);
+	}
+
+	/**
+	 * Writer for code that expects a {@link PrintWriter}, every line becomes one record.
+	 */
+	public PrintWriter getPrintWriter() {
+		return printWriter;
+	}
+
+	public void print(String msg) {
+		offer(msg, 0);
+	}
+
+	public void println(String msg) {
+		offer(msg, NEW_LINE);
+	}
+
+	/**
+	 * Prefixes the message with the time it was logged.
+	 */
+	public void printStamped(String msg) {
+		offer(msg, STAMP);
+	}
+
+	public void printlnStamped(String msg) {
+		offer(msg, STAMP | NEW_LINE);
+	}
+
+	/**
+	 * Output too large for a single record. The writer thread writes it straight into
+	 * its batch, the records queued after it wait until it is written.
+	 */
+	public interface Content {
+		void writeTo(Writer out) throws IOException;
+	}
+
+	/**
+	 * Queues the content like a record and waits until the writer thread has written it,
+	 * so the content may refer to buffers the caller reuses afterwards.
+	 * @param stamp prefix the content with the time it was logged
+	 * @return <code>false</code> if the content was dropped, because the log is closed, the
+	 * ring stayed full or writing it failed
+	 */
+	public boolean write(Content content, boolean stamp) throws InterruptedIOException {
+		ContentRecord record = new ContentRecord(System.currentTimeMillis(), content, stamp ? STAMP : 0);
+		return offer(record) && record.await();
+	}
+
+	/**
+	 * Starts a new segment, the current one is archived and gzipped.
+	 */
+	public void rotate() {
+		rotateRequested = true;
+		wakeup();
+	}
+
+	private void offer(String msg, int flags) {
+		offer(new Record(System.currentTimeMillis(), msg, flags));
+	}
+
+	private boolean offer(Record record) {
+		if (closed) {
+			return false;
+		}
+
+		if (ring.offer(record)) {
+			wakeup();
+			return true;
+		}
+
+		long deadline = System.nanoTime() + offerTimeoutNanos;
+		do {
+			LockSupport.unpark(thread);
+			LockSupport.parkNanos(this, OFFER_RETRY_NANOS);
+			if (ring.offer(record)) {
+				wakeup();
+				return true;
+			}
+		} while (!closed && System.nanoTime() - deadline < 0);
+		dropped.incrementAndGet();
+		return false;
+	}
+
+	private void wakeup() {
+		if (waiting) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	private void runWriter() {
+		while (true) {
+			try {
+				boolean drained = drain();
+
+				if (rotateRequested || needRotate()) {
+					rotateRequested = false;
+					flushBatch();
+					rotateSegment();
+					continue;
+				}
+
+				if (!drained) {
+					flushBatch();
+					if (closed) {
+						break;
+					}
+					if (needRotate()) {
+						continue;
+					}
+
+					waiting = true;
+					if (ring.isEmpty() && !rotateRequested && !closed) {
+						LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+					}
+					waiting = false;
+				}
+			} catch (IOException e) {
+				log.warn(e.getMessage(), e);
+				batch.setLength(0);
+				bytes.clear();
+				try { TimeUnit.SECONDS.sleep(1); } catch (InterruptedException ignored) {}
+			}
+		}
+
+		try {
+			channel.close();
+		} catch (IOException e) {
+			log.warn(e.getMessage(), e);
+		}
+
+		// records that raced with close, their content callers must not wait
+		Record record;
+		while ((record = ring.poll()) != null) {
+			if (record instanceof ContentRecord) {
+				((ContentRecord) record).release();
+			}
+		}
+	}
+
+	/**
+	 * Formats queued records into the batch.
+	 * @return <code>true</code> if the batch was filled before the ring ran empty
+	 */
+	private boolean drain() throws IOException {
+		long lost = dropped.getAndSet(0);
+		if (lost > 0) {
+			appendStamp(System.currentTimeMillis());
+			batch.append(lost).append(" log records dropped").append(LINE_SEPARATOR);
+		}
+
+		Record record;
+		while ((record = ring.poll()) != null) {
+			if (record instanceof ContentRecord) {
+				writeContent((ContentRecord) record);
+			} else {
+				if ((record.flags & STAMP) != 0) {
+					appendStamp(record.time);
+				}
+				batch.append(record.msg);
+			}
+			if ((record.flags & NEW_LINE) != 0) {
+				batch.append(LINE_SEPARATOR);
+			}
+
+			if (batch.length() >= BATCH_SIZE) {
+				flushBatch();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void writeContent(ContentRecord record) throws IOException {
+		if (!record.claim()) {
+			// the caller gave up waiting
+			return;
+		}
+
+		boolean written = false;
+		try {
+			if ((record.flags & STAMP) != 0) {
+				appendStamp(record.time);
+			}
+			record.content.writeTo(batchWriter);
+			written = true;
+		} catch (RuntimeException e) {
+			log.warn(e.getMessage(), e);
+		} finally {
+			record.finish(written);
+		}
+	}
+
+	private void appendStamp(long time) {
+		long second = time / 1000;
+		if (second != stampSecond) {
+			stampSecond = second;
+			stamp = dateFormat.format(new Date(time));
+		}
+		batch.append(stamp);
+	}
+
+	private void flushBatch() throws IOException {
+		if (batch.length() == 0) {
+			return;
+		}
+
+		CharBuffer chars = CharBuffer.wrap(batch);
+		encoder.reset();
+		while (true) {
+			CoderResult result = encoder.encode(chars, bytes, true);
+			if (result.isOverflow()) {
+				writeBytes();
+				continue;
+			}
+			break;
+		}
+		while (encoder.flush(bytes).isOverflow()) {
+			writeBytes();
+		}
+		writeBytes();
+		batch.setLength(0);
+	}
+
+	private void writeBytes() throws IOException {
+		bytes.flip();
+		while (bytes.hasRemaining()) {
+			fileSize += channel.write(bytes);
+		}
+		bytes.clear();
+	}
+
+	private boolean needRotate() {
+		return (maxFileSize > 0 && fileSize >= maxFileSize) ||
+				(maxAgeMillis > 0 && fileSize > 0 && System.currentTimeMillis() - segmentStart >= maxAgeMillis);
+	}
+
+	private void openSegment() throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		fileSize = channel.size();
+		segmentStart = System.currentTimeMillis();
+	}
+
+	private void rotateSegment() throws IOException {
+		channel.close();
+
+		String name = file.getName() + '.' + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+		File archive = new File(file.getParentFile(), name);
+		for (int i = 1; archive.exists() || new File(archive.getPath() + ".gz").exists(); i++) {
+			archive = new File(file.getParentFile(), name + '-' + i);
+		}
+
+		boolean renamed = file.length() > 0 && file.renameTo(archive);
+		openSegment();
+
+		if (renamed) {
+			File segment = archive;
+			compressor.execute(() -> compress(segment));
+		}
+	}
+
+	private static void compress(File segment) {
+		File gz = new File(segment.getPath() + ".gz");
+		try (InputStream in = Files.newInputStream(segment.toPath());
+			 OutputStream out = new GZIPOutputStream(Files.newOutputStream(gz.toPath()), 0x10000)) {
+			byte[] buf = new byte[0x10000];
+			int read;
+			while ((read = in.read(buf)) != -1) {
+				out.write(buf, 0, read);
+			}
+		} catch (IOException e) {
+			log.warn(e.getMessage(), e);
+			return;
+		}
+		if (!segment.delete()) {
+			log.warn("delete rotated log failed: " + segment);
+		}
+	}
+
+	/**
+	 * Writes out the queued records and stops the writer.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+
+		printWriter.flush();
+		closed = true;
+		LockSupport.unpark(thread);
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		compressor.shutdown();
+		try {
+			compressor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static class Record {
+		final long time;
+		final String msg;
+		final int flags;
+		Record(long time, String msg, int flags) {
+			this.time = time;
+			this.msg = msg;
+			this.flags = flags;
+		}
+	}
+
+	/**
+	 * Collects what the {@link PrintWriter} writes until the end of the line, so a line printed with
+	 * <code>println</code> doesn't interleave with the records of other threads. The PrintWriter calls it
+	 * under its own lock.
+	 */
+	private class RecordWriter extends Writer {
+		private final StringBuilder line = new StringBuilder();
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			for (int i = off; i < off + len; i++) {
+				appendChar(cbuf[i]);
+			}
+		}
+		@Override
+		public void write(String str, int off, int len) {
+			for (int i = off; i < off + len; i++) {
+				appendChar(str.charAt(i));
+			}
+		}
+		private void appendChar(char c) {
+			line.append(c);
+			if (c == '\n') {
+				flush();
+			}
+		}
+		/**
+		 * Writes out a partial line too.
+		 */
+		@Override
+		public void flush() {
+			if (line.length() > 0) {
+				offer(line.toString(), 0);
+				line.setLength(0);
+			}
+		}
+		@Override
+		public void close() {
+			flush();
+		}
+	}
+
+	/**
+	 * Appends the content of a {@link ContentRecord} to the batch on the writer thread,
+	 * flushing it whenever it is full.
+	 */
+	private class BatchWriter extends Writer {
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			batch.append(cbuf, off, len);
+			flushFull();
+		}
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			batch.append(str, off, off + len);
+			flushFull();
+		}
+		private void flushFull() throws IOException {
+			if (batch.length() >= BATCH_SIZE) {
+				flushBatch();
+			}
+		}
+		@Override
+		public void flush() {
+		}
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * A record whose caller waits until the writer thread is done with it. Whoever
+	 * claims it first, the writer or a caller that gives up, decides whether it is written.
+	 */
+	private class ContentRecord extends Record {
+		final Content content;
+		private final AtomicBoolean claimed = new AtomicBoolean();
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile boolean written;
+		ContentRecord(long time, Content content, int flags) {
+			super(time, null, flags);
+			this.content = content;
+		}
+		boolean claim() {
+			return claimed.compareAndSet(false, true);
+		}
+		void finish(boolean written) {
+			this.written = written;
+			done.countDown();
+		}
+		void release() {
+			if (claim()) {
+				finish(false);
+			}
+		}
+		boolean await() throws InterruptedIOException {
+			try {
+				while (!done.await(100, TimeUnit.MILLISECONDS)) {
+					if (!thread.isAlive() && claim()) {
+						// the writer stopped before it got to the record
+						return false;
+					}
+				}
+				return written;
+			} catch (InterruptedException e) {
+				if (!claim()) {
+					// the writer is using the content, it has to stay valid until it is done
+					awaitUninterruptibly();
+				}
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("write content interrupted");
+			}
+		}
+		private void awaitUninterruptibly() {
+			while (true) {
+				try {
+					done.await();
+					return;
+				} catch (InterruptedException ignored) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Bounded multi producer, single consumer ring: a producer claims a slot with
+	 * one CAS on the tail and publishes it through the slot sequence.
+	 */
+	private static class Ring {
+		private final int mask;
+		private final AtomicReferenceArray<Record> slots;
+		private final AtomicLongArray sequences;
+		private final AtomicLong tail = new AtomicLong();
+		private long head;
+
+		Ring(int capacity) {
+			int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+			this.mask = size - 1;
+			this.slots = new AtomicReferenceArray<>(size);
+			this.sequences = new AtomicLongArray(size);
+			for (int i = 0; i < size; i++) {
+				sequences.set(i, i);
+			}
+		}
+
+		boolean offer(Record record) {
+			long pos = tail.get();
+			while (true) {
+				int index = (int) pos & mask;
+				long diff = sequences.get(index) - pos;
+				if (diff == 0) {
+					if (tail.compareAndSet(pos, pos + 1)) {
+						slots.lazySet(index, record);
+						sequences.lazySet(index, pos + 1);
+						return true;
+					}
+					pos = tail.get();
+				} else if (diff < 0) {
+					return false;
+				} else {
+					pos = tail.get();
+				}
+			}
+		}
+
+		Record poll() {
+			int index = (int) head & mask;
+			if (sequences.get(index) != head + 1) {
+				return null;
+			}
+			Record record = slots.get(index);
+			slots.lazySet(index, null);
+			sequences.lazySet(index, head + mask + 1);
+			head++;
+			return record;
+		}
+
+		boolean isEmpty() {
+			return sequences.get((int) head & mask) != head + 1;
+		}
+	}
+
+}
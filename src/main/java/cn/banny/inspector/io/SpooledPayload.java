@@ -0,0 +1,141 @@
+package cn.banny.inspector.io;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/**
+ * A frame payload received with bounded memory: payloads up to the threshold are
+ * kept in memory, bigger ones are streamed from the socket into a temp file. The
+ * md5 is digested while the payload is copied.
+ *
+ * @author zhkl0228
+ *
+ */
+public class SpooledPayload implements Closeable {
+
+	public static final int DEFAULT_THRESHOLD = 1 << 20;
+
+	/**
+	 * Reads the next <code>length</code> bytes of the current frame.
+	 * @param dir where to create the temp file, <code>null</code> for the system temp dir
+	 */
+	public static SpooledPayload receive(FrameDecoder decoder, int length, int threshold, File dir) throws IOException {
+		MessageDigest md5 = DigestUtils.getMd5Digest();
+		if (length <= threshold) {
+			ByteBuffer buffer = decoder.readBytes(length);
+			byte[] data = new byte[length];
+			buffer.get(data);
+			md5.update(data);
+			return new SpooledPayload(data, null, length, md5.digest());
+		}
+
+		File file = File.createTempFile("payload", ".tmp", dir);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+			decoder.transferTo(length, channel, md5);
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(file.toPath());
+			throw e;
+		}
+		return new SpooledPayload(null, file, length, md5.digest());
+	}
+
+	private final byte[] data;
+	private final long length;
+	private final byte[] md5;
+	private File file;
+
+	private SpooledPayload(byte[] data, File file, long length, byte[] md5) {
+		super();
+
+		this.data = data;
+		this.file = file;
+		this.length = length;
+		this.md5 = md5;
+	}
+
+	public long length() {
+		return length;
+	}
+
+	public String md5Hex() {
+		return Hex.encodeHexString(md5);
+	}
+
+	public boolean isSpooled() {
+		return data == null;
+	}
+
+	public InputStream openStream() throws IOException {
+		if (data != null) {
+			return new ByteArrayInputStream(data);
+		}
+		return new BufferedInputStream(Files.newInputStream(checkFile().toPath()), 0x10000);
+	}
+
+	/**
+	 * Loads the whole payload, only for consumers that need a byte array.
+	 */
+	public byte[] toByteArray() throws IOException {
+		if (data != null) {
+			return data;
+		}
+		return Files.readAllBytes(checkFile().toPath());
+	}
+
+	/**
+	 * Moves the spooled file to <code>target</code>, or writes the in-memory payload there.
+	 * The payload can't be read from after a move.
+	 */
+	public void saveTo(File target) throws IOException {
+		File parent = target.getParentFile();
+		if (parent != null && !parent.exists() && !parent.mkdirs()) {
+			throw new IOException("create dirs failed: " + parent);
+		}
+
+		if (data != null) {
+			Files.write(target.toPath(), data);
+			return;
+		}
+
+		File source = checkFile();
+		try {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		file = null;
+	}
+
+	private File checkFile() throws IOException {
+		if (file == null) {
+			throw new IOException("payload already moved");
+		}
+		return file;
+	}
+
+	/**
+	 * Deletes the temp file unless it was moved.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (file != null) {
+			Files.deleteIfExists(file.toPath());
+			file = null;
+		}
+	}
+
+}
@@ -47,6 +47,7 @@ import org.jf.dexlib2.dexbacked.ZipDexContainer;
 import org.jf.dexlib2.dexbacked.ZipDexContainer.NotAZipFileException;
 import org.jf.dexlib2.iface.DexFile;
 import org.jf.dexlib2.iface.MultiDexContainer;
+import org.jf.dexlib2.util.DexUtil;
 import org.jf.dexlib2.writer.pool.DexPool;
 import org.jf.util.ExceptionWithContext;
 
@@ -65,12 +66,15 @@ public final class DexFileFactory {
     /**
      * Loads a dex/apk/odex/oat file.
      *
+     * A plain dex file is mapped read-only instead of being read into the heap.
+     *
      * For oat files with multiple dex files, the first will be opened. For zip/apk files, the "classes.dex" entry
      * will be opened.
      *
      * @param file The file to open
      * @param opcodes The set of opcodes to use
-     * @return A DexBackedDexFile for the given file
+     * @return A DexBackedDexFile for the given file. A plain dex file is mapped, see
+     * {@link DexBackedDexFile#fromFile(Opcodes, File)}.
      *
      * @throws UnsupportedOatVersionException If file refers to an unsupported oat file
      * @throws DexFileNotFoundException If file does not exist, if file is a zip file but does not have a "classes.dex"
@@ -94,7 +98,8 @@ public final class DexFileFactory {
         InputStream inputStream = new BufferedInputStream(new FileInputStream(file));
         try {
             try {
-                return DexBackedDexFile.fromInputStream(opcodes, inputStream);
+                DexUtil.verifyDexHeader(inputStream);
+                return DexBackedDexFile.fromFile(opcodes, file);
             } catch (NotADexFile ex) {
                 // just eat it
             }
@@ -105,7 +110,7 @@ public final class DexFileFactory {
                 // just eat it
             }
 
-            // Note: DexBackedDexFile.fromInputStream and DexBackedOdexFile.fromInputStream will reset inputStream
+            // Note: DexUtil.verifyDexHeader and DexBackedOdexFile.fromInputStream will reset inputStream
             // back to the same position, if they fails
 
             OatFile oatFile = null;
@@ -243,7 +248,8 @@ public final class DexFileFactory {
         InputStream inputStream = new BufferedInputStream(new FileInputStream(file));
         try {
             try {
-                DexBackedDexFile dexFile = DexBackedDexFile.fromInputStream(opcodes, inputStream);
+                DexUtil.verifyDexHeader(inputStream);
+                DexBackedDexFile dexFile = DexBackedDexFile.fromFile(opcodes, file);
                 return new SingletonMultiDexContainer(file.getPath(), dexFile);
             } catch (NotADexFile ex) {
                 // just eat it
@@ -256,7 +262,7 @@ public final class DexFileFactory {
                 // just eat it
             }
 
-            // Note: DexBackedDexFile.fromInputStream and DexBackedOdexFile.fromInputStream will reset inputStream
+            // Note: DexUtil.verifyDexHeader and DexBackedOdexFile.fromInputStream will reset inputStream
             // back to the same position, if they fails
 
             OatFile oatFile = null;
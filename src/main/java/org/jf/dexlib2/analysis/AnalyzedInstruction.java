@@ -47,6 +47,13 @@ import javax.annotation.Nullable;
 import java.util.*;
 
 public class AnalyzedInstruction implements Comparable<AnalyzedInstruction> {
+    /**
+     * The longest chain of instructions whose pre-instruction register types are stored as a difference from their
+     * predecessor, before a full register map is kept again. This bounds the cost of looking up a register type
+     * once the analysis is done
+     */
+    private static final int MAX_PRE_REGISTER_CHAIN = 8;
+
     /**
      * The MethodAnalyzer containing this instruction
      */
@@ -76,17 +83,39 @@ public class AnalyzedInstruction implements Comparable<AnalyzedInstruction> {
     @Nonnull
     protected final LinkedList<AnalyzedInstruction> successors = new LinkedList<AnalyzedInstruction>();
 
+    private final int registerCount;
+
     /**
-     * This contains the register types *before* the instruction has executed
+     * This contains the register types *before* the instruction has executed. Once the register state is compacted,
+     * this is null if the types are stored as a difference from the post-instruction register types of
+     * preRegisterBase instead, see {@link #compactRegisterState()}
      */
-    @Nonnull
-    protected final RegisterType[] preRegisterMap;
+    @Nullable
+    protected RegisterType[] preRegisterMap;
 
     /**
-     * This contains the register types *after* the instruction has executed
+     * When preRegisterMap is null, the instruction the pre-instruction register types are taken from, except for the
+     * registers in preRegisterChanges
      */
-    @Nonnull
-    protected final RegisterType[] postRegisterMap;
+    @Nullable
+    private AnalyzedInstruction preRegisterBase;
+
+    @Nullable
+    private SparseRegisterTypes preRegisterChanges;
+
+    /**
+     * The number of instructions between this instruction and the first instruction with a full preRegisterMap,
+     * following preRegisterBase
+     */
+    private int preRegisterChainLength;
+
+    /**
+     * This contains the register types *after* the instruction has executed, for the registers that were set by
+     * {@link #setPostRegisterType(int, RegisterType)} or that this instruction sets. Any other register has the same
+     * type after the instruction as before it.
+     */
+    @Nullable
+    private SparseRegisterTypes postRegisterTypes;
 
     /**
      * This contains optional register type overrides for register types from predecessors
@@ -106,13 +135,9 @@ public class AnalyzedInstruction implements Comparable<AnalyzedInstruction> {
         this.instruction = instruction;
         this.originalInstruction = instruction;
         this.instructionIndex = instructionIndex;
-        this.postRegisterMap = new RegisterType[registerCount];
+        this.registerCount = registerCount;
         this.preRegisterMap = new RegisterType[registerCount];
-        RegisterType unknown = RegisterType.getRegisterType(RegisterType.UNKNOWN, null);
-        for (int i=0; i<registerCount; i++) {
-            preRegisterMap[i] = unknown;
-            postRegisterMap[i] = unknown;
-        }
+        Arrays.fill(preRegisterMap, RegisterType.getRegisterType(RegisterType.UNKNOWN, null));
     }
 
     public int getInstructionIndex() {
@@ -135,7 +160,7 @@ public class AnalyzedInstruction implements Comparable<AnalyzedInstruction> {
                 return override;
             }
         }
-        return predecessor.postRegisterMap[registerNumber];
+        return predecessor.getPostInstructionRegisterType(registerNumber);
     }
 
     protected boolean addPredecessor(AnalyzedInstruction predecessor) {
@@ -203,9 +228,10 @@ public class AnalyzedInstruction implements Comparable<AnalyzedInstruction> {
      */
     protected boolean mergeRegister(int registerNumber, RegisterType registerType, BitSet verifiedInstructions,
                                     boolean override) {
-        assert registerNumber >= 0 && registerNumber < postRegisterMap.length;
+        assert registerNumber >= 0 && registerNumber < registerCount;
         assert registerType != null;
 
+        RegisterType[] preRegisterMap = getMutablePreRegisterMap();
         RegisterType oldRegisterType = preRegisterMap[registerNumber];
 
         RegisterType mergedRegisterType;
@@ -219,14 +245,16 @@ public class AnalyzedInstruction implements Comparable<AnalyzedInstruction> {
             return false;
         }
 
+        RegisterType oldPostRegisterType = getPostInstructionRegisterType(registerNumber);
         preRegisterMap[registerNumber] = mergedRegisterType;
         verifiedInstructions.clear(instructionIndex);
 
         if (!setsRegister(registerNumber)) {
-            postRegisterMap[registerNumber] = mergedRegisterType;
+            clearPostRegisterType(registerNumber);
             return true;
         }
 
+        postRegisterTypes().put(registerNumber, oldPostRegisterType);
         return false;
     }
 
@@ -264,15 +292,15 @@ public class AnalyzedInstruction implements Comparable<AnalyzedInstruction> {
      * @return true if the given register type is different than the existing post-instruction register type
      */
     protected boolean setPostRegisterType(int registerNumber, RegisterType registerType) {
-        assert registerNumber >= 0 && registerNumber < postRegisterMap.length;
+        assert registerNumber >= 0 && registerNumber < registerCount;
         assert registerType != null;
 
-        RegisterType oldRegisterType = postRegisterMap[registerNumber];
+        RegisterType oldRegisterType = getPostInstructionRegisterType(registerNumber);
         if (oldRegisterType.equals(registerType)) {
             return false;
         }
 
-        postRegisterMap[registerNumber] = registerType;
+        postRegisterTypes().put(registerNumber, registerType);
         return true;
     }
 
@@ -297,20 +325,21 @@ public class AnalyzedInstruction implements Comparable<AnalyzedInstruction> {
 
         RegisterType mergedType = getMergedPreRegisterTypeFromPredecessors(registerNumber);
 
+        RegisterType[] preRegisterMap = getMutablePreRegisterMap();
         if (preRegisterMap[registerNumber].equals(mergedType)) {
             return false;
         }
 
+        RegisterType oldPostRegisterType = getPostInstructionRegisterType(registerNumber);
         preRegisterMap[registerNumber] = mergedType;
         verifiedInstructions.clear(instructionIndex);
 
         if (!setsRegister(registerNumber)) {
-            if (!postRegisterMap[registerNumber].equals(mergedType)) {
-                postRegisterMap[registerNumber] = mergedType;
-                return true;
-            }
+            clearPostRegisterType(registerNumber);
+            return !oldPostRegisterType.equals(mergedType);
         }
 
+        postRegisterTypes().put(registerNumber, oldPostRegisterType);
         return false;
     }
 
@@ -504,19 +533,19 @@ public class AnalyzedInstruction implements Comparable<AnalyzedInstruction> {
                     preInstructionDestRegisterType.category == RegisterType.UNINIT_THIS) {
                 setRegisters.add(destinationRegister);
 
-                RegisterType objectRegisterType = preRegisterMap[destinationRegister];
-                for (int i = 0; i < preRegisterMap.length; i++) {
+                RegisterType objectRegisterType = getPreInstructionRegisterType(destinationRegister);
+                for (int i = 0; i < registerCount; i++) {
                     if (i == destinationRegister) {
                         continue;
                     }
 
-                    RegisterType preInstructionRegisterType = preRegisterMap[i];
+                    RegisterType preInstructionRegisterType = getPreInstructionRegisterType(i);
 
                     if (preInstructionRegisterType.equals(objectRegisterType)) {
                         setRegisters.add(i);
                     } else if (preInstructionRegisterType.category == RegisterType.UNINIT_REF ||
                             preInstructionRegisterType.category == RegisterType.UNINIT_THIS) {
-                        RegisterType postInstructionRegisterType = postRegisterMap[i];
+                        RegisterType postInstructionRegisterType = getPostInstructionRegisterType(i);
                         if (postInstructionRegisterType.category == RegisterType.UNKNOWN) {
                             setRegisters.add(i);
                         }
@@ -527,8 +556,8 @@ public class AnalyzedInstruction implements Comparable<AnalyzedInstruction> {
                 // unknown This is because the uninitialized reference may be an alias to the reference being
                 // initialized, but we can't know that until the object register's type is known
 
-                for (int i = 0; i < preRegisterMap.length; i++) {
-                    RegisterType registerType = preRegisterMap[i];
+                for (int i = 0; i < registerCount; i++) {
+                    RegisterType registerType = getPreInstructionRegisterType(i);
                     if (registerType.category == RegisterType.UNINIT_REF ||
                             registerType.category == RegisterType.UNINIT_THIS) {
                         setRegisters.add(i);
@@ -621,17 +650,100 @@ public class AnalyzedInstruction implements Comparable<AnalyzedInstruction> {
     }
 
     public int getRegisterCount() {
-        return postRegisterMap.length;
+        return registerCount;
     }
 
     @Nonnull
     public RegisterType getPostInstructionRegisterType(int registerNumber) {
-        return postRegisterMap[registerNumber];
+        if (postRegisterTypes != null) {
+            RegisterType registerType = postRegisterTypes.get(registerNumber);
+            if (registerType != null) {
+                return registerType;
+            }
+        }
+        return getPreInstructionRegisterType(registerNumber);
     }
 
     @Nonnull
     public RegisterType getPreInstructionRegisterType(int registerNumber) {
-        return preRegisterMap[registerNumber];
+        if (preRegisterMap != null) {
+            return preRegisterMap[registerNumber];
+        }
+        if (preRegisterChanges != null) {
+            RegisterType registerType = preRegisterChanges.get(registerNumber);
+            if (registerType != null) {
+                return registerType;
+            }
+        }
+        assert preRegisterBase != null;
+        return preRegisterBase.getPostInstructionRegisterType(registerNumber);
+    }
+
+    @Nonnull
+    private RegisterType[] getMutablePreRegisterMap() {
+        if (preRegisterMap == null) {
+            throw new IllegalStateException("The register types can't be changed once they are compacted");
+        }
+        return preRegisterMap;
+    }
+
+    @Nonnull
+    private SparseRegisterTypes postRegisterTypes() {
+        if (postRegisterTypes == null) {
+            postRegisterTypes = new SparseRegisterTypes();
+        }
+        return postRegisterTypes;
+    }
+
+    private void clearPostRegisterType(int registerNumber) {
+        if (postRegisterTypes != null) {
+            postRegisterTypes.remove(registerNumber);
+        }
+    }
+
+    /**
+     * Called by {@link MethodAnalyzer#compactRegisterState()} once the analysis of the method is done, in instruction
+     * order. Most instructions have a single predecessor, and their pre-instruction register types only differ from
+     * the post-instruction register types of that predecessor in the registers that an override or a merge from
+     * elsewhere touched, which is usually none. For those instructions, only the differing registers are kept, and the
+     * full register map is dropped. Instructions at merge points, and every few instructions along a chain, keep their
+     * full register map.
+     */
+    void compactRegisterState() {
+        if (postRegisterTypes != null) {
+            postRegisterTypes.trim();
+        }
+
+        if (preRegisterMap == null || predecessors.size() != 1 || predecessorRegisterOverrides != null) {
+            return;
+        }
+        AnalyzedInstruction predecessor = predecessors.first();
+        // only refer back to earlier instructions, so that there can't be a cycle
+        if (predecessor.instructionIndex < 0 || predecessor.instructionIndex >= instructionIndex ||
+                predecessor.preRegisterChainLength >= MAX_PRE_REGISTER_CHAIN) {
+            return;
+        }
+
+        SparseRegisterTypes changes = null;
+        for (int i = 0; i < registerCount; i++) {
+            RegisterType registerType = preRegisterMap[i];
+            if (!registerType.equals(predecessor.getPostInstructionRegisterType(i))) {
+                if (changes == null) {
+                    changes = new SparseRegisterTypes();
+                } else if (changes.size() >= registerCount / 4) {
+                    return;
+                }
+                changes.put(i, registerType);
+            }
+        }
+
+        if (changes != null) {
+            changes.trim();
+        }
+        preRegisterChanges = changes;
+        preRegisterBase = predecessor;
+        preRegisterChainLength = predecessor.preRegisterChainLength + 1;
+        preRegisterMap = null;
     }
 
     public int compareTo(@Nonnull AnalyzedInstruction analyzedInstruction) {
@@ -665,5 +777,71 @@ public class AnalyzedInstruction implements Comparable<AnalyzedInstruction> {
             return Objects.hashCode(analyzedInstruction, registerNumber);
         }
     }
+
+    /**
+     * A small map from register number to register type, kept as sorted arrays
+     */
+    private static final class SparseRegisterTypes {
+        private static final int[] NO_REGISTERS = new int[0];
+        private static final RegisterType[] NO_TYPES = new RegisterType[0];
+
+        @Nonnull private int[] registers = NO_REGISTERS;
+        @Nonnull private RegisterType[] types = NO_TYPES;
+        private int size;
+
+        public int size() {
+            return size;
+        }
+
+        @Nullable
+        public RegisterType get(int registerNumber) {
+            // most lookups are for registers outside of the few that are kept
+            if (size == 0 || registerNumber < registers[0] || registerNumber > registers[size - 1]) {
+                return null;
+            }
+            int index = Arrays.binarySearch(registers, 0, size, registerNumber);
+            if (index < 0) {
+                return null;
+            }
+            return types[index];
+        }
+
+        public void put(int registerNumber, @Nonnull RegisterType registerType) {
+            int index = Arrays.binarySearch(registers, 0, size, registerNumber);
+            if (index >= 0) {
+                types[index] = registerType;
+                return;
+            }
+
+            index = -index - 1;
+            if (size == registers.length) {
+                int capacity = Math.max(4, size * 2);
+                registers = Arrays.copyOf(registers, capacity);
+                types = Arrays.copyOf(types, capacity);
+            }
+            System.arraycopy(registers, index, registers, index + 1, size - index);
+            System.arraycopy(types, index, types, index + 1, size - index);
+            registers[index] = registerNumber;
+            types[index] = registerType;
+            size++;
+        }
+
+        public void remove(int registerNumber) {
+            int index = Arrays.binarySearch(registers, 0, size, registerNumber);
+            if (index < 0) {
+                return;
+            }
+            System.arraycopy(registers, index + 1, registers, index, size - index - 1);
+            System.arraycopy(types, index + 1, types, index, size - index - 1);
+            types[--size] = null;
+        }
+
+        public void trim() {
+            if (size < registers.length) {
+                registers = size == 0 ? NO_REGISTERS : Arrays.copyOf(registers, size);
+                types = size == 0 ? NO_TYPES : Arrays.copyOf(types, size);
+            }
+        }
+    }
 }
 
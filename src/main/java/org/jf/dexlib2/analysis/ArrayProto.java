@@ -111,7 +111,7 @@ public class ArrayProto implements TypeProto {
             if (dimensions == ((ArrayProto)other).dimensions) {
                 TypeProto thisClass = classPath.getClass(elementType);
                 TypeProto otherClass = classPath.getClass(((ArrayProto)other).elementType);
-                TypeProto mergedClass = thisClass.getCommonSuperclass(otherClass);
+                TypeProto mergedClass = classPath.getCommonSuperclass(thisClass, otherClass);
                 if (thisClass == mergedClass) {
                     return this;
                 }
@@ -38,6 +38,7 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.jf.dexlib2.Opcodes;
 import org.jf.dexlib2.analysis.reflection.ReflectionClassDef;
 import org.jf.dexlib2.iface.ClassDef;
@@ -48,10 +49,11 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentMap;
 
 public class ClassPath {
     @Nonnull private final TypeProto unknownClass;
-    @Nonnull private List<ClassProvider> classProviders;
+    @Nonnull private final List<ClassProvider> classProviders;
     private final boolean checkPackagePrivateAccess;
     public final int oatVersion;
 
@@ -142,7 +144,7 @@ public class ClassPath {
         }
     };
 
-    @Nonnull private LoadingCache<String, TypeProto> loadedClasses = CacheBuilder.newBuilder().build(classLoader);
+    @Nonnull private final LoadingCache<String, TypeProto> loadedClasses = CacheBuilder.newBuilder().build(classLoader);
 
     @Nonnull
     public ClassDef getClassDef(String type) {
@@ -155,6 +157,55 @@ public class ClassPath {
         throw new UnresolvedClassException("Could not resolve class %s", type);
     }
 
+    /**
+     * Gets the common superclass of two types, like {@link TypeProto#getCommonSuperclass(TypeProto)} does, but
+     * remembers the result for each pair of types. The same few pairs tend to be merged over and over while analyzing
+     * a method.
+     *
+     * @return The most specific common superclass of the two types. The order of the types doesn't matter.
+     */
+    @Nonnull
+    public TypeProto getCommonSuperclass(@Nonnull TypeProto type1, @Nonnull TypeProto type2) {
+        if (type1 == type2) {
+            return type1;
+        }
+
+        TypePair key = new TypePair(type1, type2);
+        TypeProto commonSuperclass = commonSuperclasses.get(key);
+        if (commonSuperclass == null) {
+            commonSuperclass = type1.getCommonSuperclass(type2);
+            commonSuperclasses.putIfAbsent(key, commonSuperclass);
+        }
+        return commonSuperclass;
+    }
+
+    @Nonnull private final ConcurrentMap<TypePair, TypeProto> commonSuperclasses = Maps.newConcurrentMap();
+
+    /**
+     * An unordered pair of types. The types are compared by identity, as there is only one TypeProto per type
+     */
+    private static final class TypePair {
+        @Nonnull private final TypeProto type1;
+        @Nonnull private final TypeProto type2;
+
+        public TypePair(@Nonnull TypeProto type1, @Nonnull TypeProto type2) {
+            this.type1 = type1;
+            this.type2 = type2;
+        }
+
+        @Override public int hashCode() {
+            return System.identityHashCode(type1) + System.identityHashCode(type2);
+        }
+
+        @Override public boolean equals(Object o) {
+            if (!(o instanceof TypePair)) {
+                return false;
+            }
+            TypePair other = (TypePair)o;
+            return (type1 == other.type1 && type2 == other.type2) || (type1 == other.type2 && type2 == other.type1);
+        }
+    }
+
     @Nonnull
     public TypeProto getUnknownClass() {
         return unknownClass;
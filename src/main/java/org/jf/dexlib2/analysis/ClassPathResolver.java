@@ -34,6 +34,7 @@ package org.jf.dexlib2.analysis;
 import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
 import org.jf.dexlib2.DexFileFactory;
 import org.jf.dexlib2.DexFileFactory.UnsupportedFileTypeException;
 import org.jf.dexlib2.Opcodes;
@@ -41,6 +42,7 @@ import org.jf.dexlib2.dexbacked.DexBackedDexFile;
 import org.jf.dexlib2.dexbacked.DexBackedOdexFile;
 import org.jf.dexlib2.dexbacked.OatFile;
 import org.jf.dexlib2.dexbacked.OatFile.OatDexFile;
+import org.jf.dexlib2.dexbacked.ZipDexContainer;
 import org.jf.dexlib2.iface.DexFile;
 import org.jf.dexlib2.iface.MultiDexContainer;
 import org.jf.dexlib2.iface.MultiDexFile;
@@ -49,9 +51,14 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class ClassPathResolver {
     private final Iterable<String> classPathDirs;
@@ -60,6 +67,12 @@ public class ClassPathResolver {
     private final Set<File> loadedFiles = new HashSet<>();
     private final List<ClassProvider> classProviders = Lists.newArrayList();
 
+    /**
+     * The dex files of the classpath entries, in classpath order. Entries of zip files are loaded concurrently
+     */
+    private final List<Future<? extends DexBackedDexFile>> classPathDexFiles = Lists.newArrayList();
+    private ExecutorService executor;
+
     /**
      * Constructs a new ClassPathResolver using a specified list of bootclasspath entries
      *
@@ -111,6 +124,18 @@ public class ClassPathResolver {
         this.classPathDirs = bootClassPathDirs;
         opcodes = dexFile.getOpcodes();
 
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            resolve(bootClassPathEntries, extraClassPathEntries, dexFile);
+        } finally {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private void resolve(@Nullable List<String> bootClassPathEntries, @Nonnull List<String> extraClassPathEntries,
+                         @Nonnull DexFile dexFile) throws IOException {
+
         if (bootClassPathEntries == null) {
             bootClassPathEntries = getDefaultBootClassPath(dexFile, opcodes.api);
         }
@@ -157,10 +182,20 @@ public class ClassPathResolver {
             }
         }
 
+        for (Future<? extends DexBackedDexFile> classPathDexFile: classPathDexFiles) {
+            classProviders.add(new DexClassProvider(getDexFile(classPathDexFile)));
+        }
+
         if (dexFile instanceof MultiDexFile) {
             MultiDexContainer<? extends MultiDexFile> container = ((MultiDexFile)dexFile).getContainer();
-            for (String entry: container.getDexEntryNames()) {
-                classProviders.add(new DexClassProvider(container.getEntry(entry)));
+            if (container instanceof ZipDexContainer) {
+                for (Future<? extends DexBackedDexFile> entry: ((ZipDexContainer)container).loadEntries(executor)) {
+                    classProviders.add(new DexClassProvider(getDexFile(entry)));
+                }
+            } else {
+                for (String entry: container.getDexEntryNames()) {
+                    classProviders.add(new DexClassProvider(container.getEntry(entry)));
+                }
             }
         } else {
             classProviders.add(new DexClassProvider(dexFile));
@@ -237,8 +272,12 @@ public class ClassPathResolver {
 
         loadedFiles.add(entryFile);
 
-        for (String entryName: entryNames) {
-            classProviders.add(new DexClassProvider(container.getEntry(entryName)));
+        if (container instanceof ZipDexContainer) {
+            classPathDexFiles.addAll(((ZipDexContainer)container).loadEntries(executor));
+        } else {
+            for (String entryName: entryNames) {
+                classPathDexFiles.add(Futures.immediateFuture(container.getEntry(entryName)));
+            }
         }
 
         if (loadOatDependencies && container instanceof OatFile) {
@@ -255,6 +294,26 @@ public class ClassPathResolver {
         }
     }
 
+    @Nonnull
+    private static DexBackedDexFile getDexFile(@Nonnull Future<? extends DexBackedDexFile> future)
+            throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading the classpath");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw new ResolveException(cause);
+        }
+    }
+
     @Nonnull
     private static List<String> splitDevicePath(@Nonnull String path) {
         return Lists.newArrayList(Splitter.on('/').split(path));
@@ -34,16 +34,17 @@ package org.jf.dexlib2.analysis;
 import com.google.common.base.Joiner;
 import com.google.common.base.Predicates;
 import com.google.common.base.Supplier;
-import com.google.common.base.Suppliers;
 import com.google.common.collect.*;
 import com.google.common.primitives.Ints;
 import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.analysis.util.ConcurrentSuppliers;
 import org.jf.dexlib2.analysis.util.TypeProtoUtils;
 import org.jf.dexlib2.base.reference.BaseMethodReference;
 import org.jf.dexlib2.iface.*;
 import org.jf.dexlib2.iface.reference.FieldReference;
 import org.jf.dexlib2.iface.reference.MethodReference;
 import org.jf.dexlib2.util.MethodUtil;
+import org.jf.dexlib2.util.ReferenceUtil;
 import org.jf.util.AlignmentUtils;
 import org.jf.util.ExceptionWithContext;
 import org.jf.util.SparseArray;
@@ -65,10 +66,11 @@ public class ClassProto implements TypeProto {
     @Nonnull protected final ClassPath classPath;
     @Nonnull protected final String type;
 
-    protected boolean vtableFullyResolved = true;
-    protected boolean interfacesFullyResolved = true;
+    // set while the vtable and interfaces are computed, which may happen on several threads at once
+    protected volatile boolean vtableFullyResolved = true;
+    protected volatile boolean interfacesFullyResolved = true;
 
-    protected Set<String> unresolvedInterfaces = null;
+    protected volatile Set<String> unresolvedInterfaces = null;
 
     public ClassProto(@Nonnull ClassPath classPath, @Nonnull String type) {
         if (type.charAt(0) != 'L') {
@@ -88,7 +90,7 @@ public class ClassProto implements TypeProto {
     }
 
 
-    @Nonnull private final Supplier<ClassDef> classDefSupplier = Suppliers.memoize(new Supplier<ClassDef>() {
+    @Nonnull private final Supplier<ClassDef> classDefSupplier = ConcurrentSuppliers.memoize(new Supplier<ClassDef>() {
         @Override public ClassDef get() {
             return classPath.getClassDef(type);
         }
@@ -134,7 +136,7 @@ public class ClassProto implements TypeProto {
      */
     @Nonnull
     private final Supplier<LinkedHashMap<String, ClassDef>> preDefaultMethodInterfaceSupplier =
-            Suppliers.memoize(new Supplier<LinkedHashMap<String, ClassDef>>() {
+            ConcurrentSuppliers.memoize(new Supplier<LinkedHashMap<String, ClassDef>>() {
                 @Override public LinkedHashMap<String, ClassDef> get() {
                     Set<String> unresolvedInterfaces = new HashSet<String>(0);
                     LinkedHashMap<String, ClassDef> interfaces = Maps.newLinkedHashMap();
@@ -210,7 +212,7 @@ public class ClassProto implements TypeProto {
      */
     @Nonnull
     private final Supplier<LinkedHashMap<String, ClassDef>> postDefaultMethodInterfaceSupplier =
-            Suppliers.memoize(new Supplier<LinkedHashMap<String, ClassDef>>() {
+            ConcurrentSuppliers.memoize(new Supplier<LinkedHashMap<String, ClassDef>>() {
                 @Override public LinkedHashMap<String, ClassDef> get() {
                     Set<String> unresolvedInterfaces = new HashSet<String>(0);
                     LinkedHashMap<String, ClassDef> interfaces = Maps.newLinkedHashMap();
@@ -411,19 +413,12 @@ public class ClassProto implements TypeProto {
             return classPath.getUnknownClass();
         }
 
-        List<TypeProto> thisChain = Lists.<TypeProto>newArrayList(this);
-        Iterables.addAll(thisChain, TypeProtoUtils.getSuperclassChain(this));
+        TypeProto[] thisChain = getSuperclassChain();
+        TypeProto[] otherChain = ((ClassProto)other).getSuperclassChain();
 
-        List<TypeProto> otherChain = Lists.newArrayList(other);
-        Iterables.addAll(otherChain, TypeProtoUtils.getSuperclassChain(other));
-
-        // reverse them, so that the first entry is either Ljava/lang/Object; or Ujava/lang/Object;
-        thisChain = Lists.reverse(thisChain);
-        otherChain = Lists.reverse(otherChain);
-
-        for (int i=Math.min(thisChain.size(), otherChain.size())-1; i>=0; i--) {
-            TypeProto typeProto = thisChain.get(i);
-            if (typeProto.getType().equals(otherChain.get(i).getType())) {
+        for (int i=Math.min(thisChain.length, otherChain.length)-1; i>=0; i--) {
+            TypeProto typeProto = thisChain[i];
+            if (typeProto.getType().equals(otherChain[i].getType())) {
                 return typeProto;
             }
         }
@@ -431,6 +426,24 @@ public class ClassProto implements TypeProto {
         return classPath.getUnknownClass();
     }
 
+    /**
+     * @return This class and its superclasses, starting with either Ljava/lang/Object; or Ujava/lang/Object; and
+     * ending with this class. The index of a class is its depth in the class hierarchy.
+     */
+    @Nonnull
+    TypeProto[] getSuperclassChain() {
+        return superclassChainSupplier.get();
+    }
+
+    @Nonnull private final Supplier<TypeProto[]> superclassChainSupplier =
+            ConcurrentSuppliers.memoize(new Supplier<TypeProto[]>() {
+                @Override public TypeProto[] get() {
+                    List<TypeProto> chain = Lists.<TypeProto>newArrayList(ClassProto.this);
+                    Iterables.addAll(chain, TypeProtoUtils.getSuperclassChain(ClassProto.this));
+                    return Lists.reverse(chain).toArray(new TypeProto[chain.size()]);
+                }
+            });
+
     @Override
     @Nullable
     public FieldReference getFieldByOffset(int fieldOffset) {
@@ -452,7 +465,17 @@ public class ClassProto implements TypeProto {
     }
 
     public int findMethodIndexInVtable(@Nonnull MethodReference method) {
-        return findMethodIndexInVtable(getVtable(), method);
+        return findMethodIndexInVtable(getIndexedVtable(), method);
+    }
+
+    private int findMethodIndexInVtable(@Nonnull Vtable vtable, @Nonnull MethodReference method) {
+        for (int i: vtable.getIndexes(method)) {
+            if (!classPath.shouldCheckPackagePrivateAccess() ||
+                    AnalyzedMethodUtil.canAccess(this, vtable.methods.get(i), true, false, false)) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     private int findMethodIndexInVtable(@Nonnull List<Method> vtable, MethodReference method) {
@@ -468,14 +491,12 @@ public class ClassProto implements TypeProto {
         return -1;
     }
 
-    private int findMethodIndexInVtableReverse(@Nonnull List<Method> vtable, MethodReference method) {
-        for (int i=vtable.size() - 1; i>=0; i--) {
-            Method candidate = vtable.get(i);
-            if (MethodUtil.methodSignaturesMatch(candidate, method)) {
-                if (!classPath.shouldCheckPackagePrivateAccess() ||
-                        AnalyzedMethodUtil.canAccess(this, candidate, true, false, false)) {
-                    return i;
-                }
+    private int findMethodIndexInVtableReverse(@Nonnull Vtable vtable, @Nonnull MethodReference method) {
+        int[] indexes = vtable.getIndexes(method);
+        for (int i=indexes.length - 1; i>=0; i--) {
+            if (!classPath.shouldCheckPackagePrivateAccess() ||
+                    AnalyzedMethodUtil.canAccess(this, vtable.methods.get(indexes[i]), true, false, false)) {
+                return indexes[i];
             }
         }
         return -1;
@@ -490,7 +511,7 @@ public class ClassProto implements TypeProto {
     }
 
     @Nonnull private final Supplier<SparseArray<FieldReference>> dalvikInstanceFieldsSupplier =
-            Suppliers.memoize(new Supplier<SparseArray<FieldReference>>() {
+            ConcurrentSuppliers.memoize(new Supplier<SparseArray<FieldReference>>() {
                 @Override public SparseArray<FieldReference> get() {
                     //This is a bit of an "involved" operation. We need to follow the same algorithm that dalvik uses to
                     //arrange fields, so that we end up with the same field offsets (which is needed for deodexing).
@@ -687,7 +708,7 @@ public class ClassProto implements TypeProto {
     }
 
     @Nonnull private final Supplier<SparseArray<FieldReference>> artInstanceFieldsSupplier =
-            Suppliers.memoize(new Supplier<SparseArray<FieldReference>>() {
+            ConcurrentSuppliers.memoize(new Supplier<SparseArray<FieldReference>>() {
 
                 @Override public SparseArray<FieldReference> get() {
                     // We need to follow the same algorithm that art uses to arrange fields, so that we end up with the
@@ -864,6 +885,10 @@ public class ClassProto implements TypeProto {
     }
 
     @Nonnull public List<Method> getVtable() {
+        return getIndexedVtable().methods;
+    }
+
+    @Nonnull private Vtable getIndexedVtable() {
         if (!classPath.isArt() || classPath.oatVersion < 72) {
             return preDefaultMethodVtableSupplier.get();
         } else if (classPath.oatVersion < 87) {
@@ -874,23 +899,23 @@ public class ClassProto implements TypeProto {
     }
 
     //TODO: check the case when we have a package private method that overrides an interface method
-    @Nonnull private final Supplier<List<Method>> preDefaultMethodVtableSupplier = Suppliers.memoize(new Supplier<List<Method>>() {
-        @Override public List<Method> get() {
-            List<Method> vtable = Lists.newArrayList();
+    @Nonnull private final Supplier<Vtable> preDefaultMethodVtableSupplier = ConcurrentSuppliers.memoize(new Supplier<Vtable>() {
+        @Override public Vtable get() {
+            Vtable vtable = new Vtable();
 
             //copy the virtual methods from the superclass
             String superclassType;
             try {
                 superclassType = getSuperclass();
             } catch (UnresolvedClassException ex) {
-                vtable.addAll(((ClassProto)classPath.getClass("Ljava/lang/Object;")).getVtable());
+                vtable.addAll(((ClassProto)classPath.getClass("Ljava/lang/Object;")).getIndexedVtable());
                 vtableFullyResolved = false;
                 return vtable;
             }
 
             if (superclassType != null) {
                 ClassProto superclass = (ClassProto) classPath.getClass(superclassType);
-                vtable.addAll(superclass.getVtable());
+                vtable.addAll(superclass.getIndexedVtable());
 
                 // if the superclass's vtable wasn't fully resolved, then we can't know where the new methods added by this
                 // class should start, so we just propagate what we can from the parent and hope for the best.
@@ -925,23 +950,23 @@ public class ClassProto implements TypeProto {
      * produce multiple vtable entries for a given virtual method. This supplier duplicates this buggy logic in order to
      * generate an identical vtable
      */
-    @Nonnull private final Supplier<List<Method>> buggyPostDefaultMethodVtableSupplier = Suppliers.memoize(new Supplier<List<Method>>() {
-        @Override public List<Method> get() {
-            List<Method> vtable = Lists.newArrayList();
+    @Nonnull private final Supplier<Vtable> buggyPostDefaultMethodVtableSupplier = ConcurrentSuppliers.memoize(new Supplier<Vtable>() {
+        @Override public Vtable get() {
+            Vtable vtable = new Vtable();
 
             //copy the virtual methods from the superclass
             String superclassType;
             try {
                 superclassType = getSuperclass();
             } catch (UnresolvedClassException ex) {
-                vtable.addAll(((ClassProto)classPath.getClass("Ljava/lang/Object;")).getVtable());
+                vtable.addAll(((ClassProto)classPath.getClass("Ljava/lang/Object;")).getIndexedVtable());
                 vtableFullyResolved = false;
                 return vtable;
             }
 
             if (superclassType != null) {
                 ClassProto superclass = (ClassProto) classPath.getClass(superclassType);
-                vtable.addAll(superclass.getVtable());
+                vtable.addAll(superclass.getIndexedVtable());
 
                 // if the superclass's vtable wasn't fully resolved, then we can't know where the new methods added by
                 // this class should start, so we just propagate what we can from the parent and hope for the best.
@@ -973,23 +998,21 @@ public class ClassProto implements TypeProto {
                         int vtableIndex = findMethodIndexInVtableReverse(vtable, interfaceMethod);
                         Method oldVtableMethod = null;
                         if (vtableIndex >= 0) {
-                            oldVtableMethod = vtable.get(vtableIndex);
+                            oldVtableMethod = vtable.methods.get(vtableIndex);
                         }
 
-                        for (int j=0; j<vtable.size(); j++) {
-                            Method candidate = vtable.get(j);
-                            if (MethodUtil.methodSignaturesMatch(candidate, interfaceMethod)) {
-                                if (!classPath.shouldCheckPackagePrivateAccess() ||
-                                        AnalyzedMethodUtil.canAccess(ClassProto.this, candidate, true, false, false)) {
-                                    if (interfaceMethodOverrides(interfaceMethod, candidate)) {
-                                        vtable.set(j, interfaceMethod);
-                                    }
+                        for (int j: vtable.getIndexes(interfaceMethod)) {
+                            Method candidate = vtable.methods.get(j);
+                            if (!classPath.shouldCheckPackagePrivateAccess() ||
+                                    AnalyzedMethodUtil.canAccess(ClassProto.this, candidate, true, false, false)) {
+                                if (interfaceMethodOverrides(interfaceMethod, candidate)) {
+                                    vtable.set(j, interfaceMethod);
                                 }
                             }
                         }
 
                         if (vtableIndex >= 0) {
-                            if (!isOverridableByDefaultMethod(vtable.get(vtableIndex))) {
+                            if (!isOverridableByDefaultMethod(vtable.methods.get(vtableIndex))) {
                                 continue;
                             }
                         }
@@ -1072,23 +1095,23 @@ public class ClassProto implements TypeProto {
         }
     });
 
-    @Nonnull private final Supplier<List<Method>> postDefaultMethodVtableSupplier = Suppliers.memoize(new Supplier<List<Method>>() {
-        @Override public List<Method> get() {
-            List<Method> vtable = Lists.newArrayList();
+    @Nonnull private final Supplier<Vtable> postDefaultMethodVtableSupplier = ConcurrentSuppliers.memoize(new Supplier<Vtable>() {
+        @Override public Vtable get() {
+            Vtable vtable = new Vtable();
 
             //copy the virtual methods from the superclass
             String superclassType;
             try {
                 superclassType = getSuperclass();
             } catch (UnresolvedClassException ex) {
-                vtable.addAll(((ClassProto)classPath.getClass("Ljava/lang/Object;")).getVtable());
+                vtable.addAll(((ClassProto)classPath.getClass("Ljava/lang/Object;")).getIndexedVtable());
                 vtableFullyResolved = false;
                 return vtable;
             }
 
             if (superclassType != null) {
                 ClassProto superclass = (ClassProto) classPath.getClass(superclassType);
-                vtable.addAll(superclass.getVtable());
+                vtable.addAll(superclass.getIndexedVtable());
 
                 // if the superclass's vtable wasn't fully resolved, then we can't know where the new methods added by
                 // this class should start, so we just propagate what we can from the parent and hope for the best.
@@ -1117,7 +1140,7 @@ public class ClassProto implements TypeProto {
                         int vtableIndex = findMethodIndexInVtable(vtable, interfaceMethod);
 
                         if (vtableIndex >= 0) {
-                            if (interfaceMethodOverrides(interfaceMethod, vtable.get(vtableIndex))) {
+                            if (interfaceMethodOverrides(interfaceMethod, vtable.methods.get(vtableIndex))) {
                                 vtable.set(vtableIndex, interfaceMethod);
                             }
                         } else {
@@ -1191,7 +1214,7 @@ public class ClassProto implements TypeProto {
         }
     });
 
-    private void addToVtable(@Nonnull Iterable<? extends Method> localMethods, @Nonnull List<Method> vtable,
+    private void addToVtable(@Nonnull Iterable<? extends Method> localMethods, @Nonnull Vtable vtable,
                              boolean replaceExisting, boolean sort) {
         if (sort) {
             ArrayList<Method> methods = Lists.newArrayList(localMethods);
@@ -1248,6 +1271,72 @@ public class ClassProto implements TypeProto {
         }
     }
 
+    /**
+     * A vtable, along with an index from the name and prototype of each method to its positions in the vtable.
+     *
+     * A signature usually has a single position, but can have more when a package private method isn't accessible
+     * from a subclass, or with the buggy art vtable logic. The position arrays are never modified once they are in the
+     * index, so a subclass shares them with the vtable of its superclass.
+     */
+    private static class Vtable {
+        private static final int[] NO_INDEXES = new int[0];
+
+        @Nonnull final List<Method> methods = Lists.newArrayList();
+        @Nonnull private final HashMap<String, int[]> indexes = Maps.newHashMap();
+
+        /**
+         * @return The positions of the methods with the same name and prototype as the given method, in ascending
+         * order
+         */
+        @Nonnull int[] getIndexes(@Nonnull MethodReference method) {
+            int[] methodIndexes = indexes.get(getSignature(method));
+            if (methodIndexes == null) {
+                return NO_INDEXES;
+            }
+            return methodIndexes;
+        }
+
+        void add(@Nonnull Method method) {
+            String signature = getSignature(method);
+            int[] oldIndexes = indexes.get(signature);
+            int[] newIndexes;
+            if (oldIndexes == null) {
+                newIndexes = new int[] { methods.size() };
+            } else {
+                newIndexes = Arrays.copyOf(oldIndexes, oldIndexes.length + 1);
+                newIndexes[oldIndexes.length] = methods.size();
+            }
+            indexes.put(signature, newIndexes);
+            methods.add(method);
+        }
+
+        void addAll(@Nonnull Iterable<? extends Method> methods) {
+            for (Method method: methods) {
+                add(method);
+            }
+        }
+
+        void addAll(@Nonnull Vtable vtable) {
+            if (methods.isEmpty()) {
+                methods.addAll(vtable.methods);
+                indexes.putAll(vtable.indexes);
+            } else {
+                addAll(vtable.methods);
+            }
+        }
+
+        /**
+         * Replaces the method at the given position with a method that has the same name and prototype
+         */
+        void set(int index, @Nonnull Method method) {
+            methods.set(index, method);
+        }
+
+        @Nonnull private static String getSignature(@Nonnull MethodReference method) {
+            return ReferenceUtil.getMethodDescriptor(method, true);
+        }
+    }
+
     static class ReparentedMethod extends BaseMethodReference implements Method {
         private final Method method;
         private final String definingClass;
@@ -57,7 +57,9 @@ import org.jf.util.SparseArray;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.ArrayDeque;
 import java.util.BitSet;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -88,8 +90,20 @@ public class MethodAnalyzer {
     // Which instructions have been analyzed, keyed by instruction index
     @Nonnull private final BitSet analyzedState;
 
+    // The instruction indexes in reverse postorder of the control flow graph, including the edges to exception
+    // handlers, followed by any unreachable instructions. And the position of each instruction in that order, keyed by
+    // instruction index. The work lists of the analysis are keyed by position, so that an instruction is usually
+    // analyzed after all of its predecessors, except for those reached through a back edge
+    private int[] orderedInstructions;
+    private int[] orderPositions;
+
     @Nullable private AnalysisException analysisException = null;
 
+    // The number of times each instruction was analyzed, keyed by instruction index, and the number of register types
+    // merged into a successor. These are only kept as statistics about the analysis
+    @Nonnull private final int[] visitCounts;
+    private int registerMergeCount;
+
     // This is a dummy instruction that occurs immediately before the first real instruction. We can initialize the
     // register types for this instruction to the parameter types, in order to have them propagate to all of its
     // successors, e.g. the first real instruction, the first instructions in any exception handlers covering the first
@@ -127,6 +141,7 @@ public class MethodAnalyzer {
         buildInstructionList();
 
         analyzedState = new BitSet(analyzedInstructions.size());
+        visitCounts = new int[analyzedInstructions.size()];
         paramRegisterCount = MethodUtil.getParameterRegisterCount(method);
         analyze();
     }
@@ -175,7 +190,7 @@ public class MethodAnalyzer {
 
         //make sure all of the "first instructions" are marked for processing
         for (AnalyzedInstruction successor: startOfMethod.successors) {
-            instructionsToAnalyze.set(successor.instructionIndex);
+            instructionsToAnalyze.set(orderPositions[successor.instructionIndex]);
         }
 
         BitSet undeodexedInstructions = new BitSet(analyzedInstructions.size());
@@ -184,8 +199,10 @@ public class MethodAnalyzer {
             boolean didSomething = false;
 
             while (!instructionsToAnalyze.isEmpty()) {
-                for(int i=instructionsToAnalyze.nextSetBit(0); i>=0; i=instructionsToAnalyze.nextSetBit(i+1)) {
-                    instructionsToAnalyze.clear(i);
+                for (int position=instructionsToAnalyze.nextSetBit(0); position>=0;
+                     position=instructionsToAnalyze.nextSetBit(position+1)) {
+                    instructionsToAnalyze.clear(position);
+                    int i = orderedInstructions[position];
                     if (analyzedState.get(i)) {
                         continue;
                     }
@@ -198,6 +215,7 @@ public class MethodAnalyzer {
                             instructionToAnalyze.restoreOdexedInstruction();
                         }
 
+                        visitCounts[i]++;
                         if (!analyzeInstruction(instructionToAnalyze)) {
                             undeodexedInstructions.set(i);
                             continue;
@@ -218,7 +236,9 @@ public class MethodAnalyzer {
                     analyzedState.set(instructionToAnalyze.getInstructionIndex());
 
                     for (AnalyzedInstruction successor: instructionToAnalyze.successors) {
-                        instructionsToAnalyze.set(successor.getInstructionIndex());
+                        if (!analyzedState.get(successor.instructionIndex)) {
+                            instructionsToAnalyze.set(orderPositions[successor.instructionIndex]);
+                        }
                     }
                 }
                 if (analysisException != null) {
@@ -232,7 +252,7 @@ public class MethodAnalyzer {
 
             if (!undeodexedInstructions.isEmpty()) {
                 for (int i=undeodexedInstructions.nextSetBit(0); i>=0; i=undeodexedInstructions.nextSetBit(i+1)) {
-                    instructionsToAnalyze.set(i);
+                    instructionsToAnalyze.set(orderPositions[i]);
                 }
             }
         } while (true);
@@ -302,6 +322,20 @@ public class MethodAnalyzer {
         return analyzedInstructions.getValues();
     }
 
+    /**
+     * Drops the register maps of the analyzed instructions that can be derived from their predecessor. For large
+     * methods this cuts the memory held by the analyzer severalfold, at the cost of slower register type lookups,
+     * which may then have to walk back over a few instructions. Useful when many analyzers are kept around.
+     *
+     * The register types can't be changed afterwards.
+     */
+    public void compactRegisterState() {
+        startOfMethod.compactRegisterState();
+        for (int i=0; i<analyzedInstructions.size(); i++) {
+            analyzedInstructions.valueAt(i).compactRegisterState();
+        }
+    }
+
     public List<Instruction> getInstructions() {
         return Lists.transform(analyzedInstructions.getValues(), new Function<AnalyzedInstruction, Instruction>() {
             @Nullable @Override public Instruction apply(@Nullable AnalyzedInstruction input) {
@@ -322,6 +356,31 @@ public class MethodAnalyzer {
         return paramRegisterCount;
     }
 
+    /**
+     * @return The number of times the given instruction was analyzed before its register types stopped changing
+     */
+    public int getVisitCount(@Nonnull AnalyzedInstruction instruction) {
+        return visitCounts[instruction.instructionIndex];
+    }
+
+    /**
+     * @return The number of times any instruction was analyzed
+     */
+    public int getInstructionVisitCount() {
+        int visits = 0;
+        for (int visitCount: visitCounts) {
+            visits += visitCount;
+        }
+        return visits;
+    }
+
+    /**
+     * @return The number of times a register type was merged into the pre-instruction register types of a successor
+     */
+    public int getRegisterMergeCount() {
+        return registerMergeCount;
+    }
+
     public int getInstructionAddress(@Nonnull AnalyzedInstruction instruction) {
         return analyzedInstructions.keyAt(instruction.instructionIndex);
     }
@@ -333,19 +392,19 @@ public class MethodAnalyzer {
     }
 
     private void propagateChanges(@Nonnull BitSet changedInstructions, int registerNumber, boolean override) {
-        //Using a for loop inside the while loop optimizes for the common case of the successors of an instruction
-        //occurring after the instruction. Any successors that occur prior to the instruction will be picked up on
-        //the next iteration of the while loop.
+        //changedInstructions is keyed by position in reverse postorder. Using a for loop inside the while loop
+        //optimizes for the common case of the successors of an instruction coming after the instruction in that
+        //order. Any successors through a back edge will be picked up on the next iteration of the while loop.
         //This could also be done recursively, but in large methods it would likely cause very deep recursion.
         while (!changedInstructions.isEmpty()) {
-            for (int instructionIndex=changedInstructions.nextSetBit(0);
-                 instructionIndex>=0;
-                 instructionIndex=changedInstructions.nextSetBit(instructionIndex+1)) {
+            for (int position=changedInstructions.nextSetBit(0);
+                 position>=0;
+                 position=changedInstructions.nextSetBit(position+1)) {
 
-                changedInstructions.clear(instructionIndex);
+                changedInstructions.clear(position);
 
-                propagateRegisterToSuccessors(analyzedInstructions.valueAt(instructionIndex), registerNumber,
-                        changedInstructions, override);
+                propagateRegisterToSuccessors(analyzedInstructions.valueAt(orderedInstructions[position]),
+                        registerNumber, changedInstructions, override);
             }
         }
     }
@@ -360,7 +419,7 @@ public class MethodAnalyzer {
                 predecessor, registerNumber, registerType, analyzedState)) {
             return;
         }
-        changedInstructions.set(analyzedInstruction.instructionIndex);
+        changedInstructions.set(orderPositions[analyzedInstruction.instructionIndex]);
 
         propagateChanges(changedInstructions, registerNumber, true);
 
@@ -423,8 +482,9 @@ public class MethodAnalyzer {
                                                @Nonnull BitSet changedInstructions, boolean override) {
         RegisterType postRegisterType = instruction.getPostInstructionRegisterType(registerNumber);
         for (AnalyzedInstruction successor: instruction.successors) {
+            registerMergeCount++;
             if (successor.mergeRegister(registerNumber, postRegisterType, analyzedState, override)) {
-                changedInstructions.set(successor.instructionIndex);
+                changedInstructions.set(orderPositions[successor.instructionIndex]);
             }
         }
     }
@@ -543,6 +603,52 @@ public class MethodAnalyzer {
                 }
             }
         }
+
+        computeReversePostOrder();
+    }
+
+    private void computeReversePostOrder() {
+        int instructionCount = analyzedInstructions.size();
+        orderedInstructions = new int[instructionCount];
+        orderPositions = new int[instructionCount];
+
+        //a depth first search from the start of the method, without recursion. The successors are visited last to
+        //first, so that the order follows the code where it can
+        BitSet visited = new BitSet(instructionCount);
+        int[] postOrder = new int[instructionCount];
+        int postOrderCount = 0;
+        ArrayDeque<AnalyzedInstruction> stack = new ArrayDeque<AnalyzedInstruction>();
+        ArrayDeque<Iterator<AnalyzedInstruction>> successorStack = new ArrayDeque<Iterator<AnalyzedInstruction>>();
+        stack.push(startOfMethod);
+        successorStack.push(startOfMethod.successors.descendingIterator());
+        while (!stack.isEmpty()) {
+            Iterator<AnalyzedInstruction> successors = successorStack.peek();
+            if (successors.hasNext()) {
+                AnalyzedInstruction successor = successors.next();
+                if (!visited.get(successor.instructionIndex)) {
+                    visited.set(successor.instructionIndex);
+                    stack.push(successor);
+                    successorStack.push(successor.successors.descendingIterator());
+                }
+            } else {
+                AnalyzedInstruction instruction = stack.pop();
+                successorStack.pop();
+                if (instruction != startOfMethod) {
+                    postOrder[postOrderCount++] = instruction.instructionIndex;
+                }
+            }
+        }
+
+        int position = 0;
+        for (int i=postOrderCount-1; i>=0; i--) {
+            orderedInstructions[position++] = postOrder[i];
+        }
+        for (int i=visited.nextClearBit(0); i<instructionCount; i=visited.nextClearBit(i+1)) {
+            orderedInstructions[position++] = i;
+        }
+        for (int i=0; i<instructionCount; i++) {
+            orderPositions[orderedInstructions[i]] = i;
+        }
     }
 
     private void addPredecessorSuccessor(@Nonnull AnalyzedInstruction predecessor,
@@ -1934,7 +2040,7 @@ public class MethodAnalyzer {
     @Nonnull
     private static RegisterType getAndCheckSourceRegister(@Nonnull AnalyzedInstruction analyzedInstruction,
                                                           int registerNumber, BitSet validCategories) {
-        assert registerNumber >= 0 && registerNumber < analyzedInstruction.postRegisterMap.length;
+        assert registerNumber >= 0 && registerNumber < analyzedInstruction.getRegisterCount();
 
         RegisterType registerType = analyzedInstruction.getPreInstructionRegisterType(registerNumber);
 
@@ -1959,7 +2065,7 @@ public class MethodAnalyzer {
     }
 
     private static void checkWidePair(int registerNumber, AnalyzedInstruction analyzedInstruction) {
-        if (registerNumber + 1 >= analyzedInstruction.postRegisterMap.length) {
+        if (registerNumber + 1 >= analyzedInstruction.getRegisterCount()) {
             throw new AnalysisException(String.format("v%d cannot be used as the first register in a wide register" +
                     "pair because it is the last register.", registerNumber));
         }
@@ -0,0 +1,134 @@
+package org.jf.dexlib2.analysis;
+
+import com.google.common.collect.ImmutableList;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Method;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a MethodAnalyzer over every method of a set of classes, spread over a fork-join pool.
+ *
+ * All the analyzers share the class path, so a class proto that is resolved while analyzing one method is reused by
+ * every other method. The analyzers themselves aren't kept, each one is handed to the listener and dropped.
+ */
+public class ParallelMethodAnalyzer {
+    /**
+     * The number of methods below which a range of classes is analyzed on one thread, rather than split further
+     */
+    private static final int METHODS_PER_TASK = 64;
+
+    @Nonnull private final ClassPath classPath;
+    @Nullable private final InlineMethodResolver inlineResolver;
+    private final boolean normalizeVirtualMethods;
+
+    public interface Listener {
+        /**
+         * Called on a pool thread once a method has been analyzed. The analysis of the method may still have
+         * failed, see {@link MethodAnalyzer#getAnalysisException()}.
+         */
+        void methodAnalyzed(@Nonnull ClassDef classDef, @Nonnull Method method, @Nonnull MethodAnalyzer analyzer);
+
+        /**
+         * Called on a pool thread when the analyzer of a method couldn't be created, e.g. because a class couldn't
+         * be resolved.
+         */
+        void methodFailed(@Nonnull ClassDef classDef, @Nonnull Method method, @Nonnull RuntimeException ex);
+    }
+
+    public ParallelMethodAnalyzer(@Nonnull ClassPath classPath, @Nullable InlineMethodResolver inlineResolver,
+                                  boolean normalizeVirtualMethods) {
+        this.classPath = classPath;
+        this.inlineResolver = inlineResolver;
+        this.normalizeVirtualMethods = normalizeVirtualMethods;
+    }
+
+    /**
+     * Analyzes every method with an implementation, and waits until they are all done.
+     *
+     * @param listener Notified of every analyzed method, from several threads at once. May be null.
+     * @return The number of methods that were analyzed without an exception
+     */
+    public int analyze(@Nonnull Iterable<? extends ClassDef> classes, @Nonnull ForkJoinPool pool,
+                       @Nullable Listener listener) {
+        List<? extends ClassDef> classList = ImmutableList.copyOf(classes);
+
+        // methodOffsets[i] is the number of methods in the classes before i, so a task can tell how many methods its
+        // range holds without iterating the methods again on every split
+        int[] methodOffsets = new int[classList.size() + 1];
+        for (int i = 0; i < classList.size(); i++) {
+            int count = 0;
+            for (Method ignored: classList.get(i).getMethods()) {
+                count++;
+            }
+            methodOffsets[i + 1] = methodOffsets[i] + count;
+        }
+
+        AtomicInteger analyzed = new AtomicInteger();
+        pool.invoke(new AnalyzeClasses(classList, methodOffsets, 0, classList.size(), listener, analyzed));
+        return analyzed.get();
+    }
+
+    private class AnalyzeClasses extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        @Nonnull private final List<? extends ClassDef> classes;
+        @Nonnull private final int[] methodOffsets;
+        private final int start;
+        private final int end;
+        @Nullable private final Listener listener;
+        @Nonnull private final AtomicInteger analyzed;
+
+        AnalyzeClasses(@Nonnull List<? extends ClassDef> classes, @Nonnull int[] methodOffsets, int start, int end,
+                       @Nullable Listener listener, @Nonnull AtomicInteger analyzed) {
+            this.classes = classes;
+            this.methodOffsets = methodOffsets;
+            this.start = start;
+            this.end = end;
+            this.listener = listener;
+            this.analyzed = analyzed;
+        }
+
+        @Override protected void compute() {
+            if (end - start > 1 && methodOffsets[end] - methodOffsets[start] > METHODS_PER_TASK) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new AnalyzeClasses(classes, methodOffsets, start, middle, listener, analyzed),
+                        new AnalyzeClasses(classes, methodOffsets, middle, end, listener, analyzed));
+                return;
+            }
+
+            for (int i = start; i < end; i++) {
+                ClassDef classDef = classes.get(i);
+                for (Method method: classDef.getMethods()) {
+                    if (method.getImplementation() != null) {
+                        analyzeMethod(classDef, method);
+                    }
+                }
+            }
+        }
+
+        private void analyzeMethod(@Nonnull ClassDef classDef, @Nonnull Method method) {
+            MethodAnalyzer analyzer;
+            try {
+                analyzer = new MethodAnalyzer(classPath, method, inlineResolver, normalizeVirtualMethods);
+            } catch (RuntimeException ex) {
+                if (listener != null) {
+                    listener.methodFailed(classDef, method, ex);
+                }
+                return;
+            }
+
+            if (analyzer.getAnalysisException() == null) {
+                analyzed.incrementAndGet();
+            }
+            if (listener != null) {
+                listener.methodAnalyzed(classDef, method, analyzer);
+            }
+        }
+    }
+}
@@ -281,7 +281,7 @@ public class RegisterType {
             TypeProto type = this.type;
             if (type != null) {
                 if (other.type != null) {
-                    mergedType = type.getCommonSuperclass(other.type);
+                    mergedType = type.getClassPath().getCommonSuperclass(type, other.type);
                 } else {
                     mergedType = type;
                 }
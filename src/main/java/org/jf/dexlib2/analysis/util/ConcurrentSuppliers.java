@@ -0,0 +1,38 @@
+package org.jf.dexlib2.analysis.util;
+
+import com.google.common.base.Supplier;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ConcurrentSuppliers {
+    /**
+     * Like Suppliers.memoize, but the value is computed without holding a lock. Threads that ask for the value at the
+     * same time may each compute it, and all of them get the first value that was computed.
+     *
+     * The class protos compute their values from the values of their superclass and interfaces. With a lock per
+     * supplier, two threads resolving a malformed class hierarchy with a cycle from different ends would deadlock,
+     * instead of failing like a single thread does.
+     *
+     * The delegate must return equivalent values when called more than once, and must not return null.
+     */
+    @Nonnull
+    public static <T> Supplier<T> memoize(@Nonnull final Supplier<T> delegate) {
+        return new Supplier<T>() {
+            private final AtomicReference<T> value = new AtomicReference<T>();
+
+            @Override public T get() {
+                T current = value.get();
+                if (current == null) {
+                    current = delegate.get();
+                    if (!value.compareAndSet(null, current)) {
+                        current = value.get();
+                    }
+                }
+                return current;
+            }
+        };
+    }
+
+    private ConcurrentSuppliers() {}
+}
@@ -34,9 +34,18 @@ package org.jf.dexlib2.dexbacked;
 import org.jf.util.ExceptionWithContext;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 public class BaseDexBuffer {
-    @Nonnull /* package private */ final byte[] buf;
+    /* package private */ @Nullable final byte[] buf;
+    /* package private */ @Nonnull final ByteBuffer data;
     /* package private */ final int baseOffset;
 
     public BaseDexBuffer(@Nonnull byte[] buf) {
@@ -44,16 +53,47 @@ public class BaseDexBuffer {
     }
     public BaseDexBuffer(@Nonnull byte[] buf, int offset) {
         this.buf = buf;
+        this.data = ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
         this.baseOffset = offset;
     }
 
+    /**
+     * Creates a buffer over <code>data</code>, e.g. a read-only mapping of a file. Reads use absolute positions
+     * only, the position and limit of <code>data</code> are not changed.
+     */
+    public BaseDexBuffer(@Nonnull ByteBuffer data, int offset) {
+        this.buf = data.hasArray() && data.arrayOffset() == 0 ? data.array() : null;
+        this.data = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.baseOffset = offset;
+    }
+
+    /* package private */ BaseDexBuffer(@Nonnull BaseDexBuffer other) {
+        this.buf = other.buf;
+        this.data = other.data;
+        this.baseOffset = other.baseOffset;
+    }
+
+    /**
+     * Maps <code>file</code> read-only. The mapping stays valid after the channel is closed. It is released by
+     * {@link org.jf.util.MappedBufferUtils#unmap(MappedByteBuffer)}, or when the buffer is garbage collected.
+     */
+    @Nonnull
+    public static MappedByteBuffer map(@Nonnull File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(String.format("%s is too large to map: %d bytes", file, size));
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            channel.close();
+        }
+    }
+
     public int readSmallUint(int offset) {
-        byte[] buf = this.buf;
         offset += baseOffset;
-        int result = (buf[offset] & 0xff) |
-                ((buf[offset+1] & 0xff) << 8) |
-                ((buf[offset+2] & 0xff) << 16) |
-                ((buf[offset+3]) << 24);
+        int result = data.getInt(offset);
         if (result < 0) {
             throw new ExceptionWithContext("Encountered small uint that is out of range at offset 0x%x", offset);
         }
@@ -61,12 +101,8 @@ public class BaseDexBuffer {
     }
 
     public int readOptionalUint(int offset) {
-        byte[] buf = this.buf;
         offset += baseOffset;
-        int result = (buf[offset] & 0xff) |
-                ((buf[offset+1] & 0xff) << 8) |
-                ((buf[offset+2] & 0xff) << 16) |
-                ((buf[offset+3]) << 24);
+        int result = data.getInt(offset);
         if (result < -1) {
             throw new ExceptionWithContext("Encountered optional uint that is out of range at offset 0x%x", offset);
         }
@@ -74,40 +110,20 @@ public class BaseDexBuffer {
     }
 
     public int readUshort(int offset) {
-        byte[] buf = this.buf;
-        offset += baseOffset;
-        return (buf[offset] & 0xff) |
-                ((buf[offset+1] & 0xff) << 8);
+        return data.getShort(offset + baseOffset) & 0xffff;
     }
 
     public int readUbyte(int offset) {
-        return buf[offset + baseOffset] & 0xff;
+        return data.get(offset + baseOffset) & 0xff;
     }
 
     public long readLong(int offset) {
-        byte[] buf = this.buf;
-        offset += baseOffset;
-        return (buf[offset] & 0xff) |
-                ((buf[offset+1] & 0xff) << 8) |
-                ((buf[offset+2] & 0xff) << 16) |
-                ((buf[offset+3] & 0xffL) << 24) |
-                ((buf[offset+4] & 0xffL) << 32) |
-                ((buf[offset+5] & 0xffL) << 40) |
-                ((buf[offset+6] & 0xffL) << 48) |
-                (((long)buf[offset+7]) << 56);
+        return data.getLong(offset + baseOffset);
     }
 
     public int readLongAsSmallUint(int offset) {
-        byte[] buf = this.buf;
         offset += baseOffset;
-        long result = (buf[offset] & 0xff) |
-                ((buf[offset+1] & 0xff) << 8) |
-                ((buf[offset+2] & 0xff) << 16) |
-                ((buf[offset+3] & 0xffL) << 24) |
-                ((buf[offset+4] & 0xffL) << 32) |
-                ((buf[offset+5] & 0xffL) << 40) |
-                ((buf[offset+6] & 0xffL) << 48) |
-                (((long)buf[offset+7]) << 56);
+        long result = data.getLong(offset);
         if (result < 0 || result > Integer.MAX_VALUE) {
             throw new ExceptionWithContext("Encountered out-of-range ulong at offset 0x%x", offset);
         }
@@ -115,23 +131,34 @@ public class BaseDexBuffer {
     }
 
     public int readInt(int offset) {
-        byte[] buf = this.buf;
-        offset += baseOffset;
-        return (buf[offset] & 0xff) |
-                ((buf[offset+1] & 0xff) << 8) |
-                ((buf[offset+2] & 0xff) << 16) |
-                (buf[offset+3] << 24);
+        return data.getInt(offset + baseOffset);
     }
 
     public int readShort(int offset) {
-        byte[] buf = this.buf;
-        offset += baseOffset;
-        return (buf[offset] & 0xff) |
-                (buf[offset+1] << 8);
+        return data.getShort(offset + baseOffset);
     }
 
     public int readByte(int offset) {
-        return buf[baseOffset + offset];
+        return data.get(baseOffset + offset);
+    }
+
+    /**
+     * @return A copy of <code>length</code> bytes starting at <code>offset</code>
+     */
+    @Nonnull
+    public byte[] readBytes(int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer duplicate = data.duplicate();
+        duplicate.position(baseOffset + offset);
+        duplicate.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return The size of the whole underlying buffer, including anything before the base offset
+     */
+    public int getBufferLength() {
+        return data.limit();
     }
 
     @Nonnull
@@ -139,11 +166,26 @@ public class BaseDexBuffer {
         return new BaseDexReader<BaseDexBuffer>(this, offset);
     }
 
-    @Nonnull
+    /**
+     * @return The backing array, or null if the buffer isn't backed by an array, e.g. a mapped file
+     */
+    @Nullable
     protected byte[] getBuf() {
         return buf;
     }
 
+    /**
+     * @return A copy of the whole underlying buffer, including anything before the base offset
+     */
+    @Nonnull
+    protected byte[] copyBuf() {
+        byte[] bytes = new byte[data.limit()];
+        ByteBuffer duplicate = data.duplicate();
+        duplicate.position(0);
+        duplicate.get(bytes);
+        return bytes;
+    }
+
     protected int getBaseOffset() {
         return baseOffset;
     }
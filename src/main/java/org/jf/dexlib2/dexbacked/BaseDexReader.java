@@ -35,6 +35,7 @@ import org.jf.util.ExceptionWithContext;
 import org.jf.util.Utf8Utils;
 
 import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
 
 public class BaseDexReader<T extends BaseDexBuffer> {
     @Nonnull public final T dexBuf;
@@ -52,28 +53,28 @@ public class BaseDexReader<T extends BaseDexBuffer> {
         int end = dexBuf.baseOffset + offset;
         int currentByteValue;
         int result;
-        byte[] buf = dexBuf.buf;
+        ByteBuffer buf = dexBuf.data;
 
-        result = buf[end++] & 0xff;
+        result = buf.get(end++) & 0xff;
         if (result <= 0x7f) {
             result = (result << 25) >> 25;
         } else {
-            currentByteValue = buf[end++] & 0xff;
+            currentByteValue = buf.get(end++) & 0xff;
             result = (result & 0x7f) | ((currentByteValue & 0x7f) << 7);
             if (currentByteValue <= 0x7f) {
                 result = (result << 18) >> 18;
             } else {
-                currentByteValue = buf[end++] & 0xff;
+                currentByteValue = buf.get(end++) & 0xff;
                 result |= (currentByteValue & 0x7f) << 14;
                 if (currentByteValue <= 0x7f) {
                     result = (result << 11) >> 11;
                 } else {
-                    currentByteValue = buf[end++] & 0xff;
+                    currentByteValue = buf.get(end++) & 0xff;
                     result |= (currentByteValue & 0x7f) << 21;
                     if (currentByteValue <= 0x7f) {
                         result = (result << 4) >> 4;
                     } else {
-                        currentByteValue = buf[end++] & 0xff;
+                        currentByteValue = buf.get(end++) & 0xff;
                         if (currentByteValue > 0x7f) {
                             throw new ExceptionWithContext(
                                     "Invalid sleb128 integer encountered at offset 0x%x", offset);
@@ -92,17 +93,17 @@ public class BaseDexReader<T extends BaseDexBuffer> {
         int end = dexBuf.baseOffset + offset;
         int currentByteValue;
         int result;
-        byte[] buf = dexBuf.buf;
+        ByteBuffer buf = dexBuf.data;
 
-        result = buf[end++] & 0xff;
+        result = buf.get(end++) & 0xff;
         if (result > 0x7f) {
-            currentByteValue = buf[end++] & 0xff;
+            currentByteValue = buf.get(end++) & 0xff;
             if (currentByteValue > 0x7f) {
-                currentByteValue = buf[end++] & 0xff;
+                currentByteValue = buf.get(end++) & 0xff;
                 if (currentByteValue > 0x7f) {
-                    currentByteValue = buf[end++] & 0xff;
+                    currentByteValue = buf.get(end++) & 0xff;
                     if (currentByteValue > 0x7f) {
-                        currentByteValue = buf[end++] & 0xff;
+                        currentByteValue = buf.get(end++) & 0xff;
                         if (currentByteValue > 0x7f) {
                             throw new ExceptionWithContext(
                                 "Invalid sleb128 integer encountered at offset 0x%x", offset);
@@ -127,20 +128,20 @@ public class BaseDexReader<T extends BaseDexBuffer> {
         int end = dexBuf.baseOffset + offset;
         int currentByteValue;
         int result;
-        byte[] buf = dexBuf.buf;
+        ByteBuffer buf = dexBuf.data;
 
-        result = buf[end++] & 0xff;
+        result = buf.get(end++) & 0xff;
         if (result > 0x7f) {
-            currentByteValue = buf[end++] & 0xff;
+            currentByteValue = buf.get(end++) & 0xff;
             result = (result & 0x7f) | ((currentByteValue & 0x7f) << 7);
             if (currentByteValue > 0x7f) {
-                currentByteValue = buf[end++] & 0xff;
+                currentByteValue = buf.get(end++) & 0xff;
                 result |= (currentByteValue & 0x7f) << 14;
                 if (currentByteValue > 0x7f) {
-                    currentByteValue = buf[end++] & 0xff;
+                    currentByteValue = buf.get(end++) & 0xff;
                     result |= (currentByteValue & 0x7f) << 21;
                     if (currentByteValue > 0x7f) {
-                        currentByteValue = buf[end++];
+                        currentByteValue = buf.get(end++);
 
                         // MSB shouldn't be set on last byte
                         if (currentByteValue < 0) {
@@ -168,17 +169,17 @@ public class BaseDexReader<T extends BaseDexBuffer> {
         int end = dexBuf.baseOffset + offset;
         int currentByteValue;
         int result;
-        byte[] buf = dexBuf.buf;
+        ByteBuffer buf = dexBuf.data;
 
-        result = buf[end++] & 0xff;
+        result = buf.get(end++) & 0xff;
         if (result > 0x7f) {
-            currentByteValue = buf[end++] & 0xff;
+            currentByteValue = buf.get(end++) & 0xff;
             if (currentByteValue > 0x7f) {
-                currentByteValue = buf[end++] & 0xff;
+                currentByteValue = buf.get(end++) & 0xff;
                 if (currentByteValue > 0x7f) {
-                    currentByteValue = buf[end++] & 0xff;
+                    currentByteValue = buf.get(end++) & 0xff;
                     if (currentByteValue > 0x7f) {
-                        currentByteValue = buf[end++];
+                        currentByteValue = buf.get(end++);
 
                         // MSB shouldn't be set on last byte
                         if (currentByteValue < 0) {
@@ -221,20 +222,20 @@ public class BaseDexReader<T extends BaseDexBuffer> {
         int end = dexBuf.baseOffset + offset;
         int currentByteValue;
         int result;
-        byte[] buf = dexBuf.buf;
+        ByteBuffer buf = dexBuf.data;
 
-        result = buf[end++] & 0xff;
+        result = buf.get(end++) & 0xff;
         if (result > 0x7f) {
-            currentByteValue = buf[end++] & 0xff;
+            currentByteValue = buf.get(end++) & 0xff;
             result = (result & 0x7f) | ((currentByteValue & 0x7f) << 7);
             if (currentByteValue > 0x7f) {
-                currentByteValue = buf[end++] & 0xff;
+                currentByteValue = buf.get(end++) & 0xff;
                 result |= (currentByteValue & 0x7f) << 14;
                 if (currentByteValue > 0x7f) {
-                    currentByteValue = buf[end++] & 0xff;
+                    currentByteValue = buf.get(end++) & 0xff;
                     result |= (currentByteValue & 0x7f) << 21;
                     if (currentByteValue > 0x7f) {
-                        currentByteValue = buf[end++];
+                        currentByteValue = buf.get(end++);
 
                         // MSB shouldn't be set on last byte
                         if (currentByteValue < 0) {
@@ -255,17 +256,17 @@ public class BaseDexReader<T extends BaseDexBuffer> {
         int end = dexBuf.baseOffset + offset;
         int currentByteValue;
         int result;
-        byte[] buf = dexBuf.buf;
+        ByteBuffer buf = dexBuf.data;
 
-        result = buf[end++] & 0xff;
+        result = buf.get(end++) & 0xff;
         if (result > 0x7f) {
-            currentByteValue = buf[end++] & 0xff;
+            currentByteValue = buf.get(end++) & 0xff;
             if (currentByteValue > 0x7f) {
-                currentByteValue = buf[end++] & 0xff;
+                currentByteValue = buf.get(end++) & 0xff;
                 if (currentByteValue > 0x7f) {
-                    currentByteValue = buf[end++] & 0xff;
+                    currentByteValue = buf.get(end++) & 0xff;
                     if (currentByteValue > 0x7f) {
-                        currentByteValue = buf[end++];
+                        currentByteValue = buf.get(end++);
 
                         // MSB shouldn't be set on last byte
                         if (currentByteValue < 0) {
@@ -283,17 +284,17 @@ public class BaseDexReader<T extends BaseDexBuffer> {
     public void skipUleb128() {
         int end = dexBuf.baseOffset + offset;
         byte currentByteValue;
-        byte[] buf = dexBuf.buf;
+        ByteBuffer buf = dexBuf.data;
 
-        currentByteValue = buf[end++];
+        currentByteValue = buf.get(end++);
         if (currentByteValue < 0) { // if the MSB is set
-            currentByteValue = buf[end++];
+            currentByteValue = buf.get(end++);
             if (currentByteValue < 0) { // if the MSB is set
-                currentByteValue = buf[end++];
+                currentByteValue = buf.get(end++);
                 if (currentByteValue < 0) { // if the MSB is set
-                    currentByteValue = buf[end++];
+                    currentByteValue = buf.get(end++);
                     if (currentByteValue < 0) { // if the MSB is set
-                        currentByteValue = buf[end++];
+                        currentByteValue = buf.get(end++);
                         if (currentByteValue < 0) {
                             throw new ExceptionWithContext(
                                     "Invalid uleb128 integer encountered at offset 0x%x", offset);
@@ -383,27 +384,27 @@ public class BaseDexReader<T extends BaseDexBuffer> {
 
     public int readSizedInt(int bytes) {
         int o = dexBuf.baseOffset + offset;
-        byte[] buf = dexBuf.buf;
+        ByteBuffer buf = dexBuf.data;
 
         int result;
         switch (bytes) {
             case 4:
-                result = (buf[o] & 0xff) |
-                        ((buf[o+1] & 0xff) << 8) |
-                        ((buf[o+2] & 0xff) << 16) |
-                        (buf[o+3] << 24);
+                result = (buf.get(o) & 0xff) |
+                        ((buf.get(o+1) & 0xff) << 8) |
+                        ((buf.get(o+2) & 0xff) << 16) |
+                        (buf.get(o+3) << 24);
                 break;
             case 3:
-                result = (buf[o] & 0xff) |
-                        ((buf[o+1] & 0xff) << 8) |
-                        ((buf[o+2]) << 16);
+                result = (buf.get(o) & 0xff) |
+                        ((buf.get(o+1) & 0xff) << 8) |
+                        ((buf.get(o+2)) << 16);
                 break;
             case 2:
-                result = (buf[o] & 0xff) |
-                        ((buf[o+1]) << 8);
+                result = (buf.get(o) & 0xff) |
+                        ((buf.get(o+1)) << 8);
                 break;
             case 1:
-                result = buf[o];
+                result = buf.get(o);
                 break;
             default:
                 throw new ExceptionWithContext("Invalid size %d for sized int at offset 0x%x", bytes, offset);
@@ -414,12 +415,12 @@ public class BaseDexReader<T extends BaseDexBuffer> {
 
     public int readSizedSmallUint(int bytes) {
         int o = dexBuf.baseOffset + offset;
-        byte[] buf = dexBuf.buf;
+        ByteBuffer buf = dexBuf.data;
 
         int result = 0;
         switch (bytes) {
             case 4:
-                int b = buf[o+3];
+                int b = buf.get(o+3);
                 if (b < 0) {
                     throw new ExceptionWithContext(
                             "Encountered valid sized uint that is out of range at offset 0x%x", offset);
@@ -427,13 +428,13 @@ public class BaseDexReader<T extends BaseDexBuffer> {
                 result = b << 24;
                 // fall-through
             case 3:
-                result |= (buf[o+2] & 0xff) << 16;
+                result |= (buf.get(o+2) & 0xff) << 16;
                 // fall-through
             case 2:
-                result |= (buf[o+1] & 0xff) << 8;
+                result |= (buf.get(o+1) & 0xff) << 8;
                 // fall-through
             case 1:
-                result |= (buf[o] & 0xff);
+                result |= (buf.get(o) & 0xff);
                 break;
             default:
                 throw new ExceptionWithContext("Invalid size %d for sized uint at offset 0x%x", bytes, offset);
@@ -444,27 +445,27 @@ public class BaseDexReader<T extends BaseDexBuffer> {
 
     public int readSizedRightExtendedInt(int bytes) {
         int o = dexBuf.baseOffset + offset;
-        byte[] buf = dexBuf.buf;
+        ByteBuffer buf = dexBuf.data;
 
         int result;
         switch (bytes) {
             case 4:
-                result = (buf[o] & 0xff) |
-                        ((buf[o+1] & 0xff) << 8) |
-                        ((buf[o+2] & 0xff) << 16) |
-                        (buf[o+3] << 24);
+                result = (buf.get(o) & 0xff) |
+                        ((buf.get(o+1) & 0xff) << 8) |
+                        ((buf.get(o+2) & 0xff) << 16) |
+                        (buf.get(o+3) << 24);
                 break;
             case 3:
-                result = (buf[o] & 0xff) << 8 |
-                        ((buf[o+1] & 0xff) << 16) |
-                        (buf[o+2] << 24);
+                result = (buf.get(o) & 0xff) << 8 |
+                        ((buf.get(o+1) & 0xff) << 16) |
+                        (buf.get(o+2) << 24);
                 break;
             case 2:
-                result = (buf[o] & 0xff) << 16 |
-                        (buf[o+1] << 24);
+                result = (buf.get(o) & 0xff) << 16 |
+                        (buf.get(o+1) << 24);
                 break;
             case 1:
-                result = buf[o] << 24;
+                result = buf.get(o) << 24;
                 break;
             default:
                 throw new ExceptionWithContext(
@@ -476,61 +477,61 @@ public class BaseDexReader<T extends BaseDexBuffer> {
 
     public long readSizedRightExtendedLong(int bytes) {
         int o = dexBuf.baseOffset + offset;
-        byte[] buf = dexBuf.buf;
+        ByteBuffer buf = dexBuf.data;
 
         long result;
         switch (bytes) {
             case 8:
-                result = (buf[o] & 0xff) |
-                        ((buf[o+1] & 0xff) << 8) |
-                        ((buf[o+2] & 0xff) << 16) |
-                        ((buf[o+3] & 0xffL) << 24) |
-                        ((buf[o+4] & 0xffL) << 32) |
-                        ((buf[o+5] & 0xffL) << 40) |
-                        ((buf[o+6] & 0xffL) << 48) |
-                        (((long)buf[o+7]) << 56);
+                result = (buf.get(o) & 0xff) |
+                        ((buf.get(o+1) & 0xff) << 8) |
+                        ((buf.get(o+2) & 0xff) << 16) |
+                        ((buf.get(o+3) & 0xffL) << 24) |
+                        ((buf.get(o+4) & 0xffL) << 32) |
+                        ((buf.get(o+5) & 0xffL) << 40) |
+                        ((buf.get(o+6) & 0xffL) << 48) |
+                        (((long)buf.get(o+7)) << 56);
                 break;
             case 7:
-                result = ((buf[o] & 0xff)) << 8 |
-                        ((buf[o+1] & 0xff) << 16) |
-                        ((buf[o+2] & 0xffL) << 24) |
-                        ((buf[o+3] & 0xffL) << 32) |
-                        ((buf[o+4] & 0xffL) << 40) |
-                        ((buf[o+5] & 0xffL) << 48) |
-                        (((long)buf[o+6]) << 56);
+                result = ((buf.get(o) & 0xff)) << 8 |
+                        ((buf.get(o+1) & 0xff) << 16) |
+                        ((buf.get(o+2) & 0xffL) << 24) |
+                        ((buf.get(o+3) & 0xffL) << 32) |
+                        ((buf.get(o+4) & 0xffL) << 40) |
+                        ((buf.get(o+5) & 0xffL) << 48) |
+                        (((long)buf.get(o+6)) << 56);
                 break;
             case 6:
-                result = ((buf[o] & 0xff)) << 16 |
-                        ((buf[o+1] & 0xffL) << 24) |
-                        ((buf[o+2] & 0xffL) << 32) |
-                        ((buf[o+3] & 0xffL) << 40) |
-                        ((buf[o+4] & 0xffL) << 48) |
-                        (((long)buf[o+5]) << 56);
+                result = ((buf.get(o) & 0xff)) << 16 |
+                        ((buf.get(o+1) & 0xffL) << 24) |
+                        ((buf.get(o+2) & 0xffL) << 32) |
+                        ((buf.get(o+3) & 0xffL) << 40) |
+                        ((buf.get(o+4) & 0xffL) << 48) |
+                        (((long)buf.get(o+5)) << 56);
                 break;
             case 5:
-                result = ((buf[o] & 0xffL)) << 24 |
-                        ((buf[o+1] & 0xffL) << 32) |
-                        ((buf[o+2] & 0xffL) << 40) |
-                        ((buf[o+3] & 0xffL) << 48) |
-                        (((long)buf[o+4]) << 56);
+                result = ((buf.get(o) & 0xffL)) << 24 |
+                        ((buf.get(o+1) & 0xffL) << 32) |
+                        ((buf.get(o+2) & 0xffL) << 40) |
+                        ((buf.get(o+3) & 0xffL) << 48) |
+                        (((long)buf.get(o+4)) << 56);
                 break;
             case 4:
-                result = ((buf[o] & 0xffL)) << 32 |
-                        ((buf[o+1] & 0xffL) << 40) |
-                        ((buf[o+2] & 0xffL) << 48) |
-                        (((long)buf[o+3]) << 56);
+                result = ((buf.get(o) & 0xffL)) << 32 |
+                        ((buf.get(o+1) & 0xffL) << 40) |
+                        ((buf.get(o+2) & 0xffL) << 48) |
+                        (((long)buf.get(o+3)) << 56);
                 break;
             case 3:
-                result = ((buf[o] & 0xffL)) << 40 |
-                        ((buf[o+1] & 0xffL) << 48) |
-                        (((long)buf[o+2]) << 56);
+                result = ((buf.get(o) & 0xffL)) << 40 |
+                        ((buf.get(o+1) & 0xffL) << 48) |
+                        (((long)buf.get(o+2)) << 56);
                 break;
             case 2:
-                result = ((buf[o] & 0xffL)) << 48 |
-                        (((long)buf[o+1]) << 56);
+                result = ((buf.get(o) & 0xffL)) << 48 |
+                        (((long)buf.get(o+1)) << 56);
                 break;
             case 1:
-                result = ((long)buf[o]) << 56;
+                result = ((long)buf.get(o)) << 56;
                 break;
             default:
                 throw new ExceptionWithContext(
@@ -542,61 +543,61 @@ public class BaseDexReader<T extends BaseDexBuffer> {
 
     public long readSizedLong(int bytes) {
         int o = dexBuf.baseOffset + offset;
-        byte[] buf = dexBuf.buf;
+        ByteBuffer buf = dexBuf.data;
 
         long result;
         switch (bytes) {
             case 8:
-                result = (buf[o] & 0xff) |
-                        ((buf[o+1] & 0xff) << 8) |
-                        ((buf[o+2] & 0xff) << 16) |
-                        ((buf[o+3] & 0xffL) << 24) |
-                        ((buf[o+4] & 0xffL) << 32) |
-                        ((buf[o+5] & 0xffL) << 40) |
-                        ((buf[o+6] & 0xffL) << 48) |
-                        (((long)buf[o+7]) << 56);
+                result = (buf.get(o) & 0xff) |
+                        ((buf.get(o+1) & 0xff) << 8) |
+                        ((buf.get(o+2) & 0xff) << 16) |
+                        ((buf.get(o+3) & 0xffL) << 24) |
+                        ((buf.get(o+4) & 0xffL) << 32) |
+                        ((buf.get(o+5) & 0xffL) << 40) |
+                        ((buf.get(o+6) & 0xffL) << 48) |
+                        (((long)buf.get(o+7)) << 56);
                 break;
             case 7:
-                result = (buf[o] & 0xff) |
-                        ((buf[o+1] & 0xff) << 8) |
-                        ((buf[o+2] & 0xff) << 16) |
-                        ((buf[o+3] & 0xffL) << 24) |
-                        ((buf[o+4] & 0xffL) << 32) |
-                        ((buf[o+5] & 0xffL) << 40) |
-                        ((long)(buf[o+6]) << 48);
+                result = (buf.get(o) & 0xff) |
+                        ((buf.get(o+1) & 0xff) << 8) |
+                        ((buf.get(o+2) & 0xff) << 16) |
+                        ((buf.get(o+3) & 0xffL) << 24) |
+                        ((buf.get(o+4) & 0xffL) << 32) |
+                        ((buf.get(o+5) & 0xffL) << 40) |
+                        ((long)(buf.get(o+6)) << 48);
                 break;
             case 6:
-                result = (buf[o] & 0xff) |
-                        ((buf[o+1] & 0xff) << 8) |
-                        ((buf[o+2] & 0xff) << 16) |
-                        ((buf[o+3] & 0xffL) << 24) |
-                        ((buf[o+4] & 0xffL) << 32) |
-                        ((long)(buf[o+5]) << 40);
+                result = (buf.get(o) & 0xff) |
+                        ((buf.get(o+1) & 0xff) << 8) |
+                        ((buf.get(o+2) & 0xff) << 16) |
+                        ((buf.get(o+3) & 0xffL) << 24) |
+                        ((buf.get(o+4) & 0xffL) << 32) |
+                        ((long)(buf.get(o+5)) << 40);
                 break;
             case 5:
-                result = (buf[o] & 0xff) |
-                        ((buf[o+1] & 0xff) << 8) |
-                        ((buf[o+2] & 0xff) << 16) |
-                        ((buf[o+3] & 0xffL) << 24) |
-                        ((long)(buf[o+4]) << 32);
+                result = (buf.get(o) & 0xff) |
+                        ((buf.get(o+1) & 0xff) << 8) |
+                        ((buf.get(o+2) & 0xff) << 16) |
+                        ((buf.get(o+3) & 0xffL) << 24) |
+                        ((long)(buf.get(o+4)) << 32);
                 break;
             case 4:
-                result = (buf[o] & 0xff) |
-                        ((buf[o+1] & 0xff) << 8) |
-                        ((buf[o+2] & 0xff) << 16) |
-                        (((long)buf[o+3]) << 24);
+                result = (buf.get(o) & 0xff) |
+                        ((buf.get(o+1) & 0xff) << 8) |
+                        ((buf.get(o+2) & 0xff) << 16) |
+                        (((long)buf.get(o+3)) << 24);
                 break;
             case 3:
-                result = (buf[o] & 0xff) |
-                        ((buf[o+1] & 0xff) << 8) |
-                        (buf[o+2] << 16);
+                result = (buf.get(o) & 0xff) |
+                        ((buf.get(o+1) & 0xff) << 8) |
+                        (buf.get(o+2) << 16);
                 break;
             case 2:
-                result = (buf[o] & 0xff) |
-                        (buf[o+1] << 8);
+                result = (buf.get(o) & 0xff) |
+                        (buf.get(o+1) << 8);
                 break;
             case 1:
-                result = buf[o];
+                result = buf.get(o);
                 break;
             default:
                 throw new ExceptionWithContext("Invalid size %d for sized long at offset 0x%x", bytes, offset);
@@ -608,16 +609,26 @@ public class BaseDexReader<T extends BaseDexBuffer> {
 
     public String readString(int utf16Length) {
         int[] ret = new int[1];
-        String value = Utf8Utils.utf8BytesWithUtf16LengthToString(
-                dexBuf.buf, dexBuf.baseOffset + offset, utf16Length, ret);
+        String value = decodeString(utf16Length, ret);
         offset += ret[0];
         return value;
     }
 
     public int peekStringLength(int utf16Length) {
         int[] ret = new int[1];
-        Utf8Utils.utf8BytesWithUtf16LengthToString(
-            dexBuf.buf, dexBuf.baseOffset + offset, utf16Length, ret);
+        decodeString(utf16Length, ret);
         return ret[0];
     }
+
+    private String decodeString(int utf16Length, int[] ret) {
+        byte[] buf = dexBuf.buf;
+        if (buf != null) {
+            return Utf8Utils.utf8BytesWithUtf16LengthToString(buf, dexBuf.baseOffset + offset, utf16Length, ret);
+        }
+
+        // a mapped buffer, copy out the most bytes the string can take, 3 per utf16 char
+        int start = dexBuf.baseOffset + offset;
+        int length = (int)Math.min(utf16Length * 3L, dexBuf.data.limit() - start);
+        return Utf8Utils.utf8BytesWithUtf16LengthToString(dexBuf.readBytes(offset, length), 0, utf16Length, ret);
+    }
 }
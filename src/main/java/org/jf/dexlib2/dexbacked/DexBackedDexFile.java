@@ -44,12 +44,18 @@ import org.jf.dexlib2.iface.DexFile;
 import org.jf.dexlib2.iface.reference.Reference;
 import org.jf.dexlib2.util.DexUtil;
 import org.jf.util.ExceptionWithContext;
+import org.jf.util.MappedBufferUtils;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 
@@ -69,13 +75,28 @@ public class DexBackedDexFile extends BaseDexBuffer implements DexFile {
     private final int classCount;
     private final int classStartOffset;
 
+    private volatile boolean stringCacheEnabled = true;
+    @Nullable private volatile SoftReference<String[]> stringCache;
+    @Nullable private volatile int[] classDefIndexes;
+    @Nullable private MappedByteBuffer mapping;
+
     protected DexBackedDexFile(@Nonnull Opcodes opcodes, @Nonnull byte[] buf, int offset, boolean verifyMagic) {
-        super(buf, offset);
+        this(opcodes, new BaseDexBuffer(buf, offset), verifyMagic);
+    }
+
+    private DexBackedDexFile(@Nonnull Opcodes opcodes, @Nonnull BaseDexBuffer buf, boolean verifyMagic) {
+        super(buf);
 
         this.opcodes = opcodes;
 
         if (verifyMagic) {
-            DexUtil.verifyDexHeader(buf, offset);
+            if (this.buf != null) {
+                DexUtil.verifyDexHeader(this.buf, baseOffset);
+            } else if (getBufferLength() - baseOffset < HeaderItem.ITEM_SIZE) {
+                throw new NotADexFile("File is too short");
+            } else {
+                DexUtil.verifyDexHeader(readBytes(0, HeaderItem.ITEM_SIZE), 0);
+            }
         }
 
         stringCount = readSmallUint(HeaderItem.STRING_COUNT_OFFSET);
@@ -93,7 +114,7 @@ public class DexBackedDexFile extends BaseDexBuffer implements DexFile {
     }
 
     public DexBackedDexFile(@Nonnull Opcodes opcodes, @Nonnull BaseDexBuffer buf) {
-        this(opcodes, buf.buf, buf.baseOffset);
+        this(opcodes, buf, false);
     }
 
     public DexBackedDexFile(@Nonnull Opcodes opcodes, @Nonnull byte[] buf, int offset) {
@@ -104,6 +125,13 @@ public class DexBackedDexFile extends BaseDexBuffer implements DexFile {
         this(opcodes, buf, 0, true);
     }
 
+    /**
+     * Reads a dex file from <code>data</code>, e.g. a read-only mapping of a file, without copying it.
+     */
+    public DexBackedDexFile(@Nonnull Opcodes opcodes, @Nonnull ByteBuffer data) {
+        this(opcodes, new BaseDexBuffer(data, 0), true);
+    }
+
     @Nonnull
     public static DexBackedDexFile fromInputStream(@Nonnull Opcodes opcodes, @Nonnull InputStream is)
             throws IOException {
@@ -113,6 +141,44 @@ public class DexBackedDexFile extends BaseDexBuffer implements DexFile {
         return new DexBackedDexFile(opcodes, buf, 0, false);
     }
 
+    /**
+     * Maps the dex file read-only instead of reading it into the heap. The pages are loaded on demand and shared
+     * with the page cache. The mapping is released when the dex file is garbage collected, or explicitly with
+     * {@link #unsafeUnmap()}.
+     */
+    @Nonnull
+    public static DexBackedDexFile fromFile(@Nonnull Opcodes opcodes, @Nonnull File file) throws IOException {
+        MappedByteBuffer mapping = BaseDexBuffer.map(file);
+        DexBackedDexFile dexFile;
+        try {
+            dexFile = new DexBackedDexFile(opcodes, mapping);
+        } catch (RuntimeException e) {
+            MappedBufferUtils.unmap(mapping);
+            throw e;
+        }
+        dexFile.mapping = mapping;
+        return dexFile;
+    }
+
+    /**
+     * Releases the mapping of a dex file opened with {@link #fromFile(Opcodes, File)} right away, instead of when
+     * the dex file is garbage collected. Does nothing for other dex files.
+     *
+     * This is unsafe: reads are not checked, so any later access through this dex file or anything read from it,
+     * e.g. a class def, method or string view held by a ClassPath or DexPool, crashes the JVM. Only call it when
+     * nothing refers to the dex file anymore, e.g. to delete the file on Windows.
+     *
+     * @return true if a mapping was released
+     */
+    public synchronized boolean unsafeUnmap() {
+        if (mapping == null) {
+            return false;
+        }
+        boolean unmapped = MappedBufferUtils.unmap(mapping);
+        mapping = null;
+        return unmapped;
+    }
+
     @Override @Nonnull public Opcodes getOpcodes() {
         return opcodes;
     }
@@ -144,6 +210,89 @@ public class DexBackedDexFile extends BaseDexBuffer implements DexFile {
         };
     }
 
+    /**
+     * Looks up a class without reading the other class defs. The descriptor is found by a binary search over the
+     * string ids and the type ids, which the dex format keeps sorted, and mapped to its class def through an index
+     * that is built on first use from the type index of every class def.
+     *
+     * @param type the type descriptor of the class, e.g. Ljava/lang/Object;
+     * @return the class def, or null if the class isn't defined in this dex file
+     */
+    @Nullable
+    public DexBackedClassDef getClassByType(@Nonnull String type) {
+        int typeIndex = findTypeIndex(type);
+        if (typeIndex < 0) {
+            return null;
+        }
+        int classIndex = getClassDefIndexes()[typeIndex];
+        if (classIndex < 0) {
+            return null;
+        }
+        return new DexBackedClassDef(this, getClassDefItemOffset(classIndex));
+    }
+
+    /**
+     * @return the index of the type id of the descriptor, or -1 if it isn't referenced by this dex file
+     */
+    public int findTypeIndex(@Nonnull String type) {
+        int stringIndex = findStringIndex(type);
+        if (stringIndex < 0) {
+            return -1;
+        }
+
+        int low = 0;
+        int high = typeCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midStringIndex = readSmallUint(typeStartOffset + mid*TypeIdItem.ITEM_SIZE);
+            if (midStringIndex < stringIndex) {
+                low = mid + 1;
+            } else if (midStringIndex > stringIndex) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index of the string id of the string, or -1 if the string isn't in this dex file
+     */
+    public int findStringIndex(@Nonnull String string) {
+        int low = 0;
+        int high = stringCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int comparison = getString(mid).compareTo(string);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    @Nonnull
+    private int[] getClassDefIndexes() {
+        int[] indexes = classDefIndexes;
+        if (indexes == null) {
+            indexes = new int[typeCount];
+            Arrays.fill(indexes, -1);
+            for (int classIndex = 0; classIndex < classCount; classIndex++) {
+                int typeIndex = readSmallUint(getClassDefItemOffset(classIndex) + ClassDefItem.CLASS_OFFSET);
+                if (typeIndex < typeCount) {
+                    indexes[typeIndex] = classIndex;
+                }
+            }
+            classDefIndexes = indexes;
+        }
+        return indexes;
+    }
+
     public int getStringIdItemOffset(int stringIndex) {
         if (stringIndex < 0 || stringIndex >= stringCount) {
             throw new InvalidItemIndex(stringIndex, "String index out of bounds: %d", stringIndex);
@@ -210,8 +359,48 @@ public class DexBackedDexFile extends BaseDexBuffer implements DexFile {
         return methodCount;
     }
 
+    /**
+     * Decoded strings are cached by string index by default. The cache is softly referenced, the GC drops it
+     * as a whole under memory pressure and it is filled again on demand.
+     */
+    public void setStringCacheEnabled(boolean stringCacheEnabled) {
+        this.stringCacheEnabled = stringCacheEnabled;
+        if (!stringCacheEnabled) {
+            stringCache = null;
+        }
+    }
+
+    @Nullable
+    private String[] getStringCache() {
+        if (!stringCacheEnabled) {
+            return null;
+        }
+        SoftReference<String[]> reference = stringCache;
+        String[] cache = reference == null ? null : reference.get();
+        if (cache == null) {
+            cache = new String[stringCount];
+            stringCache = new SoftReference<String[]>(cache);
+        }
+        return cache;
+    }
+
     @Nonnull
     public String getString(int stringIndex) {
+        String[] cache = getStringCache();
+        if (cache == null || stringIndex < 0 || stringIndex >= cache.length) {
+            return readString(stringIndex);
+        }
+
+        String string = cache[stringIndex];
+        if (string == null) {
+            string = readString(stringIndex);
+            cache[stringIndex] = string;
+        }
+        return string;
+    }
+
+    @Nonnull
+    private String readString(int stringIndex) {
         int stringOffset = getStringIdItemOffset(stringIndex);
         int stringDataOffset = readSmallUint(stringOffset);
         DexReader reader = readerAt(stringDataOffset);
@@ -133,7 +133,7 @@ public class DexBackedMethodImplementation implements MethodImplementation {
             System.err.println(String.format("%s: Invalid debug offset", method));
             return DebugInfo.newOrEmpty(dexFile, 0, this);
         }
-        if (debugOffset >= dexFile.buf.length) {
+        if (debugOffset >= dexFile.getBufferLength()) {
             System.err.println(String.format("%s: Invalid debug offset", method));
             return DebugInfo.newOrEmpty(dexFile, 0, this);
         }
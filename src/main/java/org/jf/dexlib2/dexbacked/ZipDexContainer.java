@@ -48,8 +48,19 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -58,9 +69,21 @@ import java.util.zip.ZipFile;
  */
 public class ZipDexContainer implements MultiDexContainer<ZipDexFile> {
 
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_HEADER_SIGNATURE = 0x06054b50;
+    private static final int END_HEADER_SIZE = 22;
+
     private final File zipFilePath;
     private final Opcodes opcodes;
 
+    /**
+     * Local header offset and size of the stored (uncompressed) entries, by entry name
+     */
+    @Nullable private Map<String, long[]> storedEntries;
+
     /**
      * Constructs a new ZipDexContainer for the given zip file
      *
@@ -124,6 +147,30 @@ public class ZipDexContainer implements MultiDexContainer<ZipDexFile> {
         }
     }
 
+    /**
+     * Loads every dex file in this zip file on the given executor. The dex entries are found on the calling thread,
+     * the entries themselves are inflated and verified concurrently. Stored entries are mapped directly from the zip
+     * file instead of being inflated.
+     *
+     * @param executor The executor to load the entries on
+     * @return A future per dex entry, in the order of getDexEntryNames()
+     */
+    @Nonnull public List<Future<ZipDexFile>> loadEntries(@Nonnull ExecutorService executor) throws IOException {
+        List<Future<ZipDexFile>> futures = Lists.newArrayList();
+        for (final String entryName: getDexEntryNames()) {
+            futures.add(executor.submit(new Callable<ZipDexFile>() {
+                @Override public ZipDexFile call() throws Exception {
+                    ZipDexFile dexFile = getEntry(entryName);
+                    if (dexFile == null) {
+                        throw new IOException(String.format("Entry %s of %s disappeared", entryName, zipFilePath));
+                    }
+                    return dexFile;
+                }
+            }));
+        }
+        return futures;
+    }
+
     public boolean isZipFile() {
         ZipFile zipFile = null;
         try {
@@ -153,6 +200,11 @@ public class ZipDexContainer implements MultiDexContainer<ZipDexFile> {
             this.entryName = entryName;
         }
 
+        protected ZipDexFile(@Nonnull Opcodes opcodes, @Nonnull ByteBuffer data, @Nonnull String entryName) {
+            super(opcodes, data);
+            this.entryName = entryName;
+        }
+
         @Nonnull public String getEntryName() {
             return entryName;
         }
@@ -188,6 +240,13 @@ public class ZipDexContainer implements MultiDexContainer<ZipDexFile> {
 
     @Nonnull
     protected ZipDexFile loadEntry(@Nonnull ZipFile zipFile, @Nonnull ZipEntry zipEntry) throws IOException {
+        if (zipEntry.getMethod() == ZipEntry.STORED) {
+            ByteBuffer data = mapStoredEntry(zipEntry.getName());
+            if (data != null) {
+                return new ZipDexFile(opcodes, data, zipEntry.getName());
+            }
+        }
+
         InputStream inputStream = zipFile.getInputStream(zipEntry);
         try {
             byte[] buf = ByteStreams.toByteArray(inputStream);
@@ -197,6 +256,113 @@ public class ZipDexContainer implements MultiDexContainer<ZipDexFile> {
         }
     }
 
+    /**
+     * @return A read-only mapping of the data of a stored entry, or null if the entry can't be located in the zip
+     * file, e.g. in a zip64 file
+     */
+    @Nullable
+    private ByteBuffer mapStoredEntry(@Nonnull String entryName) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(zipFilePath, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            long[] entry = getStoredEntries(channel).get(entryName);
+            if (entry == null) {
+                return null;
+            }
+
+            ByteBuffer localHeader = read(channel, entry[0], LOCAL_HEADER_SIZE);
+            if (localHeader == null || localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                return null;
+            }
+            long dataOffset = entry[0] + LOCAL_HEADER_SIZE + (localHeader.getShort(26) & 0xffff) +
+                    (localHeader.getShort(28) & 0xffff);
+            if (dataOffset + entry[1] > channel.size()) {
+                return null;
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, dataOffset, entry[1]);
+        } finally {
+            file.close();
+        }
+    }
+
+    @Nonnull
+    private synchronized Map<String, long[]> getStoredEntries(@Nonnull FileChannel channel) throws IOException {
+        if (storedEntries == null) {
+            storedEntries = readStoredEntries(channel);
+        }
+        return storedEntries;
+    }
+
+    @Nonnull
+    private static Map<String, long[]> readStoredEntries(@Nonnull FileChannel channel) throws IOException {
+        long size = channel.size();
+        int tailSize = (int)Math.min(size, END_HEADER_SIZE + 0xffff);
+        ByteBuffer tail = read(channel, size - tailSize, tailSize);
+        if (tail == null) {
+            return Collections.emptyMap();
+        }
+
+        int end = tailSize - END_HEADER_SIZE;
+        while (end >= 0 && tail.getInt(end) != END_HEADER_SIGNATURE) {
+            end--;
+        }
+        if (end < 0) {
+            return Collections.emptyMap();
+        }
+
+        long directorySize = tail.getInt(end + 12) & 0xffffffffL;
+        long directoryOffset = tail.getInt(end + 16) & 0xffffffffL;
+        if (directorySize > Integer.MAX_VALUE) {
+            return Collections.emptyMap();
+        }
+        ByteBuffer directory = read(channel, directoryOffset, (int)directorySize);
+        if (directory == null) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, long[]> entries = new HashMap<String, long[]>();
+        int offset = 0;
+        while (offset + CENTRAL_HEADER_SIZE <= directory.limit() &&
+                directory.getInt(offset) == CENTRAL_HEADER_SIGNATURE) {
+            int method = directory.getShort(offset + 10) & 0xffff;
+            long compressedSize = directory.getInt(offset + 20) & 0xffffffffL;
+            long entrySize = directory.getInt(offset + 24) & 0xffffffffL;
+            int nameLength = directory.getShort(offset + 28) & 0xffff;
+            int extraLength = directory.getShort(offset + 30) & 0xffff;
+            int commentLength = directory.getShort(offset + 32) & 0xffff;
+            long localHeaderOffset = directory.getInt(offset + 42) & 0xffffffffL;
+            if (offset + CENTRAL_HEADER_SIZE + nameLength > directory.limit()) {
+                break;
+            }
+
+            // 0xffffffff sizes and offsets are stored in the zip64 extra field
+            if (method == ZipEntry.STORED && compressedSize == entrySize && entrySize != 0xffffffffL &&
+                    localHeaderOffset != 0xffffffffL) {
+                byte[] name = new byte[nameLength];
+                directory.position(offset + CENTRAL_HEADER_SIZE);
+                directory.get(name);
+                entries.put(new String(name, StandardCharsets.UTF_8), new long[] { localHeaderOffset, entrySize });
+            }
+            offset += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    @Nullable
+    private static ByteBuffer read(@Nonnull FileChannel channel, long position, int length) throws IOException {
+        if (position < 0 || position + length > channel.size()) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return null;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
     public static class NotAZipFileException extends RuntimeException {
     }
 }
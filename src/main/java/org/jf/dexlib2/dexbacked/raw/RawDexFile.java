@@ -41,7 +41,6 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Arrays;
 import java.util.List;
 
 public class RawDexFile extends DexBackedDexFile {
@@ -59,7 +58,7 @@ public class RawDexFile extends DexBackedDexFile {
 
     @Nonnull
     public byte[] readByteRange(int start, int length) {
-        return Arrays.copyOfRange(getBuf(), getBaseOffset() + start, getBaseOffset() + start + length);
+        return readBytes(start, length);
     }
 
     public int getMapOffset() {
@@ -95,6 +94,11 @@ public class RawDexFile extends DexBackedDexFile {
 
     public void writeAnnotations(@Nonnull Writer out, @Nonnull AnnotatedBytes annotatedBytes) throws IOException {
         // TODO: need to pass in the offset
-        annotatedBytes.writeAnnotations(out, getBuf());
+        byte[] buf = getBuf();
+        if (buf == null) {
+            // a mapped file, the annotations are dumped from a heap copy of it
+            buf = copyBuf();
+        }
+        annotatedBytes.writeAnnotations(out, buf);
     }
 }
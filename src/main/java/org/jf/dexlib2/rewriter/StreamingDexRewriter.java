@@ -0,0 +1,154 @@
+package org.jf.dexlib2.rewriter;
+
+import com.google.common.collect.Lists;
+import org.jf.dexlib2.dexbacked.DexBackedClassDef;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.writer.builder.DexBuilder;
+import org.jf.dexlib2.writer.io.DexDataStore;
+import org.jf.util.ExceptionWithContext;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Rewrites a dex file a class at a time, straight into a DexBuilder.
+ *
+ * Unlike feeding {@link DexRewriter#rewriteDexFile(org.jf.dexlib2.iface.DexFile)} into a DexPool, every class is
+ * read, rewritten and copied into the builder in one go, so neither the source class nor its rewritten view stays
+ * reachable afterwards. The classes are processed in batches on an executor, with a bounded number of batches in
+ * flight, so apart from the builder itself only a few batches of classes are in memory at any time.
+ *
+ * The rewriters of the module are called from several threads at once and must not keep unsynchronized state.
+ */
+public class StreamingDexRewriter {
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    @Nonnull private final DexRewriter rewriter;
+    private final int batchSize;
+
+    public StreamingDexRewriter(@Nonnull RewriterModule module) {
+        this(module, DEFAULT_BATCH_SIZE);
+    }
+
+    public StreamingDexRewriter(@Nonnull RewriterModule module, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.rewriter = new DexRewriter(module);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Rewrites every class of <code>dexFile</code> into <code>dexBuilder</code>
+     */
+    public void rewrite(@Nonnull DexBackedDexFile dexFile, @Nonnull DexBuilder dexBuilder,
+                        @Nonnull ExecutorService executor) throws IOException {
+        CompletionService<Void> completionService = new ExecutorCompletionService<Void>(executor);
+        List<Future<Void>> batches = Lists.newArrayList();
+        int maxInFlight = Runtime.getRuntime().availableProcessors() * 2;
+        int inFlight = 0;
+        try {
+            for (int start = 0; start < dexFile.getClassCount(); start += batchSize) {
+                if (inFlight == maxInFlight) {
+                    Future<Void> done = take(completionService);
+                    inFlight--;
+                    checkResult(done);
+                }
+                batches.add(completionService.submit(new Batch(dexFile, dexBuilder, start,
+                        Math.min(start + batchSize, dexFile.getClassCount()))));
+                inFlight++;
+            }
+            while (inFlight > 0) {
+                Future<Void> done = take(completionService);
+                inFlight--;
+                checkResult(done);
+            }
+        } finally {
+            // if a batch failed, skip the queued batches and don't leave running ones working against the builder.
+            // Cancelled batches are queued for take() as well.
+            for (Future<Void> batch: batches) {
+                batch.cancel(false);
+            }
+            for (; inFlight > 0; inFlight--) {
+                try {
+                    completionService.take();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites every class of <code>dexFile</code> and writes the result to <code>dataStore</code>
+     */
+    public void rewriteTo(@Nonnull DexBackedDexFile dexFile, @Nonnull DexDataStore dataStore,
+                          @Nonnull ExecutorService executor) throws IOException {
+        DexBuilder dexBuilder = new DexBuilder(dexFile.getOpcodes());
+        rewrite(dexFile, dexBuilder, executor);
+        dexBuilder.writeTo(dataStore, executor);
+    }
+
+    @Nonnull
+    private static Future<Void> take(@Nonnull CompletionService<Void> completionService) throws IOException {
+        try {
+            return completionService.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while rewriting classes");
+        }
+    }
+
+    /**
+     * Rethrows the exception of a failed batch
+     */
+    private static void checkResult(@Nonnull Future<Void> batch) throws IOException {
+        try {
+            batch.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while rewriting classes");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new ExceptionWithContext(cause, "Exception occurred while rewriting classes");
+        }
+    }
+
+    private class Batch implements Callable<Void> {
+        @Nonnull private final DexBackedDexFile dexFile;
+        @Nonnull private final DexBuilder dexBuilder;
+        private final int start;
+        private final int end;
+
+        Batch(@Nonnull DexBackedDexFile dexFile, @Nonnull DexBuilder dexBuilder, int start, int end) {
+            this.dexFile = dexFile;
+            this.dexBuilder = dexBuilder;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override public Void call() {
+            for (int i = start; i < end; i++) {
+                ClassDef classDef = new DexBackedClassDef(dexFile, dexFile.getClassDefItemOffset(i));
+                dexBuilder.internClassDef(rewriter.getClassDefRewriter().rewrite(classDef));
+            }
+            return null;
+        }
+    }
+}
@@ -58,6 +58,7 @@ import org.jf.dexlib2.iface.reference.*;
 import org.jf.dexlib2.util.InstructionUtil;
 import org.jf.dexlib2.util.MethodUtil;
 import org.jf.dexlib2.util.ReferenceUtil;
+import org.jf.dexlib2.writer.io.BufferDataStore;
 import org.jf.dexlib2.writer.io.DeferredOutputStream;
 import org.jf.dexlib2.writer.io.DeferredOutputStreamFactory;
 import org.jf.dexlib2.writer.io.DexDataStore;
@@ -71,6 +72,7 @@ import javax.annotation.Nullable;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -78,6 +80,10 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.zip.Adler32;
 
 public abstract class DexWriter<
@@ -104,6 +110,9 @@ public abstract class DexWriter<
     public static final int NO_INDEX = -1;
     public static final int NO_OFFSET = 0;
 
+    /** The number of methods whose debug and code items are written by one task in the parallel write mode */
+    private static final int CODE_CHUNK_METHODS = 2048;
+
     protected final Opcodes opcodes;
 
     protected int stringIndexSectionOffset = NO_OFFSET;
@@ -163,10 +172,10 @@ public abstract class DexWriter<
     protected abstract void writeEncodedValue(@Nonnull InternalEncodedValueWriter writer,
                                               @Nonnull EncodedValue encodedValue) throws IOException;
 
-    private static Comparator<Entry> toStringKeyComparator =
-            new Comparator<Entry>() {
-                @Override public int compare(Entry o1, Entry o2) {
-                    return o1.getKey().toString().compareTo(o2.getKey().toString());
+    private static Comparator<Object> toStringComparator =
+            new Comparator<Object>() {
+                @Override public int compare(Object o1, Object o2) {
+                    return o1.toString().compareTo(o2.toString());
                 }
             };
 
@@ -178,6 +187,45 @@ public abstract class DexWriter<
         };
     }
 
+    /**
+     * Sets the index or offset of a section item, without boxing it if the section supports that
+     */
+    private static void setValue(@Nonnull Entry<?, Integer> entry, int value) {
+        if (entry instanceof IntEntry) {
+            ((IntEntry<?>)entry).setIntValue(value);
+        } else {
+            entry.setValue(value);
+        }
+    }
+
+    private static int getValue(@Nonnull Entry<?, Integer> entry) {
+        if (entry instanceof IntEntry) {
+            return ((IntEntry<?>)entry).getIntValue();
+        }
+        return entry.getValue();
+    }
+
+    /**
+     * @return The items of a section sorted by key. Like with {@link SortableEntries}, an entry must not be used after
+     * moving on to the next one.
+     */
+    @SuppressWarnings("unchecked")
+    @Nonnull
+    private static <Key> Iterable<? extends Entry<? extends Key, Integer>> sortItems(
+            @Nonnull Collection<? extends Entry<? extends Key, Integer>> items,
+            @Nonnull final Comparator<? super Key> comparator) {
+        if (items instanceof SortableEntries) {
+            return ((SortableEntries<Key>)items).sortedEntries(comparator);
+        }
+        List<Entry<? extends Key, Integer>> entries = Lists.newArrayList(items);
+        Collections.sort(entries, new Comparator<Entry<? extends Key, Integer>>() {
+            @Override public int compare(Entry<? extends Key, Integer> o1, Entry<? extends Key, Integer> o2) {
+                return comparator.compare(o1.getKey(), o2.getKey());
+            }
+        });
+        return entries;
+    }
+
     protected class InternalEncodedValueWriter extends EncodedValueWriter<StringKey, TypeKey, FieldRefKey, MethodRefKey,
             AnnotationElement, EncodedValue> {
         private InternalEncodedValueWriter(@Nonnull DexDataWriter writer) {
@@ -248,11 +296,27 @@ public abstract class DexWriter<
 
     public void writeTo(@Nonnull DexDataStore dest,
                         @Nonnull DeferredOutputStreamFactory tempFactory) throws IOException {
+        writeTo(dest, tempFactory, null);
+    }
+
+    /**
+     * Writes the dex file, serializing the debug and code items of the classes concurrently on
+     * <code>executor</code>. The output is identical to the one of writeTo(DexDataStore). The code items are buffered
+     * in memory.
+     */
+    public void writeTo(@Nonnull DexDataStore dest, @Nonnull ExecutorService executor) throws IOException {
+        writeTo(dest, MemoryDeferredOutputStream.getFactory(), executor);
+    }
+
+    private void writeTo(@Nonnull DexDataStore dest,
+                         @Nonnull DeferredOutputStreamFactory tempFactory,
+                         @Nullable ExecutorService executor) throws IOException {
         try {
             int dataSectionOffset = getDataSectionOffset();
             DexDataWriter headerWriter = outputAt(dest, 0);
             DexDataWriter indexWriter = outputAt(dest, HeaderItem.ITEM_SIZE);
             DexDataWriter offsetWriter = outputAt(dest, dataSectionOffset);
+            int fileSize;
             try {
                 writeStrings(indexWriter, offsetWriter);
                 writeTypes(indexWriter);
@@ -265,36 +329,63 @@ public abstract class DexWriter<
                 writeAnnotationSets(offsetWriter);
                 writeAnnotationSetRefs(offsetWriter);
                 writeAnnotationDirectories(offsetWriter);
-                writeDebugAndCodeItems(offsetWriter, tempFactory.makeDeferredOutputStream());
+                if (executor == null) {
+                    writeDebugAndCodeItems(offsetWriter, tempFactory.makeDeferredOutputStream());
+                } else {
+                    writeDebugAndCodeItems(offsetWriter, executor);
+                }
                 writeClasses(indexWriter, offsetWriter);
                 writeMapItem(offsetWriter);
-                writeHeader(headerWriter, dataSectionOffset, offsetWriter.getPosition());
+                fileSize = offsetWriter.getPosition();
+                writeHeader(headerWriter, dataSectionOffset, fileSize);
             } finally {
                 headerWriter.close();
                 indexWriter.close();
                 offsetWriter.close();
             }
-            updateSignature(dest);
-            updateChecksum(dest);
+            updateSignatureAndChecksum(dest, fileSize);
         } finally {
             dest.close();
         }
     }
 
-    private void updateSignature(@Nonnull DexDataStore dataStore) throws IOException {
+    /**
+     * Computes the signature and the checksum of the first <code>fileSize</code> bytes of the data store in a single
+     * read pass, and writes them to the header. The checksum covers the signature, which isn't known until the pass
+     * is over, so the checksum of the data after the signature is combined with the checksum of the signature.
+     */
+    private void updateSignatureAndChecksum(@Nonnull DexDataStore dataStore, int fileSize) throws IOException {
         MessageDigest md;
         try {
             md = MessageDigest.getInstance("SHA-1");
         } catch (NoSuchAlgorithmException ex) {
             throw new RuntimeException(ex);
         }
-
-        byte[] buffer = new byte[4 * 1024];
-        InputStream input = dataStore.readAt(HeaderItem.SIGNATURE_DATA_START_OFFSET);
-        int bytesRead = input.read(buffer);
-        while (bytesRead >= 0) {
-            md.update(buffer, 0, bytesRead);
-            bytesRead = input.read(buffer);
+        Adler32 dataA32 = new Adler32();
+
+        int dataLength = fileSize - HeaderItem.SIGNATURE_DATA_START_OFFSET;
+        if (dataStore instanceof BufferDataStore) {
+            ByteBuffer data = ((BufferDataStore)dataStore).readBuffer(HeaderItem.SIGNATURE_DATA_START_OFFSET,
+                    dataLength);
+            dataA32.update(data.duplicate());
+            md.update(data);
+        } else {
+            byte[] buffer = new byte[256 * 1024];
+            InputStream input = dataStore.readAt(HeaderItem.SIGNATURE_DATA_START_OFFSET);
+            try {
+                int remaining = dataLength;
+                while (remaining > 0) {
+                    int bytesRead = input.read(buffer, 0, Math.min(buffer.length, remaining));
+                    if (bytesRead < 0) {
+                        throw new ExceptionWithContext("Unexpected end of data store, %d bytes missing", remaining);
+                    }
+                    md.update(buffer, 0, bytesRead);
+                    dataA32.update(buffer, 0, bytesRead);
+                    remaining -= bytesRead;
+                }
+            } finally {
+                input.close();
+            }
         }
 
         byte[] signature = md.digest();
@@ -302,27 +393,37 @@ public abstract class DexWriter<
             throw new RuntimeException("unexpected digest write: " + signature.length + " bytes");
         }
 
-        // write signature
-        OutputStream output = dataStore.outputAt(HeaderItem.SIGNATURE_OFFSET);
-        output.write(signature);
-        output.close();
-    }
-
-    private void updateChecksum(@Nonnull DexDataStore dataStore) throws IOException {
         Adler32 a32 = new Adler32();
+        a32.update(signature);
+        int checksum = combineAdler32((int)a32.getValue(), (int)dataA32.getValue(), dataLength);
 
-        byte[] buffer = new byte[4 * 1024];
-        InputStream input = dataStore.readAt(HeaderItem.CHECKSUM_DATA_START_OFFSET);
-        int bytesRead = input.read(buffer);
-        while (bytesRead >= 0) {
-            a32.update(buffer, 0, bytesRead);
-            bytesRead = input.read(buffer);
+        // write checksum and signature, utilizing logic in DexWriter to write the integer value properly
+        OutputStream output = dataStore.outputAt(HeaderItem.CHECKSUM_OFFSET);
+        try {
+            DexDataWriter.writeInt(output, checksum);
+            output.write(signature);
+        } finally {
+            output.close();
         }
+    }
 
-        // write checksum, utilizing logic in DexWriter to write the integer value properly
-        OutputStream output = dataStore.outputAt(HeaderItem.CHECKSUM_OFFSET);
-        DexDataWriter.writeInt(output, (int)a32.getValue());
-        output.close();
+    /**
+     * @return The Adler-32 checksum of the concatenation of two byte sequences, given the checksums of both and the
+     * length of the second one
+     */
+    static int combineAdler32(int adler1, int adler2, long length2) {
+        final long base = 65521;
+
+        long remainder = length2 % base;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = (remainder * sum1) % base;
+        sum1 += (adler2 & 0xffff) + base - 1;
+        sum2 += ((adler1 >>> 16) & 0xffff) + ((adler2 >>> 16) & 0xffff) + base - remainder;
+        if (sum1 >= base) sum1 -= base;
+        if (sum1 >= base) sum1 -= base;
+        if (sum2 >= (base << 1)) sum2 -= (base << 1);
+        if (sum2 >= base) sum2 -= base;
+        return (int)(sum1 | (sum2 << 16));
     }
 
     private static DexDataWriter outputAt(DexDataStore dataStore, int filePosition) throws IOException {
@@ -333,11 +434,11 @@ public abstract class DexWriter<
         stringIndexSectionOffset = indexWriter.getPosition();
         stringDataSectionOffset = offsetWriter.getPosition();
         int index = 0;
-        List<Entry<? extends StringKey, Integer>> stringEntries = Lists.newArrayList(stringSection.getItems());
-        Collections.sort(stringEntries, toStringKeyComparator);
+        Iterable<? extends Entry<? extends StringKey, Integer>> stringEntries =
+                sortItems(stringSection.getItems(), toStringComparator);
 
         for (Entry<? extends StringKey, Integer>  entry: stringEntries) {
-            entry.setValue(index++);
+            setValue(entry, index++);
             indexWriter.writeInt(offsetWriter.getPosition());
             String stringValue = entry.getKey().toString();
             offsetWriter.writeUleb128(stringValue.length());
@@ -350,11 +451,11 @@ public abstract class DexWriter<
         typeSectionOffset = writer.getPosition();
         int index = 0;
 
-        List<Entry<? extends TypeKey, Integer>> typeEntries = Lists.newArrayList(typeSection.getItems());
-        Collections.sort(typeEntries, toStringKeyComparator);
+        Iterable<? extends Entry<? extends TypeKey, Integer>> typeEntries =
+                sortItems(typeSection.getItems(), toStringComparator);
 
         for (Entry<? extends TypeKey, Integer> entry : typeEntries) {
-            entry.setValue(index++);
+            setValue(entry, index++);
             writer.writeInt(stringSection.getItemIndex(typeSection.getString(entry.getKey())));
         }
     }
@@ -363,11 +464,11 @@ public abstract class DexWriter<
         protoSectionOffset = writer.getPosition();
         int index = 0;
 
-        List<Entry<? extends ProtoRefKey, Integer>> protoEntries = Lists.newArrayList(protoSection.getItems());
-        Collections.sort(protoEntries, DexWriter.<ProtoRefKey>comparableKeyComparator());
+        Iterable<? extends Entry<? extends ProtoRefKey, Integer>> protoEntries =
+                sortItems(protoSection.getItems(), Ordering.<ProtoRefKey>natural());
 
         for (Entry<? extends ProtoRefKey, Integer> entry: protoEntries) {
-            entry.setValue(index++);
+            setValue(entry, index++);
             ProtoRefKey key = entry.getKey();
             writer.writeInt(stringSection.getItemIndex(protoSection.getShorty(key)));
             writer.writeInt(typeSection.getItemIndex(protoSection.getReturnType(key)));
@@ -379,11 +480,11 @@ public abstract class DexWriter<
         fieldSectionOffset = writer.getPosition();
         int index = 0;
 
-        List<Entry<? extends FieldRefKey, Integer>> fieldEntries = Lists.newArrayList(fieldSection.getItems());
-        Collections.sort(fieldEntries, DexWriter.<FieldRefKey>comparableKeyComparator());
+        Iterable<? extends Entry<? extends FieldRefKey, Integer>> fieldEntries =
+                sortItems(fieldSection.getItems(), Ordering.<FieldRefKey>natural());
         
         for (Entry<? extends FieldRefKey, Integer> entry: fieldEntries) {
-            entry.setValue(index++);
+            setValue(entry, index++);
             FieldRefKey key = entry.getKey();
             writer.writeUshort(typeSection.getItemIndex(fieldSection.getDefiningClass(key)));
             writer.writeUshort(typeSection.getItemIndex(fieldSection.getFieldType(key)));
@@ -395,11 +496,11 @@ public abstract class DexWriter<
         methodSectionOffset = writer.getPosition();
         int index = 0;
 
-        List<Entry<? extends MethodRefKey, Integer>> methodEntries = Lists.newArrayList(methodSection.getItems());
-        Collections.sort(methodEntries, DexWriter.<MethodRefKey>comparableKeyComparator());
+        Iterable<? extends Entry<? extends MethodRefKey, Integer>> methodEntries =
+                sortItems(methodSection.getItems(), Ordering.<MethodRefKey>natural());
         
         for (Entry<? extends MethodRefKey, Integer> entry: methodEntries) {
-            entry.setValue(index++);
+            setValue(entry, index++);
             MethodRefKey key = entry.getKey();
             writer.writeUshort(typeSection.getItemIndex(methodSection.getDefiningClass(key)));
             writer.writeUshort(protoSection.getItemIndex(methodSection.getPrototype(key)));
@@ -435,7 +536,7 @@ public abstract class DexWriter<
             return nextIndex;
         }
 
-        if (entry.getValue() != NO_INDEX) {
+        if (getValue(entry) != NO_INDEX) {
             // class has already been written, no need to write it
             return nextIndex;
         }
@@ -443,7 +544,7 @@ public abstract class DexWriter<
         ClassKey key = entry.getKey();
 
         // set a bogus index, to make sure we don't recurse and double-write it
-        entry.setValue(0);
+        setValue(entry, 0);
 
         // first, try to write the superclass
         Entry<? extends ClassKey, Integer> superEntry =
@@ -457,7 +558,7 @@ public abstract class DexWriter<
         }
 
         // now set the index for real
-        entry.setValue(nextIndex++);
+        setValue(entry, nextIndex++);
 
         // and finally, write the class itself
         // first, the class_def_item
@@ -531,7 +632,7 @@ public abstract class DexWriter<
         typeListSectionOffset = writer.getPosition();
         for (Entry<? extends TypeListKey, Integer> entry: typeListSection.getItems()) {
             writer.align();
-            entry.setValue(writer.getPosition());
+            setValue(entry, writer.getPosition());
 
             Collection<? extends TypeKey> types = typeListSection.getTypes(entry.getKey());
             writer.writeInt(types.size());
@@ -599,7 +700,7 @@ public abstract class DexWriter<
 
         annotationSectionOffset = writer.getPosition();
         for (Entry<? extends AnnotationKey, Integer> entry: annotationSection.getItems()) {
-            entry.setValue(writer.getPosition());
+            setValue(entry, writer.getPosition());
 
             AnnotationKey key = entry.getKey();
 
@@ -629,7 +730,7 @@ public abstract class DexWriter<
                     .immutableSortedCopy(annotationSetSection.getAnnotations(entry.getKey()));
 
             writer.align();
-            entry.setValue(writer.getPosition());
+            setValue(entry, writer.getPosition());
             writer.writeInt(annotations.size());
             for (AnnotationKey annotationKey: annotations) {
                 writer.writeInt(annotationSection.getItemOffset(annotationKey));
@@ -786,46 +887,17 @@ public abstract class DexWriter<
             Iterable<MethodKey> methods = Iterables.concat(directMethods, virtualMethods);
 
             for (MethodKey methodKey: methods) {
-                List<? extends TryBlock<? extends ExceptionHandler>> tryBlocks =
-                        classSection.getTryBlocks(methodKey);
-                Iterable<? extends Instruction> instructions = classSection.getInstructions(methodKey);
-                Iterable<? extends DebugItem> debugItems = classSection.getDebugItems(methodKey);
-
-                if (instructions != null && stringSection.hasJumboIndexes()) {
-                    boolean needsFix = false;
-                    for (Instruction instruction: instructions) {
-                        if (instruction.getOpcode() == Opcode.CONST_STRING) {
-                            if (stringSection.getItemIndex(
-                                    (StringRef)((ReferenceInstruction)instruction).getReference()) >= 65536) {
-                                needsFix = true;
-                                break;
-                            }
-                        }
-                    }
-
-                    if (needsFix) {
-                        MutableMethodImplementation mutableMethodImplementation =
-                                classSection.makeMutableMethodImplementation(methodKey);
-                        fixInstructions(mutableMethodImplementation);
-
-                        instructions = mutableMethodImplementation.getInstructions();
-                        tryBlocks = mutableMethodImplementation.getTryBlocks();
-                        debugItems = mutableMethodImplementation.getDebugItems();
-                    }
-                }
+                MethodCode code = getMethodCode(methodKey);
 
                 int debugItemOffset = writeDebugItem(offsetWriter, debugWriter,
-                        classSection.getParameterNames(methodKey), debugItems);
-                int codeItemOffset;
-                try {
-                    codeItemOffset = writeCodeItem(
-                            codeWriter, ehBuf, methodKey, tryBlocks, instructions, debugItemOffset);
-                } catch (RuntimeException ex) {
-                    throw new ExceptionWithContext(ex, "Exception occurred while writing code_item for method %s",
-                            methodSection.getMethodReference(methodKey));
+                        classSection.getParameterNames(methodKey), code.debugItems);
+                if (debugItemOffset != NO_OFFSET) {
+                    numDebugInfoItems++;
                 }
+                int codeItemOffset = writeCodeItem(codeWriter, ehBuf, methodKey, code, debugItemOffset);
 
                 if (codeItemOffset != -1) {
+                    numCodeItemItems++;
                     codeOffsets.add(new CodeItemOffset<MethodKey>(methodKey, codeItemOffset));
                 }
             }
@@ -843,6 +915,208 @@ public abstract class DexWriter<
         }
     }
 
+    /**
+     * The instructions, try blocks and debug items of a method, with const-string instructions that reference a
+     * jumbo string index already converted to const-string/jumbo.
+     */
+    private static class MethodCode {
+        @Nullable final Iterable<? extends Instruction> instructions;
+        @Nonnull final List<? extends TryBlock<? extends ExceptionHandler>> tryBlocks;
+        @Nullable final Iterable<? extends DebugItem> debugItems;
+
+        private MethodCode(@Nullable Iterable<? extends Instruction> instructions,
+                           @Nonnull List<? extends TryBlock<? extends ExceptionHandler>> tryBlocks,
+                           @Nullable Iterable<? extends DebugItem> debugItems) {
+            this.instructions = instructions;
+            this.tryBlocks = tryBlocks;
+            this.debugItems = debugItems;
+        }
+    }
+
+    @Nonnull
+    private MethodCode getMethodCode(@Nonnull MethodKey methodKey) {
+        List<? extends TryBlock<? extends ExceptionHandler>> tryBlocks = classSection.getTryBlocks(methodKey);
+        Iterable<? extends Instruction> instructions = classSection.getInstructions(methodKey);
+        Iterable<? extends DebugItem> debugItems = classSection.getDebugItems(methodKey);
+
+        if (instructions != null && stringSection.hasJumboIndexes()) {
+            boolean needsFix = false;
+            for (Instruction instruction: instructions) {
+                if (instruction.getOpcode() == Opcode.CONST_STRING) {
+                    if (stringSection.getItemIndex(
+                            (StringRef)((ReferenceInstruction)instruction).getReference()) >= 65536) {
+                        needsFix = true;
+                        break;
+                    }
+                }
+            }
+
+            if (needsFix) {
+                MutableMethodImplementation mutableMethodImplementation =
+                        classSection.makeMutableMethodImplementation(methodKey);
+                fixInstructions(mutableMethodImplementation);
+
+                instructions = mutableMethodImplementation.getInstructions();
+                tryBlocks = mutableMethodImplementation.getTryBlocks();
+                debugItems = mutableMethodImplementation.getDebugItems();
+            }
+        }
+        return new MethodCode(instructions, tryBlocks, debugItems);
+    }
+
+    /**
+     * Writes the debug and code items like writeDebugAndCodeItems(DexDataWriter, DeferredOutputStream), but splits
+     * the classes into chunks that are written concurrently into separate buffers. The code items of a chunk refer to
+     * the debug items of the chunk by their offset within the chunk, these references are patched once the size of
+     * every chunk is known and the buffers are stitched together. The output is identical to the sequential one.
+     */
+    private void writeDebugAndCodeItems(@Nonnull DexDataWriter offsetWriter,
+                                        @Nonnull ExecutorService executor) throws IOException {
+        debugSectionOffset = offsetWriter.getPosition();
+
+        List<Future<CodeChunk<MethodKey>>> futures = Lists.newArrayList();
+        List<ClassKey> chunkClasses = Lists.newArrayList();
+        int chunkMethods = 0;
+        for (ClassKey classKey: classSection.getSortedClasses()) {
+            chunkClasses.add(classKey);
+            chunkMethods += classSection.getSortedDirectMethods(classKey).size() +
+                    classSection.getSortedVirtualMethods(classKey).size();
+            if (chunkMethods >= CODE_CHUNK_METHODS) {
+                futures.add(executor.submit(makeCodeChunkTask(chunkClasses)));
+                chunkClasses = Lists.newArrayList();
+                chunkMethods = 0;
+            }
+        }
+        if (!chunkClasses.isEmpty()) {
+            futures.add(executor.submit(makeCodeChunkTask(chunkClasses)));
+        }
+
+        List<CodeChunk<MethodKey>> chunks = Lists.newArrayList();
+        for (Future<CodeChunk<MethodKey>> future: futures) {
+            chunks.add(getChunk(future));
+        }
+
+        int debugChunkOffset = debugSectionOffset;
+        for (CodeChunk<MethodKey> chunk: chunks) {
+            for (int i = 0; i < chunk.debugReferences.size(); i += 2) {
+                chunk.code.patchInt(chunk.debugReferences.get(i), debugChunkOffset + chunk.debugReferences.get(i + 1));
+            }
+            chunk.debug.writeTo(offsetWriter);
+            debugChunkOffset += chunk.debug.size();
+            numDebugInfoItems += chunk.debugItemCount;
+        }
+
+        offsetWriter.align();
+        codeSectionOffset = offsetWriter.getPosition();
+
+        for (CodeChunk<MethodKey> chunk: chunks) {
+            if (chunk.code.size() == 0) {
+                continue;
+            }
+            // the code buffer of every chunk starts with an aligned code item
+            offsetWriter.align();
+            int codeChunkOffset = offsetWriter.getPosition();
+            chunk.code.writeTo(offsetWriter);
+            for (CodeItemOffset<MethodKey> codeOffset: chunk.codeOffsets) {
+                classSection.setCodeItemOffset(codeOffset.method, codeChunkOffset + codeOffset.codeOffset);
+            }
+            numCodeItemItems += chunk.codeOffsets.size();
+        }
+    }
+
+    @Nonnull
+    private Callable<CodeChunk<MethodKey>> makeCodeChunkTask(@Nonnull final List<ClassKey> classes) {
+        return new Callable<CodeChunk<MethodKey>>() {
+            @Override public CodeChunk<MethodKey> call() throws IOException {
+                CodeChunk<MethodKey> chunk = new CodeChunk<MethodKey>();
+                ByteArrayOutputStream ehBuf = new ByteArrayOutputStream();
+                DexDataWriter debugItemWriter = new DexDataWriter(chunk.debug, 0, 64 * 1024);
+                DexDataWriter codeWriter = new DexDataWriter(chunk.code, 0, 64 * 1024);
+                DebugWriter<StringKey, TypeKey> debugWriter =
+                        new DebugWriter<StringKey, TypeKey>(stringSection, typeSection, debugItemWriter);
+
+                for (ClassKey classKey: classes) {
+                    Iterable<MethodKey> methods = Iterables.concat(classSection.getSortedDirectMethods(classKey),
+                            classSection.getSortedVirtualMethods(classKey));
+                    for (MethodKey methodKey: methods) {
+                        MethodCode code = getMethodCode(methodKey);
+
+                        int debugItemOffset = debugItemWriter.getPosition();
+                        writeDebugItem(debugItemWriter, debugWriter, classSection.getParameterNames(methodKey),
+                                code.debugItems);
+                        boolean hasDebugItem = debugItemWriter.getPosition() != debugItemOffset;
+                        if (hasDebugItem) {
+                            chunk.debugItemCount++;
+                        }
+
+                        // the debug item offset is patched later, any value other than NO_OFFSET will do for now
+                        int codeItemOffset = writeCodeItem(codeWriter, ehBuf, methodKey, code,
+                                hasDebugItem ? -1 : NO_OFFSET);
+                        if (codeItemOffset != -1) {
+                            chunk.codeOffsets.add(new CodeItemOffset<MethodKey>(methodKey, codeItemOffset));
+                            if (hasDebugItem) {
+                                chunk.debugReferences.add(codeItemOffset + CodeItem.DEBUG_INFO_OFFSET);
+                                chunk.debugReferences.add(debugItemOffset);
+                            }
+                        }
+                    }
+                }
+
+                debugItemWriter.close();
+                codeWriter.close();
+                return chunk;
+            }
+        };
+    }
+
+    @Nonnull
+    private static <MethodKey> CodeChunk<MethodKey> getChunk(@Nonnull Future<CodeChunk<MethodKey>> future)
+            throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing code items");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new ExceptionWithContext(cause, "Exception occurred while writing code items");
+        }
+    }
+
+    /**
+     * The debug and code items of a contiguous run of classes
+     */
+    private static class CodeChunk<MethodKey> {
+        @Nonnull final PatchableOutputStream debug = new PatchableOutputStream();
+        @Nonnull final PatchableOutputStream code = new PatchableOutputStream();
+        @Nonnull final List<CodeItemOffset<MethodKey>> codeOffsets = Lists.newArrayList();
+        /** Pairs of the position of a debug_info_off field in code and the offset of its debug item in debug */
+        @Nonnull final List<Integer> debugReferences = Lists.newArrayList();
+        int debugItemCount;
+    }
+
+    private static class PatchableOutputStream extends ByteArrayOutputStream {
+        PatchableOutputStream() {
+            super(64 * 1024);
+        }
+
+        void patchInt(int position, int value) {
+            buf[position] = (byte)value;
+            buf[position + 1] = (byte)(value >> 8);
+            buf[position + 2] = (byte)(value >> 16);
+            buf[position + 3] = (byte)(value >> 24);
+        }
+    }
+
     private void fixInstructions(@Nonnull MutableMethodImplementation methodImplementation) {
         List<? extends Instruction> instructions = methodImplementation.getInstructions();
 
@@ -882,8 +1156,6 @@ public abstract class DexWriter<
             return NO_OFFSET;
         }
 
-        numDebugInfoItems++;
-
         int debugItemOffset = writer.getPosition();
         int startingLineNumber = 0;
 
@@ -922,6 +1194,19 @@ public abstract class DexWriter<
         return debugItemOffset;
     }
 
+    private int writeCodeItem(@Nonnull DexDataWriter writer,
+                              @Nonnull ByteArrayOutputStream ehBuf,
+                              @Nonnull MethodKey methodKey,
+                              @Nonnull MethodCode code,
+                              int debugItemOffset) throws IOException {
+        try {
+            return writeCodeItem(writer, ehBuf, methodKey, code.tryBlocks, code.instructions, debugItemOffset);
+        } catch (RuntimeException ex) {
+            throw new ExceptionWithContext(ex, "Exception occurred while writing code_item for method %s",
+                    methodSection.getMethodReference(methodKey));
+        }
+    }
+
     private int writeCodeItem(@Nonnull DexDataWriter writer,
                               @Nonnull ByteArrayOutputStream ehBuf,
                               @Nonnull MethodKey methodKey,
@@ -932,8 +1217,6 @@ public abstract class DexWriter<
             return -1;
         }
 
-        numCodeItemItems++;
-
         writer.align();
 
         int codeItemOffset = writer.getPosition();
@@ -0,0 +1,11 @@
+package org.jf.dexlib2.writer;
+
+import java.util.Map;
+
+/**
+ * An item of a section whose index or offset can be read and set without boxing it
+ */
+public interface IntEntry<Key> extends Map.Entry<Key, Integer> {
+    int getIntValue();
+    void setIntValue(int value);
+}
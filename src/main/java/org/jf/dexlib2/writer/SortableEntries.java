@@ -0,0 +1,15 @@
+package org.jf.dexlib2.writer;
+
+import javax.annotation.Nonnull;
+import java.util.Comparator;
+
+/**
+ * The items of a section, when they can be sorted without copying them into a list of entries
+ */
+public interface SortableEntries<Key> {
+    /**
+     * @return The entries sorted by key. The iterator may return the same entry object every time, so an entry must
+     * not be used after moving on to the next one.
+     */
+    @Nonnull Iterable<? extends IntEntry<Key>> sortedEntries(@Nonnull Comparator<? super Key> comparator);
+}
@@ -0,0 +1,35 @@
+package org.jf.dexlib2.writer.builder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Items of merged staging builders that duplicate an item interned in this builder. Instructions and
+ * other items of the staging builder keep referring to the duplicate, so it receives the same index or
+ * offset as the interned item.
+ */
+class BuilderAliases<Key> {
+    @Nonnull private final Map<Key, List<Key>> aliases = Maps.newIdentityHashMap();
+
+    void add(@Nonnull Key interned, @Nonnull Key alias) {
+        if (interned == alias) {
+            return;
+        }
+        List<Key> list = aliases.get(interned);
+        if (list == null) {
+            list = Lists.newArrayListWithCapacity(2);
+            aliases.put(interned, list);
+        }
+        list.add(alias);
+    }
+
+    @Nonnull List<Key> get(@Nonnull Key interned) {
+        List<Key> list = aliases.get(interned);
+        return list == null ? ImmutableList.<Key>of() : list;
+    }
+}
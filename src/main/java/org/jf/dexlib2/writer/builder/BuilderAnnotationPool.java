@@ -32,12 +32,19 @@
 package org.jf.dexlib2.writer.builder;
 
 import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.primitives.Ints;
 import org.jf.dexlib2.iface.Annotation;
+import org.jf.dexlib2.iface.AnnotationElement;
 import org.jf.dexlib2.writer.AnnotationSection;
 import org.jf.dexlib2.writer.builder.BuilderEncodedValues.BuilderEncodedValue;
+import org.jf.util.CollectionUtils;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentMap;
 
@@ -45,6 +52,23 @@ class BuilderAnnotationPool extends BaseBuilderPool implements AnnotationSection
         BuilderTypeReference, BuilderAnnotation, BuilderAnnotationElement, BuilderEncodedValue> {
     @Nonnull private final ConcurrentMap<Annotation, BuilderAnnotation> internedItems =
             Maps.newConcurrentMap();
+    @Nonnull private final BuilderAliases<BuilderAnnotation> aliases = new BuilderAliases<BuilderAnnotation>();
+    @Nullable private List<BuilderAnnotation> sortedItems = null;
+
+    /**
+     * Annotations are written in this order, so the output doesn't depend on the order they were interned in.
+     * The elements are compared as a sorted set, unlike {@link org.jf.dexlib2.base.BaseAnnotation#compareTo}.
+     */
+    static final Comparator<Annotation> ITEM_ORDER = new Comparator<Annotation>() {
+        @Override public int compare(Annotation annotation1, Annotation annotation2) {
+            int res = Ints.compare(annotation1.getVisibility(), annotation2.getVisibility());
+            if (res != 0) return res;
+            res = annotation1.getType().compareTo(annotation2.getType());
+            if (res != 0) return res;
+            return CollectionUtils.compareAsSet(Ordering.<AnnotationElement>natural(), annotation1.getElements(),
+                    annotation2.getElements());
+        }
+    };
 
     public BuilderAnnotationPool(@Nonnull DexBuilder dexBuilder) {
         super(dexBuilder);
@@ -91,8 +115,24 @@ class BuilderAnnotationPool extends BaseBuilderPool implements AnnotationSection
         return key.offset;
     }
 
+    @Nonnull private List<BuilderAnnotation> getSortedItems() {
+        if (sortedItems == null || sortedItems.size() != internedItems.size()) {
+            sortedItems = Ordering.from(ITEM_ORDER).immutableSortedCopy(internedItems.values());
+        }
+        return sortedItems;
+    }
+
+    void merge(@Nonnull BuilderAnnotationPool stagingPool) {
+        for (BuilderAnnotation item: stagingPool.internedItems.values()) {
+            BuilderAnnotation ret = internedItems.putIfAbsent(item, item);
+            if (ret != null) {
+                aliases.add(ret, item);
+            }
+        }
+    }
+
     @Nonnull @Override public Collection<? extends Entry<? extends BuilderAnnotation, Integer>> getItems() {
-        return new BuilderMapEntryCollection<BuilderAnnotation>(internedItems.values()) {
+        return new BuilderMapEntryCollection<BuilderAnnotation>(getSortedItems()) {
             @Override protected int getValue(@Nonnull BuilderAnnotation key) {
                 return key.offset;
             }
@@ -100,6 +140,9 @@ class BuilderAnnotationPool extends BaseBuilderPool implements AnnotationSection
             @Override protected int setValue(@Nonnull BuilderAnnotation key, int value) {
                 int prev = key.offset;
                 key.offset = value;
+                for (BuilderAnnotation alias: aliases.get(key)) {
+                    alias.offset = value;
+                }
                 return prev;
             }
         };
@@ -35,13 +35,17 @@ import com.google.common.base.Function;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
 import org.jf.dexlib2.iface.Annotation;
 import org.jf.dexlib2.writer.AnnotationSetSection;
 import org.jf.dexlib2.writer.DexWriter;
+import org.jf.util.CollectionUtils;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
@@ -50,6 +54,17 @@ class BuilderAnnotationSetPool extends BaseBuilderPool
         implements AnnotationSetSection<BuilderAnnotation, BuilderAnnotationSet> {
     @Nonnull private final ConcurrentMap<Set<? extends Annotation>, BuilderAnnotationSet> internedItems =
             Maps.newConcurrentMap();
+    @Nonnull private final BuilderAliases<BuilderAnnotationSet> aliases = new BuilderAliases<BuilderAnnotationSet>();
+    @Nullable private List<BuilderAnnotationSet> sortedItems = null;
+
+    /**
+     * Annotation sets are written in this order, so the output doesn't depend on the order they were interned in.
+     */
+    private static final Comparator<BuilderAnnotationSet> ITEM_ORDER = new Comparator<BuilderAnnotationSet>() {
+        @Override public int compare(BuilderAnnotationSet set1, BuilderAnnotationSet set2) {
+            return CollectionUtils.compareAsSet(BuilderAnnotationPool.ITEM_ORDER, set1.annotations, set2.annotations);
+        }
+    };
 
     public BuilderAnnotationSetPool(@Nonnull DexBuilder dexBuilder) {
         super(dexBuilder);
@@ -90,8 +105,24 @@ class BuilderAnnotationSetPool extends BaseBuilderPool
         return key.offset;
     }
 
+    @Nonnull private List<BuilderAnnotationSet> getSortedItems() {
+        if (sortedItems == null || sortedItems.size() != internedItems.size()) {
+            sortedItems = Ordering.from(ITEM_ORDER).immutableSortedCopy(internedItems.values());
+        }
+        return sortedItems;
+    }
+
+    void merge(@Nonnull BuilderAnnotationSetPool stagingPool) {
+        for (BuilderAnnotationSet item: stagingPool.internedItems.values()) {
+            BuilderAnnotationSet ret = internedItems.putIfAbsent(item, item);
+            if (ret != null) {
+                aliases.add(ret, item);
+            }
+        }
+    }
+
     @Nonnull @Override public Collection<? extends Entry<? extends BuilderAnnotationSet, Integer>> getItems() {
-        return new BuilderMapEntryCollection<BuilderAnnotationSet>(internedItems.values()) {
+        return new BuilderMapEntryCollection<BuilderAnnotationSet>(getSortedItems()) {
             @Override protected int getValue(@Nonnull BuilderAnnotationSet key) {
                 return key.offset;
             }
@@ -99,6 +130,9 @@ class BuilderAnnotationSetPool extends BaseBuilderPool
             @Override protected int setValue(@Nonnull BuilderAnnotationSet key, int value) {
                 int prev = key.offset;
                 key.offset = value;
+                for (BuilderAnnotationSet alias: aliases.get(key)) {
+                    alias.offset = value;
+                }
                 return prev;
             }
         };
@@ -78,6 +78,12 @@ public class BuilderClassPool extends BaseBuilderPool implements ClassSection<Bu
         return classDef;
     }
 
+    void merge(@Nonnull BuilderClassPool stagingPool) {
+        for (BuilderClassDef classDef: stagingPool.internedItems.values()) {
+            internClass(classDef);
+        }
+    }
+
     private ImmutableList<BuilderClassDef> sortedClasses = null;
     @Nonnull @Override public Collection<? extends BuilderClassDef> getSortedClasses() {
         if (sortedClasses == null) {
@@ -45,6 +45,7 @@ public class BuilderFieldPool extends BaseBuilderPool
         implements FieldSection<BuilderStringReference, BuilderTypeReference, BuilderFieldReference, BuilderField> {
     @Nonnull private final ConcurrentMap<FieldReference, BuilderFieldReference> internedItems =
             Maps.newConcurrentMap();
+    @Nonnull private final BuilderAliases<BuilderFieldReference> aliases = new BuilderAliases<BuilderFieldReference>();
 
     public BuilderFieldPool(@Nonnull DexBuilder dexBuilder) {
         super(dexBuilder);
@@ -90,6 +91,15 @@ public class BuilderFieldPool extends BaseBuilderPool
         return key.index;
     }
 
+    void merge(@Nonnull BuilderFieldPool stagingPool) {
+        for (BuilderFieldReference item: stagingPool.internedItems.values()) {
+            BuilderFieldReference ret = internedItems.putIfAbsent(item, item);
+            if (ret != null) {
+                aliases.add(ret, item);
+            }
+        }
+    }
+
     @Nonnull @Override public Collection<? extends Entry<? extends BuilderFieldReference, Integer>> getItems() {
         return new BuilderMapEntryCollection<BuilderFieldReference>(internedItems.values()) {
             @Override protected int getValue(@Nonnull BuilderFieldReference key) {
@@ -99,6 +109,9 @@ public class BuilderFieldPool extends BaseBuilderPool
             @Override protected int setValue(@Nonnull BuilderFieldReference key, int value) {
                 int prev = key.index;
                 key.index = value;
+                for (BuilderFieldReference alias: aliases.get(key)) {
+                    alias.index = value;
+                }
                 return prev;
             }
         };
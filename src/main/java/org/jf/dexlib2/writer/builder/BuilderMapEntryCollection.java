@@ -31,6 +31,8 @@
 
 package org.jf.dexlib2.writer.builder;
 
+import org.jf.dexlib2.writer.IntEntry;
+
 import javax.annotation.Nonnull;
 import java.util.AbstractCollection;
 import java.util.Collection;
@@ -44,7 +46,7 @@ public abstract class BuilderMapEntryCollection<Key> extends AbstractCollection<
         this.keys = keys;
     }
 
-    private class MapEntry implements Map.Entry<Key, Integer> {
+    private class MapEntry implements IntEntry<Key> {
         @Nonnull private Key key;
 
         @Nonnull @Override public Key getKey() {
@@ -58,6 +60,14 @@ public abstract class BuilderMapEntryCollection<Key> extends AbstractCollection<
         @Override public Integer setValue(Integer value) {
             return BuilderMapEntryCollection.this.setValue(key, value);
         }
+
+        @Override public int getIntValue() {
+            return BuilderMapEntryCollection.this.getValue(key);
+        }
+
+        @Override public void setIntValue(int value) {
+            BuilderMapEntryCollection.this.setValue(key, value);
+        }
     }
 
     @Nonnull @Override public Iterator<Map.Entry<Key, Integer>> iterator() {
@@ -46,6 +46,7 @@ class BuilderMethodPool extends BaseBuilderPool implements MethodSection<Builder
         BuilderMethodProtoReference, BuilderMethodReference, BuilderMethod>{
     @Nonnull private final ConcurrentMap<MethodReference, BuilderMethodReference> internedItems =
             Maps.newConcurrentMap();
+    @Nonnull private final BuilderAliases<BuilderMethodReference> aliases = new BuilderAliases<BuilderMethodReference>();
 
     public BuilderMethodPool(@Nonnull DexBuilder dexBuilder) {
         super(dexBuilder);
@@ -101,6 +102,15 @@ class BuilderMethodPool extends BaseBuilderPool implements MethodSection<Builder
         return key.index;
     }
 
+    void merge(@Nonnull BuilderMethodPool stagingPool) {
+        for (BuilderMethodReference item: stagingPool.internedItems.values()) {
+            BuilderMethodReference ret = internedItems.putIfAbsent(item, item);
+            if (ret != null) {
+                aliases.add(ret, item);
+            }
+        }
+    }
+
     @Nonnull @Override public Collection<? extends Entry<? extends BuilderMethodReference, Integer>> getItems() {
         return new BuilderMapEntryCollection<BuilderMethodReference>(internedItems.values()) {
             @Override protected int getValue(@Nonnull BuilderMethodReference key) {
@@ -110,6 +120,9 @@ class BuilderMethodPool extends BaseBuilderPool implements MethodSection<Builder
             @Override protected int setValue(@Nonnull BuilderMethodReference key, int value) {
                 int prev = key.index;
                 key.index = value;
+                for (BuilderMethodReference alias: aliases.get(key)) {
+                    alias.index = value;
+                }
                 return prev;
             }
         };
@@ -48,6 +48,7 @@ class BuilderProtoPool extends BaseBuilderPool
         implements ProtoSection<BuilderStringReference, BuilderTypeReference, BuilderMethodProtoReference, BuilderTypeList> {
     @Nonnull private final ConcurrentMap<MethodProtoReference, BuilderMethodProtoReference> internedItems =
             Maps.newConcurrentMap();
+    @Nonnull private final BuilderAliases<BuilderMethodProtoReference> aliases = new BuilderAliases<BuilderMethodProtoReference>();
 
     public BuilderProtoPool(@Nonnull DexBuilder dexBuilder) {
         super(dexBuilder);
@@ -89,6 +90,15 @@ class BuilderProtoPool extends BaseBuilderPool
         return proto.getIndex();
     }
 
+    void merge(@Nonnull BuilderProtoPool stagingPool) {
+        for (BuilderMethodProtoReference item: stagingPool.internedItems.values()) {
+            BuilderMethodProtoReference ret = internedItems.putIfAbsent(item, item);
+            if (ret != null) {
+                aliases.add(ret, item);
+            }
+        }
+    }
+
     @Nonnull @Override public Collection<? extends Entry<? extends BuilderMethodProtoReference, Integer>> getItems() {
         return new BuilderMapEntryCollection<BuilderMethodProtoReference>(internedItems.values()) {
             @Override protected int getValue(@Nonnull BuilderMethodProtoReference key) {
@@ -98,6 +108,9 @@ class BuilderProtoPool extends BaseBuilderPool
             @Override protected int setValue(@Nonnull BuilderMethodProtoReference key, int value) {
                 int prev = key.index;
                 key.index = value;
+                for (BuilderMethodProtoReference alias: aliases.get(key)) {
+                    alias.index = value;
+                }
                 return prev;
             }
         };
@@ -43,6 +43,7 @@ import java.util.concurrent.ConcurrentMap;
 
 class BuilderStringPool implements StringSection<BuilderStringReference, BuilderStringReference> {
     @Nonnull private final ConcurrentMap<String, BuilderStringReference> internedItems = Maps.newConcurrentMap();
+    @Nonnull private final BuilderAliases<BuilderStringReference> aliases = new BuilderAliases<BuilderStringReference>();
 
     @Nonnull BuilderStringReference internString(@Nonnull String string) {
         BuilderStringReference ret = internedItems.get(string);
@@ -73,6 +74,15 @@ class BuilderStringPool implements StringSection<BuilderStringReference, Builder
         return internedItems.size() > 65536;
     }
 
+    void merge(@Nonnull BuilderStringPool stagingPool) {
+        for (BuilderStringReference item: stagingPool.internedItems.values()) {
+            BuilderStringReference ret = internedItems.putIfAbsent(item.string, item);
+            if (ret != null) {
+                aliases.add(ret, item);
+            }
+        }
+    }
+
     @Nonnull @Override public Collection<? extends Entry<? extends BuilderStringReference, Integer>> getItems() {
         return new BuilderMapEntryCollection<BuilderStringReference>(internedItems.values()) {
             @Override protected int getValue(@Nonnull BuilderStringReference key) {
@@ -82,6 +92,9 @@ class BuilderStringPool implements StringSection<BuilderStringReference, Builder
             @Override protected int setValue(@Nonnull BuilderStringReference key, int value) {
                 int prev = key.index;
                 key.index = value;
+                for (BuilderStringReference alias: aliases.get(key)) {
+                    alias.index = value;
+                }
                 return prev;
             }
         };
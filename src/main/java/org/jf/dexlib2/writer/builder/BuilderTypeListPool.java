@@ -35,12 +35,15 @@ import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
 import org.jf.dexlib2.writer.DexWriter;
 import org.jf.dexlib2.writer.TypeListSection;
+import org.jf.util.CollectionUtils;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentMap;
@@ -48,6 +51,17 @@ import java.util.concurrent.ConcurrentMap;
 class BuilderTypeListPool extends BaseBuilderPool implements TypeListSection<BuilderTypeReference, BuilderTypeList> {
     @Nonnull private final ConcurrentMap<List<? extends CharSequence>, BuilderTypeList> internedItems =
             Maps.newConcurrentMap();
+    @Nonnull private final BuilderAliases<BuilderTypeList> aliases = new BuilderAliases<BuilderTypeList>();
+    @Nullable private List<BuilderTypeList> sortedItems = null;
+
+    /**
+     * Type lists are written in this order, so the output doesn't depend on the order they were interned in.
+     */
+    private static final Comparator<BuilderTypeList> ITEM_ORDER = new Comparator<BuilderTypeList>() {
+        @Override public int compare(BuilderTypeList list1, BuilderTypeList list2) {
+            return CollectionUtils.compareAsList(list1.types, list2.types);
+        }
+    };
 
     public BuilderTypeListPool(@Nonnull DexBuilder dexBuilder) {
         super(dexBuilder);
@@ -87,8 +101,24 @@ class BuilderTypeListPool extends BaseBuilderPool implements TypeListSection<Bui
         return key.offset;
     }
 
+    @Nonnull private List<BuilderTypeList> getSortedItems() {
+        if (sortedItems == null || sortedItems.size() != internedItems.size()) {
+            sortedItems = Ordering.from(ITEM_ORDER).immutableSortedCopy(internedItems.values());
+        }
+        return sortedItems;
+    }
+
+    void merge(@Nonnull BuilderTypeListPool stagingPool) {
+        for (BuilderTypeList item: stagingPool.internedItems.values()) {
+            BuilderTypeList ret = internedItems.putIfAbsent(item, item);
+            if (ret != null) {
+                aliases.add(ret, item);
+            }
+        }
+    }
+
     @Nonnull @Override public Collection<? extends Entry<? extends BuilderTypeList, Integer>> getItems() {
-        return new BuilderMapEntryCollection<BuilderTypeList>(internedItems.values()) {
+        return new BuilderMapEntryCollection<BuilderTypeList>(getSortedItems()) {
             @Override protected int getValue(@Nonnull BuilderTypeList key) {
                 return key.offset;
             }
@@ -96,6 +126,9 @@ class BuilderTypeListPool extends BaseBuilderPool implements TypeListSection<Bui
             @Override protected int setValue(@Nonnull BuilderTypeList key, int value) {
                 int prev = key.offset;
                 key.offset = value;
+                for (BuilderTypeList alias: aliases.get(key)) {
+                    alias.offset = value;
+                }
                 return prev;
             }
         };
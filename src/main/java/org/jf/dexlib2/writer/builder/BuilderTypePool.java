@@ -44,6 +44,7 @@ import java.util.concurrent.ConcurrentMap;
 class BuilderTypePool extends BaseBuilderPool
         implements TypeSection<BuilderStringReference, BuilderTypeReference, BuilderTypeReference> {
     @Nonnull private final ConcurrentMap<String, BuilderTypeReference> internedItems = Maps.newConcurrentMap();
+    @Nonnull private final BuilderAliases<BuilderTypeReference> aliases = new BuilderAliases<BuilderTypeReference>();
 
     public BuilderTypePool(@Nonnull DexBuilder dexBuilder) {
         super(dexBuilder);
@@ -79,6 +80,15 @@ class BuilderTypePool extends BaseBuilderPool
         return key.getIndex();
     }
 
+    void merge(@Nonnull BuilderTypePool stagingPool) {
+        for (BuilderTypeReference item: stagingPool.internedItems.values()) {
+            BuilderTypeReference ret = internedItems.putIfAbsent(item.getType(), item);
+            if (ret != null) {
+                aliases.add(ret, item);
+            }
+        }
+    }
+
     @Nonnull @Override public Collection<? extends Entry<? extends BuilderTypeReference, Integer>> getItems() {
         return new BuilderMapEntryCollection<BuilderTypeReference>(internedItems.values()) {
             @Override protected int getValue(@Nonnull BuilderTypeReference key) {
@@ -88,6 +98,9 @@ class BuilderTypePool extends BaseBuilderPool
             @Override protected int setValue(@Nonnull BuilderTypeReference key, int value) {
                 int prev = key.index;
                 key.index = value;
+                for (BuilderTypeReference alias: aliases.get(key)) {
+                    alias.index = value;
+                }
                 return prev;
             }
         };
@@ -35,11 +35,15 @@ import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import org.jf.dexlib2.Opcodes;
 import org.jf.dexlib2.ValueType;
 import org.jf.dexlib2.iface.Annotation;
 import org.jf.dexlib2.iface.AnnotationElement;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Field;
+import org.jf.dexlib2.iface.Method;
 import org.jf.dexlib2.iface.MethodImplementation;
 import org.jf.dexlib2.iface.MethodParameter;
 import org.jf.dexlib2.iface.reference.*;
@@ -54,6 +58,10 @@ import java.io.IOException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 public class DexBuilder extends DexWriter<BuilderStringReference, BuilderStringReference, BuilderTypeReference,
         BuilderTypeReference, BuilderMethodProtoReference, BuilderFieldReference, BuilderMethodReference,
@@ -132,6 +140,114 @@ public class DexBuilder extends DexWriter<BuilderStringReference, BuilderStringR
                 methods));
     }
 
+    /**
+     * Interns a class read from another dex file. Everything the class references, including the references in
+     * its code, is interned into this builder, so the class is written as if it had been built here.
+     */
+    @Nonnull public BuilderClassDef internClassDef(@Nonnull ClassDef classDef) {
+        List<BuilderField> fields = Lists.newArrayList();
+        for (Field field: classDef.getFields()) {
+            fields.add(internField(field.getDefiningClass(), field.getName(), field.getType(), field.getAccessFlags(),
+                    field.getInitialValue(), field.getAnnotations()));
+        }
+
+        List<BuilderMethod> methods = Lists.newArrayList();
+        for (Method method: classDef.getMethods()) {
+            MethodImplementation implementation = method.getImplementation();
+            methods.add(internMethod(method.getDefiningClass(), method.getName(), method.getParameters(),
+                    method.getReturnType(), method.getAccessFlags(), method.getAnnotations(),
+                    implementation == null ? null : new InternedMethodImplementation(this, implementation)));
+        }
+
+        return internClassDef(classDef.getType(), classDef.getAccessFlags(), classDef.getSuperclass(),
+                Lists.newArrayList(classDef.getInterfaces()), classDef.getSourceFile(), classDef.getAnnotations(),
+                fields, methods);
+    }
+
+    /**
+     * Moves everything interned into the staging builders into this builder, so classes can be built by many
+     * threads without contending on the pools of a single builder. Each section is merged by its own task and
+     * the staging builders are merged in list order. Items of a staging builder that duplicate an item of this
+     * builder are written with the index or offset of that item, the dex file is the same as if all classes
+     * had been interned into this builder. The staging builders must not be used afterwards.
+     */
+    public void merge(@Nonnull final List<DexBuilder> stagingBuilders, @Nonnull ExecutorService executor)
+            throws InterruptedException, ExecutionException {
+        for (DexBuilder stagingBuilder: stagingBuilders) {
+            if (stagingBuilder.opcodes != opcodes) {
+                throw new IllegalArgumentException("Staging builder uses different opcodes");
+            }
+        }
+
+        List<Callable<Void>> sectionMerges = ImmutableList.<Callable<Void>>of(
+                new SectionMerge(stagingBuilders) {
+                    @Override void merge(@Nonnull DexBuilder stagingBuilder) {
+                        stringSection.merge(stagingBuilder.stringSection);
+                    }
+                },
+                new SectionMerge(stagingBuilders) {
+                    @Override void merge(@Nonnull DexBuilder stagingBuilder) {
+                        typeSection.merge(stagingBuilder.typeSection);
+                    }
+                },
+                new SectionMerge(stagingBuilders) {
+                    @Override void merge(@Nonnull DexBuilder stagingBuilder) {
+                        protoSection.merge(stagingBuilder.protoSection);
+                    }
+                },
+                new SectionMerge(stagingBuilders) {
+                    @Override void merge(@Nonnull DexBuilder stagingBuilder) {
+                        fieldSection.merge(stagingBuilder.fieldSection);
+                    }
+                },
+                new SectionMerge(stagingBuilders) {
+                    @Override void merge(@Nonnull DexBuilder stagingBuilder) {
+                        methodSection.merge(stagingBuilder.methodSection);
+                    }
+                },
+                new SectionMerge(stagingBuilders) {
+                    @Override void merge(@Nonnull DexBuilder stagingBuilder) {
+                        classSection.merge(stagingBuilder.classSection);
+                    }
+                },
+                new SectionMerge(stagingBuilders) {
+                    @Override void merge(@Nonnull DexBuilder stagingBuilder) {
+                        typeListSection.merge(stagingBuilder.typeListSection);
+                    }
+                },
+                new SectionMerge(stagingBuilders) {
+                    @Override void merge(@Nonnull DexBuilder stagingBuilder) {
+                        annotationSection.merge(stagingBuilder.annotationSection);
+                    }
+                },
+                new SectionMerge(stagingBuilders) {
+                    @Override void merge(@Nonnull DexBuilder stagingBuilder) {
+                        annotationSetSection.merge(stagingBuilder.annotationSetSection);
+                    }
+                });
+
+        for (Future<Void> future: executor.invokeAll(sectionMerges)) {
+            future.get();
+        }
+    }
+
+    private static abstract class SectionMerge implements Callable<Void> {
+        @Nonnull private final List<DexBuilder> stagingBuilders;
+
+        SectionMerge(@Nonnull List<DexBuilder> stagingBuilders) {
+            this.stagingBuilders = stagingBuilders;
+        }
+
+        @Override public Void call() {
+            for (DexBuilder stagingBuilder: stagingBuilders) {
+                merge(stagingBuilder);
+            }
+            return null;
+        }
+
+        abstract void merge(@Nonnull DexBuilder stagingBuilder);
+    }
+
     @Nonnull public BuilderStringReference internStringReference(@Nonnull String string) {
         return stringSection.internString(string);
     }
@@ -0,0 +1,184 @@
+package org.jf.dexlib2.writer.builder;
+
+import com.google.common.collect.ImmutableList;
+import org.jf.dexlib2.DebugItemType;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.base.BaseExceptionHandler;
+import org.jf.dexlib2.base.BaseTryBlock;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction20bc;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction21c;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction22c;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction31c;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction35c;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction3rc;
+import org.jf.dexlib2.iface.ExceptionHandler;
+import org.jf.dexlib2.iface.MethodImplementation;
+import org.jf.dexlib2.iface.TryBlock;
+import org.jf.dexlib2.iface.debug.DebugItem;
+import org.jf.dexlib2.iface.debug.SetSourceFile;
+import org.jf.dexlib2.iface.debug.StartLocal;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.instruction.formats.Instruction20bc;
+import org.jf.dexlib2.iface.instruction.formats.Instruction21c;
+import org.jf.dexlib2.iface.instruction.formats.Instruction22c;
+import org.jf.dexlib2.iface.instruction.formats.Instruction31c;
+import org.jf.dexlib2.iface.instruction.formats.Instruction35c;
+import org.jf.dexlib2.iface.instruction.formats.Instruction3rc;
+import org.jf.dexlib2.iface.reference.Reference;
+import org.jf.dexlib2.iface.reference.StringReference;
+import org.jf.dexlib2.iface.reference.TypeReference;
+import org.jf.dexlib2.immutable.debug.ImmutableDebugItem;
+import org.jf.dexlib2.immutable.debug.ImmutableSetSourceFile;
+import org.jf.dexlib2.immutable.debug.ImmutableStartLocal;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction;
+import org.jf.util.ExceptionWithContext;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * A copy of a method implementation read from another dex file, with every string, type, field and method it
+ * references interned into a DexBuilder. The copy doesn't keep the source implementation alive.
+ */
+class InternedMethodImplementation implements MethodImplementation {
+    private final int registerCount;
+    @Nonnull private final List<Instruction> instructions;
+    @Nonnull private final List<TryBlock<ExceptionHandler>> tryBlocks;
+    @Nonnull private final List<DebugItem> debugItems;
+
+    InternedMethodImplementation(@Nonnull DexBuilder dexBuilder, @Nonnull MethodImplementation implementation) {
+        this.registerCount = implementation.getRegisterCount();
+
+        ImmutableList.Builder<Instruction> instructions = ImmutableList.builder();
+        for (Instruction instruction: implementation.getInstructions()) {
+            instructions.add(internInstruction(dexBuilder, instruction));
+        }
+        this.instructions = instructions.build();
+
+        ImmutableList.Builder<TryBlock<ExceptionHandler>> tryBlocks = ImmutableList.builder();
+        for (TryBlock<? extends ExceptionHandler> tryBlock: implementation.getTryBlocks()) {
+            tryBlocks.add(internTryBlock(dexBuilder, tryBlock));
+        }
+        this.tryBlocks = tryBlocks.build();
+
+        ImmutableList.Builder<DebugItem> debugItems = ImmutableList.builder();
+        for (DebugItem debugItem: implementation.getDebugItems()) {
+            debugItems.add(internDebugItem(dexBuilder, debugItem));
+        }
+        this.debugItems = debugItems.build();
+    }
+
+    @Override public int getRegisterCount() { return registerCount; }
+    @Nonnull @Override public List<Instruction> getInstructions() { return instructions; }
+    @Nonnull @Override public List<TryBlock<ExceptionHandler>> getTryBlocks() { return tryBlocks; }
+    @Nonnull @Override public List<DebugItem> getDebugItems() { return debugItems; }
+
+    @Nonnull
+    private static Instruction internInstruction(@Nonnull DexBuilder dexBuilder, @Nonnull Instruction instruction) {
+        if (!(instruction instanceof ReferenceInstruction)) {
+            return ImmutableInstruction.of(instruction);
+        }
+
+        Opcode opcode = instruction.getOpcode();
+        Reference reference = dexBuilder.internReference(((ReferenceInstruction)instruction).getReference());
+        switch (opcode.format) {
+            case Format20bc:
+                return new BuilderInstruction20bc(opcode, ((Instruction20bc)instruction).getVerificationError(),
+                        reference);
+            case Format21c:
+                return new BuilderInstruction21c(opcode, ((Instruction21c)instruction).getRegisterA(), reference);
+            case Format22c: {
+                Instruction22c instruction22c = (Instruction22c)instruction;
+                return new BuilderInstruction22c(opcode, instruction22c.getRegisterA(), instruction22c.getRegisterB(),
+                        reference);
+            }
+            case Format31c:
+                return new BuilderInstruction31c(opcode, ((Instruction31c)instruction).getRegisterA(), reference);
+            case Format35c: {
+                Instruction35c instruction35c = (Instruction35c)instruction;
+                return new BuilderInstruction35c(opcode, instruction35c.getRegisterCount(),
+                        instruction35c.getRegisterC(), instruction35c.getRegisterD(), instruction35c.getRegisterE(),
+                        instruction35c.getRegisterF(), instruction35c.getRegisterG(), reference);
+            }
+            case Format3rc: {
+                Instruction3rc instruction3rc = (Instruction3rc)instruction;
+                return new BuilderInstruction3rc(opcode, instruction3rc.getStartRegister(),
+                        instruction3rc.getRegisterCount(), reference);
+            }
+            default:
+                throw new ExceptionWithContext("Unsupported reference instruction format: %s", opcode.format);
+        }
+    }
+
+    @Nonnull
+    private static TryBlock<ExceptionHandler> internTryBlock(@Nonnull DexBuilder dexBuilder,
+                                                             @Nonnull TryBlock<? extends ExceptionHandler> tryBlock) {
+        ImmutableList.Builder<ExceptionHandler> builder = ImmutableList.builder();
+        for (ExceptionHandler exceptionHandler: tryBlock.getExceptionHandlers()) {
+            final BuilderTypeReference exceptionType =
+                    dexBuilder.internNullableTypeReference(exceptionHandler.getExceptionType());
+            final int handlerCodeAddress = exceptionHandler.getHandlerCodeAddress();
+            builder.add(new BaseExceptionHandler() {
+                @Nullable @Override public String getExceptionType() {
+                    return exceptionType == null ? null : exceptionType.getType();
+                }
+
+                @Nullable @Override public TypeReference getExceptionTypeReference() {
+                    return exceptionType;
+                }
+
+                @Override public int getHandlerCodeAddress() {
+                    return handlerCodeAddress;
+                }
+            });
+        }
+
+        final int startCodeAddress = tryBlock.getStartCodeAddress();
+        final int codeUnitCount = tryBlock.getCodeUnitCount();
+        final List<ExceptionHandler> exceptionHandlers = builder.build();
+        return new BaseTryBlock<ExceptionHandler>() {
+            @Override public int getStartCodeAddress() {
+                return startCodeAddress;
+            }
+
+            @Override public int getCodeUnitCount() {
+                return codeUnitCount;
+            }
+
+            @Nonnull @Override public List<ExceptionHandler> getExceptionHandlers() {
+                return exceptionHandlers;
+            }
+        };
+    }
+
+    @Nonnull
+    private static DebugItem internDebugItem(@Nonnull DexBuilder dexBuilder, @Nonnull DebugItem debugItem) {
+        switch (debugItem.getDebugItemType()) {
+            case DebugItemType.START_LOCAL: {
+                StartLocal startLocal = (StartLocal)debugItem;
+                final BuilderStringReference nameReference = dexBuilder.internNullableStringReference(startLocal.getName());
+                final BuilderTypeReference typeReference = dexBuilder.internNullableTypeReference(startLocal.getType());
+                final BuilderStringReference signatureReference =
+                        dexBuilder.internNullableStringReference(startLocal.getSignature());
+                return new ImmutableStartLocal(startLocal.getCodeAddress(), startLocal.getRegister(),
+                        startLocal.getName(), startLocal.getType(), startLocal.getSignature()) {
+                    @Nullable @Override public StringReference getNameReference() { return nameReference; }
+                    @Nullable @Override public TypeReference getTypeReference() { return typeReference; }
+                    @Nullable @Override public StringReference getSignatureReference() { return signatureReference; }
+                };
+            }
+            case DebugItemType.SET_SOURCE_FILE: {
+                SetSourceFile setSourceFile = (SetSourceFile)debugItem;
+                final BuilderStringReference sourceFileReference =
+                        dexBuilder.internNullableStringReference(setSourceFile.getSourceFile());
+                return new ImmutableSetSourceFile(setSourceFile.getCodeAddress(), setSourceFile.getSourceFile()) {
+                    @Nullable @Override public StringReference getSourceFileReference() { return sourceFileReference; }
+                };
+            }
+            default:
+                return ImmutableDebugItem.of(debugItem);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.jf.dexlib2.writer.io;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A DexDataStore whose written data can be read back as a ByteBuffer, without copying it through an InputStream
+ */
+public interface BufferDataStore extends DexDataStore {
+    /**
+     * @return A read-only view of the <code>length</code> bytes at <code>offset</code>, positioned at 0. It may be
+     * a file mapping, don't use it after the data store is closed.
+     */
+    @Nonnull ByteBuffer readBuffer(int offset, int length) throws IOException;
+}
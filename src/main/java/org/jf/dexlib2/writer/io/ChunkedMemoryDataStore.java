@@ -0,0 +1,151 @@
+package org.jf.dexlib2.writer.io;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An in-memory data store that grows by adding fixed size chunks, so the data written so far is never copied while
+ * the dex file grows. The data is assembled into a single array only once, by getData().
+ */
+public class ChunkedMemoryDataStore implements DexDataStore {
+    private static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private final int chunkShift;
+    private final int chunkMask;
+    @Nonnull private final List<byte[]> chunks = new ArrayList<byte[]>();
+    private int size;
+
+    public ChunkedMemoryDataStore() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize The size of a chunk, rounded up to a power of two
+     */
+    public ChunkedMemoryDataStore(int chunkSize) {
+        if (chunkSize <= 0 || chunkSize > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+        }
+        chunkShift = 32 - Integer.numberOfLeadingZeros(chunkSize - 1);
+        chunkMask = (1 << chunkShift) - 1;
+    }
+
+    /**
+     * @return The number of bytes up to the last written byte
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return A copy of the data, exactly getSize() bytes long
+     */
+    @Nonnull
+    public byte[] getData() {
+        byte[] data = new byte[size];
+        read(0, data, 0, size);
+        return data;
+    }
+
+    /**
+     * Writes the data to <code>output</code> without assembling it into a single array first
+     */
+    public void writeTo(@Nonnull OutputStream output) throws IOException {
+        int position = 0;
+        while (position < size) {
+            int length = Math.min(chunkMask + 1 - (position & chunkMask), size - position);
+            output.write(chunks.get(position >>> chunkShift), position & chunkMask, length);
+            position += length;
+        }
+    }
+
+    private void write(int position, @Nonnull byte[] b, int off, int len) {
+        int end = position + len;
+        while (len > 0) {
+            int chunkIndex = position >>> chunkShift;
+            while (chunks.size() <= chunkIndex) {
+                chunks.add(new byte[chunkMask + 1]);
+            }
+            int chunkOffset = position & chunkMask;
+            int length = Math.min(len, chunkMask + 1 - chunkOffset);
+            System.arraycopy(b, off, chunks.get(chunkIndex), chunkOffset, length);
+            position += length;
+            off += length;
+            len -= length;
+        }
+        size = Math.max(size, end);
+    }
+
+    private int read(int position, @Nonnull byte[] b, int off, int len) {
+        if (position >= size) {
+            return -1;
+        }
+        len = Math.min(len, size - position);
+        int remaining = len;
+        while (remaining > 0) {
+            int chunkIndex = position >>> chunkShift;
+            int chunkOffset = position & chunkMask;
+            int length = Math.min(remaining, chunkMask + 1 - chunkOffset);
+            System.arraycopy(chunks.get(chunkIndex), chunkOffset, b, off, length);
+            position += length;
+            off += length;
+            remaining -= length;
+        }
+        return len;
+    }
+
+    @Nonnull @Override public OutputStream outputAt(final int offset) {
+        return new OutputStream() {
+            private int position = offset;
+
+            @Override public void write(int b) throws IOException {
+                write(new byte[] { (byte)b }, 0, 1);
+            }
+
+            @Override public void write(byte[] b, int off, int len) throws IOException {
+                ChunkedMemoryDataStore.this.write(position, b, off, len);
+                position += len;
+            }
+        };
+    }
+
+    @Nonnull @Override public InputStream readAt(final int offset) {
+        return new InputStream() {
+            private int position = offset;
+
+            @Override public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) <= 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                int bytesRead = ChunkedMemoryDataStore.this.read(position, b, off, len);
+                if (bytesRead > 0) {
+                    position += bytesRead;
+                }
+                return bytesRead;
+            }
+
+            @Override public long skip(long n) throws IOException {
+                int skipLength = (int)Math.max(0, Math.min(n, available()));
+                position += skipLength;
+                return skipLength;
+            }
+
+            @Override public int available() throws IOException {
+                return Math.max(0, size - position);
+            }
+        };
+    }
+
+    @Override public void close() throws IOException {
+        // no-op
+    }
+}
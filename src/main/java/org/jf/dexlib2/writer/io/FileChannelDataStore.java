@@ -0,0 +1,188 @@
+package org.jf.dexlib2.writer.io;
+
+import com.google.common.collect.Lists;
+import org.jf.util.MappedBufferUtils;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * A file backed data store that writes and reads with positional FileChannel operations, instead of seeking a
+ * RandomAccessFile before every access.
+ *
+ * If the size of the dex file can be estimated, the store can map that much of the file up front. Data within the
+ * mapped region is written to and read from the mapping, data beyond it goes through the channel. When the store
+ * is closed, the mappings are released and the file is truncated to the written size.
+ */
+public class FileChannelDataStore implements BufferDataStore {
+    @Nonnull private final RandomAccessFile raf;
+    @Nonnull private final FileChannel channel;
+    @Nullable private MappedByteBuffer mapped;
+    @Nonnull private final List<MappedByteBuffer> readMappings = Lists.newArrayList();
+    private final int mappedSize;
+    private int size;
+
+    public FileChannelDataStore(@Nonnull File file) throws IOException {
+        this(file, 0);
+    }
+
+    /**
+     * @param mappedSize The number of bytes at the start of the file to map, 0 to map nothing
+     */
+    public FileChannelDataStore(@Nonnull File file, int mappedSize) throws IOException {
+        if (mappedSize < 0) {
+            throw new IllegalArgumentException("Invalid mapped size: " + mappedSize);
+        }
+        this.raf = new RandomAccessFile(file, "rw");
+        this.raf.setLength(0);
+        this.channel = raf.getChannel();
+        this.mappedSize = mappedSize;
+        this.mapped = mappedSize == 0 ? null : channel.map(FileChannel.MapMode.READ_WRITE, 0, mappedSize);
+    }
+
+    /**
+     * @return The number of bytes written so far, i.e. the size of the file once this store is closed
+     */
+    public synchronized int getSize() {
+        return size;
+    }
+
+    private synchronized void write(int position, @Nonnull ByteBuffer src) throws IOException {
+        int end = position + src.remaining();
+        if (mapped != null && position < mappedSize) {
+            int length = Math.min(src.remaining(), mappedSize - position);
+            ByteBuffer part = src.duplicate();
+            part.limit(part.position() + length);
+            ByteBuffer target = mapped.duplicate();
+            target.position(position);
+            target.put(part);
+            src.position(src.position() + length);
+            position += length;
+        }
+        while (src.hasRemaining()) {
+            position += channel.write(src, position);
+        }
+        size = Math.max(size, end);
+    }
+
+    private synchronized int read(int position, @Nonnull ByteBuffer dst) throws IOException {
+        if (position >= size) {
+            return -1;
+        }
+        int length = Math.min(dst.remaining(), size - position);
+        if (mapped != null && position < mappedSize) {
+            length = Math.min(length, mappedSize - position);
+            ByteBuffer source = mapped.duplicate();
+            source.position(position);
+            source.limit(position + length);
+            dst.put(source);
+            return length;
+        }
+        ByteBuffer part = dst.duplicate();
+        part.limit(part.position() + length);
+        int bytesRead = channel.read(part, position);
+        if (bytesRead > 0) {
+            dst.position(dst.position() + bytesRead);
+        }
+        return bytesRead;
+    }
+
+    @Nonnull @Override public OutputStream outputAt(final int offset) {
+        return new OutputStream() {
+            private int position = offset;
+
+            @Override public void write(int b) throws IOException {
+                write(new byte[] { (byte)b }, 0, 1);
+            }
+
+            @Override public void write(byte[] b, int off, int len) throws IOException {
+                FileChannelDataStore.this.write(position, ByteBuffer.wrap(b, off, len));
+                position += len;
+            }
+        };
+    }
+
+    @Nonnull @Override public InputStream readAt(final int offset) {
+        return new InputStream() {
+            private int position = offset;
+
+            @Override public int read() throws IOException {
+                byte[] b = new byte[1];
+                int bytesRead = read(b, 0, 1);
+                return bytesRead <= 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                int bytesRead = FileChannelDataStore.this.read(position, ByteBuffer.wrap(b, off, len));
+                if (bytesRead > 0) {
+                    position += bytesRead;
+                }
+                return bytesRead;
+            }
+
+            @Override public long skip(long n) throws IOException {
+                int skipLength = (int)Math.max(0, Math.min(n, available()));
+                position += skipLength;
+                return skipLength;
+            }
+
+            @Override public int available() throws IOException {
+                return Math.max(0, getSize() - position);
+            }
+        };
+    }
+
+    @Nonnull @Override public synchronized ByteBuffer readBuffer(int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || length > size - offset) {
+            throw new IndexOutOfBoundsException(String.format("%d bytes at %d, size %d", length, offset, size));
+        }
+        if (mapped != null && offset + length <= mappedSize) {
+            ByteBuffer buffer = mapped.duplicate();
+            buffer.position(offset);
+            buffer.limit(offset + length);
+            return buffer.slice().asReadOnlyBuffer();
+        }
+        if (mapped != null) {
+            mapped.force();
+        }
+        MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        readMappings.add(mapping);
+        return mapping.asReadOnlyBuffer();
+    }
+
+    @Override public synchronized void close() throws IOException {
+        try {
+            for (MappedByteBuffer mapping: readMappings) {
+                MappedBufferUtils.unmap(mapping);
+            }
+            readMappings.clear();
+
+            if (mapped != null) {
+                MappedByteBuffer mapping = mapped;
+                // later reads and writes go to the closed channel and fail instead of touching unmapped memory
+                mapped = null;
+                mapping.force();
+                // a file can't be truncated below a live mapping on Windows, and touching a page of a mapping
+                // beyond the end of the file raises SIGBUS on Linux
+                MappedBufferUtils.unmap(mapping);
+                if (size < mappedSize) {
+                    channel.truncate(size);
+                }
+            }
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -1,13 +1,20 @@
 package org.jf.dexlib2.writer.io;
 
+import com.google.common.collect.Lists;
+import org.jf.util.MappedBufferUtils;
 import org.jf.util.RandomAccessFileInputStream;
 import org.jf.util.RandomAccessFileOutputStream;
 
 import javax.annotation.Nonnull;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
 
-public class FileDataStore implements DexDataStore {
+public class FileDataStore implements BufferDataStore {
     private final RandomAccessFile raf;
+    @Nonnull private final List<MappedByteBuffer> mappings = Lists.newArrayList();
 
     public FileDataStore(@Nonnull File file) throws FileNotFoundException, IOException {
         this.raf = new RandomAccessFile(file, "rw");
@@ -22,7 +29,20 @@ public class FileDataStore implements DexDataStore {
         return new RandomAccessFileInputStream(raf, offset);
     }
 
-    @Override public void close() throws IOException {
+    /**
+     * Maps the data from the file, the mapping is released when this data store is closed
+     */
+    @Nonnull @Override public synchronized ByteBuffer readBuffer(int offset, int length) throws IOException {
+        MappedByteBuffer mapping = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, length);
+        mappings.add(mapping);
+        return mapping.asReadOnlyBuffer();
+    }
+
+    @Override public synchronized void close() throws IOException {
+        for (MappedByteBuffer mapping: mappings) {
+            MappedBufferUtils.unmap(mapping);
+        }
+        mappings.clear();
         raf.close();
     }
 }
@@ -4,9 +4,10 @@ import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
-public class MemoryDataStore implements DexDataStore {
+public class MemoryDataStore implements BufferDataStore {
     private byte[] buf;
 
     public MemoryDataStore() {
@@ -99,6 +100,13 @@ public class MemoryDataStore implements DexDataStore {
         };
     }
 
+    @Nonnull @Override public ByteBuffer readBuffer(int offset, int length) {
+        if (offset < 0 || length < 0 || length > buf.length - offset) {
+            throw new IndexOutOfBoundsException(String.format("%d bytes at %d, size %d", length, offset, buf.length));
+        }
+        return ByteBuffer.wrap(buf, offset, length).slice().asReadOnlyBuffer();
+    }
+
     @Override public void close() throws IOException {
         // no-op
     }
@@ -47,8 +47,7 @@ public class AnnotationPool extends BaseOffsetPool<Annotation>
     }
 
     public void intern(@Nonnull Annotation annotation) {
-        Integer prev = internedItems.put(annotation, 0);
-        if (prev == null) {
+        if (internedItems.add(annotation)) {
             dexPool.typeSection.intern(annotation.getType());
             for (AnnotationElement element: annotation.getElements()) {
                 dexPool.stringSection.intern(element.getName());
@@ -47,8 +47,7 @@ public class AnnotationSetPool extends BaseNullableOffsetPool<Set<? extends Anno
 
     public void intern(@Nonnull Set<? extends Annotation> annotationSet) {
         if (annotationSet.size() > 0) {
-            Integer prev = internedItems.put(annotationSet, 0);
-            if (prev == null) {
+            if (internedItems.add(annotationSet)) {
                 for (Annotation annotation: annotationSet) {
                     dexPool.annotationSection.intern(annotation);
                 }
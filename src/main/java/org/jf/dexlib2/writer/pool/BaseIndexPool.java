@@ -38,22 +38,22 @@ import javax.annotation.Nonnull;
 import java.util.Collection;
 import java.util.Map;
 
-public abstract class BaseIndexPool<Key> extends BasePool<Key, Integer> implements IndexSection<Key> {
+public abstract class BaseIndexPool<Key> extends BaseInternPool<Key> implements IndexSection<Key> {
 
     public BaseIndexPool(@Nonnull DexPool dexPool) {
         super(dexPool);
     }
 
     @Nonnull @Override public Collection<? extends Map.Entry<? extends Key, Integer>> getItems() {
-        return internedItems.entrySet();
+        return internedItems.entries();
     }
 
     @Override public int getItemIndex(@Nonnull Key key) {
-        Integer index = internedItems.get(key);
-        if (index == null) {
+        int position = internedItems.find(key);
+        if (position < 0) {
             throw new ExceptionWithContext("Item not found.: %s", getItemString(key));
         }
-        return index;
+        return internedItems.getValue(position);
     }
 
     @Nonnull protected String getItemString(@Nonnull Key key) {
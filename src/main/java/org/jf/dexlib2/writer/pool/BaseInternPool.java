@@ -0,0 +1,32 @@
+package org.jf.dexlib2.writer.pool;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A pool whose items map to an index or offset. The values are kept unboxed in an {@link InternTable}.
+ */
+public class BaseInternPool<Key> implements Markable {
+    @Nonnull protected final DexPool dexPool;
+    @Nonnull protected final InternTable<Key> internedItems = new InternTable<Key>();
+    private int markedItemCount = -1;
+
+    public BaseInternPool(@Nonnull DexPool dexPool) {
+        this.dexPool = dexPool;
+    }
+
+    public void mark() {
+        markedItemCount = internedItems.size();
+    }
+
+    public void reset() {
+        if (markedItemCount < 0) {
+            throw new IllegalStateException("mark() must be called before calling reset()");
+        }
+
+        internedItems.truncate(markedItemCount);
+    }
+
+    public int getItemCount() {
+        return internedItems.size();
+    }
+}
@@ -38,22 +38,22 @@ import javax.annotation.Nonnull;
 import java.util.Collection;
 import java.util.Map;
 
-public abstract class BaseOffsetPool<Key> extends BasePool<Key, Integer> implements OffsetSection<Key> {
+public abstract class BaseOffsetPool<Key> extends BaseInternPool<Key> implements OffsetSection<Key> {
 
     public BaseOffsetPool(@Nonnull DexPool dexPool) {
         super(dexPool);
     }
 
     @Nonnull @Override public Collection<? extends Map.Entry<? extends Key, Integer>> getItems() {
-        return internedItems.entrySet();
+        return internedItems.entries();
     }
 
     @Override public int getItemOffset(@Nonnull Key key) {
-        Integer offset = internedItems.get(key);
-        if (offset == null) {
+        int position = internedItems.find(key);
+        if (position < 0) {
             throw new ExceptionWithContext("Item not found.: %s", getItemString(key));
         }
-        return offset;
+        return internedItems.getValue(position);
     }
 
     @Nonnull protected String getItemString(@Nonnull Key key) {
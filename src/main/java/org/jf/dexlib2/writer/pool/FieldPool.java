@@ -45,8 +45,7 @@ public class FieldPool extends BaseIndexPool<FieldReference>
     }
 
     public void intern(@Nonnull FieldReference field) {
-        Integer prev = internedItems.put(field, 0);
-        if (prev == null) {
+        if (internedItems.add(field)) {
             dexPool.typeSection.intern(field.getDefiningClass());
             dexPool.stringSection.intern(field.getName());
             dexPool.typeSection.intern(field.getType());
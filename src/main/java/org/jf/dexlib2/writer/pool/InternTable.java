@@ -0,0 +1,351 @@
+package org.jf.dexlib2.writer.pool;
+
+import org.jf.dexlib2.writer.IntEntry;
+import org.jf.dexlib2.writer.SortableEntries;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of interned keys in insertion order, each with an int value. The keys and values are kept in parallel
+ * arrays and looked up through an open addressing hash table of positions, so no entry object or boxed value is
+ * kept per key.
+ */
+public class InternTable<Key> {
+    @Nonnull private Object[] keys;
+    @Nonnull private int[] hashes;
+    @Nonnull private int[] values;
+    /** position + 1 of the key in each slot, 0 for an empty slot */
+    @Nonnull private int[] slots;
+    private int size;
+
+    public InternTable() {
+        keys = new Object[16];
+        hashes = new int[16];
+        values = new int[16];
+        slots = new int[32];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds the key with a value of 0, if it isn't in the table yet.
+     *
+     * @return true if the key was added, false if it was already in the table
+     */
+    public boolean add(@Nonnull Key key) {
+        int hash = hash(key);
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            int position = slots[slot] - 1;
+            if (hashes[position] == hash && keys[position].equals(key)) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == keys.length) {
+            int capacity = size * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        keys[size] = key;
+        hashes[size] = hash;
+        values[size] = 0;
+        size++;
+        slots[slot] = size;
+
+        // keep the load factor at or below 1/2
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * @return The insertion position of the key, or -1 if it isn't in the table
+     */
+    public int find(@Nullable Object key) {
+        if (key == null) {
+            return -1;
+        }
+        int hash = hash(key);
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            int position = slots[slot] - 1;
+            if (hashes[position] == hash && keys[position].equals(key)) {
+                return position;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nonnull public Key getKey(int position) {
+        return (Key)keys[position];
+    }
+
+    public int getValue(int position) {
+        return values[position];
+    }
+
+    public void setValue(int position, int value) {
+        values[position] = value;
+    }
+
+    /**
+     * Removes the keys added after the first <code>newSize</code> keys
+     */
+    public void truncate(int newSize) {
+        while (size > newSize) {
+            size--;
+            removeSlot(findSlot(size));
+            keys[size] = null;
+        }
+    }
+
+    /**
+     * @return A view of the keys and values in insertion order. The entries are created on the fly and write through
+     * to the table.
+     */
+    @Nonnull public Collection<IntEntry<Key>> entries() {
+        return new EntryCollection();
+    }
+
+    /**
+     * @return The positions of all keys, sorted by key
+     */
+    @SuppressWarnings("unchecked")
+    @Nonnull public int[] sortedPositions(@Nonnull Comparator<? super Key> comparator) {
+        int[] positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            positions[i] = i;
+        }
+        mergeSort(positions, positions.clone(), 0, size, (Comparator<Object>)comparator);
+        return positions;
+    }
+
+    @Nonnull public Collection<Key> keys() {
+        return new AbstractCollection<Key>() {
+            @Nonnull @Override public Iterator<Key> iterator() {
+                return new Iterator<Key>() {
+                    private int position = 0;
+
+                    @Override public boolean hasNext() {
+                        return position < size;
+                    }
+
+                    @Override public Key next() {
+                        if (position >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        return getKey(position++);
+                    }
+
+                    @Override public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override public int size() {
+                return size;
+            }
+        };
+    }
+
+    private class EntryCollection extends AbstractCollection<IntEntry<Key>> implements SortableEntries<Key> {
+        @Nonnull @Override public Iterator<IntEntry<Key>> iterator() {
+            return new Iterator<IntEntry<Key>>() {
+                private int position = 0;
+
+                @Override public boolean hasNext() {
+                    return position < size;
+                }
+
+                @Override public IntEntry<Key> next() {
+                    if (position >= size) {
+                        throw new NoSuchElementException();
+                    }
+                    return new Entry(position++);
+                }
+
+                @Override public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override public int size() {
+            return size;
+        }
+
+        @Nonnull @Override
+        public Iterable<? extends IntEntry<Key>> sortedEntries(@Nonnull Comparator<? super Key> comparator) {
+            final int[] positions = sortedPositions(comparator);
+            return new Iterable<IntEntry<Key>>() {
+                @Override public Iterator<IntEntry<Key>> iterator() {
+                    return new Iterator<IntEntry<Key>>() {
+                        private final Entry entry = new Entry(0);
+                        private int index = 0;
+
+                        @Override public boolean hasNext() {
+                            return index < positions.length;
+                        }
+
+                        @Override public IntEntry<Key> next() {
+                            if (index >= positions.length) {
+                                throw new NoSuchElementException();
+                            }
+                            entry.position = positions[index++];
+                            return entry;
+                        }
+
+                        @Override public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    private class Entry implements IntEntry<Key> {
+        private int position;
+
+        Entry(int position) {
+            this.position = position;
+        }
+
+        @Override public Key getKey() {
+            return InternTable.this.getKey(position);
+        }
+
+        @Override public Integer getValue() {
+            return values[position];
+        }
+
+        @Override public Integer setValue(Integer value) {
+            int prev = values[position];
+            values[position] = value;
+            return prev;
+        }
+
+        @Override public int getIntValue() {
+            return values[position];
+        }
+
+        @Override public void setIntValue(int value) {
+            values[position] = value;
+        }
+
+        @Override public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> other = (Map.Entry<?, ?>)o;
+            return getKey().equals(other.getKey()) && getValue().equals(other.getValue());
+        }
+
+        @Override public int hashCode() {
+            return getKey().hashCode() ^ values[position];
+        }
+
+        @Override public String toString() {
+            return getKey() + "=" + values[position];
+        }
+    }
+
+    /**
+     * Sorts positions[start, end) by their keys, stable like Collections.sort
+     */
+    private void mergeSort(@Nonnull int[] positions, @Nonnull int[] scratch, int start, int end,
+                           @Nonnull Comparator<Object> comparator) {
+        if (end - start < 8) {
+            for (int i = start + 1; i < end; i++) {
+                int position = positions[i];
+                int j = i;
+                while (j > start && comparator.compare(keys[positions[j - 1]], keys[position]) > 0) {
+                    positions[j] = positions[j - 1];
+                    j--;
+                }
+                positions[j] = position;
+            }
+            return;
+        }
+
+        // scratch holds the same positions as positions at this point, sort its halves and merge them back
+        int middle = (start + end) >>> 1;
+        mergeSort(scratch, positions, start, middle, comparator);
+        mergeSort(scratch, positions, middle, end, comparator);
+
+        int left = start;
+        int right = middle;
+        for (int i = start; i < end; i++) {
+            if (right >= end || (left < middle && comparator.compare(keys[scratch[left]], keys[scratch[right]]) <= 0)) {
+                positions[i] = scratch[left++];
+            } else {
+                positions[i] = scratch[right++];
+            }
+        }
+    }
+
+    private static int hash(@Nonnull Object key) {
+        int hash = key.hashCode() * 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private int findSlot(int position) {
+        int mask = slots.length - 1;
+        int slot = hashes[position] & mask;
+        while (slots[slot] != position + 1) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Empties a slot, moving back the keys of the probe sequence that follows it
+     */
+    private void removeSlot(int slot) {
+        int mask = slots.length - 1;
+        int next = (slot + 1) & mask;
+        while (slots[next] != 0) {
+            int home = hashes[slots[next] - 1] & mask;
+            // move the key back unless its home slot is cyclically within (slot, next]
+            boolean reachable = slot <= next ? (home > slot && home <= next) : (home > slot || home <= next);
+            if (!reachable) {
+                slots[slot] = slots[next];
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+        slots[slot] = 0;
+    }
+
+    private void rehash(int capacity) {
+        int[] newSlots = new int[capacity];
+        int mask = capacity - 1;
+        for (int position = 0; position < size; position++) {
+            int slot = hashes[position] & mask;
+            while (newSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newSlots[slot] = position + 1;
+        }
+        slots = newSlots;
+    }
+}
@@ -45,8 +45,7 @@ public class MethodPool extends BaseIndexPool<MethodReference>
     }
 
     public void intern(@Nonnull MethodReference method) {
-        Integer prev = internedItems.put(method, 0);
-        if (prev == null) {
+        if (internedItems.add(method)) {
             dexPool.typeSection.intern(method.getDefiningClass());
             dexPool.protoSection.intern(new PoolMethodProto(method));
             dexPool.stringSection.intern(method.getName());
@@ -0,0 +1,115 @@
+package org.jf.dexlib2.writer.pool;
+
+import com.google.common.collect.Lists;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.writer.io.FileDataStore;
+import org.jf.util.ExceptionWithContext;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Interns classes into as many DexPools as needed to stay within the method, field and type reference limits of a
+ * single dex file. The pools keep their reference counts as classes are interned, so a class that would overflow
+ * the current pool is rolled back with {@link DexPool#reset()} and interned into a new pool. The classes are split
+ * in the order they are interned, in a single pass.
+ */
+public class MultiDexPool {
+    @Nonnull private final Opcodes opcodes;
+    @Nonnull private final List<DexPool> dexPools = Lists.newArrayList();
+    @Nonnull private DexPool current;
+
+    public MultiDexPool(@Nonnull Opcodes opcodes) {
+        this.opcodes = opcodes;
+        this.current = newDexPool();
+    }
+
+    /**
+     * Interns a class into the current dex, or into a new one if the class doesn't fit in the current dex anymore
+     *
+     * @param classDef The class to intern
+     */
+    public void internClass(@Nonnull ClassDef classDef) {
+        current.mark();
+        current.internClass(classDef);
+        if (!current.hasOverflowed()) {
+            return;
+        }
+
+        if (current.classSection.getItemCount() == 1) {
+            throw new ExceptionWithContext("Class %s has too many references for a single dex file",
+                    classDef.getType());
+        }
+        current.reset();
+        current = newDexPool();
+        internClass(classDef);
+    }
+
+    /**
+     * @return The pools of the dex files, the first one is the primary dex
+     */
+    @Nonnull public List<DexPool> getDexPools() {
+        return Collections.unmodifiableList(dexPools);
+    }
+
+    /**
+     * Writes the first dex to <code>primaryDexFile</code> and the others next to it, numbered from 2 like
+     * classes.dex, classes2.dex, classes3.dex ... The numbered files of an earlier, larger output that follow them
+     * are deleted, so they aren't loaded along with the new ones.
+     *
+     * @param executor The executor the dex files are written with, or null to write them on this thread
+     * @return The files that were written
+     */
+    @Nonnull public List<File> writeTo(@Nonnull File primaryDexFile, @Nullable ExecutorService executor)
+            throws IOException {
+        List<File> files = Lists.newArrayList();
+        for (int i = 0; i < dexPools.size(); i++) {
+            File file = getDexFile(primaryDexFile, i);
+            if (executor == null) {
+                dexPools.get(i).writeTo(new FileDataStore(file));
+            } else {
+                dexPools.get(i).writeTo(new FileDataStore(file), executor);
+            }
+            files.add(file);
+        }
+
+        for (int i = dexPools.size(); ; i++) {
+            File stale = getDexFile(primaryDexFile, i);
+            if (!stale.exists()) {
+                break;
+            }
+            if (!stale.delete()) {
+                throw new IOException("Could not delete " + stale);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * @return The file of the dex at <code>index</code>, named after <code>primaryDexFile</code>
+     */
+    @Nonnull public static File getDexFile(@Nonnull File primaryDexFile, int index) {
+        if (index == 0) {
+            return primaryDexFile;
+        }
+        String name = primaryDexFile.getName();
+        int extension = name.lastIndexOf('.');
+        if (extension < 0) {
+            extension = name.length();
+        }
+        return new File(primaryDexFile.getParentFile(),
+                name.substring(0, extension) + (index + 1) + name.substring(extension));
+    }
+
+    @Nonnull private DexPool newDexPool() {
+        DexPool dexPool = new DexPool(opcodes);
+        dexPools.add(dexPool);
+        return dexPool;
+    }
+}
@@ -49,8 +49,7 @@ public class ProtoPool extends BaseIndexPool<MethodProtoReference>
     }
 
     public void intern(@Nonnull MethodProtoReference reference) {
-        Integer prev = internedItems.put(reference, 0);
-        if (prev == null) {
+        if (internedItems.add(reference)) {
             dexPool.stringSection.intern(getShorty(reference));
             dexPool.typeSection.intern(reference.getReturnType());
             dexPool.typeListSection.intern(reference.getParameterTypes());
@@ -45,7 +45,7 @@ public class StringPool extends StringTypeBasePool implements StringSection<Char
     }
 
     public void intern(@Nonnull CharSequence string) {
-        internedItems.put(string.toString(), 0);
+        internedItems.add(string.toString());
     }
 
     public void internNullable(@Nullable CharSequence string) {
@@ -55,11 +55,11 @@ public class StringPool extends StringTypeBasePool implements StringSection<Char
     }
 
     @Override public int getItemIndex(@Nonnull StringReference key) {
-        Integer index = internedItems.get(key.toString());
-        if (index == null) {
+        int position = internedItems.find(key.toString());
+        if (position < 0) {
             throw new ExceptionWithContext("Item not found.: %s", key.toString());
         }
-        return index;
+        return internedItems.getValue(position);
     }
 
     @Override public boolean hasJumboIndexes() {
@@ -40,23 +40,23 @@ import javax.annotation.Nullable;
 import java.util.Collection;
 import java.util.Map;
 
-public abstract class StringTypeBasePool extends BasePool<String, Integer>
+public abstract class StringTypeBasePool extends BaseInternPool<String>
         implements NullableIndexSection<CharSequence>, Markable {
 
     public StringTypeBasePool(@Nonnull DexPool dexPool) {
         super(dexPool);
     }
 
-    @Nonnull @Override public Collection<Map.Entry<String, Integer>> getItems() {
-        return internedItems.entrySet();
+    @Nonnull @Override public Collection<? extends Map.Entry<String, Integer>> getItems() {
+        return internedItems.entries();
     }
 
     @Override public int getItemIndex(@Nonnull CharSequence key) {
-        Integer index = internedItems.get(key.toString());
-        if (index == null) {
+        int position = internedItems.find(key.toString());
+        if (position < 0) {
             throw new ExceptionWithContext("Item not found.: %s", key.toString());
         }
-        return index;
+        return internedItems.getValue(position);
     }
 
     @Override public int getNullableItemIndex(@Nullable CharSequence key) {
@@ -52,8 +52,7 @@ public class TypeListPool extends BaseNullableOffsetPool<Key<? extends Collectio
     public void intern(@Nonnull Collection<? extends CharSequence> types) {
         if (types.size() > 0) {
             Key<? extends Collection<? extends CharSequence>> key = new Key<Collection<? extends CharSequence>>(types);
-            Integer prev = internedItems.put(key, 0);
-            if (prev == null) {
+            if (internedItems.add(key)) {
                 for (CharSequence type: types) {
                     dexPool.typeSection.intern(type);
                 }
@@ -47,8 +47,7 @@ public class TypePool extends StringTypeBasePool
 
     public void intern(@Nonnull CharSequence type) {
         String typeString = type.toString();
-        Integer prev = internedItems.put(typeString, 0);
-        if (prev == null) {
+        if (internedItems.add(typeString)) {
             dexPool.stringSection.intern(typeString);
         }
     }
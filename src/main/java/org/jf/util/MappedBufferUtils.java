@@ -0,0 +1,78 @@
+package org.jf.util;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Releases file mappings without waiting for the garbage collector. A mapping that isn't released keeps its file
+ * open, which blocks deleting or truncating the file on Windows, and it holds its address space until the buffer
+ * happens to be collected.
+ */
+public class MappedBufferUtils {
+    @Nullable private static final Object UNSAFE;
+    @Nullable private static final Method INVOKE_CLEANER;
+    @Nullable private static final Method CLEANER;
+    @Nullable private static final Method CLEAN;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        Method cleaner = null;
+        Method clean = null;
+        try {
+            // java 9 and later
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+        } catch (Exception e) {
+            invokeCleaner = null;
+            try {
+                // java 8
+                cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            } catch (Exception ignored) {
+                cleaner = null;
+                clean = null;
+            }
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+        CLEANER = cleaner;
+        CLEAN = clean;
+    }
+
+    private MappedBufferUtils() {
+    }
+
+    /**
+     * Unmaps <code>buffer</code>. Neither the buffer nor any duplicate or slice of it may be accessed afterwards,
+     * reading unmapped memory crashes the JVM.
+     *
+     * @param buffer a buffer returned by {@link java.nio.channels.FileChannel#map}, not a duplicate or slice of one
+     * @return false if the JVM doesn't support unmapping, the mapping is then released when the buffer is garbage
+     * collected
+     */
+    public static boolean unmap(@Nonnull MappedByteBuffer buffer) {
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                return true;
+            }
+            if (CLEANER != null && CLEAN != null) {
+                Object cleaner = CLEANER.invoke(buffer);
+                if (cleaner != null) {
+                    CLEAN.invoke(cleaner);
+                    return true;
+                }
+            }
+        } catch (Exception ignored) {
+        }
+        return false;
+    }
+}
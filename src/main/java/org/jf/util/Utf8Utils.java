@@ -26,6 +26,7 @@ package org.jf.util;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Constants of type <code>CONSTANT_Utf8_info</code>.
@@ -179,6 +180,23 @@ public final class Utf8Utils {
         return utf8BytesWithUtf16LengthToString(bytes, start, utf16Length, null);
     }
 
+    /**
+     * @return true if the <code>length</code> bytes at <code>start</code> are all in the range 0x01-0x7f, which
+     * encode one char each
+     */
+    private static boolean isAscii(@Nonnull byte[] bytes, int start, int length) {
+        if (start < 0 || length > bytes.length - start) {
+            return false;
+        }
+        int end = start + length;
+        for (int i = start; i < end; i++) {
+            if (bytes[i] <= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Converts an array of UTF-8 bytes into a string.
      *
@@ -190,6 +208,14 @@ public final class Utf8Utils {
      */
     public static String utf8BytesWithUtf16LengthToString(@Nonnull byte[] bytes, int start, int utf16Length,
                                                           @Nullable int[] readLength) {
+        if (isAscii(bytes, start, utf16Length)) {
+            // one byte per char, copied in bulk instead of decoded char by char
+            if (readLength != null) {
+                readLength[0] = utf16Length;
+            }
+            return new String(bytes, start, utf16Length, StandardCharsets.ISO_8859_1);
+        }
+
         char[] chars = localBuffer.get();
         if (chars == null || chars.length < utf16Length) {
             chars = new char[utf16Length];
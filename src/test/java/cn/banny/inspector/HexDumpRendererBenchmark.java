@@ -0,0 +1,201 @@
+package cn.banny.inspector;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * Compares the hex dump of the previous Inspector implementation with HexDumpRenderer, rendered into a String
+ * and streamed to a discarding Writer with and without the md5 and truncation, like InspectorClient does for the
+ * console and inspector.log. Every size is rendered until about <code>bytesPerRound</code> bytes were dumped.
+ * Usage: HexDumpRendererBenchmark [rounds] [bytesPerRound] [size...]
+ */
+public class HexDumpRendererBenchmark {
+
+	private static final int MODE = 16;
+
+	public static void main(String[] args) throws Exception {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		long bytesPerRound = args.length > 1 ? Long.parseLong(args[1]) : 64L << 20;
+		int[] sizes;
+		if (args.length > 2) {
+			sizes = new int[args.length - 2];
+			for (int i = 0; i < sizes.length; i++) {
+				sizes[i] = Integer.parseInt(args[i + 2]);
+			}
+		} else {
+			sizes = new int[] { 64, 4 << 10, 256 << 10, 1 << 20, 16 << 20 };
+		}
+
+		Date date = new Date();
+		HexDumpRenderer renderer = new HexDumpRenderer();
+		HexDumpRenderer.Truncation truncation = new HexDumpRenderer.Truncation(0x1000, 0x1000, false);
+		CountingWriter writer = new CountingWriter();
+
+		for (int size : sizes) {
+			byte[] data = new byte[size];
+			new Random(size).nextBytes(data);
+			int iterations = (int) Math.max(1, bytesPerRound / size);
+
+			if (!baseline(date, "benchmark", data, MODE).equals(renderer.render(date, "benchmark", data, MODE))) {
+				throw new IllegalStateException("output differs from the baseline: size=" + size);
+			}
+
+			for (int round = 0; round < rounds; round++) {
+				long start = System.nanoTime();
+				for (int i = 0; i < iterations; i++) {
+					writer.count += baseline(date, "benchmark", data, MODE).length();
+				}
+				long baselineNanos = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				for (int i = 0; i < iterations; i++) {
+					writer.count += renderer.render(date, "benchmark", data, MODE).length();
+				}
+				long stringNanos = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				for (int i = 0; i < iterations; i++) {
+					renderer.render(date, "benchmark", data, 0, data.length, MODE, true, null, writer);
+				}
+				long streamNanos = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				for (int i = 0; i < iterations; i++) {
+					renderer.render(date, "benchmark", data, 0, data.length, MODE, false, null, writer);
+				}
+				long noDigestNanos = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				for (int i = 0; i < iterations; i++) {
+					renderer.render(date, "benchmark", data, 0, data.length, MODE, false, truncation, writer);
+				}
+				long truncatedNanos = System.nanoTime() - start;
+
+				System.out.println(String.format("round %d: %9d bytes x %7d, per dump: baseline %s, string %s, " +
+								"stream %s, no md5 %s, truncated %s", round, size, iterations,
+						perDump(baselineNanos, iterations), perDump(stringNanos, iterations),
+						perDump(streamNanos, iterations), perDump(noDigestNanos, iterations),
+						perDump(truncatedNanos, iterations)));
+			}
+		}
+		System.out.println("chars: " + writer.count);
+	}
+
+	private static String perDump(long nanos, int iterations) {
+		double micros = nanos / 1e3 / iterations;
+		return micros >= 1000 ? String.format("%10.2f ms", micros / 1000) : String.format("%10.2f us", micros);
+	}
+
+	/**
+	 * The hex dump of Inspector before HexDumpRenderer, as the baseline of the comparison.
+	 */
+	private static String baseline(Date date, String label, byte[] data, int mode) {
+		StringBuilder buffer = new StringBuilder();
+		buffer.append("\n>-----------------------------------------------------------------------------<\n");
+
+		if (date == null) {
+			date = new Date();
+		}
+		buffer.append(new SimpleDateFormat("[HH:mm:ss SSS]").format(date));
+
+		buffer.append(label);
+		if(data != null) {
+			buffer.append(", md5=").append(Hex.encodeHex(DigestUtils.md5(data)));
+			if (data.length < 1024) {
+				buffer.append(", hex=").append(Hex.encodeHex(data));
+			}
+		}
+
+		buffer.append("\nsize: ");
+		if(data != null) {
+			buffer.append(data.length);
+		} else {
+			buffer.append("null");
+		}
+		buffer.append('\n');
+
+		if(data != null) {
+			int i = 0;
+			for(; i < data.length; i++) {
+				if(i % mode == 0) {
+					String hex = Integer.toHexString(i % 0x10000).toUpperCase();
+					for(int k = 0, fill = 4 - hex.length(); k < fill; k++) {
+						buffer.append('0');
+					}
+					buffer.append(hex).append(": ");
+				}
+
+				int di = data[i] & 0xFF;
+				String hex = Integer.toString(di, 16).toUpperCase();
+				if(hex.length() < 2) {
+					buffer.append('0');
+				}
+				buffer.append(hex);
+				buffer.append(' ');
+
+				if((i + 1) % mode == 0) {
+					buffer.append("   ");
+					for(int k = i - 15; k < i+1; k++) {
+						buffer.append(toChar(data[k]));
+					}
+					buffer.append('\n');
+				}
+			}
+
+			int redex = mode - i % mode;
+			for(byte k = 0; k < redex && redex < mode; k++) {
+				buffer.append("  ");
+				buffer.append(' ');
+			}
+			int count = i % mode;
+			int start = i - count;
+			if(start < i) {
+				buffer.append("   ");
+			}
+			for(int k = start; k < i; k++) {
+				buffer.append(toChar(data[k]));
+			}
+
+			if(redex < mode) {
+				buffer.append('\n');
+			}
+		}
+
+		buffer.append("^-----------------------------------------------------------------------------^");
+
+		return buffer.toString();
+	}
+
+	private static char toChar(byte in) {
+		if(in == ' ')
+			return ' ';
+
+		if(in > 0x7E || in < 0x21)
+			return '.';
+		else
+			return (char) in;
+	}
+
+	private static class CountingWriter extends Writer {
+		long count;
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			count += len;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
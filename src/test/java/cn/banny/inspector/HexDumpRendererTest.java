@@ -0,0 +1,34 @@
+package cn.banny.inspector;
+
+import junit.framework.TestCase;
+
+import java.util.Date;
+
+public class HexDumpRendererTest extends TestCase {
+
+    private static final String MD5 = ", md5=";
+
+    private static String render(byte[] data, boolean digest, HexDumpRenderer.Truncation truncation) throws Exception {
+        StringBuilder builder = new StringBuilder();
+        new HexDumpRenderer().render(new Date(), "label", data, 0, data.length, 16, digest, truncation, builder);
+        return builder.toString();
+    }
+
+    public void testDigestIsOptional() throws Exception {
+        byte[] data = new byte[0x10000];
+        assertTrue(render(data, true, null).contains(MD5 + "fcd6bcb56c1689fcef28b57c22475bad"));
+        assertFalse(render(data, false, null).contains(MD5));
+        assertTrue(new HexDumpRenderer().render(new Date(), "label", data, 16).contains(MD5));
+    }
+
+    public void testTruncationAsksForDigest() throws Exception {
+        byte[] data = new byte[0x10000];
+        String truncated = render(data, false, new HexDumpRenderer.Truncation(0x100, 0x100, true));
+        assertTrue(truncated, truncated.contains(MD5 + "fcd6bcb56c1689fcef28b57c22475bad"));
+        assertTrue(truncated, truncated.contains("... " + (0x10000 - 0x200) + " bytes skipped ..."));
+
+        assertFalse(render(data, false, new HexDumpRenderer.Truncation(0x100, 0x100, false)).contains(MD5));
+        // not truncated, so the policy doesn't apply
+        assertFalse(render(data, false, new HexDumpRenderer.Truncation(0x10000, 0, true)).contains(MD5));
+    }
+}
@@ -0,0 +1,83 @@
+package cn.banny.inspector.dex;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Assembles a synthetic smali tree with different numbers of threads.
+ * Usage: SmaliAssembleBenchmark [files] [parallelism...]
+ */
+public class SmaliAssembleBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        File dir = Files.createTempDirectory("smali-benchmark").toFile();
+        try {
+            File smaliDir = new File(dir, "smali");
+            generate(smaliDir, files, new Random(files));
+
+            int[] parallelisms;
+            if (args.length > 1) {
+                parallelisms = new int[args.length - 1];
+                for (int i = 1; i < args.length; i++) {
+                    parallelisms[i - 1] = Integer.parseInt(args[i]);
+                }
+            } else {
+                parallelisms = new int[] { Math.min(cores, 4), cores };
+            }
+
+            // warm up the lexer, parser and tree walker
+            Smali.assembleSmaliFile(26, smaliDir, new File(dir, "warmup.dex"), cores);
+
+            for (int parallelism : parallelisms) {
+                File out = new File(dir, "classes_" + parallelism + ".dex");
+                long start = System.currentTimeMillis();
+                Smali.assembleSmaliFile(26, smaliDir, out, parallelism);
+                System.out.println("parallelism=" + parallelism + ", files=" + files + ", dex=" + out.length() +
+                        ", time=" + (System.currentTimeMillis() - start) + "ms");
+            }
+        } finally {
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    /**
+     * Writes classes with a skewed method count, a few of them much bigger than the rest.
+     */
+    private static void generate(File smaliDir, int files, Random random) throws IOException {
+        for (int i = 0; i < files; i++) {
+            String packageName = "bench/p" + (i % 100);
+            String className = "L" + packageName + "/C" + i + ";";
+            int methods = i % 1000 == 0 ? 2000 : 1 + random.nextInt(40);
+
+            StringBuilder builder = new StringBuilder();
+            builder.append(".class public ").append(className).append('\n');
+            builder.append(".super Ljava/lang/Object;\n\n");
+            builder.append(".field private value:I\n\n");
+            for (int m = 0; m < methods; m++) {
+                builder.append(".method public m").append(m).append("(I)I\n");
+                builder.append("    .registers 4\n");
+                builder.append("    iget v0, p0, ").append(className).append("->value:I\n");
+                builder.append("    add-int v0, v0, p1\n");
+                builder.append("    const-string v1, \"m").append(m).append("\"\n");
+                builder.append("    invoke-virtual {v1}, Ljava/lang/String;->hashCode()I\n");
+                builder.append("    move-result v1\n");
+                builder.append("    xor-int/2addr v0, v1\n");
+                builder.append("    return v0\n");
+                builder.append(".end method\n\n");
+            }
+
+            File file = new File(smaliDir, packageName + "/C" + i + ".smali");
+            FileUtils.forceMkdir(file.getParentFile());
+            Files.write(file.toPath(), builder.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+}
@@ -0,0 +1,132 @@
+package cn.banny.inspector.dex;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.writer.builder.DexBuilder;
+import org.jf.dexlib2.writer.io.MemoryDataStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class SmaliCacheTest extends TestCase {
+
+    private static final int API_LEVEL = 26;
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("smali-cache").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    private static byte[] source(String className) {
+        String smali = ".class public abstract L" + className + ";\n" +
+                ".super Ljava/lang/Object;\n\n" +
+                ".method public abstract run()V\n" +
+                ".end method\n";
+        return smali.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] write(DexBuilder dexBuilder) throws IOException {
+        MemoryDataStore dataStore = new MemoryDataStore();
+        dexBuilder.writeTo(dataStore);
+        return dataStore.getData();
+    }
+
+    private File[] files(String suffix) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(suffix));
+        assertNotNull(files);
+        return files;
+    }
+
+    private static void backdate(File... files) {
+        long time = (System.currentTimeMillis() - 60000) / 1000 * 1000;
+        for (File file : files) {
+            assertTrue(file.setLastModified(time));
+        }
+    }
+
+    public void testMissAndHit() throws Exception {
+        DexBuilder missBuilder = new DexBuilder(Opcodes.forApi(API_LEVEL));
+        try (SmaliCache cache = new SmaliCache(dir, API_LEVEL)) {
+            assertTrue(cache.assemble("a/A.smali", source("a/A"), missBuilder));
+            assertEquals(0, cache.getHits());
+            assertEquals(1, cache.getMisses());
+        }
+        assertEquals(1, files(".dex").length);
+
+        DexBuilder hitBuilder = new DexBuilder(Opcodes.forApi(API_LEVEL));
+        try (SmaliCache cache = new SmaliCache(dir, API_LEVEL)) {
+            assertTrue(cache.assemble("a/A.smali", source("a/A"), hitBuilder));
+            assertEquals(1, cache.getHits());
+            assertEquals(0, cache.getMisses());
+        }
+
+        assertTrue(Arrays.equals(write(missBuilder), write(hitBuilder)));
+        assertEquals(0, files(".lock").length);
+    }
+
+    public void testSyntaxErrorIsNotStored() throws Exception {
+        try (SmaliCache cache = new SmaliCache(dir, API_LEVEL)) {
+            byte[] source = "syntax error".getBytes(StandardCharsets.UTF_8);
+            assertFalse(cache.assemble("a/Broken.smali", source, new DexBuilder(Opcodes.forApi(API_LEVEL))));
+        }
+        assertEquals(0, files(".dex").length);
+    }
+
+    public void testPrune() throws Exception {
+        try (SmaliCache cache = new SmaliCache(dir, API_LEVEL)) {
+            assertTrue(cache.assemble("a/A.smali", source("a/A"), new DexBuilder(Opcodes.forApi(API_LEVEL))));
+            assertTrue(cache.assemble("a/B.smali", source("a/B"), new DexBuilder(Opcodes.forApi(API_LEVEL))));
+        }
+        File staleTmp = File.createTempFile("smali", ".tmp", dir);
+        File staleSession = File.createTempFile("session", ".lock", dir);
+        backdate(files(".dex"));
+        backdate(staleTmp, staleSession);
+
+        try (SmaliCache cache = new SmaliCache(dir, API_LEVEL)) {
+            File freshTmp = File.createTempFile("smali", ".tmp", dir);
+            assertTrue(cache.assemble("a/A.smali", source("a/A"), new DexBuilder(Opcodes.forApi(API_LEVEL))));
+            assertEquals(1, cache.getHits());
+            assertEquals(1, cache.prune());
+
+            assertEquals(1, files(".dex").length);
+            assertFalse(staleTmp.exists());
+            assertFalse(staleSession.exists());
+            assertTrue(freshTmp.exists());
+        }
+    }
+
+    public void testPruneKeepsEntriesOfLiveSessions() throws Exception {
+        SmaliCache other = new SmaliCache(dir, API_LEVEL);
+        try {
+            assertTrue(other.assemble("a/B.smali", source("a/B"), new DexBuilder(Opcodes.forApi(API_LEVEL))));
+            // the other session started a while ago
+            backdate(files(".dex"));
+            backdate(files(".lock"));
+
+            try (SmaliCache cache = new SmaliCache(dir, API_LEVEL)) {
+                assertTrue(cache.assemble("a/A.smali", source("a/A"), new DexBuilder(Opcodes.forApi(API_LEVEL))));
+                assertEquals(0, cache.prune());
+            }
+            assertEquals(2, files(".dex").length);
+        } finally {
+            other.close();
+        }
+
+        try (SmaliCache cache = new SmaliCache(dir, API_LEVEL)) {
+            assertTrue(cache.assemble("a/A.smali", source("a/A"), new DexBuilder(Opcodes.forApi(API_LEVEL))));
+            assertEquals(1, cache.prune());
+        }
+        assertEquals(1, files(".dex").length);
+    }
+}
@@ -0,0 +1,233 @@
+package cn.banny.inspector.io;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+public class FrameDecoderTest extends TestCase {
+
+    /**
+     * Hands out the recorded stream a few bytes at a time, like a slow socket.
+     */
+    private static class ChunkedChannel implements ReadableByteChannel {
+        private final ByteBuffer data;
+        private final int chunk;
+        ChunkedChannel(byte[] data, int chunk) {
+            this.data = ByteBuffer.wrap(data);
+            this.chunk = chunk;
+        }
+        @Override
+        public int read(ByteBuffer dst) {
+            if (!data.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(chunk, Math.min(dst.remaining(), data.remaining()));
+            ByteBuffer slice = data.duplicate();
+            slice.limit(slice.position() + n);
+            dst.put(slice);
+            data.position(data.position() + n);
+            return n;
+        }
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+        @Override
+        public void close() {
+        }
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(baos)) {
+            gzip.write(data);
+        }
+        return baos.toByteArray();
+    }
+
+    private static byte[] dumpFrame(long time, String label, byte[] data, int mode) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeLong(time);
+        dos.writeUTF(label);
+        dos.writeBoolean(true);
+        dos.writeInt(data.length);
+        dos.write(data);
+        dos.writeInt(mode);
+        return baos.toByteArray();
+    }
+
+    private static byte[] recordStream(byte[] dump) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeShort(0x1000);
+        dos.writeUTF("hello 中文\u0000");
+
+        dos.writeShort(0x2000);
+        dos.write(dump);
+
+        byte[] zipped = gzip(dump);
+        dos.writeShort(0x2000 | 0x8000);
+        dos.writeInt(zipped.length);
+        dos.write(zipped);
+
+        dos.writeShort(0x1100);
+        byte[] msg = "plain message".getBytes(StandardCharsets.UTF_8);
+        dos.writeInt(msg.length);
+        dos.write(msg);
+        return baos.toByteArray();
+    }
+
+    private static void assertDumpFrame(FrameDecoder decoder, byte[] data) throws IOException {
+        assertEquals(123456789L, decoder.readLong());
+        assertEquals("label: ", decoder.readUTF());
+        assertTrue(decoder.readBoolean());
+        ByteBuffer buffer = decoder.readBytes(decoder.readInt());
+        assertEquals(ByteBuffer.wrap(data), buffer);
+        assertEquals(16, decoder.readInt());
+    }
+
+    private void decodeRecordedStream(int chunk, int bufferSize) throws IOException {
+        byte[] data = new byte[200000];
+        new Random(chunk).nextBytes(data);
+        byte[] stream = recordStream(dumpFrame(123456789L, "label: ", data, 16));
+
+        BufferPool pool = new BufferPool();
+        FrameDecoder decoder = new FrameDecoder(new ChunkedChannel(stream, chunk), pool, bufferSize);
+        try {
+            assertEquals(0x1000, decoder.nextFrame());
+            assertFalse(decoder.isZip());
+            assertEquals("hello 中文\u0000", decoder.readUTF());
+
+            assertEquals(0x2000, decoder.nextFrame());
+            assertFalse(decoder.isZip());
+            assertDumpFrame(decoder, data);
+
+            assertEquals(0x2000, decoder.nextFrame());
+            assertTrue(decoder.isZip());
+            assertDumpFrame(decoder, data);
+
+            assertEquals(0x1100, decoder.nextFrame());
+            byte[] msg = new byte[decoder.readInt()];
+            decoder.readFully(msg);
+            assertEquals("plain message", new String(msg, StandardCharsets.UTF_8));
+
+            try {
+                decoder.nextFrame();
+                fail("EOF expected");
+            } catch (EOFException ignored) {
+            }
+        } finally {
+            decoder.close();
+        }
+    }
+
+    public void testSmallReads() throws Exception {
+        decodeRecordedStream(7, 4096);
+    }
+
+    public void testLargeReads() throws Exception {
+        decodeRecordedStream(1 << 20, 1 << 16);
+    }
+
+    public void testTransferTo() throws Exception {
+        byte[] data = new byte[300000];
+        new Random(1).nextBytes(data);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeShort(0x1001);
+        dos.write(data);
+        dos.writeShort(0x1001 | 0x8000);
+        byte[] zipped = gzip(data);
+        dos.writeInt(zipped.length);
+        dos.write(zipped);
+        dos.writeShort(0x1100);
+
+        byte[] expected = MessageDigest.getInstance("MD5").digest(data);
+        FrameDecoder decoder = new FrameDecoder(new ChunkedChannel(baos.toByteArray(), 1000), new BufferPool(), 4096);
+        try {
+            for (int i = 0; i < 2; i++) {
+                assertEquals(0x1001, decoder.nextFrame());
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                MessageDigest md5 = MessageDigest.getInstance("MD5");
+                decoder.transferTo(data.length, Channels.newChannel(out), md5);
+                assertTrue(Arrays.equals(data, out.toByteArray()));
+                assertTrue(Arrays.equals(expected, md5.digest()));
+            }
+            assertEquals(0x1100, decoder.nextFrame());
+        } finally {
+            decoder.close();
+        }
+    }
+
+    public void testPooledBuffersAreReused() {
+        BufferPool pool = new BufferPool();
+        ByteBuffer buffer = pool.acquire(5000);
+        assertEquals(8192, buffer.capacity());
+        assertEquals(5000, buffer.limit());
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(8000));
+    }
+
+    public void testRetainedBytesAreCapped() {
+        BufferPool pool = new BufferPool(1 << 20, 4, 3 << 16);
+        ByteBuffer[] buffers = new ByteBuffer[4];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pool.acquire(1 << 16);
+        }
+        for (ByteBuffer buffer : buffers) {
+            pool.release(buffer);
+        }
+        assertEquals(3 << 16, pool.getRetainedBytes());
+
+        // too big for what is left, even though its size class is empty
+        pool.release(pool.acquire(1 << 20));
+        assertEquals(3 << 16, pool.getRetainedBytes());
+
+        pool.acquire(1 << 16);
+        assertEquals(2 << 16, pool.getRetainedBytes());
+    }
+
+    public void testReadLine() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeShort(0x1000);
+        dos.writeBytes("first\nsecond\r\nthird\rlast");
+        dos.writeShort(0x1000 | 0x8000);
+        byte[] zipped = gzip("zipped\r\n\nend".getBytes(StandardCharsets.ISO_8859_1));
+        dos.writeInt(zipped.length);
+        dos.write(zipped);
+
+        FrameDecoder decoder = new FrameDecoder(new ChunkedChannel(baos.toByteArray(), 3), new BufferPool(), 4096);
+        try {
+            assertEquals(0x1000, decoder.nextFrame());
+            assertEquals("first", decoder.readLine());
+            assertEquals("second", decoder.readLine());
+            assertEquals("third", decoder.readLine());
+            byte[] last = new byte[4];
+            decoder.readFully(last);
+            assertEquals("last", new String(last, StandardCharsets.ISO_8859_1));
+
+            assertEquals(0x1000, decoder.nextFrame());
+            assertTrue(decoder.isZip());
+            assertEquals("zipped", decoder.readLine());
+            assertEquals("", decoder.readLine());
+            assertEquals("end", decoder.readLine());
+            assertNull(decoder.readLine());
+        } finally {
+            decoder.close();
+        }
+    }
+
+}
@@ -0,0 +1,263 @@
+package cn.banny.inspector.io;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+public class SessionLogTest extends TestCase {
+
+    private static final Pattern DROPPED = Pattern.compile("^\\[[^]]+](\\d+) log records dropped$");
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("session-log").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * @return the lines of the current segment, after the rotated segments from oldest to newest
+     */
+    private List<String> readLines(File log) throws IOException {
+        File[] archives = dir.listFiles((d, name) -> name.startsWith(log.getName() + '.'));
+        assertNotNull(archives);
+        Arrays.sort(archives);
+
+        List<String> lines = new ArrayList<>();
+        for (File archive : archives) {
+            assertTrue(archive.getName(), archive.getName().endsWith(".gz"));
+            try (InputStream in = new GZIPInputStream(new FileInputStream(archive))) {
+                lines.addAll(toLines(in));
+            }
+        }
+        try (InputStream in = new FileInputStream(log)) {
+            lines.addAll(toLines(in));
+        }
+        return lines;
+    }
+
+    private static List<String> toLines(InputStream in) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int read;
+        while ((read = in.read(buf)) != -1) {
+            baos.write(buf, 0, read);
+        }
+        String text = new String(baos.toByteArray(), Charset.defaultCharset());
+        List<String> lines = new ArrayList<>();
+        for (String line : text.split(System.lineSeparator())) {
+            if (!line.isEmpty()) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static void writeConcurrently(SessionLog log, int threads, final int records) throws InterruptedException {
+        Thread[] writers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < records; i++) {
+                    log.println("thread " + thread + " record " + i);
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+    }
+
+    public void testFullRingWaitsForTheWriter() throws Exception {
+        File file = new File(dir, "inspector.log");
+        SessionLog log = new SessionLog(file, 0, 0, 4, TimeUnit.SECONDS.toMillis(30));
+        writeConcurrently(log, 4, 5000);
+        log.close();
+
+        List<String> lines = readLines(file);
+        assertEquals(4 * 5000, lines.size());
+        int[] next = new int[4];
+        for (String line : lines) {
+            String[] tokens = line.split(" ");
+            int thread = Integer.parseInt(tokens[1]);
+            assertEquals(line, next[thread]++, Integer.parseInt(tokens[3]));
+        }
+    }
+
+    public void testDroppedRecordsAreCounted() throws Exception {
+        File file = new File(dir, "inspector.log");
+        SessionLog log = new SessionLog(file, 0, 0, 2, 0);
+        writeConcurrently(log, 4, 20000);
+        log.close();
+
+        int written = 0;
+        long dropped = 0;
+        for (String line : readLines(file)) {
+            Matcher matcher = DROPPED.matcher(line);
+            if (matcher.matches()) {
+                dropped += Long.parseLong(matcher.group(1));
+            } else {
+                written++;
+            }
+        }
+        assertEquals(4 * 20000, written + dropped);
+    }
+
+    public void testRotation() throws Exception {
+        File file = new File(dir, "inspector.log");
+        SessionLog log = new SessionLog(file, 0, 0, 1024, TimeUnit.SECONDS.toMillis(30));
+        for (int i = 0; i < 100; i++) {
+            log.println("before " + i);
+        }
+        log.rotate();
+        for (int i = 0; i < 100; i++) {
+            log.printlnStamped("after " + i);
+        }
+        log.close();
+
+        File[] archives = dir.listFiles((d, name) -> name.startsWith("inspector.log."));
+        assertNotNull(archives);
+        assertEquals(1, archives.length);
+
+        List<String> lines = readLines(file);
+        assertEquals(200, lines.size());
+        assertEquals("before 0", lines.get(0));
+        assertEquals("before 99", lines.get(99));
+        assertTrue(lines.get(100), lines.get(100).matches("^\\[[^]]+]after 0$"));
+        assertTrue(lines.get(199), lines.get(199).endsWith("]after 99"));
+    }
+
+    public void testRotationBySize() throws Exception {
+        File file = new File(dir, "inspector.log");
+        SessionLog log = new SessionLog(file, 4096, 0, 1024, TimeUnit.SECONDS.toMillis(30));
+        for (int i = 0; i < 2000; i++) {
+            log.println("record " + i);
+            if (i % 500 == 499) {
+                Thread.sleep(200);
+            }
+        }
+        log.close();
+
+        File[] archives = dir.listFiles((d, name) -> name.startsWith("inspector.log."));
+        assertNotNull(archives);
+        assertTrue(archives.length > 0);
+        List<String> lines = readLines(file);
+        assertEquals(2000, lines.size());
+    }
+
+    public void testContentIsNotInterleaved() throws Exception {
+        File file = new File(dir, "inspector.log");
+        final SessionLog log = new SessionLog(file, 0, 0, 16, TimeUnit.SECONDS.toMillis(30));
+        log.println("first");
+        Thread other = new Thread(() -> {
+            for (int i = 0; i < 20000; i++) {
+                log.println("other " + i);
+            }
+        });
+        other.start();
+        char[] row = new char[1000];
+        for (int n = 0; n < 20; n++) {
+            final int dump = n;
+            Arrays.fill(row, (char) ('a' + n));
+            assertTrue(log.write(writer -> {
+                writer.write("dump " + dump + " begin" + System.lineSeparator());
+                for (int i = 0; i < 1000; i++) {
+                    writer.write(row);
+                    writer.write(System.lineSeparator());
+                }
+                writer.write("dump " + dump + " end" + System.lineSeparator());
+            }, true));
+        }
+        other.join();
+        log.close();
+
+        List<String> lines = readLines(file);
+        assertEquals("first", lines.get(0));
+        int dumps = 0;
+        int others = 0;
+        for (int i = 1; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.startsWith("other ")) {
+                assertEquals(line, "other " + others++);
+                continue;
+            }
+            assertTrue(line, line.matches("^\\[[^]]+]dump " + dumps + " begin$"));
+            Arrays.fill(row, (char) ('a' + dumps));
+            for (int k = 1; k <= 1000; k++) {
+                assertEquals(new String(row), lines.get(i + k));
+            }
+            i += 1001;
+            assertEquals("dump " + dumps++ + " end", lines.get(i));
+        }
+        assertEquals(20, dumps);
+        assertEquals(20000, others);
+    }
+
+    public void testContentAfterCloseIsDropped() throws Exception {
+        File file = new File(dir, "inspector.log");
+        SessionLog log = new SessionLog(file, 0, 0, 16, TimeUnit.SECONDS.toMillis(30));
+        assertTrue(log.write(writer -> writer.write("before close" + System.lineSeparator()), false));
+        log.close();
+        assertFalse(log.write(writer -> writer.write("after close" + System.lineSeparator()), false));
+
+        List<String> lines = readLines(file);
+        assertEquals(1, lines.size());
+        assertEquals("before close", lines.get(0));
+    }
+
+    public void testPrintWriterLinesAreSingleRecords() throws Exception {
+        File file = new File(dir, "inspector.log");
+        final SessionLog log = new SessionLog(file, 0, 0, 1024, TimeUnit.SECONDS.toMillis(30));
+        Thread plugin = new Thread(() -> {
+            PrintWriter writer = log.getPrintWriter();
+            for (int i = 0; i < 5000; i++) {
+                writer.print("plugin ");
+                writer.print(i);
+                writer.println(" done");
+            }
+        });
+        plugin.start();
+        for (int i = 0; i < 5000; i++) {
+            log.printlnStamped("session " + i);
+        }
+        plugin.join();
+        log.close();
+
+        int plugins = 0;
+        for (String line : readLines(file)) {
+            if (line.startsWith("plugin ")) {
+                assertTrue(line, line.matches("^plugin \\d+ done$"));
+                plugins++;
+            } else {
+                assertTrue(line, line.matches("^\\[[^]]+]session \\d+$"));
+            }
+        }
+        assertEquals(5000, plugins);
+    }
+}
@@ -0,0 +1,202 @@
+package org.jf.dexlib2.analysis;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.DexFileFactory;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.builder.MethodImplementationBuilder;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction10x;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction21c;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction21s;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction21t;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction22x;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction23x;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction30t;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.Annotation;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.MultiDexContainer;
+import org.jf.dexlib2.immutable.ImmutableMethodParameter;
+import org.jf.dexlib2.writer.builder.BuilderMethod;
+import org.jf.dexlib2.writer.builder.DexBuilder;
+import org.jf.dexlib2.writer.builder.DexBuilderMergeTest;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the analysis of every method of an apk or dex with 1, 2, 4 ... threads. Every run starts from a new
+ * ClassPath, so class protos are resolved again. "-" generates many small classes, "large" a few large methods with
+ * loops and try blocks, and "shuffled" large methods whose blocks are laid out in random order and linked by gotos,
+ * like the output of an optimizer.
+ * Usage: AnalysisBenchmark [apk|dex|-|large|shuffled] [maxThreads] [rounds]
+ */
+public class AnalysisBenchmark {
+
+    private static final Opcodes OPCODES = Opcodes.forApi(26);
+
+    public static void main(String[] args) throws Exception {
+        List<DexBackedDexFile> dexFiles;
+        if (args.length == 0 || "-".equals(args[0])) {
+            dexFiles = generate(20000);
+        } else if ("large".equals(args[0])) {
+            dexFiles = Lists.newArrayList(AnalyzedInstructionTest.buildDex(60, 2000, 200, 1));
+        } else if ("shuffled".equals(args[0])) {
+            dexFiles = Lists.newArrayList(generateShuffled(40, 2000, 200));
+        } else {
+            dexFiles = load(new File(args[0]));
+        }
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        List<ClassDef> classes = Lists.newArrayList();
+        for (DexBackedDexFile dexFile: dexFiles) {
+            classes.addAll(dexFile.getClasses());
+        }
+        System.out.println("dex files=" + dexFiles.size() + ", classes=" + classes.size() +
+                ", available processors=" + Runtime.getRuntime().availableProcessors());
+
+        final AtomicLong instructions = new AtomicLong();
+        final AtomicLong visits = new AtomicLong();
+        final AtomicLong merges = new AtomicLong();
+        ParallelMethodAnalyzer.Listener listener = new ParallelMethodAnalyzer.Listener() {
+            @Override public void methodAnalyzed(@Nonnull ClassDef classDef, @Nonnull Method method,
+                                                 @Nonnull MethodAnalyzer analyzer) {
+                instructions.addAndGet(analyzer.getAnalyzedInstructions().size());
+                visits.addAndGet(analyzer.getInstructionVisitCount());
+                merges.addAndGet(analyzer.getRegisterMergeCount());
+            }
+
+            @Override public void methodFailed(@Nonnull ClassDef classDef, @Nonnull Method method,
+                                               @Nonnull RuntimeException ex) {
+            }
+        };
+
+        long singleThreadNanos = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            long best = Long.MAX_VALUE;
+            int analyzed = 0;
+            for (int round = 0; round < rounds; round++) {
+                List<ClassProvider> providers = Lists.newArrayList();
+                for (DexBackedDexFile dexFile: dexFiles) {
+                    providers.add(new DexClassProvider(dexFile));
+                }
+                ClassPath classPath = new ClassPath(providers, false, ClassPath.NOT_ART);
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                instructions.set(0);
+                visits.set(0);
+                merges.set(0);
+                try {
+                    long start = System.nanoTime();
+                    analyzed = new ParallelMethodAnalyzer(classPath, null, false).analyze(classes, pool, listener);
+                    best = Math.min(best, System.nanoTime() - start);
+                } finally {
+                    pool.shutdown();
+                }
+            }
+            if (threads == 1) {
+                singleThreadNanos = best;
+            }
+            System.out.println(String.format("threads %3d %9.1f ms %8d methods analyzed, speedup %.2fx", threads,
+                    best / 1e6, analyzed, (double) singleThreadNanos / best));
+        }
+        System.out.println(String.format("instructions %d, %.2f visits and %.1f register merges per instruction",
+                instructions.get(), (double)visits.get() / instructions.get(),
+                (double)merges.get() / instructions.get()));
+    }
+
+    private static List<DexBackedDexFile> load(File file) throws Exception {
+        MultiDexContainer<? extends DexBackedDexFile> container = DexFileFactory.loadDexContainer(file, OPCODES);
+        List<DexBackedDexFile> dexFiles = Lists.newArrayList();
+        for (String entryName: container.getDexEntryNames()) {
+            dexFiles.add(container.getEntry(entryName));
+        }
+        return dexFiles;
+    }
+
+    private static DexBackedDexFile generateShuffled(int methods, int blocks, int registers) throws Exception {
+        Random random = new Random(3);
+        DexBuilder dexBuilder = new DexBuilder(OPCODES);
+        int ints = registers / 2;
+        int refs = registers - ints;
+
+        for (int m = 0; m < methods; m++) {
+            String type = "Lcom/example/Shuffled" + m + ";";
+            MethodImplementationBuilder implementation = new MethodImplementationBuilder(registers);
+            for (int r = 0; r < ints; r++) {
+                implementation.addInstruction(new BuilderInstruction21s(Opcode.CONST_16, r, r));
+            }
+            for (int r = ints; r < registers; r++) {
+                implementation.addInstruction(new BuilderInstruction21c(Opcode.CONST_STRING, r,
+                        dexBuilder.internStringReference("s" + r)));
+            }
+            implementation.addInstruction(new BuilderInstruction30t(Opcode.GOTO_32, implementation.getLabel("b0")));
+
+            List<Integer> order = Lists.newArrayList();
+            for (int b = 0; b < blocks; b++) {
+                order.add(b);
+            }
+            Collections.shuffle(order, random);
+            for (int b: order) {
+                implementation.addLabel("b" + b);
+                int intRegister = random.nextInt(ints);
+                int refRegister = ints + random.nextInt(refs);
+                switch (random.nextInt(5)) {
+                    case 0:
+                        implementation.addInstruction(new BuilderInstruction21s(Opcode.CONST_16, intRegister, b));
+                        break;
+                    case 1:
+                        implementation.addInstruction(new BuilderInstruction23x(Opcode.ADD_INT, intRegister,
+                                random.nextInt(ints), random.nextInt(ints)));
+                        break;
+                    case 2:
+                        implementation.addInstruction(new BuilderInstruction22x(Opcode.MOVE_OBJECT_FROM16,
+                                refRegister, ints + random.nextInt(refs)));
+                        break;
+                    case 3:
+                        implementation.addInstruction(new BuilderInstruction21t(Opcode.IF_EQZ, intRegister,
+                                implementation.getLabel("b" + Math.min(blocks, b + 1 + random.nextInt(6)))));
+                        break;
+                    default:
+                        if (b > 0 && random.nextInt(3) == 0) {
+                            implementation.addInstruction(new BuilderInstruction21t(Opcode.IF_NEZ, intRegister,
+                                    implementation.getLabel("b" + random.nextInt(b))));
+                        } else {
+                            implementation.addInstruction(new BuilderInstruction21c(Opcode.CONST_STRING,
+                                    refRegister, dexBuilder.internStringReference("b" + (b % 50))));
+                        }
+                        break;
+                }
+                implementation.addInstruction(new BuilderInstruction30t(Opcode.GOTO_32,
+                        implementation.getLabel("b" + (b + 1))));
+            }
+            implementation.addLabel("b" + blocks);
+            implementation.addInstruction(new BuilderInstruction10x(Opcode.RETURN_VOID));
+
+            BuilderMethod method = dexBuilder.internMethod(type, "run",
+                    ImmutableList.of(new ImmutableMethodParameter("I", null, null)), "V",
+                    AccessFlags.PUBLIC.getValue() | AccessFlags.STATIC.getValue(), ImmutableSet.<Annotation>of(),
+                    implementation.getMethodImplementation());
+            dexBuilder.internClassDef(type, AccessFlags.PUBLIC.getValue(), "Ljava/lang/Object;", null, null,
+                    ImmutableSet.<Annotation>of(), null, ImmutableList.of(method));
+        }
+        return new DexBackedDexFile(OPCODES, DexBuilderMergeTest.write(dexBuilder));
+    }
+
+    private static List<DexBackedDexFile> generate(int classes) throws Exception {
+        DexBuilder dexBuilder = new DexBuilder(OPCODES);
+        for (int i = 0; i < classes; i++) {
+            DexBuilderMergeTest.internClass(dexBuilder, i);
+        }
+        return Lists.newArrayList(new DexBackedDexFile(OPCODES, DexBuilderMergeTest.write(dexBuilder)));
+    }
+}
@@ -0,0 +1,226 @@
+package org.jf.dexlib2.analysis;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import junit.framework.TestCase;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.builder.Label;
+import org.jf.dexlib2.builder.MethodImplementationBuilder;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction10x;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction11x;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction21c;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction21s;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction21t;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction22x;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction23x;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction30t;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction3rc;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.Annotation;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.immutable.ImmutableMethodParameter;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodReference;
+import org.jf.dexlib2.writer.builder.BuilderMethod;
+import org.jf.dexlib2.writer.builder.DexBuilder;
+import org.jf.dexlib2.writer.builder.DexBuilderMergeTest;
+
+import java.util.List;
+import java.util.Random;
+
+public class AnalyzedInstructionTest extends TestCase {
+
+    private static final Opcodes OPCODES = Opcodes.forApi(19);
+
+    /**
+     * Builds a dex with one class per method. Every method is a long run of random blocks over
+     * <code>registers</code> registers, with forward branches to create merge points, backward branches to create
+     * loops, and try blocks whose handlers jump back into the method. The lower half of the registers always holds
+     * ints, the upper half references, and one register is only used for exceptions.
+     */
+    static DexBackedDexFile buildDex(int methods, int blocks, int registers, long seed) throws Exception {
+        Random random = new Random(seed);
+        DexBuilder dexBuilder = new DexBuilder(OPCODES);
+        int ints = registers / 2;
+        int refs = registers - 2 - ints;
+        int exceptionRegister = registers - 2;
+
+        for (int m = 0; m < methods; m++) {
+            String type = "Lcom/example/Large" + m + ";";
+            MethodImplementationBuilder implementation = new MethodImplementationBuilder(registers);
+            for (int r = 0; r < ints; r++) {
+                implementation.addInstruction(new BuilderInstruction21s(Opcode.CONST_16, r, r));
+            }
+            for (int r = ints; r < ints + refs; r++) {
+                implementation.addInstruction(new BuilderInstruction21c(Opcode.CONST_STRING, r,
+                        dexBuilder.internStringReference("s" + r)));
+            }
+            implementation.addInstruction(new BuilderInstruction21c(Opcode.NEW_INSTANCE, exceptionRegister,
+                    dexBuilder.internTypeReference("Ljava/lang/Exception;")));
+            implementation.addInstruction(new BuilderInstruction3rc(Opcode.INVOKE_DIRECT_RANGE, exceptionRegister, 1,
+                    dexBuilder.internMethodReference(new ImmutableMethodReference(
+                            "Ljava/lang/Exception;", "<init>", ImmutableList.<String>of(), "V"))));
+
+            List<Label> backwardTargets = Lists.newArrayList();
+            List<String> forwardTargets = Lists.newArrayList();
+            List<Integer> forwardDistances = Lists.newArrayList();
+            List<String> handlers = Lists.newArrayList();
+            Label tryStart = null;
+            int tryEnd = 0;
+            int labels = 0;
+            for (int b = 0; b < blocks; b++) {
+                if (tryStart != null && b == tryEnd) {
+                    String handler = "handler" + labels++;
+                    implementation.addCatch(dexBuilder.internTypeReference("Ljava/lang/Exception;"), tryStart,
+                            implementation.addLabel("tryEnd" + labels++), implementation.getLabel(handler));
+                    handlers.add(handler);
+                    tryStart = null;
+                } else if (tryStart == null && random.nextInt(30) == 0) {
+                    tryStart = implementation.addLabel("tryStart" + labels++);
+                    tryEnd = b + 1 + random.nextInt(10);
+                }
+                for (int i = forwardTargets.size() - 1; i >= 0; i--) {
+                    if (forwardDistances.get(i) == b) {
+                        implementation.addLabel(forwardTargets.get(i));
+                        forwardTargets.remove(i);
+                        forwardDistances.remove(i);
+                    }
+                }
+                if (random.nextInt(8) == 0) {
+                    String name = "back" + labels++;
+                    backwardTargets.add(implementation.addLabel(name));
+                }
+
+                int intRegister = random.nextInt(ints);
+                int refRegister = ints + random.nextInt(refs);
+                switch (random.nextInt(7)) {
+                    case 0:
+                        implementation.addInstruction(new BuilderInstruction21s(Opcode.CONST_16, intRegister, b));
+                        break;
+                    case 1:
+                        implementation.addInstruction(new BuilderInstruction23x(Opcode.ADD_INT, intRegister,
+                                random.nextInt(ints), random.nextInt(ints)));
+                        break;
+                    case 2:
+                        implementation.addInstruction(new BuilderInstruction21c(Opcode.NEW_INSTANCE, refRegister,
+                                dexBuilder.internTypeReference(type)));
+                        implementation.addInstruction(new BuilderInstruction3rc(Opcode.INVOKE_DIRECT_RANGE,
+                                refRegister, 1, dexBuilder.internMethodReference(new ImmutableMethodReference(
+                                        "Ljava/lang/Object;", "<init>", ImmutableList.<String>of(), "V"))));
+                        break;
+                    case 3:
+                        implementation.addInstruction(new BuilderInstruction22x(Opcode.MOVE_OBJECT_FROM16,
+                                refRegister, ints + random.nextInt(refs)));
+                        break;
+                    case 4:
+                        implementation.addInstruction(new BuilderInstruction21c(Opcode.CONST_STRING, refRegister,
+                                dexBuilder.internStringReference("b" + (b % 50))));
+                        break;
+                    case 5: {
+                        String name = "forward" + labels++;
+                        forwardTargets.add(name);
+                        forwardDistances.add(b + 1 + random.nextInt(6));
+                        implementation.addInstruction(new BuilderInstruction21t(Opcode.IF_EQZ, intRegister,
+                                implementation.getLabel(name)));
+                        break;
+                    }
+                    default:
+                        if (!backwardTargets.isEmpty() && random.nextInt(3) == 0) {
+                            implementation.addInstruction(new BuilderInstruction21t(Opcode.IF_NEZ, intRegister,
+                                    backwardTargets.get(random.nextInt(backwardTargets.size()))));
+                        } else {
+                            implementation.addInstruction(new BuilderInstruction21c(Opcode.CHECK_CAST,
+                                    refRegister, dexBuilder.internTypeReference("Ljava/lang/Object;")));
+                        }
+                        break;
+                }
+            }
+            for (String name: forwardTargets) {
+                implementation.addLabel(name);
+            }
+            if (tryStart != null) {
+                implementation.addInstruction(new BuilderInstruction10x(Opcode.NOP));
+                String handler = "handler" + labels++;
+                implementation.addCatch(dexBuilder.internTypeReference("Ljava/lang/Exception;"), tryStart,
+                        implementation.addLabel("tryEnd" + labels++), implementation.getLabel(handler));
+                handlers.add(handler);
+            }
+            implementation.addInstruction(new BuilderInstruction10x(Opcode.RETURN_VOID));
+
+            for (String handler: handlers) {
+                implementation.addLabel(handler);
+                implementation.addInstruction(new BuilderInstruction11x(Opcode.MOVE_EXCEPTION, exceptionRegister));
+                if (backwardTargets.isEmpty()) {
+                    implementation.addInstruction(new BuilderInstruction10x(Opcode.RETURN_VOID));
+                } else {
+                    implementation.addInstruction(new BuilderInstruction30t(Opcode.GOTO_32,
+                            backwardTargets.get(random.nextInt(backwardTargets.size()))));
+                }
+            }
+
+            BuilderMethod method = dexBuilder.internMethod(type, "run", ImmutableList.of(
+                    new ImmutableMethodParameter("I", null, null)), "V",
+                    AccessFlags.PUBLIC.getValue() | AccessFlags.STATIC.getValue(), ImmutableSet.<Annotation>of(),
+                    implementation.getMethodImplementation());
+            dexBuilder.internClassDef(type, AccessFlags.PUBLIC.getValue(), "Ljava/lang/Object;", null, null,
+                    ImmutableSet.<Annotation>of(), null, ImmutableList.of(method));
+        }
+        return new DexBackedDexFile(OPCODES, DexBuilderMergeTest.write(dexBuilder));
+    }
+
+    public void testRegisterStateAtFixedPoint() throws Exception {
+        DexBackedDexFile dexFile = buildDex(20, 1500, 120, 11);
+        ClassPath classPath = new ClassPath(new DexClassProvider(dexFile));
+
+        for (ClassDef classDef: dexFile.getClasses()) {
+            for (Method method: classDef.getMethods()) {
+                MethodAnalyzer analyzer = new MethodAnalyzer(classPath, method, null, false);
+                assertNull(analyzer.getAnalysisException());
+                List<String> registerTypes = describeRegisterTypes(analyzer);
+                assertRegisterStateAtFixedPoint(analyzer);
+
+                analyzer.compactRegisterState();
+                assertEquals(registerTypes, describeRegisterTypes(analyzer));
+                assertRegisterStateAtFixedPoint(analyzer);
+            }
+        }
+    }
+
+    private static List<String> describeRegisterTypes(MethodAnalyzer analyzer) {
+        List<String> registerTypes = Lists.newArrayList();
+        for (AnalyzedInstruction instruction: analyzer.getAnalyzedInstructions()) {
+            StringBuilder sb = new StringBuilder();
+            for (int r = 0; r < instruction.getRegisterCount(); r++) {
+                sb.append(instruction.getPreInstructionRegisterType(r)).append(',');
+                sb.append(instruction.getPostInstructionRegisterType(r)).append(',');
+            }
+            registerTypes.add(sb.toString());
+        }
+        return registerTypes;
+    }
+
+    private static void assertRegisterStateAtFixedPoint(MethodAnalyzer analyzer) {
+        for (AnalyzedInstruction instruction: analyzer.getAnalyzedInstructions()) {
+            if (instruction.getPredecessorCount() == 0) {
+                // unreachable, e.g. the handler of a try block without any instruction that can throw
+                continue;
+            }
+            List<Integer> setRegisters = instruction.getSetRegisters();
+            for (int r = 0; r < instruction.getRegisterCount(); r++) {
+                RegisterType merged = null;
+                for (AnalyzedInstruction predecessor: instruction.getPredecessors()) {
+                    RegisterType type = predecessor.getPostInstructionRegisterType(r);
+                    merged = merged == null ? type : merged.merge(type);
+                }
+                assertEquals(merged, instruction.getPreInstructionRegisterType(r));
+                if (!setRegisters.contains(r)) {
+                    assertEquals(instruction.getPreInstructionRegisterType(r),
+                            instruction.getPostInstructionRegisterType(r));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.jf.dexlib2.analysis;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import junit.framework.TestCase;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.immutable.ImmutableClassDef;
+import org.jf.dexlib2.immutable.ImmutableDexFile;
+
+import java.util.List;
+
+public class ClassPathTest extends TestCase {
+
+    private static ClassDef classDef(String type, String superclass, String... interfaces) {
+        return new ImmutableClassDef(type, AccessFlags.PUBLIC.getValue(), superclass, ImmutableList.copyOf(interfaces),
+                null, null, null, null);
+    }
+
+    public void testCommonSuperclassIsCachedInEitherOrder() throws Exception {
+        List<ClassDef> classes = Lists.newArrayList(
+                new ImmutableClassDef("Lcom/example/Shape;",
+                        AccessFlags.PUBLIC.getValue() | AccessFlags.INTERFACE.getValue() |
+                                AccessFlags.ABSTRACT.getValue(),
+                        "Ljava/lang/Object;", null, null, null, null, null),
+                classDef("Lcom/example/Base;", "Ljava/lang/Object;"),
+                classDef("Lcom/example/Square;", "Lcom/example/Base;", "Lcom/example/Shape;"),
+                classDef("Lcom/example/Circle;", "Lcom/example/Base;", "Lcom/example/Shape;"),
+                classDef("Lcom/example/SmallCircle;", "Lcom/example/Circle;"),
+                classDef("Lcom/example/Orphan;", "Lcom/example/Missing;"));
+        ClassPath classPath = new ClassPath(new DexClassProvider(
+                new ImmutableDexFile(Opcodes.getDefault(), classes)));
+
+        assertEquals("Lcom/example/Base;", classPath.getCommonSuperclass(
+                classPath.getClass("Lcom/example/SmallCircle;"), classPath.getClass("Lcom/example/Square;"))
+                .getType());
+        assertEquals("Lcom/example/Shape;", classPath.getCommonSuperclass(
+                classPath.getClass("Lcom/example/Shape;"), classPath.getClass("Lcom/example/SmallCircle;"))
+                .getType());
+
+        List<String> types = Lists.newArrayList("Ljava/lang/Object;", "Ljava/lang/String;", "Lcom/example/Shape;",
+                "Lcom/example/Base;", "Lcom/example/Square;", "Lcom/example/Circle;", "Lcom/example/SmallCircle;",
+                "Lcom/example/Orphan;", "Lcom/example/Missing;", "[Lcom/example/Square;", "[Lcom/example/Circle;",
+                "[I");
+        for (String type1: types) {
+            for (String type2: types) {
+                TypeProto proto1 = classPath.getClass(type1);
+                TypeProto proto2 = classPath.getClass(type2);
+                TypeProto expected = proto1.getCommonSuperclass(proto2);
+                assertSame(expected, proto2.getCommonSuperclass(proto1));
+                assertSame(expected, classPath.getCommonSuperclass(proto1, proto2));
+                assertSame(expected, classPath.getCommonSuperclass(proto2, proto1));
+            }
+        }
+    }
+}
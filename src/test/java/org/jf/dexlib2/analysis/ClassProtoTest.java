@@ -0,0 +1,163 @@
+package org.jf.dexlib2.analysis;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import junit.framework.TestCase;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.immutable.ImmutableClassDef;
+import org.jf.dexlib2.immutable.ImmutableDexFile;
+import org.jf.dexlib2.immutable.ImmutableMethod;
+import org.jf.dexlib2.immutable.ImmutableMethodParameter;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodReference;
+import org.jf.dexlib2.util.MethodUtil;
+
+import java.util.List;
+import java.util.Random;
+
+public class ClassProtoTest extends TestCase {
+
+    private static final String[] PARAMETERS = { "", "I", "Ljava/lang/String;", "IJ" };
+
+    /**
+     * Builds a dex with a class hierarchy, mostly as deep chains, over two packages. Every class declares
+     * <code>methodsPerClass</code> virtual methods, half of them overriding a method that other classes declare too.
+     * Some of the methods are package private, and some of the classes implement interfaces, which have both abstract
+     * and default methods.
+     */
+    static ImmutableDexFile buildHierarchy(int classCount, int methodsPerClass, long seed) {
+        Random random = new Random(seed);
+        int sharedMethods = Math.max(8, classCount * methodsPerClass / 4);
+        List<ClassDef> classes = Lists.newArrayList();
+
+        classes.add(new ImmutableClassDef("Ljava/lang/Object;", AccessFlags.PUBLIC.getValue(), null, null, null, null,
+                null, ImmutableList.of(
+                        method("Ljava/lang/Object;", "equals", "Ljava/lang/Object;", "Z",
+                                AccessFlags.PUBLIC.getValue()),
+                        method("Ljava/lang/Object;", "hashCode", "", "I", AccessFlags.PUBLIC.getValue()),
+                        method("Ljava/lang/Object;", "toString", "", "Ljava/lang/String;",
+                                AccessFlags.PUBLIC.getValue()))));
+
+        int interfaceCount = 20;
+        for (int i = 0; i < interfaceCount; i++) {
+            String type = "Lcom/example/" + (i % 2 == 0 ? "a" : "b") + "/I" + i + ";";
+            List<String> interfaces = Lists.newArrayList();
+            if (i > 0 && random.nextBoolean()) {
+                interfaces.add(interfaceType(random.nextInt(i)));
+            }
+            List<Method> methods = Lists.newArrayList();
+            for (int j = 0; j < 3; j++) {
+                int accessFlags = AccessFlags.PUBLIC.getValue();
+                if (random.nextInt(3) != 0) {
+                    accessFlags |= AccessFlags.ABSTRACT.getValue();
+                }
+                methods.add(sharedMethod(type, random.nextInt(sharedMethods), accessFlags));
+            }
+            classes.add(new ImmutableClassDef(type, AccessFlags.PUBLIC.getValue() | AccessFlags.INTERFACE.getValue() |
+                    AccessFlags.ABSTRACT.getValue(), "Ljava/lang/Object;", interfaces, null, null, null, methods));
+        }
+
+        for (int i = 0; i < classCount; i++) {
+            String type = classType(i);
+            String superclass;
+            if (i == 0) {
+                superclass = "Ljava/lang/Object;";
+            } else if (random.nextInt(4) != 0) {
+                superclass = classType(i - 1);
+            } else {
+                superclass = classType(i / 2 + random.nextInt(i - i / 2));
+            }
+            List<String> interfaces = Lists.newArrayList();
+            if (random.nextInt(3) == 0) {
+                interfaces.add(interfaceType(random.nextInt(interfaceCount)));
+                if (random.nextBoolean()) {
+                    interfaces.add(interfaceType(random.nextInt(interfaceCount)));
+                }
+            }
+            List<Method> methods = Lists.newArrayList();
+            for (int j = 0; j < methodsPerClass; j++) {
+                int accessFlags;
+                switch (random.nextInt(6)) {
+                    case 0:
+                        accessFlags = 0;
+                        break;
+                    case 1:
+                        accessFlags = AccessFlags.PROTECTED.getValue();
+                        break;
+                    default:
+                        accessFlags = AccessFlags.PUBLIC.getValue();
+                        break;
+                }
+                if (j % 2 == 0) {
+                    methods.add(sharedMethod(type, random.nextInt(sharedMethods), accessFlags));
+                } else {
+                    methods.add(method(type, "c" + i + "_" + j, PARAMETERS[j % PARAMETERS.length], "V",
+                            accessFlags));
+                }
+            }
+            classes.add(new ImmutableClassDef(type, AccessFlags.PUBLIC.getValue(), superclass, interfaces, null, null,
+                    null, methods));
+        }
+        return new ImmutableDexFile(Opcodes.getDefault(), classes);
+    }
+
+    static String classType(int index) {
+        return "Lcom/example/" + (index % 3 == 0 ? "b" : "a") + "/C" + index + ";";
+    }
+
+    private static String interfaceType(int index) {
+        return "Lcom/example/" + (index % 2 == 0 ? "a" : "b") + "/I" + index + ";";
+    }
+
+    private static Method sharedMethod(String type, int index, int accessFlags) {
+        return method(type, "m" + index, PARAMETERS[index % PARAMETERS.length], index % 5 == 0 ? "I" : "V",
+                accessFlags);
+    }
+
+    private static Method method(String type, String name, String parameters, String returnType, int accessFlags) {
+        List<ImmutableMethodParameter> parameterList = Lists.newArrayList();
+        for (int i = 0; i < parameters.length(); i++) {
+            String parameter = parameters.charAt(i) == 'L' ?
+                    parameters.substring(i, parameters.indexOf(';', i) + 1) : parameters.substring(i, i + 1);
+            parameterList.add(new ImmutableMethodParameter(parameter, null, null));
+            i += parameter.length() - 1;
+        }
+        return new ImmutableMethod(type, name, parameterList, returnType, accessFlags, null, null);
+    }
+
+    public void testFindMethodIndexInVtable() {
+        ImmutableDexFile dexFile = buildHierarchy(60, 6, 3);
+        int[] oatVersions = { ClassPath.NOT_ART, 79, 124 };
+        for (int oatVersion: oatVersions) {
+            for (boolean checkPackagePrivateAccess: new boolean[] { false, true }) {
+                ClassPath classPath = new ClassPath(ImmutableList.of(new DexClassProvider(dexFile)),
+                        checkPackagePrivateAccess, oatVersion);
+                for (ClassDef classDef: dexFile.getClasses()) {
+                    ClassProto classProto = (ClassProto)classPath.getClass(classDef.getType());
+                    List<Method> vtable = classProto.getVtable();
+
+                    List<Method> lookups = Lists.newArrayList(vtable);
+                    lookups.add(new ImmutableMethod(classDef.getType(), "missing", null, "V", 0, null, null));
+                    for (Method lookup: lookups) {
+                        int expected = -1;
+                        for (int i = 0; i < vtable.size(); i++) {
+                            Method candidate = vtable.get(i);
+                            if (MethodUtil.methodSignaturesMatch(candidate, lookup) &&
+                                    (!checkPackagePrivateAccess ||
+                                            AnalyzedMethodUtil.canAccess(classProto, candidate, true, false, false))) {
+                                expected = i;
+                                break;
+                            }
+                        }
+                        assertEquals(expected, classProto.findMethodIndexInVtable(lookup));
+                        assertEquals(expected, classProto.findMethodIndexInVtable(new ImmutableMethodReference(
+                                lookup.getDefiningClass(), lookup.getName(), lookup.getParameterTypes(),
+                                lookup.getReturnType())));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.jf.dexlib2.analysis;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.immutable.ImmutableClassDef;
+import org.jf.dexlib2.immutable.ImmutableDexFile;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures RegisterType.merge() of reference types, over a generated class hierarchy with interfaces. A small set of
+ * types is merged over and over, like the register types at the merge points of a large method.
+ * Usage: CommonSuperclassBenchmark [classes] [merges] [rounds]
+ */
+public class CommonSuperclassBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int classCount = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int merges = args.length > 1 ? Integer.parseInt(args[1]) : 5000000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        Random random = new Random(5);
+        List<ClassDef> classes = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            classes.add(new ImmutableClassDef("Lcom/example/h/I" + i + ";",
+                    AccessFlags.PUBLIC.getValue() | AccessFlags.INTERFACE.getValue() | AccessFlags.ABSTRACT.getValue(),
+                    "Ljava/lang/Object;", null, null, null, null, null));
+        }
+        for (int i = 0; i < classCount; i++) {
+            String superclass = i == 0 || random.nextInt(10) == 0 ?
+                    "Ljava/lang/Object;" : "Lcom/example/h/C" + random.nextInt(i) + ";";
+            List<String> interfaces = random.nextInt(4) == 0 ?
+                    ImmutableList.of("Lcom/example/h/I" + random.nextInt(10) + ";") : ImmutableList.<String>of();
+            classes.add(new ImmutableClassDef("Lcom/example/h/C" + i + ";", AccessFlags.PUBLIC.getValue(),
+                    superclass, interfaces, null, null, null, null));
+        }
+        ImmutableDexFile dexFile = new ImmutableDexFile(Opcodes.getDefault(), classes);
+
+        List<String> types = Lists.newArrayList("Ljava/lang/String;", "Ljava/lang/Throwable;",
+                "Lcom/example/Missing;", "[Lcom/example/h/C1;", "[Lcom/example/h/C2;", "Lcom/example/h/I3;");
+        for (int i = 0; i < 60; i++) {
+            types.add("Lcom/example/h/C" + (classCount - 1 - random.nextInt(classCount / 2)) + ";");
+        }
+
+        for (int round = 0; round < rounds; round++) {
+            ClassPath classPath = new ClassPath(new DexClassProvider(dexFile));
+            List<RegisterType> registerTypes = Lists.newArrayList();
+            for (String type: types) {
+                registerTypes.add(RegisterType.getRegisterType(RegisterType.REFERENCE, classPath.getClass(type)));
+            }
+
+            Random pairs = new Random(7);
+            int hash = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < merges; i++) {
+                RegisterType type1 = registerTypes.get(pairs.nextInt(registerTypes.size()));
+                RegisterType type2 = registerTypes.get(pairs.nextInt(registerTypes.size()));
+                hash += type1.merge(type2).type.getType().length();
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.println(String.format("round %d: %d merges of %d types in %.1f ms, %.1f ns/merge (%d)", round,
+                    merges, types.size(), nanos / 1e6, (double)nanos / merges, hash));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.jf.dexlib2.analysis;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import junit.framework.TestCase;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.builder.MethodImplementationBuilder;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction10t;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction10x;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction11n;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction12x;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction21t;
+import org.jf.dexlib2.iface.Annotation;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.immutable.ImmutableClassDef;
+import org.jf.dexlib2.immutable.ImmutableDexFile;
+import org.jf.dexlib2.immutable.ImmutableMethod;
+import org.jf.dexlib2.immutable.ImmutableMethodParameter;
+
+public class MethodAnalyzerTest extends TestCase {
+
+    public void testJoinIsAnalyzedAfterBothBranches() throws Exception {
+        // if (v0 == 0) { v1 = 1 } else { v1 = 0 }; v2 = v1, with the join between the two branches in the code
+        MethodImplementationBuilder implementation = new MethodImplementationBuilder(3);
+        implementation.addInstruction(new BuilderInstruction11n(Opcode.CONST_4, 0, 1));
+        implementation.addInstruction(new BuilderInstruction21t(Opcode.IF_EQZ, 0, implementation.getLabel("right")));
+        implementation.addInstruction(new BuilderInstruction11n(Opcode.CONST_4, 1, 0));
+        implementation.addInstruction(new BuilderInstruction10t(Opcode.GOTO, implementation.getLabel("join")));
+        implementation.addLabel("join");
+        implementation.addInstruction(new BuilderInstruction12x(Opcode.MOVE, 2, 1));
+        implementation.addInstruction(new BuilderInstruction10x(Opcode.RETURN_VOID));
+        implementation.addLabel("right");
+        implementation.addInstruction(new BuilderInstruction11n(Opcode.CONST_4, 1, 1));
+        implementation.addInstruction(new BuilderInstruction10t(Opcode.GOTO, implementation.getLabel("join")));
+
+        ImmutableMethod method = new ImmutableMethod("Lcom/example/Diamond;", "run",
+                ImmutableList.<ImmutableMethodParameter>of(), "V",
+                AccessFlags.PUBLIC.getValue() | AccessFlags.STATIC.getValue(), ImmutableSet.<Annotation>of(),
+                implementation.getMethodImplementation());
+        ClassDef classDef = new ImmutableClassDef("Lcom/example/Diamond;", AccessFlags.PUBLIC.getValue(),
+                "Ljava/lang/Object;", null, null, null, null, ImmutableList.of(method));
+        ClassPath classPath = new ClassPath(new DexClassProvider(
+                new ImmutableDexFile(Opcodes.getDefault(), ImmutableList.of(classDef))));
+
+        MethodAnalyzer analyzer = new MethodAnalyzer(classPath, method, null, false);
+        assertNull(analyzer.getAnalysisException());
+
+        for (AnalyzedInstruction instruction: analyzer.getAnalyzedInstructions()) {
+            assertEquals(1, analyzer.getVisitCount(instruction));
+        }
+        assertEquals(analyzer.getAnalyzedInstructions().size(), analyzer.getInstructionVisitCount());
+        AnalyzedInstruction join = analyzer.getAnalyzedInstructions().get(4);
+        assertEquals(Opcode.MOVE, join.getInstruction().getOpcode());
+        assertEquals(RegisterType.BOOLEAN, join.getPostInstructionRegisterType(2).category);
+    }
+}
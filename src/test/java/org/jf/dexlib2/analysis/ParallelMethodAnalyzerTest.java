@@ -0,0 +1,317 @@
+package org.jf.dexlib2.analysis;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import junit.framework.TestCase;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.builder.MethodImplementationBuilder;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction10t;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction10x;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction11n;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction11x;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction12x;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction21c;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction21s;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction21t;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction22c;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction35c;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.Annotation;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.immutable.ImmutableMethodParameter;
+import org.jf.dexlib2.immutable.reference.ImmutableFieldReference;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodReference;
+import org.jf.dexlib2.util.ReferenceUtil;
+import org.jf.dexlib2.writer.builder.BuilderField;
+import org.jf.dexlib2.writer.builder.BuilderMethod;
+import org.jf.dexlib2.writer.builder.BuilderMethodReference;
+import org.jf.dexlib2.writer.builder.DexBuilder;
+import org.jf.dexlib2.writer.builder.DexBuilderMergeTest;
+import org.jf.util.SparseArray;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+
+public class ParallelMethodAnalyzerTest extends TestCase {
+
+    private static final Opcodes OPCODES = Opcodes.forApi(19);
+
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String STRING = "Ljava/lang/String;";
+    private static final String SHAPE = "Lcom/example/Shape;";
+    private static final String NAMED = "Lcom/example/Named;";
+    private static final String NAMED_SHAPE = "Lcom/example/NamedShape;";
+
+    /**
+     * The register types before and after every instruction of every method, keyed by method, and the vtable and
+     * instance field layout of every class with code, keyed by class. The class layouts are read from the listener,
+     * so the parallel run resolves them from several threads at once.
+     */
+    private static Map<String, String> analyze(DexBackedDexFile dexFile, int parallelism,
+                                               boolean normalizeVirtualMethods) throws Exception {
+        final ConcurrentMap<String, String> results = Maps.newConcurrentMap();
+        final ClassPath classPath = new ClassPath(new DexClassProvider(dexFile));
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            new ParallelMethodAnalyzer(classPath, null, normalizeVirtualMethods).analyze(dexFile.getClasses(), pool,
+                    new ParallelMethodAnalyzer.Listener() {
+                        @Override public void methodAnalyzed(@Nonnull ClassDef classDef, @Nonnull Method method,
+                                                             @Nonnull MethodAnalyzer analyzer) {
+                            StringBuilder sb = new StringBuilder();
+                            for (AnalyzedInstruction instruction: analyzer.getAnalyzedInstructions()) {
+                                for (int i = 0; i < instruction.getRegisterCount(); i++) {
+                                    sb.append(instruction.getPreInstructionRegisterType(i)).append(',');
+                                    sb.append(instruction.getPostInstructionRegisterType(i)).append(',');
+                                }
+                                sb.append('\n');
+                            }
+                            sb.append("exception: ").append(analyzer.getAnalysisException());
+                            results.put(ReferenceUtil.getMethodDescriptor(method), sb.toString());
+                            if (normalizeVirtualMethods) {
+                                results.putIfAbsent(classDef.getType(),
+                                        describeLayout((ClassProto)classPath.getClass(classDef.getType())));
+                            }
+                        }
+
+                        @Override public void methodFailed(@Nonnull ClassDef classDef, @Nonnull Method method,
+                                                           @Nonnull RuntimeException ex) {
+                            results.put(ReferenceUtil.getMethodDescriptor(method), ex.toString());
+                        }
+                    });
+        } finally {
+            pool.shutdown();
+        }
+        return results;
+    }
+
+    private static String describeLayout(ClassProto classProto) {
+        StringBuilder sb = new StringBuilder("vtable: ");
+        for (Method method: classProto.getVtable()) {
+            sb.append(ReferenceUtil.getMethodDescriptor(method)).append(',');
+        }
+        sb.append("\nfields: ");
+        SparseArray<FieldReference> fields = classProto.getInstanceFields();
+        for (int i = 0; i < fields.size(); i++) {
+            sb.append(fields.keyAt(i)).append('=').append(ReferenceUtil.getFieldDescriptor(fields.valueAt(i)))
+                    .append(',');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Builds a dex with its own java.lang.Object and java.lang.String, so every class resolves. Chains of four
+     * classes extend Object, override its methods and implement Shape, Named and NamedShape, and visit() creates
+     * instances on two branches, merges them and calls virtual, super and interface methods on them.
+     */
+    static DexBackedDexFile buildHierarchy(int classCount) throws Exception {
+        DexBuilder dexBuilder = new DexBuilder(OPCODES);
+        int publicFlags = AccessFlags.PUBLIC.getValue();
+        int abstractFlags = publicFlags | AccessFlags.ABSTRACT.getValue();
+        int interfaceFlags = abstractFlags | AccessFlags.INTERFACE.getValue();
+        int constructorFlags = publicFlags | AccessFlags.CONSTRUCTOR.getValue();
+
+        List<BuilderMethod> methods = Lists.newArrayList();
+        MethodImplementationBuilder implementation = new MethodImplementationBuilder(1);
+        implementation.addInstruction(new BuilderInstruction10x(Opcode.RETURN_VOID));
+        methods.add(internMethod(dexBuilder, OBJECT, "<init>", "V", constructorFlags, implementation));
+        implementation = new MethodImplementationBuilder(3);
+        implementation.addInstruction(new BuilderInstruction11n(Opcode.CONST_4, 0, 0));
+        implementation.addInstruction(new BuilderInstruction11x(Opcode.RETURN, 0));
+        methods.add(internMethod(dexBuilder, OBJECT, "equals", "Z", publicFlags, implementation, OBJECT));
+        implementation = new MethodImplementationBuilder(2);
+        implementation.addInstruction(new BuilderInstruction11n(Opcode.CONST_4, 0, 0));
+        implementation.addInstruction(new BuilderInstruction11x(Opcode.RETURN, 0));
+        methods.add(internMethod(dexBuilder, OBJECT, "hashCode", "I", publicFlags, implementation));
+        implementation = new MethodImplementationBuilder(2);
+        implementation.addInstruction(new BuilderInstruction21c(Opcode.CONST_STRING, 0,
+                dexBuilder.internStringReference("Object")));
+        implementation.addInstruction(new BuilderInstruction11x(Opcode.RETURN_OBJECT, 0));
+        methods.add(internMethod(dexBuilder, OBJECT, "toString", STRING, publicFlags, implementation));
+        dexBuilder.internClassDef(OBJECT, publicFlags, null, null, null, ImmutableSet.<Annotation>of(), null,
+                methods);
+        dexBuilder.internClassDef(STRING, publicFlags | AccessFlags.FINAL.getValue(), OBJECT, null, null,
+                ImmutableSet.<Annotation>of(), null, null);
+
+        dexBuilder.internClassDef(SHAPE, interfaceFlags, OBJECT, null, null, ImmutableSet.<Annotation>of(), null,
+                ImmutableList.of(internMethod(dexBuilder, SHAPE, "area", "I", abstractFlags, null)));
+        dexBuilder.internClassDef(NAMED, interfaceFlags, OBJECT, null, null, ImmutableSet.<Annotation>of(), null,
+                ImmutableList.of(internMethod(dexBuilder, NAMED, "name", STRING, abstractFlags, null)));
+        dexBuilder.internClassDef(NAMED_SHAPE, interfaceFlags, OBJECT, Lists.newArrayList(SHAPE, NAMED), null,
+                ImmutableSet.<Annotation>of(), null,
+                ImmutableList.of(internMethod(dexBuilder, NAMED_SHAPE, "scale", SHAPE, abstractFlags, null, "I")));
+
+        BuilderMethodReference shapeArea = dexBuilder.internMethodReference(
+                new ImmutableMethodReference(SHAPE, "area", ImmutableList.<String>of(), "I"));
+        BuilderMethodReference namedName = dexBuilder.internMethodReference(
+                new ImmutableMethodReference(NAMED, "name", ImmutableList.<String>of(), STRING));
+        BuilderMethodReference objectHashCode = dexBuilder.internMethodReference(
+                new ImmutableMethodReference(OBJECT, "hashCode", ImmutableList.<String>of(), "I"));
+        BuilderMethodReference objectEquals = dexBuilder.internMethodReference(
+                new ImmutableMethodReference(OBJECT, "equals", ImmutableList.of(OBJECT), "Z"));
+
+        for (int i = 0; i < classCount; i++) {
+            String type = classType(i);
+            int depth = i % 4;
+            String superclass = depth == 0 ? OBJECT : classType(i - 1);
+            List<String> interfaces = i % 3 == 0 ? Lists.newArrayList(NAMED_SHAPE) :
+                    i % 3 == 1 ? Lists.newArrayList(SHAPE) : null;
+            String root = classType(i - depth);
+            methods = Lists.newArrayList();
+
+            implementation = new MethodImplementationBuilder(1);
+            implementation.addInstruction(new BuilderInstruction35c(Opcode.INVOKE_DIRECT, 1, 0, 0, 0, 0, 0,
+                    dexBuilder.internMethodReference(new ImmutableMethodReference(superclass, "<init>",
+                            ImmutableList.<String>of(), "V"))));
+            implementation.addInstruction(new BuilderInstruction10x(Opcode.RETURN_VOID));
+            methods.add(internMethod(dexBuilder, type, "<init>", "V", constructorFlags, implementation));
+
+            implementation = new MethodImplementationBuilder(2);
+            implementation.addInstruction(new BuilderInstruction21s(Opcode.CONST_16, 0, i));
+            implementation.addInstruction(new BuilderInstruction11x(Opcode.RETURN, 0));
+            methods.add(internMethod(dexBuilder, type, "area", "I", publicFlags, implementation));
+
+            if (i % 2 == 0) {
+                // toString() { return super.toString(); }
+                implementation = new MethodImplementationBuilder(2);
+                implementation.addInstruction(new BuilderInstruction35c(Opcode.INVOKE_SUPER, 1, 1, 0, 0, 0, 0,
+                        dexBuilder.internMethodReference(new ImmutableMethodReference(superclass, "toString",
+                                ImmutableList.<String>of(), STRING))));
+                implementation.addInstruction(new BuilderInstruction11x(Opcode.MOVE_RESULT_OBJECT, 0));
+                implementation.addInstruction(new BuilderInstruction11x(Opcode.RETURN_OBJECT, 0));
+                methods.add(internMethod(dexBuilder, type, "toString", STRING, publicFlags, implementation));
+            }
+
+            if (i % 3 == 0) {
+                implementation = new MethodImplementationBuilder(2);
+                implementation.addInstruction(new BuilderInstruction21c(Opcode.CONST_STRING, 0,
+                        dexBuilder.internStringReference("C" + i)));
+                implementation.addInstruction(new BuilderInstruction11x(Opcode.RETURN_OBJECT, 0));
+                methods.add(internMethod(dexBuilder, type, "name", STRING, publicFlags, implementation));
+                implementation = new MethodImplementationBuilder(2);
+                implementation.addInstruction(new BuilderInstruction11x(Opcode.RETURN_OBJECT, 0));
+                methods.add(internMethod(dexBuilder, type, "scale", SHAPE, publicFlags, implementation, "I"));
+            }
+
+            // int visit(Ci other, Shape shape), with v4 = this, v5 = other and v6 = shape
+            String left = classType(Math.max(0, i - 1 - i % 5));
+            String right = classType(i - depth + (i + 1) % 4);
+            implementation = new MethodImplementationBuilder(7);
+            implementation.addInstruction(new BuilderInstruction21t(Opcode.IF_EQZ, 5,
+                    implementation.getLabel("right")));
+            implementation.addInstruction(new BuilderInstruction21c(Opcode.NEW_INSTANCE, 0,
+                    dexBuilder.internTypeReference(left)));
+            implementation.addInstruction(new BuilderInstruction35c(Opcode.INVOKE_DIRECT, 1, 0, 0, 0, 0, 0,
+                    dexBuilder.internMethodReference(new ImmutableMethodReference(left, "<init>",
+                            ImmutableList.<String>of(), "V"))));
+            implementation.addInstruction(new BuilderInstruction10t(Opcode.GOTO, implementation.getLabel("join")));
+            implementation.addLabel("right");
+            implementation.addInstruction(new BuilderInstruction21c(Opcode.NEW_INSTANCE, 0,
+                    dexBuilder.internTypeReference(right)));
+            implementation.addInstruction(new BuilderInstruction35c(Opcode.INVOKE_DIRECT, 1, 0, 0, 0, 0, 0,
+                    dexBuilder.internMethodReference(new ImmutableMethodReference(right, "<init>",
+                            ImmutableList.<String>of(), "V"))));
+            implementation.addLabel("join");
+            implementation.addInstruction(new BuilderInstruction35c(Opcode.INVOKE_VIRTUAL, 1, 5, 0, 0, 0, 0,
+                    dexBuilder.internMethodReference(new ImmutableMethodReference(type, "area",
+                            ImmutableList.<String>of(), "I"))));
+            implementation.addInstruction(new BuilderInstruction11x(Opcode.MOVE_RESULT, 1));
+            implementation.addInstruction(new BuilderInstruction35c(Opcode.INVOKE_INTERFACE, 1, 6, 0, 0, 0, 0,
+                    shapeArea));
+            implementation.addInstruction(new BuilderInstruction11x(Opcode.MOVE_RESULT, 2));
+            implementation.addInstruction(new BuilderInstruction12x(Opcode.ADD_INT_2ADDR, 1, 2));
+            implementation.addInstruction(new BuilderInstruction35c(Opcode.INVOKE_VIRTUAL, 1, 0, 0, 0, 0, 0,
+                    objectHashCode));
+            implementation.addInstruction(new BuilderInstruction11x(Opcode.MOVE_RESULT, 2));
+            implementation.addInstruction(new BuilderInstruction12x(Opcode.ADD_INT_2ADDR, 1, 2));
+            implementation.addInstruction(new BuilderInstruction35c(Opcode.INVOKE_VIRTUAL, 2, 4, 0, 0, 0, 0,
+                    objectEquals));
+            implementation.addInstruction(new BuilderInstruction11x(Opcode.MOVE_RESULT, 2));
+            if (i % 3 == 0) {
+                implementation.addInstruction(new BuilderInstruction35c(Opcode.INVOKE_INTERFACE, 1, 4, 0, 0, 0, 0,
+                        namedName));
+                implementation.addInstruction(new BuilderInstruction11x(Opcode.MOVE_RESULT_OBJECT, 3));
+            }
+            implementation.addInstruction(new BuilderInstruction22c(Opcode.IGET, 3, 4,
+                    dexBuilder.internFieldReference(new ImmutableFieldReference(root, "count", "I"))));
+            implementation.addInstruction(new BuilderInstruction12x(Opcode.ADD_INT_2ADDR, 1, 3));
+            implementation.addInstruction(new BuilderInstruction22c(Opcode.IPUT, 1, 4,
+                    dexBuilder.internFieldReference(new ImmutableFieldReference(root, "count", "I"))));
+            implementation.addInstruction(new BuilderInstruction21c(Opcode.CHECK_CAST, 0,
+                    dexBuilder.internTypeReference(SHAPE)));
+            implementation.addInstruction(new BuilderInstruction35c(Opcode.INVOKE_INTERFACE, 1, 0, 0, 0, 0, 0,
+                    shapeArea));
+            implementation.addInstruction(new BuilderInstruction11x(Opcode.MOVE_RESULT, 2));
+            implementation.addInstruction(new BuilderInstruction12x(Opcode.ADD_INT_2ADDR, 1, 2));
+            implementation.addInstruction(new BuilderInstruction11x(Opcode.RETURN, 1));
+            methods.add(internMethod(dexBuilder, type, "visit", "I", publicFlags, implementation, type, SHAPE));
+
+            List<BuilderField> fields = Lists.newArrayList();
+            fields.add(dexBuilder.internField(type, depth == 0 ? "count" : "value" + depth, depth % 2 == 0 ? "I" : "J",
+                    AccessFlags.PRIVATE.getValue(), null, ImmutableSet.<Annotation>of()));
+            fields.add(dexBuilder.internField(type, "next", type, AccessFlags.PRIVATE.getValue(), null,
+                    ImmutableSet.<Annotation>of()));
+            dexBuilder.internClassDef(type, publicFlags, superclass, interfaces, null, ImmutableSet.<Annotation>of(),
+                    fields, methods);
+        }
+        return new DexBackedDexFile(OPCODES, DexBuilderMergeTest.write(dexBuilder));
+    }
+
+    private static String classType(int i) {
+        return "Lcom/example/C" + i + ";";
+    }
+
+    private static BuilderMethod internMethod(DexBuilder dexBuilder, String definingClass, String name,
+                                              String returnType, int accessFlags,
+                                              MethodImplementationBuilder implementation, String... parameterTypes) {
+        List<ImmutableMethodParameter> parameters = Lists.newArrayList();
+        for (String parameterType: parameterTypes) {
+            parameters.add(new ImmutableMethodParameter(parameterType, null, null));
+        }
+        return dexBuilder.internMethod(definingClass, name, parameters, returnType, accessFlags,
+                ImmutableSet.<Annotation>of(),
+                implementation == null ? null : implementation.getMethodImplementation());
+    }
+
+    public void testParallelAnalysisMatchesSingleThread() throws Exception {
+        DexBuilder dexBuilder = new DexBuilder(OPCODES);
+        for (int i = 0; i < 400; i++) {
+            DexBuilderMergeTest.internClass(dexBuilder, i);
+        }
+        DexBackedDexFile dexFile = new DexBackedDexFile(OPCODES, DexBuilderMergeTest.write(dexBuilder));
+
+        Map<String, String> expected = analyze(dexFile, 1, false);
+        assertEquals(400, expected.size());
+        assertEquals(expected, analyze(dexFile, 4, false));
+    }
+
+    public void testParallelAnalysisResolvesHierarchy() throws Exception {
+        int classCount = 200;
+        DexBackedDexFile dexFile = buildHierarchy(classCount);
+
+        // every thread resolves the vtables, interfaces and field layouts of the shared ClassPath concurrently
+        Map<String, String> parallel = analyze(dexFile, 4, true);
+        Map<String, String> expected = analyze(dexFile, 1, true);
+        assertEquals(expected, parallel);
+
+        for (int i = 0; i < classCount; i++) {
+            String layout = expected.get(classType(i));
+            assertNotNull(classType(i), layout);
+            assertTrue(layout, layout.contains(classType(i) + "->area()I,"));
+            assertTrue(layout, layout.contains("->equals(Ljava/lang/Object;)Z,"));
+        }
+        for (Map.Entry<String, String> entry: expected.entrySet()) {
+            if (entry.getKey().contains("->")) {
+                assertTrue(entry.getKey() + "\n" + entry.getValue(), entry.getValue().endsWith("exception: null"));
+            }
+        }
+    }
+}
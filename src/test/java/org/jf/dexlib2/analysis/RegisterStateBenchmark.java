@@ -0,0 +1,78 @@
+package org.jf.dexlib2.analysis;
+
+import com.google.common.collect.Lists;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Method;
+
+import java.util.List;
+
+/**
+ * Measures the heap retained by the MethodAnalyzers of a set of large generated methods, and the time it takes to
+ * analyze them and to read back every register type, with the full register maps and after
+ * MethodAnalyzer.compactRegisterState().
+ * Usage: RegisterStateBenchmark [methods] [blocks] [registers]
+ */
+public class RegisterStateBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int methods = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+        int blocks = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int registers = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        DexBackedDexFile dexFile = AnalyzedInstructionTest.buildDex(methods, blocks, registers, 1);
+        ClassPath classPath = new ClassPath(new DexClassProvider(dexFile));
+        List<Method> allMethods = Lists.newArrayList();
+        for (ClassDef classDef: dexFile.getClasses()) {
+            allMethods.addAll(Lists.newArrayList(classDef.getMethods()));
+        }
+        // warm up, and resolve the classes
+        for (Method method: allMethods) {
+            new MethodAnalyzer(classPath, method, null, false);
+        }
+
+        for (boolean compact: new boolean[] { false, true }) {
+            long before = usedMemory();
+            long start = System.nanoTime();
+            List<MethodAnalyzer> analyzers = Lists.newArrayList();
+            int instructions = 0;
+            for (Method method: allMethods) {
+                MethodAnalyzer analyzer = new MethodAnalyzer(classPath, method, null, false);
+                if (compact) {
+                    analyzer.compactRegisterState();
+                }
+                instructions += analyzer.getAnalyzedInstructions().size();
+                analyzers.add(analyzer);
+            }
+            long analyzeNanos = System.nanoTime() - start;
+            long retained = usedMemory() - before;
+
+            start = System.nanoTime();
+            int hash = 0;
+            for (MethodAnalyzer analyzer: analyzers) {
+                for (AnalyzedInstruction instruction: analyzer.getAnalyzedInstructions()) {
+                    for (int r = 0; r < instruction.getRegisterCount(); r++) {
+                        hash += instruction.getPreInstructionRegisterType(r).category;
+                        hash += instruction.getPostInstructionRegisterType(r).category;
+                    }
+                }
+            }
+            long readNanos = System.nanoTime() - start;
+
+            System.out.println(String.format("%s: methods=%d instructions=%d registers=%d",
+                    compact ? "compacted" : "full", analyzers.size(), instructions, registers));
+            System.out.println(String.format("retained %.1f MB (%.0f bytes/instruction), analyze %.1f ms, " +
+                    "read all register types %.1f ms (%d)", retained / 1048576.0, (double)retained / instructions,
+                    analyzeNanos / 1e6, readNanos / 1e6, hash));
+        }
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
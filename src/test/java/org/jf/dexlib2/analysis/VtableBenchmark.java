@@ -0,0 +1,59 @@
+package org.jf.dexlib2.analysis;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.immutable.ImmutableDexFile;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the time it takes to build the vtable of every class of a deep generated class hierarchy, and to look up
+ * methods in the largest vtables, like MethodAnalyzer does when it normalizes or deodexes virtual method calls.
+ * Usage: VtableBenchmark [classes] [methodsPerClass] [lookups] [oatVersion] [rounds]
+ */
+public class VtableBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int classCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int methodsPerClass = args.length > 1 ? Integer.parseInt(args[1]) : 12;
+        int lookups = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+        int oatVersion = args.length > 3 ? Integer.parseInt(args[3]) : ClassPath.NOT_ART;
+        int rounds = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+
+        ImmutableDexFile dexFile = ClassProtoTest.buildHierarchy(classCount, methodsPerClass, 1);
+
+        for (int round = 0; round < rounds; round++) {
+            ClassPath classPath = new ClassPath(ImmutableList.of(new DexClassProvider(dexFile)), true, oatVersion);
+            long start = System.nanoTime();
+            int entries = 0;
+            int largest = 0;
+            for (ClassDef classDef: dexFile.getClasses()) {
+                int size = ((ClassProto)classPath.getClass(classDef.getType())).getVtable().size();
+                entries += size;
+                largest = Math.max(largest, size);
+            }
+            long buildNanos = System.nanoTime() - start;
+
+            List<ClassProto> deepest = Lists.newArrayList();
+            for (int i = classCount - 20; i < classCount; i++) {
+                deepest.add((ClassProto)classPath.getClass(ClassProtoTest.classType(i)));
+            }
+            Random random = new Random(9);
+            int hash = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                ClassProto classProto = deepest.get(random.nextInt(deepest.size()));
+                List<Method> vtable = classProto.getVtable();
+                hash += classProto.findMethodIndexInVtable(vtable.get(random.nextInt(vtable.size())));
+            }
+            long lookupNanos = System.nanoTime() - start;
+
+            System.out.println(String.format("round %d: %d vtable entries (largest %d) built in %.1f ms, " +
+                    "%d lookups in %.1f ms, %.0f ns/lookup (%d)", round, entries, largest, buildNanos / 1e6,
+                    lookups, lookupNanos / 1e6, (double)lookupNanos / lookups, hash));
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.jf.dexlib2.dexbacked;
+
+import junit.framework.TestCase;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.analysis.DexClassProvider;
+
+public class ClassByTypeTest extends TestCase {
+
+    public void testEveryClassIsFound() throws Exception {
+        DexBackedDexFile dexFile = new DexBackedDexFile(Opcodes.forApi(19), MappedDexFileTest.buildDex());
+
+        for (DexBackedClassDef classDef: dexFile.getClasses()) {
+            DexBackedClassDef found = dexFile.getClassByType(classDef.getType());
+            assertNotNull(found);
+            assertEquals(classDef.getType(), found.getType());
+            assertEquals(classDef.getSourceFile(), found.getSourceFile());
+        }
+
+        // referenced, but not defined
+        assertTrue(dexFile.findTypeIndex("Ljava/lang/Object;") >= 0);
+        assertNull(dexFile.getClassByType("Ljava/lang/Object;"));
+        // not referenced at all
+        assertEquals(-1, dexFile.findTypeIndex("Lcom/example/Missing;"));
+        assertNull(dexFile.getClassByType("Lcom/example/Missing;"));
+        assertNull(dexFile.getClassByType("A"));
+        assertNull(dexFile.getClassByType("￿"));
+
+        DexClassProvider provider = new DexClassProvider(dexFile);
+        assertEquals("Mapped7.java", provider.getClassDef("Lcom/example/Mapped7;").getSourceFile());
+        assertNull(provider.getClassDef("Ljava/lang/String;"));
+    }
+
+}
@@ -0,0 +1,147 @@
+package org.jf.dexlib2.dexbacked;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import junit.framework.TestCase;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.DexFileFactory;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.builder.MethodImplementationBuilder;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction10x;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction21c;
+import org.jf.dexlib2.dexbacked.raw.RawDexFile;
+import org.jf.dexlib2.dexbacked.raw.util.DexAnnotator;
+import org.jf.dexlib2.iface.Annotation;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
+import org.jf.dexlib2.immutable.value.ImmutableStringEncodedValue;
+import org.jf.dexlib2.writer.builder.BuilderField;
+import org.jf.dexlib2.writer.builder.BuilderMethod;
+import org.jf.dexlib2.writer.builder.DexBuilder;
+import org.jf.dexlib2.writer.io.MemoryDataStore;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MappedDexFileTest extends TestCase {
+
+    private static final Opcodes OPCODES = Opcodes.forApi(19);
+
+    private static byte[] write(DexBuilder dexBuilder) throws Exception {
+        MemoryDataStore dataStore = new MemoryDataStore();
+        dexBuilder.writeTo(dataStore);
+        return dataStore.getData();
+    }
+
+    static byte[] buildDex() throws Exception {
+        DexBuilder dexBuilder = new DexBuilder(OPCODES);
+        for (int i = 0; i < 20; i++) {
+            String type = "Lcom/example/Mapped" + i + ";";
+
+            BuilderField field = dexBuilder.internField(type, "label", "Ljava/lang/String;",
+                    AccessFlags.STATIC.getValue(), new ImmutableStringEncodedValue("标签 " + i),
+                    ImmutableSet.<Annotation>of());
+
+            MethodImplementationBuilder implementation = new MethodImplementationBuilder(1);
+            implementation.addInstruction(new BuilderInstruction21c(Opcode.CONST_STRING, 0,
+                    dexBuilder.internStringReference("café 😀 " + i)));
+            implementation.addInstruction(new BuilderInstruction10x(Opcode.RETURN_VOID));
+            BuilderMethod method = dexBuilder.internMethod(type, "run", null, "V", AccessFlags.PUBLIC.getValue(),
+                    ImmutableSet.<Annotation>of(), implementation.getMethodImplementation());
+
+            dexBuilder.internClassDef(type, AccessFlags.PUBLIC.getValue(), "Ljava/lang/Object;", null,
+                    "Mapped" + i + ".java", ImmutableSet.<Annotation>of(), ImmutableList.of(field),
+                    ImmutableList.of(method));
+        }
+        return write(dexBuilder);
+    }
+
+    private static byte[] rewrite(DexFile dexFile) throws Exception {
+        DexBuilder dexBuilder = new DexBuilder(OPCODES);
+        for (ClassDef classDef: dexFile.getClasses()) {
+            dexBuilder.internClassDef(classDef);
+        }
+        return write(dexBuilder);
+    }
+
+    public void testMappedFileReadsLikeByteArray() throws Exception {
+        byte[] dex = buildDex();
+        int fileSize = new BaseDexBuffer(dex).readSmallUint(32);
+
+        File file = File.createTempFile("mapped", ".dex");
+        try {
+            Files.write(file.toPath(), Arrays.copyOf(dex, fileSize));
+
+            DexBackedDexFile mapped = DexFileFactory.loadDexFile(file, OPCODES);
+            assertNull(mapped.buf);
+
+            List<String> strings = new ArrayList<String>();
+            for (int i = 0; i < mapped.getStringCount(); i++) {
+                strings.add(mapped.getString(i));
+            }
+            assertTrue(strings.contains("café 😀 7"));
+            assertTrue(strings.contains("标签 7"));
+
+            assertTrue(Arrays.equals(rewrite(new DexBackedDexFile(OPCODES, dex)), rewrite(mapped)));
+
+            assertTrue(mapped.unsafeUnmap());
+            assertFalse(mapped.unsafeUnmap());
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testMappedFileAnnotations() throws Exception {
+        byte[] dex = buildDex();
+        byte[] trimmed = Arrays.copyOf(dex, new BaseDexBuffer(dex).readSmallUint(32));
+
+        File file = File.createTempFile("mapped", ".dex");
+        DexBackedDexFile mapped = null;
+        try {
+            Files.write(file.toPath(), trimmed);
+            mapped = DexBackedDexFile.fromFile(OPCODES, file);
+
+            assertEquals(annotate(new RawDexFile(OPCODES, trimmed)), annotate(new RawDexFile(OPCODES, mapped)));
+        } finally {
+            if (mapped != null) {
+                mapped.unsafeUnmap();
+            }
+            file.delete();
+        }
+    }
+
+    private static String annotate(RawDexFile rawDexFile) throws Exception {
+        StringWriter writer = new StringWriter();
+        new DexAnnotator(rawDexFile, 80).writeAnnotations(writer);
+        return writer.toString();
+    }
+
+    public void testStringCacheReadsLikeDecoder() throws Exception {
+        byte[] dex = buildDex();
+        DexBackedDexFile cached = new DexBackedDexFile(OPCODES, dex);
+        DexBackedDexFile uncached = new DexBackedDexFile(OPCODES, dex);
+        uncached.setStringCacheEnabled(false);
+
+        for (int i = 0; i < cached.getStringCount(); i++) {
+            String string = cached.getString(i);
+            assertEquals(uncached.getString(i), string);
+            assertSame(string, cached.getString(i));
+            assertNotSame(uncached.getString(i), uncached.getString(i));
+        }
+
+        List<String> types = new ArrayList<String>();
+        for (int i = 0; i < cached.getTypeCount(); i++) {
+            types.add(cached.getType(i));
+        }
+        assertTrue(types.contains("Lcom/example/Mapped7;"));
+
+        cached.setStringCacheEnabled(false);
+        assertEquals(uncached.getString(0), cached.getString(0));
+    }
+
+}
@@ -0,0 +1,115 @@
+package org.jf.dexlib2.dexbacked;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.DexFileFactory;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.builder.MethodImplementationBuilder;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction10x;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction21c;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction35c;
+import org.jf.dexlib2.iface.Annotation;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodReference;
+import org.jf.dexlib2.writer.builder.BuilderMethod;
+import org.jf.dexlib2.writer.builder.DexBuilder;
+import org.jf.dexlib2.writer.io.MemoryDataStore;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures string decoding and type resolution of a dex file, with and without the string cache.
+ * Usage: StringDecodeBenchmark [dexFile] [rounds]
+ */
+public class StringDecodeBenchmark {
+
+    private static final Opcodes OPCODES = Opcodes.forApi(26);
+
+    public static void main(String[] args) throws Exception {
+        DexBackedDexFile dexFile = args.length > 0 && !"-".equals(args[0]) ?
+                DexFileFactory.loadDexFile(new File(args[0]), OPCODES) : generate(10000);
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        System.out.println("strings=" + dexFile.getStringCount() + ", types=" + dexFile.getTypeCount() +
+                ", classes=" + dexFile.getClassCount());
+
+        for (int pass = 0; pass < 2; pass++) {
+            String label = pass == 0 ? "warmup " : "";
+            dexFile.setStringCacheEnabled(false);
+            run(label + "decode strings, no cache", dexFile, rounds, false);
+            run(label + "resolve types, no cache", dexFile, rounds, true);
+            dexFile.setStringCacheEnabled(true);
+            run(label + "decode strings, cache", dexFile, rounds, false);
+            run(label + "resolve types, cache", dexFile, rounds, true);
+        }
+    }
+
+    private static void run(String label, DexBackedDexFile dexFile, int rounds, boolean types) {
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        long lookups = 0;
+        int hash = 0;
+        for (int round = 0; round < rounds; round++) {
+            if (types) {
+                for (DexBackedClassDef classDef: dexFile.getClasses()) {
+                    hash += classDef.getType().length();
+                    String superclass = classDef.getSuperclass();
+                    hash += superclass == null ? 0 : superclass.length();
+                    lookups += 2;
+                }
+            } else {
+                for (int i = 0; i < dexFile.getStringCount(); i++) {
+                    hash += dexFile.getString(i).length();
+                    lookups++;
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = allocatedBytes() - allocated;
+
+        System.out.println(String.format("%-36s %10.1f lookups/ms %10.1f bytes/lookup (hash %d)", label,
+                lookups * 1e6 / elapsed, allocated < 0 ? Double.NaN : (double) allocated / lookups, hash));
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * A dex of the size of a mid-sized app: long package descriptors, a few non-ASCII strings.
+     */
+    private static DexBackedDexFile generate(int classes) throws Exception {
+        DexBuilder dexBuilder = new DexBuilder(OPCODES);
+        for (int i = 0; i < classes; i++) {
+            String type = "Lcom/example/app/feature" + (i % 50) + "/internal/impl/GeneratedComponent" + i + ";";
+            String superclass = "Lcom/example/app/feature" + (i % 50) + "/internal/BaseComponent;";
+
+            MethodImplementationBuilder implementation = new MethodImplementationBuilder(2);
+            implementation.addInstruction(new BuilderInstruction21c(Opcode.CONST_STRING, 0,
+                    dexBuilder.internStringReference(i % 10 == 0 ? "本地化文本 " + i : "message for component " + i)));
+            implementation.addInstruction(new BuilderInstruction35c(Opcode.INVOKE_STATIC, 1, 0, 0, 0, 0, 0,
+                    dexBuilder.internMethodReference(new ImmutableMethodReference(
+                            "Lcom/example/app/logging/Logger" + (i % 20) + ";", "log" + (i % 7),
+                            ImmutableList.of("Ljava/lang/String;"), "V"))));
+            implementation.addInstruction(new BuilderInstruction10x(Opcode.RETURN_VOID));
+
+            BuilderMethod method = dexBuilder.internMethod(type, "run", null, "V", AccessFlags.PUBLIC.getValue(),
+                    ImmutableSet.<Annotation>of(), implementation.getMethodImplementation());
+            dexBuilder.internClassDef(type, AccessFlags.PUBLIC.getValue(), superclass, null,
+                    "GeneratedComponent" + i + ".java", ImmutableSet.<Annotation>of(), null,
+                    ImmutableList.of(method));
+        }
+
+        MemoryDataStore dataStore = new MemoryDataStore();
+        dexBuilder.writeTo(dataStore);
+        return new DexBackedDexFile(OPCODES, dataStore.getData());
+    }
+
+}
@@ -0,0 +1,72 @@
+package org.jf.dexlib2.dexbacked;
+
+import junit.framework.TestCase;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.ZipDexContainer.ZipDexFile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ZipDexContainerTest extends TestCase {
+
+    private static void putEntry(ZipOutputStream out, String name, byte[] data, boolean stored) throws Exception {
+        ZipEntry entry = new ZipEntry(name);
+        if (stored) {
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(data.length);
+            entry.setCompressedSize(data.length);
+            entry.setCrc(crc.getValue());
+            entry.setExtra(new byte[] { (byte)0xfe, (byte)0xca, 3, 0, 1, 2, 3 });
+        }
+        out.putNextEntry(entry);
+        out.write(data);
+        out.closeEntry();
+    }
+
+    public void testLoadEntriesMapsStoredEntries() throws Exception {
+        byte[] dex = MappedDexFileTest.buildDex();
+        dex = Arrays.copyOf(dex, new BaseDexBuffer(dex).readSmallUint(32));
+
+        File file = File.createTempFile("container", ".apk");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+            try {
+                putEntry(out, "AndroidManifest.xml", new byte[] { 3, 0, 8, 0 }, false);
+                putEntry(out, "classes.dex", dex, false);
+                putEntry(out, "res/raw/data.bin", new byte[] { 1, 2, 3 }, true);
+                putEntry(out, "classes2.dex", dex, true);
+            } finally {
+                out.close();
+            }
+
+            ZipDexContainer container = new ZipDexContainer(file, Opcodes.forApi(19));
+            List<Future<ZipDexFile>> entries = container.loadEntries(executor);
+            assertEquals(2, entries.size());
+
+            ZipDexFile deflated = entries.get(0).get();
+            ZipDexFile stored = entries.get(1).get();
+            assertEquals("classes.dex", deflated.getEntryName());
+            assertEquals("classes2.dex", stored.getEntryName());
+            assertNotNull(deflated.buf);
+            assertNull(stored.buf);
+
+            assertEquals(deflated.getClasses().size(), stored.getClasses().size());
+            assertEquals("Mapped7.java", stored.getClassByType("Lcom/example/Mapped7;").getSourceFile());
+        } finally {
+            executor.shutdownNow();
+            file.delete();
+        }
+    }
+
+}
@@ -0,0 +1,228 @@
+package org.jf.dexlib2.rewriter;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import junit.framework.TestCase;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.AnnotationVisibility;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.builder.Label;
+import org.jf.dexlib2.builder.MethodImplementationBuilder;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction11x;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction21c;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction22c;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction35c;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.Annotation;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.reference.MethodReference;
+import org.jf.dexlib2.immutable.ImmutableAnnotation;
+import org.jf.dexlib2.immutable.ImmutableAnnotationElement;
+import org.jf.dexlib2.immutable.ImmutableMethodParameter;
+import org.jf.dexlib2.immutable.reference.ImmutableFieldReference;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodReference;
+import org.jf.dexlib2.immutable.value.ImmutableEnumEncodedValue;
+import org.jf.dexlib2.immutable.value.ImmutableIntEncodedValue;
+import org.jf.dexlib2.immutable.value.ImmutableMethodEncodedValue;
+import org.jf.dexlib2.immutable.value.ImmutableTypeEncodedValue;
+import org.jf.dexlib2.writer.builder.BuilderField;
+import org.jf.dexlib2.writer.builder.BuilderMethod;
+import org.jf.dexlib2.writer.builder.DexBuilder;
+import org.jf.dexlib2.writer.builder.DexBuilderMergeTest;
+import org.jf.dexlib2.writer.io.MemoryDataStore;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class StreamingDexRewriterTest extends TestCase {
+
+    private static final Opcodes OPCODES = Opcodes.forApi(19);
+
+    private static final int CLASS_COUNT = 300;
+
+    private static String classType(int i) {
+        return "Lcom/example/p" + (i % 4) + "/C" + i + ";";
+    }
+
+    private static int peerOf(int i) {
+        return (i * 7 + 3) % CLASS_COUNT;
+    }
+
+    /**
+     * Builds classes that refer to each other, so most references of a class point at classes of other batches and
+     * the batches intern the same items concurrently. Superclasses, field types, static values, annotations with
+     * type, enum and method values, parameter annotations, and the types, fields, methods, catch types and debug
+     * locals referenced from code all name other classes of the dex, so a type rewriter has to reach all of them.
+     */
+    private static DexBackedDexFile buildDex() throws Exception {
+        DexBuilder dexBuilder = new DexBuilder(OPCODES);
+        String failure = "Lcom/example/Failure;";
+        String kind = "Lcom/example/Kind;";
+        dexBuilder.internClassDef(failure, AccessFlags.PUBLIC.getValue(), "Ljava/lang/Exception;", null, null,
+                ImmutableSet.<Annotation>of(), null, null);
+        dexBuilder.internClassDef(kind, AccessFlags.PUBLIC.getValue() | AccessFlags.ENUM.getValue(),
+                "Ljava/lang/Enum;", null, null, ImmutableSet.<Annotation>of(), ImmutableList.of(
+                        dexBuilder.internField(kind, "FIRST", kind, AccessFlags.PUBLIC.getValue() |
+                                AccessFlags.STATIC.getValue() | AccessFlags.FINAL.getValue() |
+                                AccessFlags.ENUM.getValue(), null, ImmutableSet.<Annotation>of())), null);
+
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            String type = classType(i);
+            String superclass = i % 3 == 0 ? "Ljava/lang/Object;" : classType(i / 2);
+            int peerIndex = peerOf(i);
+            String peer = classType(peerIndex);
+            MethodReference peerCall = new ImmutableMethodReference(peer, "call",
+                    ImmutableList.of(classType((peerIndex + 1) % CLASS_COUNT)), classType(peerOf(peerIndex)));
+
+            Set<Annotation> annotations = ImmutableSet.<Annotation>of(
+                    new ImmutableAnnotation(AnnotationVisibility.RUNTIME, "Lcom/example/Marker;", ImmutableList.of(
+                            new ImmutableAnnotationElement("type", new ImmutableTypeEncodedValue(peer)),
+                            new ImmutableAnnotationElement("kind", new ImmutableEnumEncodedValue(
+                                    new ImmutableFieldReference(kind, "FIRST", kind))),
+                            new ImmutableAnnotationElement("method", new ImmutableMethodEncodedValue(peerCall)))));
+
+            List<BuilderField> fields = Lists.newArrayList();
+            fields.add(dexBuilder.internField(type, "ID", "I", AccessFlags.PUBLIC.getValue() |
+                    AccessFlags.STATIC.getValue(), new ImmutableIntEncodedValue(i % 5), ImmutableSet.<Annotation>of()));
+            fields.add(dexBuilder.internField(type, "PEER", "Ljava/lang/Class;", AccessFlags.PUBLIC.getValue() |
+                    AccessFlags.STATIC.getValue(), new ImmutableTypeEncodedValue(peer),
+                    ImmutableSet.<Annotation>of()));
+            fields.add(dexBuilder.internField(type, "peer", peer, AccessFlags.PUBLIC.getValue(), null,
+                    i % 2 == 0 ? annotations : ImmutableSet.<Annotation>of()));
+
+            // C call(C other), with v0-v1 as locals, v2 = this and v3 = other
+            MethodImplementationBuilder implementation = new MethodImplementationBuilder(4);
+            implementation.addLineNumber(i + 1);
+            Label tryStart = implementation.addLabel("tryStart");
+            implementation.addInstruction(new BuilderInstruction21c(Opcode.NEW_INSTANCE, 0,
+                    dexBuilder.internTypeReference(peer)));
+            implementation.addInstruction(new BuilderInstruction35c(Opcode.INVOKE_DIRECT, 1, 0, 0, 0, 0, 0,
+                    dexBuilder.internMethodReference(new ImmutableMethodReference(peer, "<init>",
+                            ImmutableList.<String>of(), "V"))));
+            implementation.addStartLocal(0, dexBuilder.internStringReference("created"),
+                    dexBuilder.internTypeReference(peer), null);
+            implementation.addInstruction(new BuilderInstruction22c(Opcode.IGET_OBJECT, 1, 0,
+                    dexBuilder.internFieldReference(new ImmutableFieldReference(peer, "peer",
+                            classType(peerOf(peerIndex))))));
+            implementation.addInstruction(new BuilderInstruction35c(Opcode.INVOKE_VIRTUAL, 2, 0, 2, 0, 0, 0,
+                    dexBuilder.internMethodReference(peerCall)));
+            implementation.addInstruction(new BuilderInstruction11x(Opcode.MOVE_RESULT_OBJECT, 1));
+            implementation.addInstruction(new BuilderInstruction21c(Opcode.CONST_CLASS, 1,
+                    dexBuilder.internTypeReference(superclass)));
+            Label tryEnd = implementation.addLabel("tryEnd");
+            implementation.addInstruction(new BuilderInstruction11x(Opcode.RETURN_OBJECT, 0));
+            implementation.addCatch(dexBuilder.internTypeReference(failure), tryStart, tryEnd,
+                    implementation.getLabel("handler"));
+            implementation.addLabel("handler");
+            implementation.addInstruction(new BuilderInstruction11x(Opcode.MOVE_EXCEPTION, 1));
+            implementation.addInstruction(new BuilderInstruction11x(Opcode.RETURN_OBJECT, 3));
+
+            BuilderMethod method = dexBuilder.internMethod(type, "call", ImmutableList.of(
+                    new ImmutableMethodParameter(classType((i + 1) % CLASS_COUNT), i % 3 == 0 ? annotations :
+                            ImmutableSet.<Annotation>of(), "other")), peer, AccessFlags.PUBLIC.getValue(),
+                    ImmutableSet.<Annotation>of(), implementation.getMethodImplementation());
+
+            dexBuilder.internClassDef(type, AccessFlags.PUBLIC.getValue(), superclass,
+                    i % 5 == 0 ? Lists.newArrayList(classType((i + 5) % CLASS_COUNT)) : null, "C" + i + ".java",
+                    i % 4 == 0 ? annotations : ImmutableSet.<Annotation>of(), fields, ImmutableList.of(method));
+        }
+        return new DexBackedDexFile(OPCODES, DexBuilderMergeTest.write(dexBuilder));
+    }
+
+    private static byte[] rewriteSequentially(DexBackedDexFile dexFile, RewriterModule module) throws Exception {
+        DexBuilder dexBuilder = new DexBuilder(OPCODES);
+        for (ClassDef classDef: new DexRewriter(module).rewriteDexFile(dexFile).getClasses()) {
+            dexBuilder.internClassDef(classDef);
+        }
+        return DexBuilderMergeTest.write(dexBuilder);
+    }
+
+    private static byte[] rewriteStreaming(DexBackedDexFile dexFile, RewriterModule module) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            MemoryDataStore dataStore = new MemoryDataStore();
+            // a small batch size, so the classes are spread over many batches
+            new StreamingDexRewriter(module, 7).rewriteTo(dexFile, dataStore, executor);
+            return dataStore.getData();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testStreamingRewriteIsByteIdentical() throws Exception {
+        DexBackedDexFile dexFile = buildDex();
+        RewriterModule renameModule = new RewriterModule() {
+            @Nonnull @Override public Rewriter<String> getTypeRewriter(@Nonnull Rewriters rewriters) {
+                return new Rewriter<String>() {
+                    @Nonnull @Override public String rewrite(@Nonnull String value) {
+                        return value.replace("Lcom/example/", "Lorg/example/");
+                    }
+                };
+            }
+        };
+
+        for (RewriterModule module: new RewriterModule[] { new RewriterModule(), renameModule }) {
+            byte[] expected = rewriteSequentially(dexFile, module);
+            assertTrue(Arrays.equals(expected, rewriteStreaming(dexFile, module)));
+        }
+
+        DexBackedDexFile renamed = new DexBackedDexFile(OPCODES, rewriteStreaming(dexFile, renameModule));
+        assertEquals(dexFile.getClassCount(), renamed.getClassCount());
+        assertNotNull(renamed.getClassByType("Lorg/example/p0/C0;"));
+        assertNull(renamed.getClassByType("Lcom/example/p0/C0;"));
+        for (int i = 0; i < renamed.getStringCount(); i++) {
+            assertFalse(renamed.getString(i), renamed.getString(i).contains("Lcom/example/"));
+        }
+    }
+
+    public void testFailingRewriterDoesNotHang() throws Exception {
+        final DexBackedDexFile dexFile = buildDex();
+        final RewriterModule failingModule = new RewriterModule() {
+            @Nonnull @Override public Rewriter<String> getTypeRewriter(@Nonnull Rewriters rewriters) {
+                return new Rewriter<String>() {
+                    @Nonnull @Override public String rewrite(@Nonnull String value) {
+                        if (value.contains("/C42;")) {
+                            throw new IllegalStateException("rewrite failed: " + value);
+                        }
+                        return value;
+                    }
+                };
+            }
+        };
+
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            // one class per batch, so batches are still queued and in flight when the failure is seen
+            Future<?> rewrite = caller.submit(new Runnable() {
+                @Override public void run() {
+                    try {
+                        new StreamingDexRewriter(failingModule, 1).rewrite(dexFile, new DexBuilder(OPCODES),
+                                executor);
+                    } catch (java.io.IOException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+            });
+            try {
+                rewrite.get(60, TimeUnit.SECONDS);
+                fail("IllegalStateException expected");
+            } catch (ExecutionException ex) {
+                assertTrue(ex.getCause() instanceof IllegalStateException);
+                assertTrue(ex.getCause().getMessage().contains("/C42;"));
+            }
+        } finally {
+            caller.shutdownNow();
+            executor.shutdownNow();
+        }
+    }
+}
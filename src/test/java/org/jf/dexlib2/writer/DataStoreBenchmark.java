@@ -0,0 +1,127 @@
+package org.jf.dexlib2.writer;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.DexFileFactory;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.builder.MethodImplementationBuilder;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction10x;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction21c;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.Annotation;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.writer.builder.BuilderMethod;
+import org.jf.dexlib2.writer.builder.DexBuilder;
+import org.jf.dexlib2.writer.io.ChunkedMemoryDataStore;
+import org.jf.dexlib2.writer.io.DexDataStore;
+import org.jf.dexlib2.writer.io.FileChannelDataStore;
+import org.jf.dexlib2.writer.io.FileDataStore;
+import org.jf.dexlib2.writer.io.MemoryDataStore;
+import org.jf.dexlib2.writer.pool.DexPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+/**
+ * Writes a large DexPool to each data store implementation.
+ * Usage: DataStoreBenchmark [dexFile|-] [rounds]
+ */
+public class DataStoreBenchmark {
+
+    private static final Opcodes OPCODES = Opcodes.forApi(26);
+
+    private interface StoreFactory {
+        DexDataStore create(File file, int estimatedSize) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        DexBackedDexFile dexFile = args.length > 0 && !"-".equals(args[0]) ?
+                DexFileFactory.loadDexFile(new File(args[0]), OPCODES) : generate(40000);
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        File file = File.createTempFile("benchmark", ".dex");
+        try {
+            MemoryDataStore sizing = new MemoryDataStore();
+            pool(dexFile).writeTo(sizing);
+            final int size = sizing.readBuffer(32, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+            System.out.println("classes=" + dexFile.getClassCount() + ", dex size=" + size);
+
+            for (int pass = 0; pass < 2; pass++) {
+                String label = pass == 0 ? "warmup " : "";
+                run(label + "MemoryDataStore", dexFile, rounds, file, size, new StoreFactory() {
+                    @Override public DexDataStore create(File file, int estimatedSize) {
+                        return new MemoryDataStore();
+                    }
+                });
+                run(label + "ChunkedMemoryDataStore", dexFile, rounds, file, size, new StoreFactory() {
+                    @Override public DexDataStore create(File file, int estimatedSize) {
+                        return new ChunkedMemoryDataStore();
+                    }
+                });
+                run(label + "FileDataStore", dexFile, rounds, file, size, new StoreFactory() {
+                    @Override public DexDataStore create(File file, int estimatedSize) throws IOException {
+                        return new FileDataStore(file);
+                    }
+                });
+                run(label + "FileChannelDataStore", dexFile, rounds, file, size, new StoreFactory() {
+                    @Override public DexDataStore create(File file, int estimatedSize) throws IOException {
+                        return new FileChannelDataStore(file);
+                    }
+                });
+                run(label + "FileChannelDataStore, mapped", dexFile, rounds, file, size, new StoreFactory() {
+                    @Override public DexDataStore create(File file, int estimatedSize) throws IOException {
+                        return new FileChannelDataStore(file, estimatedSize);
+                    }
+                });
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static DexPool pool(DexBackedDexFile dexFile) {
+        DexPool dexPool = new DexPool(OPCODES);
+        for (ClassDef classDef: dexFile.getClasses()) {
+            dexPool.internClass(classDef);
+        }
+        return dexPool;
+    }
+
+    private static void run(String label, DexBackedDexFile dexFile, int rounds, File file, int size,
+                            StoreFactory factory) throws Exception {
+        long elapsed = 0;
+        for (int round = 0; round < rounds; round++) {
+            DexPool dexPool = pool(dexFile);
+            long start = System.nanoTime();
+            dexPool.writeTo(factory.create(file, size));
+            elapsed += System.nanoTime() - start;
+        }
+        System.out.println(String.format("%-40s %8.1f ms/write", label, elapsed / 1e6 / rounds));
+    }
+
+    private static DexBackedDexFile generate(int classes) throws Exception {
+        DexBuilder dexBuilder = new DexBuilder(OPCODES);
+        for (int i = 0; i < classes; i++) {
+            String type = "Lcom/example/app/feature" + (i % 50) + "/impl/GeneratedComponent" + i + ";";
+
+            MethodImplementationBuilder implementation = new MethodImplementationBuilder(1);
+            implementation.addInstruction(new BuilderInstruction21c(Opcode.CONST_STRING, 0,
+                    dexBuilder.internStringReference("message for component " + i)));
+            implementation.addInstruction(new BuilderInstruction10x(Opcode.RETURN_VOID));
+
+            BuilderMethod method = dexBuilder.internMethod(type, "run", null, "V", AccessFlags.PUBLIC.getValue(),
+                    ImmutableSet.<Annotation>of(), implementation.getMethodImplementation());
+            dexBuilder.internClassDef(type, AccessFlags.PUBLIC.getValue(), "Ljava/lang/Object;", null,
+                    "GeneratedComponent" + i + ".java", ImmutableSet.<Annotation>of(), null,
+                    ImmutableList.of(method));
+        }
+
+        MemoryDataStore dataStore = new MemoryDataStore();
+        dexBuilder.writeTo(dataStore);
+        return new DexBackedDexFile(OPCODES, dataStore.getData());
+    }
+
+}
@@ -0,0 +1,157 @@
+package org.jf.dexlib2.writer;
+
+import com.google.common.collect.ImmutableSet;
+import junit.framework.TestCase;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.Annotation;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.writer.builder.DexBuilder;
+import org.jf.dexlib2.writer.io.ChunkedMemoryDataStore;
+import org.jf.dexlib2.writer.io.DexDataStore;
+import org.jf.dexlib2.writer.io.FileChannelDataStore;
+import org.jf.dexlib2.writer.io.FileDataStore;
+import org.jf.dexlib2.writer.io.MemoryDataStore;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Adler32;
+
+public class DexWriterChecksumTest extends TestCase {
+
+    private static final Opcodes OPCODES = Opcodes.forApi(19);
+
+    private static DexBuilder build() throws Exception {
+        DexBuilder dexBuilder = new DexBuilder(OPCODES);
+        Random random = new Random(42);
+        for (int i = 0; i < 30; i++) {
+            // plenty of distinct string data, so the dex is larger than the read buffers
+            char[] chars = new char[20000];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = (char)('a' + random.nextInt(26));
+            }
+            dexBuilder.internClassDef("Lcom/example/Checksum" + i + ";", AccessFlags.PUBLIC.getValue(),
+                    "Ljava/lang/Object;", null, new String(chars), ImmutableSet.<Annotation>of(), null, null);
+        }
+        return dexBuilder;
+    }
+
+    private static byte[] trim(byte[] dex) {
+        return Arrays.copyOf(dex, ByteBuffer.wrap(dex).order(ByteOrder.LITTLE_ENDIAN).getInt(32));
+    }
+
+    public void testChecksumAndSignatureCoverFileSize() throws Exception {
+        // the capacity of the memory data store is larger than the dex file
+        MemoryDataStore memory = new MemoryDataStore(4 * 1024 * 1024);
+        build().writeTo(memory);
+        byte[] dex = trim(memory.getData());
+
+        Adler32 adler32 = new Adler32();
+        adler32.update(dex, 12, dex.length - 12);
+        assertEquals((int)adler32.getValue(), ByteBuffer.wrap(dex).order(ByteOrder.LITTLE_ENDIAN).getInt(8));
+
+        byte[] signature = MessageDigest.getInstance("SHA-1").digest(Arrays.copyOfRange(dex, 32, dex.length));
+        assertTrue(Arrays.equals(signature, Arrays.copyOfRange(dex, 12, 32)));
+
+        File file = File.createTempFile("checksum", ".dex");
+        try {
+            build().writeTo(new FileDataStore(file));
+            assertTrue(Arrays.equals(dex, Files.readAllBytes(file.toPath())));
+        } finally {
+            file.delete();
+        }
+
+        // a data store that can only be read back through streams
+        final MemoryDataStore streamed = new MemoryDataStore(16);
+        build().writeTo(new DexDataStore() {
+            @Nonnull @Override public OutputStream outputAt(int offset) { return streamed.outputAt(offset); }
+            @Nonnull @Override public InputStream readAt(int offset) { return streamed.readAt(offset); }
+            @Override public void close() throws IOException { }
+        });
+        assertTrue(Arrays.equals(dex, trim(streamed.getData())));
+
+        DexBackedDexFile dexFile = new DexBackedDexFile(OPCODES, dex);
+        int count = 0;
+        for (ClassDef ignored: dexFile.getClasses()) {
+            count++;
+        }
+        assertEquals(30, count);
+    }
+
+    public void testDataStoresWriteIdenticalDex() throws Exception {
+        MemoryDataStore memory = new MemoryDataStore();
+        build().writeTo(memory);
+        byte[] dex = trim(memory.getData());
+
+        ChunkedMemoryDataStore chunked = new ChunkedMemoryDataStore(4096);
+        build().writeTo(chunked);
+        assertEquals(dex.length, chunked.getSize());
+        assertTrue(Arrays.equals(dex, chunked.getData()));
+
+        for (int mappedSize: new int[] { 0, 1000, dex.length / 2, dex.length, dex.length * 2 }) {
+            File file = File.createTempFile("channel", ".dex");
+            try {
+                build().writeTo(new FileChannelDataStore(file, mappedSize));
+                assertTrue("mapped " + mappedSize, Arrays.equals(dex, Files.readAllBytes(file.toPath())));
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    public void testFileChannelDataStoreIsUnusableAfterClose() throws Exception {
+        File file = File.createTempFile("channel", ".dex");
+        try {
+            FileChannelDataStore dataStore = new FileChannelDataStore(file, 4096);
+            OutputStream output = dataStore.outputAt(0);
+            output.write(new byte[100]);
+            dataStore.close();
+            assertEquals(100, file.length());
+
+            try {
+                output.write(1);
+                fail("write after close");
+            } catch (IOException expected) {
+            }
+            try {
+                dataStore.readAt(0).read();
+                fail("read after close");
+            } catch (IOException expected) {
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testCombineAdler32() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            byte[] first = new byte[random.nextInt(100)];
+            byte[] second = new byte[random.nextInt(200000)];
+            random.nextBytes(first);
+            random.nextBytes(second);
+
+            Adler32 a1 = new Adler32();
+            a1.update(first);
+            Adler32 a2 = new Adler32();
+            a2.update(second);
+            Adler32 both = new Adler32();
+            both.update(first);
+            both.update(second);
+
+            assertEquals((int)both.getValue(),
+                    DexWriter.combineAdler32((int)a1.getValue(), (int)a2.getValue(), second.length));
+        }
+    }
+
+}
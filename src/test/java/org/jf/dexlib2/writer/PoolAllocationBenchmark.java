@@ -0,0 +1,112 @@
+package org.jf.dexlib2.writer;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.DexFileFactory;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.builder.MethodImplementationBuilder;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction10x;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction21c;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction35c;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.Annotation;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodReference;
+import org.jf.dexlib2.writer.builder.BuilderMethod;
+import org.jf.dexlib2.writer.builder.DexBuilder;
+import org.jf.dexlib2.writer.io.MemoryDataStore;
+import org.jf.dexlib2.writer.pool.DexPool;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures the retained heap of an interned DexPool and the allocations of DexPool.writeTo.
+ * Usage: PoolAllocationBenchmark [dexFile|-] [rounds]
+ */
+public class PoolAllocationBenchmark {
+
+    private static final Opcodes OPCODES = Opcodes.forApi(26);
+
+    public static void main(String[] args) throws Exception {
+        DexBackedDexFile dexFile = args.length > 0 && !"-".equals(args[0]) ?
+                DexFileFactory.loadDexFile(new File(args[0]), OPCODES) : generate(20000);
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        System.out.println("classes=" + dexFile.getClassCount() + ", strings=" + dexFile.getStringCount() +
+                ", methods=" + dexFile.getMethodCount());
+
+        for (int round = 0; round < rounds; round++) {
+            long heapBefore = usedHeap();
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            DexPool dexPool = new DexPool(OPCODES);
+            for (ClassDef classDef: dexFile.getClasses()) {
+                dexPool.internClass(classDef);
+            }
+            long internNanos = System.nanoTime() - start;
+            long internAllocated = allocatedBytes() - allocated;
+            long retained = usedHeap() - heapBefore;
+
+            allocated = allocatedBytes();
+            start = System.nanoTime();
+            dexPool.writeTo(new MemoryDataStore(32 * 1024 * 1024));
+            long writeNanos = System.nanoTime() - start;
+            long writeAllocated = allocatedBytes() - allocated;
+
+            System.out.println(String.format("intern %7.1f ms %8.1f MB allocated %8.1f MB retained | " +
+                            "writeTo %7.1f ms %8.1f MB allocated", internNanos / 1e6, internAllocated / 1e6,
+                    retained / 1e6, writeNanos / 1e6, writeAllocated / 1e6));
+            dexPool = null;
+        }
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean bean = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return bean.getHeapMemoryUsage().getUsed();
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static DexBackedDexFile generate(int classes) throws Exception {
+        DexBuilder dexBuilder = new DexBuilder(OPCODES);
+        for (int i = 0; i < classes; i++) {
+            String type = "Lcom/example/app/feature" + (i % 50) + "/impl/GeneratedComponent" + i + ";";
+
+            MethodImplementationBuilder implementation = new MethodImplementationBuilder(1);
+            implementation.addInstruction(new BuilderInstruction21c(Opcode.CONST_STRING, 0,
+                    dexBuilder.internStringReference("message for component " + i)));
+            implementation.addInstruction(new BuilderInstruction35c(Opcode.INVOKE_STATIC, 1, 0, 0, 0, 0, 0,
+                    dexBuilder.internMethodReference(new ImmutableMethodReference(
+                            "Lcom/example/app/logging/Logger" + (i % 100) + ";", "log" + i,
+                            ImmutableList.of("Ljava/lang/String;"), "V"))));
+            implementation.addInstruction(new BuilderInstruction10x(Opcode.RETURN_VOID));
+
+            BuilderMethod run = dexBuilder.internMethod(type, "run", null, "V", AccessFlags.PUBLIC.getValue(),
+                    ImmutableSet.<Annotation>of(), implementation.getMethodImplementation());
+            BuilderMethod stop = dexBuilder.internMethod(type, "stop" + (i % 10), null, "V",
+                    AccessFlags.PUBLIC.getValue() | AccessFlags.ABSTRACT.getValue(), ImmutableSet.<Annotation>of(),
+                    null);
+            dexBuilder.internClassDef(type, AccessFlags.PUBLIC.getValue() | AccessFlags.ABSTRACT.getValue(),
+                    "Ljava/lang/Object;", null, "GeneratedComponent" + i + ".java", ImmutableSet.<Annotation>of(),
+                    null, ImmutableList.of(run, stop));
+        }
+
+        MemoryDataStore dataStore = new MemoryDataStore();
+        dexBuilder.writeTo(dataStore);
+        return new DexBackedDexFile(OPCODES, dataStore.getData());
+    }
+
+}
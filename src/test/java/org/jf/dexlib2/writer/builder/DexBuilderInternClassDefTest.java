@@ -0,0 +1,81 @@
+package org.jf.dexlib2.writer.builder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import junit.framework.TestCase;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.builder.Label;
+import org.jf.dexlib2.builder.MethodImplementationBuilder;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction10x;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction11n;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction11x;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction21c;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction31t;
+import org.jf.dexlib2.builder.instruction.BuilderPackedSwitchPayload;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.Annotation;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.immutable.ImmutableMethodParameter;
+
+import java.util.Arrays;
+
+public class DexBuilderInternClassDefTest extends TestCase {
+
+    private static final Opcodes OPCODES = Opcodes.forApi(19);
+
+    /**
+     * A method with a try block, a switch payload and locals.
+     */
+    private static void internSwitchClass(DexBuilder dexBuilder) {
+        String type = "Lcom/example/Switch;";
+
+        MethodImplementationBuilder implementation = new MethodImplementationBuilder(3);
+        Label tryStart = implementation.addLabel("try_start");
+        implementation.addLineNumber(10);
+        implementation.addInstruction(new BuilderInstruction21c(Opcode.CONST_STRING, 0,
+                dexBuilder.internStringReference("switch")));
+        implementation.addStartLocal(0, dexBuilder.internStringReference("name"),
+                dexBuilder.internTypeReference("Ljava/lang/String;"), null);
+        implementation.addInstruction(new BuilderInstruction31t(Opcode.PACKED_SWITCH, 2,
+                implementation.getLabel("switch_data")));
+        implementation.addLabel("try_end");
+        implementation.addInstruction(new BuilderInstruction10x(Opcode.RETURN_VOID));
+        implementation.addLabel("case_0");
+        implementation.addInstruction(new BuilderInstruction11n(Opcode.CONST_4, 1, 1));
+        implementation.addInstruction(new BuilderInstruction10x(Opcode.RETURN_VOID));
+        implementation.addLabel("handler");
+        implementation.addInstruction(new BuilderInstruction11x(Opcode.MOVE_EXCEPTION, 1));
+        implementation.addInstruction(new BuilderInstruction10x(Opcode.RETURN_VOID));
+        implementation.addLabel("switch_data");
+        implementation.addInstruction(new BuilderPackedSwitchPayload(0,
+                ImmutableList.of(implementation.getLabel("case_0"), implementation.getLabel("handler"))));
+        implementation.addCatch(dexBuilder.internTypeReference("Ljava/lang/Exception;"), tryStart,
+                implementation.getLabel("try_end"), implementation.getLabel("handler"));
+
+        BuilderMethod method = dexBuilder.internMethod(type, "select",
+                ImmutableList.of(new ImmutableMethodParameter("I", ImmutableSet.<Annotation>of(), "index")),
+                "V", AccessFlags.PUBLIC.getValue() | AccessFlags.STATIC.getValue(), ImmutableSet.<Annotation>of(),
+                implementation.getMethodImplementation());
+
+        dexBuilder.internClassDef(type, AccessFlags.PUBLIC.getValue(), "Ljava/lang/Object;", null, "Switch.java",
+                ImmutableSet.<Annotation>of(), null, ImmutableList.of(method));
+    }
+
+    public void testInternClassDefIsByteIdentical() throws Exception {
+        DexBuilder dexBuilder = new DexBuilder(OPCODES);
+        for (int i = 0; i < 50; i++) {
+            DexBuilderMergeTest.internClass(dexBuilder, i);
+        }
+        internSwitchClass(dexBuilder);
+        byte[] expected = DexBuilderMergeTest.write(dexBuilder);
+
+        DexBuilder replayed = new DexBuilder(OPCODES);
+        for (ClassDef classDef: new DexBackedDexFile(OPCODES, expected).getClasses()) {
+            replayed.internClassDef(classDef);
+        }
+        assertTrue(Arrays.equals(expected, DexBuilderMergeTest.write(replayed)));
+    }
+
+}
@@ -0,0 +1,175 @@
+package org.jf.dexlib2.writer.builder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import junit.framework.TestCase;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.AnnotationVisibility;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.builder.MethodImplementationBuilder;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction10x;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction21c;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction35c;
+import org.jf.dexlib2.iface.Annotation;
+import org.jf.dexlib2.immutable.ImmutableAnnotation;
+import org.jf.dexlib2.immutable.ImmutableAnnotationElement;
+import org.jf.dexlib2.immutable.ImmutableMethodParameter;
+import org.jf.dexlib2.immutable.reference.ImmutableFieldReference;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodReference;
+import org.jf.dexlib2.immutable.value.ImmutableArrayEncodedValue;
+import org.jf.dexlib2.immutable.value.ImmutableIntEncodedValue;
+import org.jf.dexlib2.immutable.value.ImmutableStringEncodedValue;
+import org.jf.dexlib2.iface.value.EncodedValue;
+import org.jf.dexlib2.writer.io.MemoryDataStore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class DexBuilderMergeTest extends TestCase {
+
+    private static final Opcodes OPCODES = Opcodes.forApi(19);
+    private static final int CLASS_COUNT = 300;
+
+    /**
+     * Interns a class sharing strings, types, protos, type lists and annotations with the other classes.
+     */
+    public static void internClass(DexBuilder dexBuilder, int i) {
+        String type = "Lcom/example/p" + (i % 5) + "/C" + i + ";";
+        String superclass = i % 4 == 0 ? "Ljava/lang/Object;" : "Lcom/example/Base" + (i % 3) + ";";
+        List<String> interfaces = i % 3 == 0 ? Lists.newArrayList("Ljava/io/Serializable;", "Ljava/lang/Runnable;") :
+                Lists.newArrayList("Ljava/lang/Runnable;");
+
+        Set<Annotation> annotations = ImmutableSet.<Annotation>of(
+                new ImmutableAnnotation(AnnotationVisibility.RUNTIME, "Lcom/example/Marker;",
+                        ImmutableList.of(
+                                new ImmutableAnnotationElement("value", new ImmutableStringEncodedValue("v" + (i % 4))),
+                                new ImmutableAnnotationElement("ids", new ImmutableArrayEncodedValue(
+                                        ImmutableList.<EncodedValue>of(new ImmutableIntEncodedValue(i % 2),
+                                                new ImmutableIntEncodedValue(7)))))));
+
+        BuilderField field = dexBuilder.internField(type, "count", "I",
+                AccessFlags.PRIVATE.getValue() | AccessFlags.STATIC.getValue(),
+                new ImmutableIntEncodedValue(i), ImmutableSet.<Annotation>of());
+
+        MethodImplementationBuilder implementation = new MethodImplementationBuilder(3);
+        implementation.addLineNumber(i + 1);
+        implementation.addInstruction(new BuilderInstruction21c(Opcode.CONST_STRING, 0,
+                dexBuilder.internStringReference("message " + (i % 7))));
+        implementation.addStartLocal(0, dexBuilder.internStringReference("msg"),
+                dexBuilder.internTypeReference("Ljava/lang/String;"), null);
+        implementation.addInstruction(new BuilderInstruction21c(Opcode.SGET, 1,
+                dexBuilder.internFieldReference(new ImmutableFieldReference(type, "count", "I"))));
+        implementation.addInstruction(new BuilderInstruction35c(Opcode.INVOKE_STATIC, 2, 0, 1, 0, 0, 0,
+                dexBuilder.internMethodReference(new ImmutableMethodReference("Lcom/example/Util;", "log",
+                        ImmutableList.of("Ljava/lang/String;", "I"), "V"))));
+        implementation.addInstruction(new BuilderInstruction10x(Opcode.RETURN_VOID));
+
+        BuilderMethod method = dexBuilder.internMethod(type, "run",
+                ImmutableList.of(new ImmutableMethodParameter("Ljava/lang/String;", ImmutableSet.<Annotation>of(), "name")),
+                "V", AccessFlags.PUBLIC.getValue(), i % 2 == 0 ? annotations : ImmutableSet.<Annotation>of(),
+                implementation.getMethodImplementation());
+
+        dexBuilder.internClassDef(type, AccessFlags.PUBLIC.getValue(), superclass, interfaces, "C" + i + ".java",
+                annotations, ImmutableList.of(field), ImmutableList.of(method));
+    }
+
+    public static byte[] write(DexBuilder dexBuilder) throws Exception {
+        MemoryDataStore dataStore = new MemoryDataStore();
+        dexBuilder.writeTo(dataStore);
+        return dataStore.getData();
+    }
+
+    private static byte[] writeSingle() throws Exception {
+        DexBuilder dexBuilder = new DexBuilder(OPCODES);
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            internClass(dexBuilder, i);
+        }
+        return write(dexBuilder);
+    }
+
+    public void testMergeIsByteIdentical() throws Exception {
+        byte[] expected = writeSingle();
+
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            order.add(i);
+        }
+        Collections.reverse(order);
+
+        List<DexBuilder> stagingBuilders = new ArrayList<DexBuilder>();
+        for (int i = 0; i < 4; i++) {
+            stagingBuilders.add(new DexBuilder(OPCODES));
+        }
+        for (int i: order) {
+            internClass(stagingBuilders.get(i % stagingBuilders.size()), i);
+        }
+
+        DexBuilder dexBuilder = new DexBuilder(OPCODES);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            dexBuilder.merge(stagingBuilders, executor);
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(Arrays.equals(expected, write(dexBuilder)));
+    }
+
+    public void testConcurrentStagingIsByteIdentical() throws Exception {
+        byte[] expected = writeSingle();
+
+        final int threads = 8;
+        final List<DexBuilder> stagingBuilders = new ArrayList<DexBuilder>();
+        for (int i = 0; i < threads; i++) {
+            stagingBuilders.add(new DexBuilder(OPCODES));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Runnable() {
+                    @Override public void run() {
+                        for (int i = thread; i < CLASS_COUNT; i += threads) {
+                            internClass(stagingBuilders.get(thread), i);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future: futures) {
+                future.get();
+            }
+
+            DexBuilder dexBuilder = new DexBuilder(OPCODES);
+            dexBuilder.merge(stagingBuilders, executor);
+            assertTrue(Arrays.equals(expected, write(dexBuilder)));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testDuplicateClassIsRejected() throws Exception {
+        DexBuilder staging1 = new DexBuilder(OPCODES);
+        DexBuilder staging2 = new DexBuilder(OPCODES);
+        internClass(staging1, 1);
+        internClass(staging2, 1);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            new DexBuilder(OPCODES).merge(ImmutableList.of(staging1, staging2), executor);
+            fail("duplicate class expected");
+        } catch (java.util.concurrent.ExecutionException expected) {
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,186 @@
+package org.jf.dexlib2.writer.builder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import junit.framework.TestCase;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.builder.Label;
+import org.jf.dexlib2.builder.MethodImplementationBuilder;
+import org.jf.dexlib2.builder.instruction.BuilderArrayPayload;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction10x;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction11n;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction11x;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction21c;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction22c;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction31t;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction35c;
+import org.jf.dexlib2.builder.instruction.BuilderPackedSwitchPayload;
+import org.jf.dexlib2.dexbacked.BaseDexBuffer;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.dexbacked.raw.HeaderItem;
+import org.jf.dexlib2.iface.Annotation;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.immutable.ImmutableMethodParameter;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodReference;
+import org.jf.dexlib2.writer.io.MemoryDataStore;
+import org.jf.dexlib2.writer.pool.DexPool;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class DexWriterParallelTest extends TestCase {
+
+    private static final Opcodes OPCODES = Opcodes.forApi(19);
+
+    /**
+     * Builds classes aimed at the chunked code item writer. The first class in sort order is an interface with more
+     * abstract methods than a chunk, so the first chunk has no code at all. The methods after it have random
+     * lengths, so chunks end on code items of both 2 and 4 byte aligned sizes, and mix try blocks with typed and
+     * catch-all handlers, switch and array payloads, debug items with and without locals and no debug items at
+     * all. More than 65536 strings make the const-string instructions that reference the last ones jumbo.
+     */
+    private static DexBuilder build() {
+        DexBuilder dexBuilder = new DexBuilder(OPCODES);
+        Random random = new Random(17);
+
+        List<BuilderMethod> abstractMethods = Lists.newArrayList();
+        for (int i = 0; i < 2100; i++) {
+            abstractMethods.add(dexBuilder.internMethod("La/Abstract;", "run" + i, null, "V",
+                    AccessFlags.PUBLIC.getValue() | AccessFlags.ABSTRACT.getValue(), ImmutableSet.<Annotation>of(),
+                    null));
+        }
+        dexBuilder.internClassDef("La/Abstract;", AccessFlags.PUBLIC.getValue() | AccessFlags.INTERFACE.getValue() |
+                AccessFlags.ABSTRACT.getValue(), "Ljava/lang/Object;", null, null, ImmutableSet.<Annotation>of(),
+                null, abstractMethods);
+
+        for (int i = 0; i < 66000; i++) {
+            dexBuilder.internStringReference(String.format("filler%05d", i));
+        }
+
+        BuilderTypeReference exceptionType = dexBuilder.internTypeReference("Ljava/lang/Exception;");
+        BuilderMethodReference log = dexBuilder.internMethodReference(new ImmutableMethodReference(
+                "Lcom/example/Util;", "log", ImmutableList.of("Ljava/lang/String;"), "V"));
+        for (int c = 0; c < 600; c++) {
+            String type = "Lcom/example/Code" + c + ";";
+            List<BuilderMethod> methods = Lists.newArrayList();
+            for (int m = 0; m < 5; m++) {
+                // v0-v2 are locals, v3 is the int parameter
+                MethodImplementationBuilder implementation = new MethodImplementationBuilder(4);
+                boolean debug = random.nextInt(4) != 0;
+                if (debug) {
+                    implementation.addLineNumber(c * 10 + m + 1);
+                }
+                for (int k = random.nextInt(6); k > 0; k--) {
+                    implementation.addInstruction(new BuilderInstruction11n(Opcode.CONST_4, 0, k));
+                }
+                if (debug && random.nextBoolean()) {
+                    implementation.addStartLocal(0, dexBuilder.internStringReference("x"),
+                            dexBuilder.internTypeReference("I"), null);
+                }
+                switch (random.nextInt(4)) {
+                    case 0: {
+                        Label tryStart = implementation.addLabel("tryStart");
+                        implementation.addInstruction(new BuilderInstruction21c(Opcode.CONST_STRING, 1,
+                                dexBuilder.internStringReference("zz" + (c * 5 + m) % 97)));
+                        implementation.addInstruction(new BuilderInstruction35c(Opcode.INVOKE_STATIC, 1, 1, 0, 0, 0,
+                                0, log));
+                        Label tryEnd = implementation.addLabel("tryEnd");
+                        implementation.addInstruction(new BuilderInstruction10x(Opcode.RETURN_VOID));
+                        implementation.addCatch(exceptionType, tryStart, tryEnd,
+                                implementation.getLabel("handler"));
+                        if (random.nextBoolean()) {
+                            implementation.addCatch(tryStart, tryEnd, implementation.getLabel("handler"));
+                        }
+                        implementation.addLabel("handler");
+                        implementation.addInstruction(new BuilderInstruction11x(Opcode.MOVE_EXCEPTION, 2));
+                        break;
+                    }
+                    case 1: {
+                        List<Label> targets = Lists.newArrayList();
+                        for (int k = 0; k < 3; k++) {
+                            targets.add(implementation.getLabel("case" + k));
+                        }
+                        implementation.addInstruction(new BuilderInstruction31t(Opcode.PACKED_SWITCH, 3,
+                                implementation.getLabel("switch")));
+                        for (int k = 0; k < 3; k++) {
+                            implementation.addLabel("case" + k);
+                            implementation.addInstruction(new BuilderInstruction11n(Opcode.CONST_4, 0, k));
+                        }
+                        implementation.addInstruction(new BuilderInstruction10x(Opcode.RETURN_VOID));
+                        implementation.addLabel("switch");
+                        implementation.addInstruction(new BuilderPackedSwitchPayload(m, targets));
+                        break;
+                    }
+                    case 2: {
+                        implementation.addInstruction(new BuilderInstruction22c(Opcode.NEW_ARRAY, 1, 3,
+                                dexBuilder.internTypeReference("[I")));
+                        implementation.addInstruction(new BuilderInstruction31t(Opcode.FILL_ARRAY_DATA, 1,
+                                implementation.getLabel("array")));
+                        implementation.addInstruction(new BuilderInstruction10x(Opcode.RETURN_VOID));
+                        implementation.addLabel("array");
+                        List<Number> elements = Lists.newArrayList();
+                        for (int k = random.nextInt(5); k >= 0; k--) {
+                            elements.add(k * c);
+                        }
+                        implementation.addInstruction(new BuilderArrayPayload(4, elements));
+                        break;
+                    }
+                    default:
+                        break;
+                }
+                implementation.addInstruction(new BuilderInstruction10x(Opcode.RETURN_VOID));
+
+                methods.add(dexBuilder.internMethod(type, "run" + m, ImmutableList.of(
+                        new ImmutableMethodParameter("I", ImmutableSet.<Annotation>of(), debug ? "value" : null)),
+                        "V", AccessFlags.PUBLIC.getValue() | AccessFlags.STATIC.getValue(),
+                        ImmutableSet.<Annotation>of(), implementation.getMethodImplementation()));
+            }
+            dexBuilder.internClassDef(type, AccessFlags.PUBLIC.getValue(), "Ljava/lang/Object;", null, null,
+                    ImmutableSet.<Annotation>of(), null, methods);
+        }
+        return dexBuilder;
+    }
+
+    /**
+     * The bytes of the dex file, without the unused capacity of the buffer, which depends on the order of the writes
+     */
+    private static byte[] getDexData(MemoryDataStore dataStore) {
+        byte[] data = dataStore.getData();
+        return Arrays.copyOf(data, new BaseDexBuffer(data).readSmallUint(HeaderItem.FILE_SIZE_OFFSET));
+    }
+
+    public void testParallelWriteIsByteIdentical() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            MemoryDataStore expectedData = new MemoryDataStore();
+            build().writeTo(expectedData);
+            byte[] expected = getDexData(expectedData);
+
+            MemoryDataStore dataStore = new MemoryDataStore();
+            build().writeTo(dataStore, executor);
+            assertTrue(Arrays.equals(expected, getDexData(dataStore)));
+
+            DexBackedDexFile dexFile = new DexBackedDexFile(OPCODES, expected);
+            DexPool sequential = new DexPool(OPCODES);
+            DexPool parallel = new DexPool(OPCODES);
+            for (ClassDef classDef: dexFile.getClasses()) {
+                sequential.internClass(classDef);
+                parallel.internClass(classDef);
+            }
+            MemoryDataStore sequentialData = new MemoryDataStore();
+            sequential.writeTo(sequentialData);
+            MemoryDataStore parallelData = new MemoryDataStore();
+            parallel.writeTo(parallelData, executor);
+            assertTrue(Arrays.equals(getDexData(sequentialData), getDexData(parallelData)));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package org.jf.dexlib2.writer.pool;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+import junit.framework.TestCase;
+import org.jf.dexlib2.writer.IntEntry;
+import org.jf.dexlib2.writer.SortableEntries;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class InternTableTest extends TestCase {
+
+    public void testAddFindAndValues() {
+        InternTable<String> table = new InternTable<String>();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(table.add("item" + i));
+        }
+        assertFalse(table.add("item500"));
+        assertEquals(1000, table.size());
+
+        int index = 0;
+        for (IntEntry<String> entry: table.entries()) {
+            assertEquals("item" + index, entry.getKey());
+            entry.setIntValue(index * 3);
+            index++;
+        }
+        assertEquals(1000, index);
+
+        for (int i = 0; i < 1000; i++) {
+            int position = table.find("item" + i);
+            assertEquals(i, position);
+            assertEquals(i * 3, table.getValue(position));
+        }
+        assertEquals(-1, table.find("missing"));
+        assertEquals(-1, table.find(null));
+    }
+
+    /**
+     * Truncating removes keys from the middle of probe sequences, which must not hide the keys that remain.
+     */
+    public void testTruncate() {
+        Random random = new Random(42);
+        InternTable<Integer> table = new InternTable<Integer>();
+        List<Integer> expected = Lists.newArrayList();
+
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 200; i++) {
+                // small keys with colliding hashes, so probe sequences get long
+                Integer key = random.nextInt(4000) * 64;
+                assertEquals(!expected.contains(key), table.add(key));
+                if (!expected.contains(key)) {
+                    expected.add(key);
+                }
+            }
+
+            int newSize = random.nextInt(expected.size() + 1);
+            table.truncate(newSize);
+            expected = Lists.newArrayList(expected.subList(0, newSize));
+
+            assertEquals(expected.size(), table.size());
+            for (int position = 0; position < expected.size(); position++) {
+                assertEquals(position, table.find(expected.get(position)));
+            }
+            assertEquals(expected, Lists.newArrayList(table.keys()));
+        }
+    }
+
+    public void testSortedEntries() {
+        Random random = new Random(7);
+        InternTable<String> table = new InternTable<String>();
+        List<String> expected = Lists.newArrayList();
+        for (int i = 0; i < 500; i++) {
+            String key = Integer.toString(random.nextInt(100000), 36);
+            if (table.add(key)) {
+                expected.add(key);
+            }
+        }
+        Collections.sort(expected);
+
+        List<String> sorted = Lists.newArrayList();
+        int index = 0;
+        for (IntEntry<String> entry: ((SortableEntries<String>)table.entries()).sortedEntries(
+                Ordering.<String>natural())) {
+            sorted.add(entry.getKey());
+            entry.setIntValue(index++);
+        }
+        assertEquals(expected, sorted);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(i, table.getValue(table.find(expected.get(i))));
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.jf.dexlib2.writer.pool;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import junit.framework.TestCase;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.DexFileFactory;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.builder.MethodImplementationBuilder;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction10x;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction35c;
+import org.jf.dexlib2.dexbacked.DexBackedClassDef;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.Annotation;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodReference;
+import org.jf.dexlib2.writer.builder.BuilderClassDef;
+import org.jf.dexlib2.writer.builder.BuilderMethod;
+import org.jf.dexlib2.writer.builder.DexBuilder;
+
+import java.io.File;
+import java.util.List;
+import java.util.Set;
+
+public class MultiDexPoolTest extends TestCase {
+
+    private static final Opcodes OPCODES = Opcodes.forApi(21);
+
+    /**
+     * 70 classes calling 1000 methods each, more method references than a single dex can hold.
+     */
+    private static DexBuilder buildOverflowingDex() {
+        DexBuilder dexBuilder = new DexBuilder(OPCODES);
+        for (int i = 0; i < 70; i++) {
+            String type = "Lcom/example/Caller" + i + ";";
+
+            MethodImplementationBuilder implementation = new MethodImplementationBuilder(0);
+            for (int j = 0; j < 1000; j++) {
+                implementation.addInstruction(new BuilderInstruction35c(Opcode.INVOKE_STATIC, 0, 0, 0, 0, 0, 0,
+                        dexBuilder.internMethodReference(new ImmutableMethodReference(
+                                "Lcom/example/Callee" + i + ";", "call" + j, ImmutableList.<String>of(), "V"))));
+            }
+            implementation.addInstruction(new BuilderInstruction10x(Opcode.RETURN_VOID));
+
+            BuilderMethod method = dexBuilder.internMethod(type, "run", null, "V",
+                    AccessFlags.PUBLIC.getValue() | AccessFlags.STATIC.getValue(), ImmutableSet.<Annotation>of(),
+                    implementation.getMethodImplementation());
+            dexBuilder.internClassDef(type, AccessFlags.PUBLIC.getValue(), "Ljava/lang/Object;", null, null,
+                    ImmutableSet.<Annotation>of(), null, ImmutableList.of(method));
+        }
+        return dexBuilder;
+    }
+
+    public void testSplitOnMethodReferenceOverflow() throws Exception {
+        DexBuilder dexBuilder = buildOverflowingDex();
+        assertTrue(dexBuilder.hasOverflowed());
+
+        MultiDexPool multiDexPool = new MultiDexPool(OPCODES);
+        Set<String> expected = Sets.newHashSet();
+        for (BuilderClassDef classDef: dexBuilder.classSection.getSortedClasses()) {
+            multiDexPool.internClass(classDef);
+            expected.add(classDef.getType());
+        }
+
+        List<DexPool> dexPools = multiDexPool.getDexPools();
+        assertEquals(2, dexPools.size());
+        for (DexPool dexPool: dexPools) {
+            assertFalse(dexPool.hasOverflowed());
+        }
+
+        File dir = File.createTempFile("multidex", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        try {
+            // left over from an earlier output with more dex files
+            File stale3 = new File(dir, "classes3.dex");
+            File stale4 = new File(dir, "classes4.dex");
+            assertTrue(stale3.createNewFile() && stale4.createNewFile());
+
+            List<File> files = multiDexPool.writeTo(new File(dir, "classes.dex"), null);
+            assertEquals(ImmutableList.of(new File(dir, "classes.dex"), new File(dir, "classes2.dex")), files);
+            assertFalse(stale3.exists());
+            assertFalse(stale4.exists());
+
+            Set<String> written = Sets.newHashSet();
+            for (File file: files) {
+                DexBackedDexFile dexFile = DexFileFactory.loadDexFile(file, OPCODES);
+                assertTrue(dexFile.getMethodCount() <= 65536);
+                for (DexBackedClassDef classDef: dexFile.getClasses()) {
+                    assertTrue(written.add(classDef.getType()));
+                }
+                dexFile.unsafeUnmap();
+            }
+            assertEquals(expected, written);
+        } finally {
+            for (File file: dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    public void testDexFileNames() {
+        File primary = new File("out", "app.dex");
+        assertEquals(primary, MultiDexPool.getDexFile(primary, 0));
+        assertEquals(new File("out", "app2.dex"), MultiDexPool.getDexFile(primary, 1));
+        assertEquals(new File("out", "app3.dex"), MultiDexPool.getDexFile(primary, 2));
+    }
+}